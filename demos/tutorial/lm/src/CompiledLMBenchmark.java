@@ -0,0 +1,82 @@
+import com.aliasi.lm.CompiledNGramProcessLM;
+import com.aliasi.lm.NGramProcessLM;
+
+import com.aliasi.util.Files;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+// args: trainDir testDir maxNGram minDenseFanout numPasses
+public class CompiledLMBenchmark {
+
+    public static void main(String[] args)
+        throws ClassNotFoundException, IOException {
+
+        File trainDir = new File(args[0]);
+        File testDir = new File(args[1]);
+        int maxNGram = Integer.parseInt(args[2]);
+        int minDenseFanout = Integer.parseInt(args[3]);
+        int numPasses = Integer.parseInt(args[4]);
+
+        NGramProcessLM lm = new NGramProcessLM(maxNGram,256);
+        for (File file : trainDir.listFiles())
+            lm.train(Files.readFromFile(file,"ISO-8859-1"));
+        char[][] tests = readTexts(testDir);
+        long numChars = 0;
+        for (char[] cs : tests)
+            numChars += cs.length;
+
+        CompiledNGramProcessLM binaryLm = compile(lm,0);
+        CompiledNGramProcessLM denseLm = compile(lm,minDenseFanout);
+        System.out.println("Max n-gram=" + maxNGram
+                           + " nodes=" + binaryLm.numNodes()
+                           + " test chars=" + numChars
+                           + " passes=" + numPasses);
+
+        // alternate to even out JIT and cache effects
+        for (int round = 0; round < 3; ++round) {
+            report("binary search",binaryLm,tests,numChars,numPasses);
+            report("dense fanout>=" + minDenseFanout,
+                   denseLm,tests,numChars,numPasses);
+        }
+    }
+
+    static void report(String name, CompiledNGramProcessLM lm,
+                       char[][] tests, long numChars, int numPasses) {
+        double sum = 0.0;
+        long start = System.nanoTime();
+        for (int pass = 0; pass < numPasses; ++pass)
+            for (char[] cs : tests)
+                sum += lm.log2Estimate(cs,0,cs.length);
+        double seconds = (System.nanoTime() - start) / 1.0e9;
+        double charsPerSec = numChars * (double) numPasses / seconds;
+        System.out.printf("%-20s %12.0f chars/sec   log2 P=%.1f%n",
+                          name, charsPerSec, sum / numPasses);
+    }
+
+    static CompiledNGramProcessLM compile(NGramProcessLM lm, int minDenseFanout)
+        throws ClassNotFoundException, IOException {
+
+        ByteArrayOutputStream bytesOut = new ByteArrayOutputStream();
+        ObjectOutputStream objOut = new ObjectOutputStream(bytesOut);
+        lm.compileTo(objOut,minDenseFanout);
+        objOut.close();
+        ByteArrayInputStream bytesIn
+            = new ByteArrayInputStream(bytesOut.toByteArray());
+        ObjectInputStream objIn = new ObjectInputStream(bytesIn);
+        return (CompiledNGramProcessLM) objIn.readObject();
+    }
+
+    static char[][] readTexts(File dir) throws IOException {
+        File[] files = dir.listFiles();
+        char[][] texts = new char[files.length][];
+        for (int i = 0; i < files.length; ++i)
+            texts[i] = Files.readFromFile(files[i],"ISO-8859-1").toCharArray();
+        return texts;
+    }
+
+}
@@ -0,0 +1,84 @@
+import com.aliasi.lm.CompiledNGramProcessLM;
+import com.aliasi.lm.NGramProcessLM;
+
+import com.aliasi.util.Files;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+// args: trainDir testDir maxNGram
+public class QuantizedLMEval {
+
+    public static void main(String[] args)
+        throws ClassNotFoundException, IOException {
+
+        File trainDir = new File(args[0]);
+        File testDir = new File(args[1]);
+        int maxNGram = Integer.parseInt(args[2]);
+
+        NGramProcessLM lm = new NGramProcessLM(maxNGram,256);
+        for (File file : trainDir.listFiles())
+            lm.train(Files.readFromFile(file,"ISO-8859-1"));
+        char[][] tests = CompiledLMBenchmark.readTexts(testDir);
+        long numChars = 0;
+        for (char[] cs : tests)
+            numChars += cs.length;
+
+        byte[] plainBytes = compile(lm,0);
+        double plainEntropy = crossEntropy(read(plainBytes),tests,numChars);
+        System.out.println("Max n-gram=" + maxNGram
+                           + " nodes=" + read(plainBytes).numNodes()
+                           + " test chars=" + numChars);
+        System.out.printf("%-10s %12s %8s %14s %12s%n",
+                          "bits","bytes","ratio","bits/char","delta");
+        report("float",plainBytes.length,plainBytes.length,
+               plainEntropy,plainEntropy);
+        for (int numBits : new int[] { 16, 12, 8, 6, 4 }) {
+            byte[] bytes = compile(lm,numBits);
+            double entropy = crossEntropy(read(bytes),tests,numChars);
+            report(Integer.toString(numBits),bytes.length,plainBytes.length,
+                   entropy,plainEntropy);
+        }
+    }
+
+    static void report(String name, int numBytes, int plainBytes,
+                       double entropy, double plainEntropy) {
+        System.out.printf("%-10s %12d %8.2f %14.5f %12.5f%n",
+                          name, numBytes,
+                          plainBytes / (double) numBytes,
+                          entropy, entropy - plainEntropy);
+    }
+
+    static double crossEntropy(CompiledNGramProcessLM lm,
+                               char[][] tests, long numChars) {
+        double sum = 0.0;
+        for (char[] cs : tests)
+            sum += lm.log2Estimate(cs,0,cs.length);
+        return -sum / numChars;
+    }
+
+    // numBits=0 for unquantized
+    static byte[] compile(NGramProcessLM lm, int numBits) throws IOException {
+        ByteArrayOutputStream bytesOut = new ByteArrayOutputStream();
+        ObjectOutputStream objOut = new ObjectOutputStream(bytesOut);
+        if (numBits == 0)
+            lm.compileTo(objOut,8);
+        else
+            lm.compileQuantizedTo(objOut,8,numBits);
+        objOut.close();
+        return bytesOut.toByteArray();
+    }
+
+    static CompiledNGramProcessLM read(byte[] bytes)
+        throws ClassNotFoundException, IOException {
+
+        ObjectInputStream objIn
+            = new ObjectInputStream(new ByteArrayInputStream(bytes));
+        return (CompiledNGramProcessLM) objIn.readObject();
+    }
+
+}
@@ -29,6 +29,8 @@ import java.io.ObjectInput;
 import java.io.ObjectOutput;
 import java.io.Serializable;
 
+import java.util.Arrays;
+
 
 /**
  * A {@code BigVectorClassifier} provides an efficient linear
@@ -55,10 +57,47 @@ import java.io.Serializable;
  * maps from categories to values for features are very sparse, this
  * saves significant time over multiplying the input by each category's
  * vector representation.
-
- * <p>This class uses a custom heap to efficiently merge the features
- * for each category, and a bounded priority queue for collecting
- * n-best results.
+ *
+ * <h3>Top-N Pruning</h3>
+ *
+ * <p>Only the top N categories are returned, so most categories
+ * need not be scored at all.  For each feature, the largest and
+ * smallest values over categories are stored, from which an upper
+ * bound on the feature's contribution to any category's score
+ * follows given the input's value for the feature.  Categories are
+ * visited in increasing order of identifier using the weak-AND (WAND)
+ * traversal of Broder et al. (2003).  Once N results have been found,
+ * the features are ordered by their next category, and their upper
+ * bounds summed in that order until they exceed the score of the
+ * N-th best result so far.  The category where this happens, the
+ * pivot, is the first that might make the top N.
+ *
+ * <p>The bound is then tightened using the largest and smallest
+ * values within the block of categories containing the pivot for
+ * each feature, following Ding and Suel (2011).  If even the block
+ * bounds cannot exceed the N-th best score, every category up to the
+ * end of the nearest block is passed over.  Otherwise, the features
+ * positioned before the pivot skip directly to it, and it is scored
+ * once they all reach it.
+ *
+ * <p>A category is only skipped if its score could not have exceeded
+ * the N-th best score found when it was skipped, and because ties do
+ * not displace earlier results, the result is the same as scoring
+ * every category.  Scores sum the features' contributions in the
+ * order the features appear in the input.  Pruning is most effective
+ * when a few features have large contributions and when N is small
+ * relative to the number of categories.
+ *
+ * <h3>Postings Representation</h3>
+ *
+ * <p>The categories for each feature are stored in blocks of
+ * {@value #BLOCK_SIZE} as differences from the previous category,
+ * written in a variable-length byte code using seven bits per byte.
+ * The last category and the extreme values in each block are stored
+ * uncompressed, so that skips and block bounds do not decode blocks.
+ * For sparse features over many categories, a category typically
+ * takes one or two bytes rather than the four required for an
+ * integer.  Values are stored as floats.
  *
  * <h3>Input Representation</h3>
  *
@@ -79,7 +118,9 @@ import java.io.Serializable;
  * <h3>Serialization</h3>
  *
  * Instances may be serialized.  When read back in they will
- * be members of this class.
+ * be members of this class.  The serialized form stores the
+ * postings uncompressed, as in earlier versions, and they are
+ * compressed again when read.
  *
  * <h3>Thread Safety</h3>
  *
@@ -88,8 +129,18 @@ import java.io.Serializable;
  * classifications may be carried out with a single instance of this
  * class.
  *
+ * <h3>References</h3>
+ *
+ * <ul>
+ * <li>Broder, Andrei Z., David Carmel, Michael Herscovici, Aya Soffer,
+ * and Jason Zien.  2003.  Efficient query evaluation using a two-level
+ * retrieval process.  In <i>CIKM</i>.</li>
+ * <li>Ding, Shuai and Torsten Suel.  2011.  Faster top-k document
+ * retrieval using block-max indexes.  In <i>SIGIR</i>.</li>
+ * </ul>
+ *
  * @author  Bob Carpenter
- * @version 4.0.0
+ * @version 4.1.0
  * @since   LingPipe3.9
  */
 public class BigVectorClassifier
@@ -98,9 +149,7 @@ public class BigVectorClassifier
 
     static final long serialVersionUID = 5149230080619243511L;
 
-    private final int[] mTermIndexes;
-    private final int[] mDocumentIds;
-    private final float[] mScores;
+    private final Postings mPostings;
     private final String[] mCategories;
 
     private int mMaxResults;
@@ -135,40 +184,28 @@ public class BigVectorClassifier
                                int maxResults) {
         mCategories = categories;
         // does not automatically prune zero values
-        mTermIndexes = new int[termVectors.length];
+        int[] termIndexes = new int[termVectors.length];
         int size = termVectors.length; // 0 padding
         for (Vector termVector : termVectors)
             size += termVector.nonZeroDimensions().length;
-        mDocumentIds = new int[size];
-        mScores = new float[size];
+        int[] documentIds = new int[size];
+        float[] scores = new float[size];
         int pos = 0;
         for (int i = 0; i < termVectors.length; ++i) {
-            mTermIndexes[i] = pos;
+            termIndexes[i] = pos;
             Vector termVector = termVectors[i];
             int[] nzDims = termVector.nonZeroDimensions();
             for (int k = 0; k < nzDims.length; ++k) {
                 int j = nzDims[k];
-                mDocumentIds[pos] = j;
-                mScores[pos] = (float) termVector.value(j);
+                documentIds[pos] = j;
+                scores[pos] = (float) termVector.value(j);
                 ++pos;
             }
-            mDocumentIds[pos] = -1;
+            documentIds[pos] = -1;
             ++pos;
         }
+        mPostings = new Postings(termIndexes,documentIds,scores);
         setMaxResults(maxResults);
-
-        /*
-        System.out.println("termIndexes");
-        for (int i = 0; i < mTermIndexes.length; ++i)
-            System.out.println("  " + i + " " + mTermIndexes[i]);
-        System.out.println("documentIds");
-        for (int i = 0; i < mDocumentIds.length; ++i)
-            System.out.println("  " + i + " " + mDocumentIds[i]);
-        System.out.println("scores");
-        for (int i = 0; i < mScores.length; ++i)
-            System.out.println("  " + i + " " + mScores[i]);
-        */
-
     }
 
     BigVectorClassifier(int[] termIndexes,
@@ -176,9 +213,7 @@ public class BigVectorClassifier
                         float[] scores,
                         String[] categories,
                         int maxResults) {
-        mTermIndexes = termIndexes;
-        mDocumentIds = documentIds;
-        mScores = scores;
+        mPostings = new Postings(termIndexes,documentIds,scores);
         setMaxResults(maxResults);
         mCategories = categories;
     }
@@ -238,46 +273,55 @@ public class BigVectorClassifier
      *
      */
     public ScoredClassification classify(Vector x) {
+        int maxResults = mMaxResults;
         int[] nzDims = x.nonZeroDimensions();
-        int heapSize = 0; // number dims in range of terms
-        for (int k = 0; k < nzDims.length; ++k)
-            if (nzDims[k] < mTermIndexes.length)
-                ++heapSize;
-        int[] current = new int[heapSize];
-        float[] vals = new float[heapSize];
-        int j = 0;
-        for (int k = 0; k < heapSize; ++k) {
-            if (nzDims[k] >= mTermIndexes.length)
+        Cursor[] cursors = new Cursor[nzDims.length];
+        int numCursors = 0;
+        for (int k = 0; k < nzDims.length; ++k) {
+            int term = nzDims[k];
+            if (term >= mPostings.numTerms() || mPostings.isEmpty(term))
                 continue;
-            current[j] = mTermIndexes[nzDims[k]];
-            vals[j] = (float) x.value(nzDims[k]);
-            ++j;
+            cursors[numCursors] = new Cursor(mPostings,term,numCursors,
+                                             (float) x.value(term));
+            ++numCursors;
         }
-        for (int k = (heapSize+1)/2; --k >= 0; )
-            heapify(k,heapSize,current,vals,mDocumentIds);
 
         BoundedPriorityQueue<ScoredDoc> queue
             = new BoundedPriorityQueue<ScoredDoc>(ScoredObject.comparator(),
-                                                  mMaxResults);
-        int[] documentIds = mDocumentIds;
-        while (heapSize > 0) {
-            // printHeap(heapSize,current,vals,documentIds);
-            int doc = documentIds[current[0]];
-            // System.out.println("doc=" + doc);
-            double score = 0.0;
-            while (heapSize > 0 && documentIds[current[0]] == doc) {
-                score += vals[0] * mScores[current[0]];
-                ++current[0];
-                if (documentIds[current[0]] == -1) {
-                    --heapSize;
-                    if (heapSize > 0) {
-                        current[0] = current[heapSize];
-                        vals[0] = vals[heapSize];
-                    }
+                                                  maxResults);
+        while (true) {
+            sort(cursors,numCursors);
+            double threshold = queue.size() < maxResults
+                ? Double.NEGATIVE_INFINITY
+                : queue.peekLast().score();
+            int pivot = pivot(cursors,numCursors,threshold);
+            if (pivot < 0)
+                break;
+            int pivotDoc = cursors[pivot].mDoc;
+            while (pivot + 1 < numCursors && cursors[pivot+1].mDoc == pivotDoc)
+                ++pivot;
+            if (!exceedsBlockBounds(cursors,pivot,pivotDoc,threshold)) {
+                // no doc before the first block end or next cursor can qualify
+                int target = pivot + 1 < numCursors
+                    ? cursors[pivot+1].mDoc
+                    : Cursor.EXHAUSTED;
+                for (int i = 0; i <= pivot; ++i)
+                    target = Math.min(target,cursors[i].blockEnd(pivotDoc));
+                for (int i = 0; i <= pivot; ++i)
+                    cursors[i].skipTo(target);
+            } else if (cursors[0].mDoc == pivotDoc) {
+                // cursors for pivot doc in query order, so sum is deterministic
+                double score = 0.0;
+                for (int i = 0; i < numCursors && cursors[i].mDoc == pivotDoc; ++i) {
+                    score += cursors[i].score();
+                    cursors[i].next();
                 }
-                heapify(0,heapSize,current,vals,documentIds);
+                if (score > threshold) // else rejected by queue
+                    queue.offer(new ScoredDoc(pivotDoc,score));
+            } else {
+                for (int i = 0; i < pivot; ++i)
+                    cursors[i].skipTo(pivotDoc);
             }
-            queue.offer(new ScoredDoc(doc,score));
         }
         String[] categories = new String[queue.size()];
         double[] scores = new double[queue.size()];
@@ -295,53 +339,39 @@ public class BigVectorClassifier
         return new Serializer(this);
     }
 
-
-    static void heapify(int i, int heapSize,
-                        int[] current, float[] vals,
-                        int[] documentIds) {
-        while (true) {
-            int left = 2 * (i+1) - 1;
-            if (left >= heapSize)
-                return;
-            if (documentIds[current[i]] > documentIds[current[left]]) {
-                swap(left,i,current);
-                swap(left,i,vals);
-                i = left;
-                continue;
-            }
-            int right = left+1;
-            if (right >= heapSize)
-                return;
-            if (documentIds[current[i]] > documentIds[current[right]]) {
-                swap(right,i,current);
-                swap(right,i,vals);
-                i = right;
-                continue;
-            }
-            return;
+    // index of first cursor at which summed upper bounds exceed the
+    // threshold, or -1 if no remaining doc can exceed it
+    static int pivot(Cursor[] cursors, int numCursors, double threshold) {
+        double bound = 0.0;
+        for (int i = 0; i < numCursors; ++i) {
+            if (cursors[i].mDoc == Cursor.EXHAUSTED)
+                return -1;
+            bound += cursors[i].mUpperBound;
+            if (bound + BOUND_TOLERANCE * (1.0 + Math.abs(bound)) > threshold)
+                return i;
         }
+        return -1;
     }
 
-    static void printHeap(int heapSize,
-                          int[] current, float[] vals,
-                          int[] documentIds) {
-        System.out.println("\nHeapSize=" + heapSize);
-        for (int i = 0; i < heapSize; ++i)
-            System.out.println("i=" + i + " curent=" + current[i] + " vals=" + vals[i]
-                               + " docId=" + documentIds[current[i]]);
-    }
-
-    static void swap(int i, int j, int[] xs) {
-        int tempXsI = xs[i];
-        xs[i] = xs[j];
-        xs[j] = tempXsI;
+    // true if the block bounds for the pivot doc of the cursors up
+    // to the pivot exceed the threshold
+    static boolean exceedsBlockBounds(Cursor[] cursors, int pivot,
+                                      int pivotDoc, double threshold) {
+        double bound = 0.0;
+        for (int i = 0; i <= pivot; ++i)
+            bound += cursors[i].blockUpperBound(pivotDoc);
+        return bound + BOUND_TOLERANCE * (1.0 + Math.abs(bound)) > threshold;
     }
 
-
-    static void swap(int i, int j, float[] xs) {
-        float tempXsI = xs[i];
-        xs[i] = xs[j];
-        xs[j] = tempXsI;
+    // insertion sort by doc then query order; nearly sorted after moves
+    static void sort(Cursor[] cursors, int numCursors) {
+        for (int i = 1; i < numCursors; ++i) {
+            Cursor cursor = cursors[i];
+            int j = i;
+            for ( ; j > 0 && cursors[j-1].follows(cursor); --j)
+                cursors[j] = cursors[j-1];
+            cursors[j] = cursor;
+        }
     }
 
 
@@ -363,6 +393,282 @@ public class BigVectorClassifier
         }
     }
 
+    // postings of each term in blocks of delta-coded doc ids
+    static class Postings {
+        final int[] mPostingStarts;   // [numTerms+1] offsets into mScores
+        final float[] mScores;
+        final float[] mMaxScores;     // [numTerms]
+        final float[] mMinScores;     // [numTerms]
+        final int[] mBlockStarts;     // [numTerms+1] offsets into block arrays
+        final int[] mBlockLastDocs;   // [numBlocks]
+        final float[] mBlockMaxScores; // [numBlocks]
+        final float[] mBlockMinScores; // [numBlocks]
+        final int[] mBlockOffsets;    // [numBlocks] offsets into mDocBytes
+        final byte[] mDocBytes;
+
+        // input format: each term's docs followed by -1
+        Postings(int[] termIndexes, int[] documentIds, float[] scores) {
+            int numTerms = termIndexes.length;
+            int numPostings = documentIds.length - numTerms;
+            mPostingStarts = new int[numTerms + 1];
+            mScores = new float[numPostings];
+            mMaxScores = new float[numTerms];
+            mMinScores = new float[numTerms];
+            mBlockStarts = new int[numTerms + 1];
+            int numBlocks = 0;
+            for (int t = 0; t < numTerms; ++t)
+                numBlocks += (length(termIndexes,documentIds,t) + BLOCK_SIZE - 1)
+                    / BLOCK_SIZE;
+            mBlockLastDocs = new int[numBlocks];
+            mBlockOffsets = new int[numBlocks];
+            mBlockMaxScores = new float[numBlocks];
+            mBlockMinScores = new float[numBlocks];
+            byte[] bytes = new byte[Math.max(16,numPostings)];
+            int numBytes = 0;
+            int posting = 0;
+            int block = 0;
+            for (int t = 0; t < numTerms; ++t) {
+                mPostingStarts[t] = posting;
+                mBlockStarts[t] = block;
+                int start = termIndexes[t];
+                int length = length(termIndexes,documentIds,t);
+                float max = 0f;
+                float min = 0f;
+                int previousDoc = -1;
+                for (int k = 0; k < length; ++k) {
+                    int doc = documentIds[start + k];
+                    if (doc <= previousDoc) {
+                        String msg = "Document ids must be increasing for each term."
+                            + " Found term=" + t
+                            + " doc=" + doc
+                            + " previous doc=" + previousDoc;
+                        throw new IllegalArgumentException(msg);
+                    }
+                    if (k % BLOCK_SIZE == 0)
+                        mBlockOffsets[block] = numBytes;
+                    if (bytes.length - numBytes < 5)
+                        bytes = Arrays.copyOf(bytes,2 * bytes.length);
+                    numBytes = writeVarInt(doc - previousDoc,bytes,numBytes);
+                    previousDoc = doc;
+                    float score = scores[start + k];
+                    mScores[posting++] = score;
+                    if (k % BLOCK_SIZE == 0 || score > mBlockMaxScores[block])
+                        mBlockMaxScores[block] = score;
+                    if (k % BLOCK_SIZE == 0 || score < mBlockMinScores[block])
+                        mBlockMinScores[block] = score;
+                    if (k == 0 || score > max) max = score;
+                    if (k == 0 || score < min) min = score;
+                    if (k % BLOCK_SIZE == BLOCK_SIZE - 1 || k == length - 1)
+                        mBlockLastDocs[block++] = doc;
+                }
+                mMaxScores[t] = max;
+                mMinScores[t] = min;
+            }
+            mPostingStarts[numTerms] = posting;
+            mBlockStarts[numTerms] = block;
+            mDocBytes = Arrays.copyOf(bytes,numBytes);
+        }
+
+        int numTerms() {
+            return mMaxScores.length;
+        }
+
+        boolean isEmpty(int term) {
+            return mPostingStarts[term] == mPostingStarts[term+1];
+        }
+
+        // decodes block into docs, returning number of docs
+        int decodeBlock(int term, int block, int[] docs) {
+            int doc = block == mBlockStarts[term] ? -1 : mBlockLastDocs[block-1];
+            int numDocs = Math.min(BLOCK_SIZE,
+                                   mPostingStarts[term+1] - postingOffset(term,block));
+            byte[] bytes = mDocBytes;
+            int pos = mBlockOffsets[block];
+            for (int i = 0; i < numDocs; ++i) {
+                int delta = 0;
+                int shift = 0;
+                byte b;
+                do {
+                    b = bytes[pos++];
+                    delta |= (b & 0x7F) << shift;
+                    shift += 7;
+                } while (b < 0);
+                doc += delta;
+                docs[i] = doc;
+            }
+            return numDocs;
+        }
+
+        int postingOffset(int term, int block) {
+            return mPostingStarts[term] + (block - mBlockStarts[term]) * BLOCK_SIZE;
+        }
+
+        int[] termIndexes() {
+            int numTerms = numTerms();
+            int[] termIndexes = new int[numTerms];
+            for (int t = 0; t < numTerms; ++t)
+                termIndexes[t] = mPostingStarts[t] + t;
+            return termIndexes;
+        }
+
+        int[] documentIds() {
+            int numTerms = numTerms();
+            int[] documentIds = new int[mScores.length + numTerms];
+            int[] docs = new int[BLOCK_SIZE];
+            int pos = 0;
+            for (int t = 0; t < numTerms; ++t) {
+                for (int b = mBlockStarts[t]; b < mBlockStarts[t+1]; ++b) {
+                    int numDocs = decodeBlock(t,b,docs);
+                    System.arraycopy(docs,0,documentIds,pos,numDocs);
+                    pos += numDocs;
+                }
+                documentIds[pos++] = -1;
+            }
+            return documentIds;
+        }
+
+        float[] paddedScores() {
+            int numTerms = numTerms();
+            float[] scores = new float[mScores.length + numTerms];
+            for (int t = 0; t < numTerms; ++t)
+                System.arraycopy(mScores,mPostingStarts[t],
+                                 scores,mPostingStarts[t] + t,
+                                 mPostingStarts[t+1] - mPostingStarts[t]);
+            return scores;
+        }
+
+        static int length(int[] termIndexes, int[] documentIds, int term) {
+            int start = termIndexes[term];
+            int end = start;
+            while (documentIds[end] != -1)
+                ++end;
+            return end - start;
+        }
+
+        static int writeVarInt(int n, byte[] bytes, int pos) {
+            while ((n & ~0x7F) != 0) {
+                bytes[pos++] = (byte) ((n & 0x7F) | 0x80);
+                n >>>= 7;
+            }
+            bytes[pos++] = (byte) n;
+            return pos;
+        }
+    }
+
+    // position in a term's postings during classification
+    static class Cursor {
+        final Postings mPostings;
+        final int mTerm;
+        final int mOrder;
+        final float mValue;
+        final double mUpperBound;
+        final int[] mDocs;
+        final int mEndBlock;
+        int mBlock;
+        int mNumDocs;
+        int mPos;
+        int mScoreOffset;
+        int mDoc;
+
+        Cursor(Postings postings, int term, int order, float value) {
+            mPostings = postings;
+            mTerm = term;
+            mOrder = order;
+            mValue = value;
+            // products as in score(), so rounding preserves the bound
+            float bound = value > 0f
+                ? value * postings.mMaxScores[term]
+                : value * postings.mMinScores[term];
+            mUpperBound = Math.max(0.0,bound);
+            mDocs = new int[Math.min(BLOCK_SIZE,
+                                     postings.mPostingStarts[term+1]
+                                     - postings.mPostingStarts[term])];
+            mEndBlock = postings.mBlockStarts[term+1];
+            loadBlock(postings.mBlockStarts[term]);
+        }
+
+        boolean follows(Cursor that) {
+            return mDoc > that.mDoc
+                || (mDoc == that.mDoc && mOrder > that.mOrder);
+        }
+
+        // largest doc in the range of the block covering the target,
+        // all of which may be passed over if the block cannot qualify
+        int blockEnd(int target) {
+            int block = findBlock(target);
+            return block == mEndBlock
+                ? EXHAUSTED
+                : mPostings.mBlockLastDocs[block] + 1;
+        }
+
+        // upper bound on contribution for docs in target's block range
+        double blockUpperBound(int target) {
+            int block = findBlock(target);
+            if (block == mEndBlock)
+                return 0.0;
+            float bound = mValue > 0f
+                ? mValue * mPostings.mBlockMaxScores[block]
+                : mValue * mPostings.mBlockMinScores[block];
+            return Math.max(0.0,bound);
+        }
+
+        // first block at or after current whose last doc is at least
+        // target, or the end block if there is none
+        int findBlock(int target) {
+            int[] lastDocs = mPostings.mBlockLastDocs;
+            if (lastDocs[mBlock] >= target)
+                return mBlock;
+            int low = mBlock + 1;
+            int high = mEndBlock;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (lastDocs[mid] < target)
+                    low = mid + 1;
+                else
+                    high = mid;
+            }
+            return low;
+        }
+
+        double score() {
+            return mValue * mPostings.mScores[mScoreOffset + mPos];
+        }
+
+        void next() {
+            if (++mPos < mNumDocs)
+                mDoc = mDocs[mPos];
+            else if (mBlock + 1 < mEndBlock)
+                loadBlock(mBlock + 1);
+            else
+                mDoc = EXHAUSTED;
+        }
+
+        void skipTo(int target) {
+            if (mDoc >= target)
+                return;
+            if (mPostings.mBlockLastDocs[mBlock] < target) {
+                int block = findBlock(target);
+                if (block == mEndBlock) {
+                    mDoc = EXHAUSTED;
+                    return;
+                }
+                loadBlock(block);
+            }
+            while (mDocs[mPos] < target)
+                ++mPos;
+            mDoc = mDocs[mPos];
+        }
+
+        void loadBlock(int block) {
+            mBlock = block;
+            mNumDocs = mPostings.decodeBlock(mTerm,block,mDocs);
+            mScoreOffset = mPostings.postingOffset(mTerm,block);
+            mPos = 0;
+            mDoc = mDocs[0];
+        }
+
+        static final int EXHAUSTED = Integer.MAX_VALUE;
+    }
 
 
     static class Serializer extends AbstractExternalizable {
@@ -376,9 +682,10 @@ public class BigVectorClassifier
         }
         @Override
         public void writeExternal(ObjectOutput objOut) throws IOException {
-            writeInts(mClassifier.mTermIndexes,objOut);
-            writeInts(mClassifier.mDocumentIds,objOut);
-            writeFloats(mClassifier.mScores,objOut);
+            Postings postings = mClassifier.mPostings;
+            writeInts(postings.termIndexes(),objOut);
+            writeInts(postings.documentIds(),objOut);
+            writeFloats(postings.paddedScores(),objOut);
             writeUTFs(mClassifier.mCategories,objOut);
             objOut.writeInt(mClassifier.mMaxResults);
         }
@@ -398,9 +705,13 @@ public class BigVectorClassifier
         }
     }
 
+    /**
+     * The number of categories per block of compressed postings,
+     * {@value}.
+     */
+    public static final int BLOCK_SIZE = 128;
 
-
-
+    // relative slack so float rounding never prunes a qualifying doc
+    static final double BOUND_TOLERANCE = 1e-9;
 
 }
-
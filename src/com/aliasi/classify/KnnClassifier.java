@@ -18,7 +18,9 @@ package com.aliasi.classify;
 
 import com.aliasi.corpus.ObjectHandler;
 
+import com.aliasi.features.FeatureVectorBuffer;
 import com.aliasi.features.Features;
+import com.aliasi.features.PrimitiveFeatureExtractor;
 
 import com.aliasi.matrix.EuclideanDistance;
 import com.aliasi.matrix.Vector;
@@ -102,7 +104,10 @@ import java.util.Map;
  * query point.  Both training instances and instances to be classified
  * are converted to feature mappings using the specified feature
  * extractor, and then encoded as sparse vectors using an implicitly
- * managed feature symbol table.
+ * managed feature symbol table.  If the feature extractor implements
+ * {@link PrimitiveFeatureExtractor}, instances to be classified are
+ * encoded without an intermediate feature map using a {@link
+ * FeatureVectorBuffer} kept for each thread.
  *
  * <p>The first step in classification is simply collecting the
  * k nearest neighbors.  That is, the training examples that have
@@ -179,6 +184,13 @@ public class KnnClassifier<E>
     final List<Vector> mTrainingVectors;
     final MapSymbolTable mFeatureSymbolTable;
     final MapSymbolTable mCategorySymbolTable;
+    private final ThreadLocal<FeatureVectorBuffer> mFeatureBuffers
+        = new ThreadLocal<FeatureVectorBuffer>() {
+            @Override
+            protected FeatureVectorBuffer initialValue() {
+                return new FeatureVectorBuffer(mFeatureSymbolTable);
+            }
+        };
 
     /**
      * Construct a k-nearest-neighbor classifier based on the
@@ -369,12 +381,11 @@ public class KnnClassifier<E>
      * @return Scored classification for the specified object.
      */
     public ScoredClassification classify(E in) {
-        Map<String,? extends Number> featureMap
-            = mFeatureExtractor.features(in);
         Vector inputVector
             = Features
-            .toVector(featureMap,
-                      mFeatureSymbolTable,
+            .toVector(in,
+                      mFeatureExtractor,
+                      mFeatureBuffers.get(),
                       Integer.MAX_VALUE-1,
                       false);
 
@@ -18,8 +18,12 @@ package com.aliasi.classify;
 
 import com.aliasi.stats.MultivariateDistribution;
 
+import com.aliasi.lm.CompiledNGramProcessLM;
 import com.aliasi.lm.LanguageModel;
+import com.aliasi.lm.MergedNGramProcessLM;
+import com.aliasi.lm.ProcessLMCursor;
 
+import com.aliasi.util.Partitions;
 import com.aliasi.util.ScoredObject;
 import com.aliasi.util.Strings;
 
@@ -28,6 +32,8 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Set;
 
+import java.util.concurrent.ExecutorService;
+
 /**
  * An <code>LMClassifier</code> performs joint probability-based
  * classification of character sequences into non-overlapping
@@ -119,8 +125,49 @@ import java.util.Set;
  * DynamicLMClassifier} using a trainable multivariate estimator and
  * dynamic language models.
  *
+ * <h3>Parallel Classification and Pruning</h3>
+ *
+ * <P>By default, the categories' language models are evaluated one
+ * after the other in the calling thread.  If an executor service is
+ * supplied with {@link #setExecutor(ExecutorService)}, the categories
+ * are instead divided into groups that are scored concurrently by the
+ * executor, which may be any executor service, including a fork-join
+ * pool.  The results are the same either way.
+ *
+ * <P>If a prune threshold is set with {@link
+ * #setPruneThreshold(double)} and all of the language models
+ * implement {@link LanguageModel.Incremental}, the input is scored in
+ * blocks of {@link #PRUNE_BLOCK_SIZE} characters using cursors.  After
+ * each block, any category whose joint log (base 2) estimate so far
+ * is more than the threshold below the best category's is dropped
+ * and assigned a joint log estimate of
+ * <code>Double.NEGATIVE_INFINITY</code> (a probability of zero).  With
+ * well separated categories, most categories are dropped after the
+ * first few blocks.  Pruning is a heuristic, because the estimates of
+ * the remaining characters may in principle overturn any lead;  with
+ * thresholds of a few dozen bits or more, the first-best category is
+ * rarely affected in practice.  Pruning may be combined with parallel
+ * scoring, in which case the remaining categories in each block are
+ * scored concurrently.
+ *
+ * <h3>Merged Scoring</h3>
+ *
+ * <P>If every category's language model is a {@link
+ * CompiledNGramProcessLM}, as for a compiled {@link
+ * DynamicLMClassifier} built with n-gram process models, the models
+ * may be merged into a single {@link MergedNGramProcessLM} by calling
+ * {@link #setMergedScoring(boolean)}.  A merged model computes the
+ * estimates for all of the categories in one walk over the input,
+ * which is much faster for large numbers of categories, at the cost
+ * of memory proportional to the number of categories times the
+ * number of distinct n-grams across the models.  Merged scoring takes
+ * precedence over parallel scoring and pruning, neither of which
+ * applies to it.
+ *
+ * <P>None of these settings is serialized or compiled.
+ *
  * @author  Bob Carpenter
- * @version 4.0.0
+ * @version 4.1.0
  * @since   LingPipe2.0
  * @param <L> the type of language model used to generate text from categories
  * @param <M> the multivariate distribution over categories
@@ -133,6 +180,10 @@ public class LMClassifier<L extends LanguageModel, M extends MultivariateDistrib
     final HashMap<String,L> mCategoryToModel;
     final String[] mCategories;
 
+    private volatile ExecutorService mExecutor = null;
+    private volatile double mPruneThreshold = Double.POSITIVE_INFINITY;
+    private volatile MergedNGramProcessLM mMergedLM = null;
+
     /**
      * Construct a joint classifier for character sequences
      * classifying over a specified set of categories, with a
@@ -241,6 +292,106 @@ public class LMClassifier<L extends LanguageModel, M extends MultivariateDistrib
         return mCategoryDistribution;
     }
 
+    /**
+     * Sets the executor service used to score categories concurrently,
+     * or turns off concurrent scoring if the executor is
+     * <code>null</code>.  See the class documentation for more
+     * information.
+     *
+     * <P>The executor service is not shut down by this classifier.
+     *
+     * @param executor Executor service for scoring categories, or
+     * <code>null</code> to score them in the calling thread.
+     */
+    public void setExecutor(ExecutorService executor) {
+        mExecutor = executor;
+    }
+
+    /**
+     * Returns the executor service used to score categories
+     * concurrently, or <code>null</code> if categories are scored in
+     * the calling thread.
+     *
+     * @return The executor service for this classifier.
+     */
+    public ExecutorService executor() {
+        return mExecutor;
+    }
+
+    /**
+     * Sets the threshold, in bits, below the best category's running
+     * joint log (base 2) estimate at which categories are pruned.
+     * Setting the threshold to <code>Double.POSITIVE_INFINITY</code>,
+     * the default, turns pruning off.  See the class documentation
+     * for more information.
+     *
+     * @param threshold Prune threshold in bits.
+     * @throws IllegalArgumentException If the threshold is not a
+     * positive number.
+     */
+    public void setPruneThreshold(double threshold) {
+        if (!(threshold > 0.0)) {
+            String msg = "Prune threshold must be positive."
+                + " Found threshold=" + threshold;
+            throw new IllegalArgumentException(msg);
+        }
+        mPruneThreshold = threshold;
+    }
+
+    /**
+     * Returns the prune threshold for this classifier, in bits.
+     *
+     * @return The prune threshold.
+     */
+    public double pruneThreshold() {
+        return mPruneThreshold;
+    }
+
+    /**
+     * Turns merged scoring on or off.  Turning merged scoring on
+     * merges the category language models into a single model, which
+     * is then used for all classification until merged scoring is
+     * turned off.  See the class documentation for more information.
+     *
+     * <P>The merged model is a snapshot of the category models, so
+     * merged scoring should be turned on again if the category models
+     * are replaced.
+     *
+     * @param merged <code>true</code> to score categories with a
+     * merged model.
+     * @throws IllegalArgumentException If merged scoring is requested
+     * and not every category's language model is an instance of
+     * {@link CompiledNGramProcessLM}.
+     */
+    public void setMergedScoring(boolean merged) {
+        if (!merged) {
+            mMergedLM = null;
+            return;
+        }
+        CompiledNGramProcessLM[] lms
+            = new CompiledNGramProcessLM[mLanguageModels.length];
+        for (int i = 0; i < lms.length; ++i) {
+            if (!(mLanguageModels[i] instanceof CompiledNGramProcessLM)) {
+                String msg = "Merged scoring requires compiled n-gram process models."
+                    + " Found category=" + mCategories[i]
+                    + " model class=" + mLanguageModels[i].getClass();
+                throw new IllegalArgumentException(msg);
+            }
+            lms[i] = (CompiledNGramProcessLM) mLanguageModels[i];
+        }
+        mMergedLM = new MergedNGramProcessLM(lms);
+    }
+
+    /**
+     * Returns <code>true</code> if this classifier scores categories
+     * with a merged model.
+     *
+     * @return <code>true</code> if merged scoring is on.
+     */
+    public boolean mergedScoring() {
+        return mMergedLM != null;
+    }
+
     /**
      * Returns the joint classification of the specified character sequence.
      *
@@ -274,27 +425,144 @@ public class LMClassifier<L extends LanguageModel, M extends MultivariateDistrib
     public JointClassification classifyJoint(char[] cs, int start, int end) {
         Strings.checkArgsStartEnd(cs,start,end);
 
+        double[] catLogProbs = new double[mCategories.length];
+        for (int i = 0; i < mCategories.length; ++i)
+            catLogProbs[i] = mCategoryDistribution.log2Probability(mCategories[i]);
+
+        double[] jointLogProbs = new double[mCategories.length];
+        MergedNGramProcessLM mergedLM = mMergedLM;
+        ExecutorService executor = mExecutor;
+        double pruneThreshold = mPruneThreshold;
+        if (mergedLM != null)
+            estimateMerged(cs,start,end,catLogProbs,mergedLM,jointLogProbs);
+        else if (pruneThreshold < Double.POSITIVE_INFINITY && isIncremental())
+            estimatePruned(cs,start,end,catLogProbs,pruneThreshold,
+                           executor,jointLogProbs);
+        else
+            estimate(cs,start,end,catLogProbs,executor,jointLogProbs);
+
         // need to deal with array of generic typed objects
         @SuppressWarnings({"unchecked","rawtypes"})
         ScoredObject<String>[] estimates
-            = new ScoredObject[categories().length];
-
-        for (int i = 0; i < categories().length; ++i) {
-            String category = categories()[i];
-            LanguageModel model = mLanguageModels[i];
-            double charsGivenCatLogProb
-                = model.log2Estimate(new String(cs,start,end-start));
-            double catLogProb
-                = mCategoryDistribution.log2Probability(category);
-            double charsCatJointLogProb = charsGivenCatLogProb + catLogProb;
+            = new ScoredObject[mCategories.length];
+        for (int i = 0; i < mCategories.length; ++i)
             estimates[i]
-                = new ScoredObject<String>(category,
-                                           charsCatJointLogProb);
-        }
+                = new ScoredObject<String>(mCategories[i],
+                                           jointLogProbs[i]);
         return toJointClassification(estimates,
                                      end-start+2); // divide by length + 1
     }
 
+    private boolean isIncremental() {
+        for (L lm : mLanguageModels)
+            if (!(lm instanceof LanguageModel.Incremental))
+                return false;
+        return true;
+    }
+
+    private void estimate(final char[] cs, final int start, final int end,
+                          final double[] catLogProbs,
+                          ExecutorService executor,
+                          final double[] jointLogProbs) {
+        int[] categories = allCategories();
+        forEachCategory(categories,categories.length,executor,
+                        new CategoryTask() {
+                            public void run(int i) {
+                                jointLogProbs[i]
+                                    = mLanguageModels[i].log2Estimate(cs,start,end)
+                                    + catLogProbs[i];
+                            }
+                        });
+    }
+
+    private void estimateMerged(char[] cs, int start, int end,
+                                double[] catLogProbs,
+                                MergedNGramProcessLM mergedLM,
+                                double[] jointLogProbs) {
+        mergedLM.log2Estimates(cs,start,end,jointLogProbs);
+        for (int i = 0; i < jointLogProbs.length; ++i)
+            jointLogProbs[i] += catLogProbs[i];
+    }
+
+    private void estimatePruned(final char[] cs, int start, int end,
+                                double[] catLogProbs,
+                                double pruneThreshold,
+                                ExecutorService executor,
+                                double[] jointLogProbs) {
+        final ProcessLMCursor[] cursors = new ProcessLMCursor[mCategories.length];
+        for (int i = 0; i < cursors.length; ++i) {
+            cursors[i] = ((LanguageModel.Incremental) mLanguageModels[i]).cursor();
+            jointLogProbs[i] = catLogProbs[i];
+        }
+        int[] live = allCategories();
+        int numLive = live.length;
+        for (int blockStart = start; blockStart < end; blockStart += PRUNE_BLOCK_SIZE) {
+            final int from = blockStart;
+            final int to = Math.min(end,blockStart + PRUNE_BLOCK_SIZE);
+            forEachCategory(live,numLive,executor,
+                            new CategoryTask() {
+                                public void run(int i) {
+                                    cursors[i].next(cs,from,to);
+                                }
+                            });
+            double best = Double.NEGATIVE_INFINITY;
+            for (int k = 0; k < numLive; ++k) {
+                int i = live[k];
+                jointLogProbs[i] = cursors[i].log2Estimate() + catLogProbs[i];
+                if (jointLogProbs[i] > best)
+                    best = jointLogProbs[i];
+            }
+            int numKept = 0;
+            for (int k = 0; k < numLive; ++k) {
+                int i = live[k];
+                if (jointLogProbs[i] >= best - pruneThreshold)
+                    live[numKept++] = i;
+                else
+                    jointLogProbs[i] = Double.NEGATIVE_INFINITY;
+            }
+            numLive = numKept;
+        }
+    }
+
+    private int[] allCategories() {
+        int[] categories = new int[mCategories.length];
+        for (int i = 0; i < categories.length; ++i)
+            categories[i] = i;
+        return categories;
+    }
+
+    // runs the task on categories[0,numCategories), splitting them
+    // into contiguous groups run concurrently if there is an executor
+    static void forEachCategory(final int[] categories, int numCategories,
+                                ExecutorService executor,
+                                final CategoryTask task) {
+        int numGroups
+            = executor == null
+            ? 1
+            : TASKS_PER_PROCESSOR * Runtime.getRuntime().availableProcessors();
+        Partitions.forEachPartition(numCategories,numGroups,executor,
+                                    "category scoring",
+                                    new Partitions.Task<Void>() {
+                public Void run(int group, int start, int end) {
+                    for (int k = start; k < end; ++k)
+                        task.run(categories[k]);
+                    return null;
+                }
+            });
+    }
+
+    interface CategoryTask {
+        void run(int category);
+    }
+
+    /**
+     * The number of characters scored for each category between
+     * pruning steps, when pruning is on.
+     */
+    public static final int PRUNE_BLOCK_SIZE = 128;
+
+    static final int TASKS_PER_PROCESSOR = 4;
+
     static JointClassification toJointClassification(ScoredObject<String>[] estimates,
                                                      double length) {
         Arrays.sort(estimates,ScoredObject.reverseComparator());
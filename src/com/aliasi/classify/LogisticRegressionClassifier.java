@@ -19,19 +19,23 @@ import com.aliasi.corpus.Corpus;
 
 import com.aliasi.corpus.ObjectHandler;
 
+import com.aliasi.features.FeatureVectorBuffer;
 import com.aliasi.features.Features;
+import com.aliasi.features.PrimitiveFeatureExtractor;
 
 import com.aliasi.io.LogLevel;
 import com.aliasi.io.Reporter;
 import com.aliasi.io.Reporters;
 
 import com.aliasi.matrix.DenseVector;
+import com.aliasi.matrix.SparseFloatVector;
 import com.aliasi.matrix.Vector;
 
 import com.aliasi.stats.AnnealingSchedule;
 import com.aliasi.stats.LogisticRegression;
 import com.aliasi.stats.RegressionPrior;
 
+import com.aliasi.symbol.HashSymbolTable;
 import com.aliasi.symbol.MapSymbolTable;
 import com.aliasi.symbol.SymbolTable;
 
@@ -40,9 +44,18 @@ import com.aliasi.util.Compilable;
 import com.aliasi.util.FeatureExtractor;
 import com.aliasi.util.ObjectToCounterMap;
 import com.aliasi.util.ObjectToDoubleMap;
+import com.aliasi.util.Pair;
 import com.aliasi.util.ScoredObject;
+import com.aliasi.util.Streams;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.CharArrayWriter;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.ObjectInput;
 import java.io.ObjectOutput;
@@ -92,6 +105,40 @@ import java.util.Set;
  * if the intercept feature flag is set, it will set dimension 0 of
  * all inputs to 1.0.
  *
+ * <p>If the feature extractor implements {@link
+ * PrimitiveFeatureExtractor}, the conversion to vectors for
+ * classification skips the intermediate feature map, collecting
+ * features in a reusable {@link FeatureVectorBuffer} kept for each
+ * thread.
+ *
+ * <h4>Feature Hashing</h4>
+ *
+ * <p>The method {@link
+ * #trainHashed(Corpus,FeatureExtractor,HashSymbolTable,boolean,RegressionPrior,int,LogisticRegressionClassifier,AnnealingSchedule,double,int,int,int,ObjectHandler,Reporter)}
+ * uses a {@link HashSymbolTable} in place of a symbol table built
+ * from the features in the training corpus.  Features are mapped to
+ * dimensions by hashing, so the number of dimensions is fixed in
+ * advance, no feature strings are stored in the model or its
+ * serialized form, and converting a feature to a dimension requires
+ * only a hash.  The price is that colliding features share a
+ * coefficient and that the feature names are not available from
+ * {@link #featureValues(String)}.
+ *
+ * <h4>Streaming Training</h4>
+ *
+ * <p>The method {@link
+ * #trainStreaming(Corpus,FeatureExtractor,int,boolean,RegressionPrior,int,LogisticRegressionClassifier,AnnealingSchedule,double,int,int,int,ObjectHandler,File,Reporter)}
+ * trains without holding the feature vectors for the whole corpus in
+ * memory.  After a first pass over the corpus to count features,
+ * features are either extracted again from the corpus on each epoch,
+ * or, if a spill file is specified, extracted once, written to the
+ * file in binary form, and read back on each epoch.  Spilling trades
+ * disk space for the cost of repeated feature extraction.  In either
+ * case, memory use is proportional to the number of features and the
+ * block size rather than to the size of the corpus.  See {@link
+ * LogisticRegression#estimate(Corpus,RegressionPrior,int,LogisticRegression,AnnealingSchedule,double,int,int,int,ObjectHandler,Reporter)}
+ * for details of the estimation.
+ *
  * <h4>Serialization and Compilation</h4>
  *
  * <p>This class implements both {@link Serializable} and {@link
@@ -101,7 +148,7 @@ import java.util.Set;
  * the same components as the model that was serialized or compiled.
  *
  * @author  Bob Carpenter
- * @version 4.0.1
+ * @version 4.1.0
  * @since   LingPipe3.5
  * @param <E> the type of object being classified
  */
@@ -117,6 +164,13 @@ public class LogisticRegressionClassifier<E>
     private final boolean mAddInterceptFeature;
     private final SymbolTable mFeatureSymbolTable;
     private final String[] mCategorySymbols;
+    private final ThreadLocal<FeatureVectorBuffer> mFeatureBuffers
+        = new ThreadLocal<FeatureVectorBuffer>() {
+            @Override
+            protected FeatureVectorBuffer initialValue() {
+                return new FeatureVectorBuffer(mFeatureSymbolTable);
+            }
+        };
 
     /**
      * Construct a logistic regression classifier using the specified
@@ -282,7 +336,12 @@ public class LogisticRegressionClassifier<E>
      * @return The conditional classification of the object.
      */
     public ConditionalClassification classify(E in) {
-        return classifyFeatures(mFeatureExtractor.features(in));
+        Vector v = Features.toVector(in,
+                                     mFeatureExtractor,
+                                     mFeatureBuffers.get(),
+                                     mFeatureSymbolTable.numSymbols(),
+                                     mAddInterceptFeature);
+        return classifyVector(v);
     }
 
 
@@ -491,27 +550,121 @@ public class LogisticRegressionClassifier<E>
               ObjectHandler<LogisticRegressionClassifier<F>> classifierHandler,
               Reporter reporter) throws IOException {
 
-        MapSymbolTable featureSymbolTable = new MapSymbolTable();
+        return train(corpus,featureExtractor,minFeatureCount,null,
+                     addInterceptFeature,prior,blockSize,hotStart,
+                     annealingSchedule,minImprovement,rollingAverageSize,
+                     minEpochs,maxEpochs,classifierHandler,reporter);
+    }
+
+    /**
+     * Returns a logistic regression classifier trained using the
+     * specified hash symbol table to convert features to dimensions.
+     *
+     * <p>All features are kept, so there is no minimum feature count.
+     * The number of input dimensions is the number of symbols in the
+     * hash symbol table, and the intercept, if added, uses the
+     * dimension 0 reserved by the table.  Otherwise, the parameters
+     * are as for {@link
+     * #train(Corpus,FeatureExtractor,int,boolean,RegressionPrior,int,LogisticRegressionClassifier,AnnealingSchedule,double,int,int,int,ObjectHandler,Reporter)}.
+     * A hot start classifier must use a hash symbol table with the
+     * same number of bits.  See the class documentation above for
+     * more information.
+     *
+     * @param corpus Corpus of training data.
+     * @param featureExtractor Converter from objects to feature maps.
+     * @param featureSymbolTable Hash symbol table for converting
+     * features to dimensions.
+     * @param addInterceptFeature A flag set to <code>true</code> if
+     * an intercept feature should be added to each input vector.
+     * @param prior The prior for regularization of the regression.
+     * @param blockSize Number of examples whose probabilities are computed
+     * before applying a gradient update, or -1 for the training size
+     * divided by 50.
+     * @param hotStart Logistic regression classifier to use as initial
+     * coefficient values for training.
+     * @param annealingSchedule Class to compute learning rate for each epoch.
+     * @param minImprovement Minimum relative improvement in error during
+     * an epoch to stop search.
+     * @param rollingAverageSize Number of epochs over which to
+     * average objective improvement for monitoring convergence.
+     * @param minEpochs Minimum number of search epochs.
+     * @param maxEpochs Maximum number of epochs.
+     * @param classifierHandler Handler for classifiers produced at each
+     * epoch.
+     * @param reporter Reporter to which progress reports are written,
+     * or {@code null} for no reporting.
+     * @throws IOException If there is an underlying I/O exception
+     * reading the data from the corpus.
+     * @param <F> the type of object to be classified
+     */
+    public static <F> LogisticRegressionClassifier<F>
+        trainHashed(Corpus<ObjectHandler<Classified<F>>> corpus,
+                    FeatureExtractor<? super F> featureExtractor,
+                    HashSymbolTable featureSymbolTable,
+                    boolean addInterceptFeature,
+                    RegressionPrior prior,
+                    int blockSize,
+                    LogisticRegressionClassifier<F> hotStart,
+                    AnnealingSchedule annealingSchedule,
+                    double minImprovement,
+                    int rollingAverageSize,
+                    int minEpochs,
+                    int maxEpochs,
+                    ObjectHandler<LogisticRegressionClassifier<F>> classifierHandler,
+                    Reporter reporter) throws IOException {
+
+        return train(corpus,featureExtractor,0,featureSymbolTable,
+                     addInterceptFeature,prior,blockSize,hotStart,
+                     annealingSchedule,minImprovement,rollingAverageSize,
+                     minEpochs,maxEpochs,classifierHandler,reporter);
+    }
+
+    // builds feature symbol table from corpus if hash table is null
+    private static <F> LogisticRegressionClassifier<F>
+        train(Corpus<ObjectHandler<Classified<F>>> corpus,
+              FeatureExtractor<? super F> featureExtractor,
+              int minFeatureCount,
+              HashSymbolTable hashSymbolTable,
+              boolean addInterceptFeature,
+              RegressionPrior prior,
+              int blockSize,
+              LogisticRegressionClassifier<F> hotStart,
+              AnnealingSchedule annealingSchedule,
+              double minImprovement,
+              int rollingAverageSize,
+              int minEpochs,
+              int maxEpochs,
+              ObjectHandler<LogisticRegressionClassifier<F>> classifierHandler,
+              Reporter reporter) throws IOException {
+
         MapSymbolTable categorySymbolTable = new MapSymbolTable();
 
         if (reporter == null)
             reporter = Reporters.silent();
 
-        if (addInterceptFeature)
-            featureSymbolTable.getOrAddSymbol(INTERCEPT_FEATURE_NAME);
-        
         reporter.info("Feature Extractor class=" + featureExtractor.getClass());
-        reporter.info("min feature count=" + minFeatureCount);
 
-        reporter.info("Extracting Training Data");
-        reporter.debug("  Counting features");
-        ObjectToCounterMap<String> featureCounter = new ObjectToCounterMap<String>();
-        corpus.visitTrain(new FeatureCounter<F>(featureExtractor,featureCounter));
+        SymbolTable featureSymbolTable;
+        if (hashSymbolTable != null) {
+            reporter.info("Feature hashing=" + hashSymbolTable);
+            featureSymbolTable = hashSymbolTable;
+        } else {
+            reporter.info("min feature count=" + minFeatureCount);
+            MapSymbolTable mapSymbolTable = new MapSymbolTable();
+            if (addInterceptFeature)
+                mapSymbolTable.getOrAddSymbol(INTERCEPT_FEATURE_NAME);
 
-        reporter.debug("  Pruning features");
-        featureCounter.prune(minFeatureCount);
-        for (String feature : featureCounter.keySet())
-            featureSymbolTable.getOrAddSymbol(feature);
+            reporter.info("Extracting Training Data");
+            reporter.debug("  Counting features");
+            ObjectToCounterMap<String> featureCounter = new ObjectToCounterMap<String>();
+            corpus.visitTrain(new FeatureCounter<F>(featureExtractor,featureCounter));
+
+            reporter.debug("  Pruning features");
+            featureCounter.prune(minFeatureCount);
+            for (String feature : featureCounter.keySet())
+                mapSymbolTable.getOrAddSymbol(feature);
+            featureSymbolTable = mapSymbolTable;
+        }
 
         reporter.debug("  Extracting vectors");
         DataExtractor<F> dataExtractor
@@ -531,6 +684,57 @@ public class LogisticRegressionClassifier<E>
             categorySymbols[i] = categorySymbolTable.idToSymbol(i);
 
 
+        LogisticRegression lrHotStart
+            = hotStartRegression(hotStart,categorySymbols,
+                                 featureSymbolTable,numInputDimensions,
+                                 reporter);
+        reporter.info(hotStart != null ? "Hot start" : "Cold start");
+
+        ObjectHandler<LogisticRegression> regressionHandler
+            = classifierHandler == null
+            ? null
+            : new RegressionHandlerAdapter<F>(classifierHandler,
+                                              featureExtractor,
+                                              addInterceptFeature,
+                                              featureSymbolTable,
+                                              categorySymbols);
+        reporter.info((regressionHandler != null)
+                      ? ("Regssion callback handler class=" + regressionHandler.getClass())
+                      : "Regression callback handler=" + null);
+        
+        // may want to trap ArithmeticExceptions from estimate() here
+        if (blockSize == -1)
+            blockSize = Math.max(1,categories.length/50);
+
+        LogisticRegression model
+            = LogisticRegression.estimate(inputs,
+                                          categories,
+                                          prior,
+                                          blockSize,
+                                          lrHotStart,
+                                          annealingSchedule,
+                                          minImprovement,
+                                          rollingAverageSize,
+                                          minEpochs,
+                                          maxEpochs,
+                                          regressionHandler,
+                                          reporter);
+
+        return new LogisticRegressionClassifier<F>(model,
+                                                   featureExtractor,
+                                                   addInterceptFeature,
+                                                   featureSymbolTable,
+                                                   categorySymbols);
+
+
+    }
+
+    static <F> LogisticRegression
+        hotStartRegression(LogisticRegressionClassifier<F> hotStart,
+                           String[] categorySymbols,
+                           SymbolTable featureSymbolTable,
+                           int numInputDimensions,
+                           Reporter reporter) {
         LogisticRegression lrHotStart = null;
         if (hotStart != null) {
             reporter.debug("hot starting");
@@ -556,6 +760,130 @@ public class LogisticRegressionClassifier<E>
             }
             lrHotStart = new LogisticRegression(weightVectors);
         }
+        return lrHotStart;
+    }
+
+    /**
+     * Returns a logistic regression classifier trained by streaming
+     * over the specified corpus rather than holding all of the
+     * training vectors in memory.
+     *
+     * <p>The corpus is visited once to count features, which are
+     * then pruned to those with at least the minimum count.  If the
+     * spill file is {@code null}, the corpus is visited again on every
+     * epoch and features extracted from each training instance.  If
+     * the spill file is not {@code null}, the corpus is visited once
+     * more to write the feature vectors to the spill file, which is
+     * then read on every epoch.  The spill file is overwritten if it
+     * exists and is not deleted after training.  In either case, the
+     * corpus must visit the same training instances in the same order
+     * each time.
+     *
+     * <p>The remaining parameters are as for {@link
+     * #train(Corpus,FeatureExtractor,int,boolean,RegressionPrior,int,LogisticRegressionClassifier,AnnealingSchedule,double,int,int,int,ObjectHandler,Reporter)}.
+     * See the class documentation above for more information.
+     *
+     * @param corpus Corpus of training data.
+     * @param featureExtractor Converter from objects to feature maps.
+     * @param minFeatureCount Minimum count for features in corpus to
+     * keep feature as part of model.
+     * @param addInterceptFeature A flag set to <code>true</code> if
+     * an intercept feature should be added to each input vector.
+     * @param prior The prior for regularization of the regression.
+     * @param blockSize Number of examples whose probabilities are computed
+     * before applying a gradient update, or -1 for the training size
+     * divided by 50.
+     * @param hotStart Logistic regression classifier to use as initial
+     * coefficient values for training.
+     * @param annealingSchedule Class to compute learning rate for each epoch.
+     * @param minImprovement Minimum relative improvement in error during
+     * an epoch to stop search.
+     * @param rollingAverageSize Number of epochs over which to
+     * average objective improvement for monitoring convergence.
+     * @param minEpochs Minimum number of search epochs.
+     * @param maxEpochs Maximum number of epochs.
+     * @param classifierHandler Handler for classifiers produced at each
+     * epoch.
+     * @param spillFile File to which feature vectors are written
+     * and read back on each epoch, or {@code null} to extract
+     * features from the corpus on each epoch.
+     * @param reporter Reporter to which progress reports are written,
+     * or {@code null} for no reporting.
+     * @throws IOException If there is an underlying I/O exception
+     * reading the data from the corpus or reading or writing the
+     * spill file.
+     * @throws IllegalArgumentException If the corpus has no training
+     * instances.
+     * @param <F> the type of object to be classified
+     */
+    public static <F> LogisticRegressionClassifier<F>
+        trainStreaming(Corpus<ObjectHandler<Classified<F>>> corpus,
+                       FeatureExtractor<? super F> featureExtractor,
+                       int minFeatureCount,
+                       boolean addInterceptFeature,
+                       RegressionPrior prior,
+                       int blockSize,
+                       LogisticRegressionClassifier<F> hotStart,
+                       AnnealingSchedule annealingSchedule,
+                       double minImprovement,
+                       int rollingAverageSize,
+                       int minEpochs,
+                       int maxEpochs,
+                       ObjectHandler<LogisticRegressionClassifier<F>> classifierHandler,
+                       File spillFile,
+                       Reporter reporter) throws IOException {
+
+        MapSymbolTable featureSymbolTable = new MapSymbolTable();
+        MapSymbolTable categorySymbolTable = new MapSymbolTable();
+
+        if (reporter == null)
+            reporter = Reporters.silent();
+
+        if (addInterceptFeature)
+            featureSymbolTable.getOrAddSymbol(INTERCEPT_FEATURE_NAME);
+
+        reporter.info("Feature Extractor class=" + featureExtractor.getClass());
+        reporter.info("min feature count=" + minFeatureCount);
+
+        reporter.info("Streaming Training Data");
+        reporter.debug("  Counting features and categories");
+        ObjectToCounterMap<String> featureCounter = new ObjectToCounterMap<String>();
+        CategoryCounter<F> counter
+            = new CategoryCounter<F>(featureExtractor,featureCounter,
+                                     categorySymbolTable);
+        corpus.visitTrain(counter);
+        if (counter.mNumInstances == 0) {
+            String msg = "Require at least one training instance.";
+            throw new IllegalArgumentException(msg);
+        }
+
+        reporter.debug("  Pruning features");
+        featureCounter.prune(minFeatureCount);
+        for (String feature : featureCounter.keySet())
+            featureSymbolTable.getOrAddSymbol(feature);
+        featureCounter = null; // allow gc
+
+        int numInputDimensions = featureSymbolTable.numSymbols();
+
+        String[] categorySymbols = new String[categorySymbolTable.numSymbols()];
+        for (int i = 0; i < categorySymbols.length; ++i)
+            categorySymbols[i] = categorySymbolTable.idToSymbol(i);
+
+        Corpus<ObjectHandler<Pair<Vector,Integer>>> vectorCorpus
+            = new VectorCorpus<F>(corpus,featureExtractor,featureSymbolTable,
+                                  categorySymbolTable,addInterceptFeature,
+                                  numInputDimensions);
+        if (spillFile != null) {
+            reporter.debug("  Spilling vectors to file=" + spillFile);
+            SpillCorpus.write(vectorCorpus,counter.mNumInstances,
+                              numInputDimensions,spillFile);
+            vectorCorpus = new SpillCorpus(spillFile);
+        }
+
+        LogisticRegression lrHotStart
+            = hotStartRegression(hotStart,categorySymbols,
+                                 featureSymbolTable,numInputDimensions,
+                                 reporter);
         reporter.info(hotStart != null ? "Hot start" : "Cold start");
 
         ObjectHandler<LogisticRegression> regressionHandler
@@ -566,17 +894,12 @@ public class LogisticRegressionClassifier<E>
                                               addInterceptFeature,
                                               featureSymbolTable,
                                               categorySymbols);
-        reporter.info((regressionHandler != null)
-                      ? ("Regssion callback handler class=" + regressionHandler.getClass())
-                      : "Regression callback handler=" + null);
-        
-        // may want to trap ArithmeticExceptions from estimate() here
+
         if (blockSize == -1)
-            blockSize = Math.max(1,categories.length/50);
+            blockSize = Math.max(1,counter.mNumInstances/50);
 
         LogisticRegression model
-            = LogisticRegression.estimate(inputs,
-                                          categories,
+            = LogisticRegression.estimate(vectorCorpus,
                                           prior,
                                           blockSize,
                                           lrHotStart,
@@ -593,8 +916,6 @@ public class LogisticRegressionClassifier<E>
                                                    addInterceptFeature,
                                                    featureSymbolTable,
                                                    categorySymbols);
-
-
     }
 
     static class RegressionHandlerAdapter<F> implements ObjectHandler<LogisticRegression> {
@@ -641,6 +962,150 @@ public class LogisticRegressionClassifier<E>
         }
     }
 
+    static class CategoryCounter<H> extends FeatureCounter<H> {
+        private final SymbolTable mCategorySymbolTable;
+        int mNumInstances = 0;
+        CategoryCounter(FeatureExtractor<? super H> featureExtractor,
+                        ObjectToCounterMap<String> featureCounter,
+                        SymbolTable categorySymbolTable) {
+            super(featureExtractor,featureCounter);
+            mCategorySymbolTable = categorySymbolTable;
+        }
+        @Override
+        public void handle(Classified<H> classified) {
+            super.handle(classified);
+            mCategorySymbolTable
+                .getOrAddSymbol(classified.getClassification().bestCategory());
+            ++mNumInstances;
+        }
+    }
+
+    // extracts vectors from the underlying corpus on each visit
+    static class VectorCorpus<F> extends Corpus<ObjectHandler<Pair<Vector,Integer>>> {
+        private final Corpus<ObjectHandler<Classified<F>>> mCorpus;
+        private final FeatureExtractor<? super F> mFeatureExtractor;
+        private final SymbolTable mFeatureSymbolTable;
+        private final SymbolTable mCategorySymbolTable;
+        private final boolean mAddInterceptFeature;
+        private final int mNumSymbols;
+        VectorCorpus(Corpus<ObjectHandler<Classified<F>>> corpus,
+                     FeatureExtractor<? super F> featureExtractor,
+                     SymbolTable featureSymbolTable,
+                     SymbolTable categorySymbolTable,
+                     boolean addInterceptFeature,
+                     int numSymbols) {
+            mCorpus = corpus;
+            mFeatureExtractor = featureExtractor;
+            mFeatureSymbolTable = featureSymbolTable;
+            mCategorySymbolTable = categorySymbolTable;
+            mAddInterceptFeature = addInterceptFeature;
+            mNumSymbols = numSymbols;
+        }
+        @Override
+        public void visitTrain(final ObjectHandler<Pair<Vector,Integer>> handler)
+            throws IOException {
+
+            mCorpus.visitTrain(new ObjectHandler<Classified<F>>() {
+                    public void handle(Classified<F> classified) {
+                        String category
+                            = classified.getClassification().bestCategory();
+                        int categoryId = mCategorySymbolTable.symbolToID(category);
+                        if (categoryId < 0) {
+                            String msg = "Category not found in first pass over corpus."
+                                + " Found category=" + category;
+                            throw new IllegalStateException(msg);
+                        }
+                        Map<String,? extends Number> featureMap
+                            = mFeatureExtractor.features(classified.getObject());
+                        Vector vector
+                            = Features
+                            .toVector(featureMap,
+                                      mFeatureSymbolTable,
+                                      mNumSymbols,
+                                      mAddInterceptFeature);
+                        handler.handle(new Pair<Vector,Integer>(vector,categoryId));
+                    }
+                });
+        }
+    }
+
+    // reads vectors back from a binary spill file on each visit
+    static class SpillCorpus extends Corpus<ObjectHandler<Pair<Vector,Integer>>> {
+        private final File mFile;
+        SpillCorpus(File file) {
+            mFile = file;
+        }
+        @Override
+        public void visitTrain(ObjectHandler<Pair<Vector,Integer>> handler)
+            throws IOException {
+
+            DataInputStream in = null;
+            try {
+                in = new DataInputStream(new BufferedInputStream(new FileInputStream(mFile)));
+                int numInstances = in.readInt();
+                int numDimensions = in.readInt();
+                for (int n = 0; n < numInstances; ++n) {
+                    int category = in.readInt();
+                    int numNonZero = in.readInt();
+                    int[] keys = new int[numNonZero];
+                    float[] values = new float[numNonZero];
+                    for (int i = 0; i < numNonZero; ++i) {
+                        keys[i] = in.readInt();
+                        values[i] = in.readFloat();
+                    }
+                    Vector vector = new SparseFloatVector(keys,values,numDimensions);
+                    handler.handle(new Pair<Vector,Integer>(vector,category));
+                }
+            } finally {
+                Streams.closeQuietly(in);
+            }
+        }
+        static void write(Corpus<ObjectHandler<Pair<Vector,Integer>>> corpus,
+                          int numInstances, int numDimensions, File file)
+            throws IOException {
+
+            DataOutputStream out = null;
+            try {
+                out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+                out.writeInt(numInstances);
+                out.writeInt(numDimensions);
+                final DataOutputStream dataOut = out;
+                final int[] count = new int[1];
+                corpus.visitTrain(new ObjectHandler<Pair<Vector,Integer>>() {
+                        public void handle(Pair<Vector,Integer> example) {
+                            try {
+                                write(example.a(),example.b().intValue(),dataOut);
+                                ++count[0];
+                            } catch (IOException e) {
+                                throw new IllegalStateException("Error writing spill file.",e);
+                            }
+                        }
+                    });
+                if (count[0] != numInstances) {
+                    String msg = "Corpus must supply same instances on each visit."
+                        + " Found first count=" + numInstances
+                        + " spilled count=" + count[0];
+                    throw new IllegalArgumentException(msg);
+                }
+                out.close();
+                out = null;
+            } finally {
+                Streams.closeQuietly(out); // non-null only if writing failed
+            }
+        }
+        static void write(Vector vector, int category, DataOutputStream out)
+            throws IOException {
+
+            int[] nonZeroDims = vector.nonZeroDimensions();
+            out.writeInt(category);
+            out.writeInt(nonZeroDims.length);
+            for (int dim : nonZeroDims) {
+                out.writeInt(dim);
+                out.writeFloat((float) vector.value(dim));
+            }
+        }
+    }
+
     static class Externalizer<G> extends AbstractExternalizable {
         static final long serialVersionUID = -2003123148721825458L;
         final LogisticRegressionClassifier<G> mClassifier;
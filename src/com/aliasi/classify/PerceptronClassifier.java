@@ -19,7 +19,9 @@ package com.aliasi.classify;
 import com.aliasi.corpus.Corpus;
 import com.aliasi.corpus.ObjectHandler;
 
+import com.aliasi.features.FeatureVectorBuffer;
 import com.aliasi.features.Features;
+import com.aliasi.features.PrimitiveFeatureExtractor;
 
 import com.aliasi.matrix.KernelFunction;
 import com.aliasi.matrix.Vector;
@@ -165,7 +167,10 @@ import java.util.Map;
  * particular kernel employed.
  *
  * <p>A new input to classify is first converted to a feature
- * vector by the feature extractor.  Classification is then
+ * vector by the feature extractor.  If the feature extractor
+ * implements {@link PrimitiveFeatureExtractor}, the vector is built
+ * without an intermediate feature map using a {@link
+ * FeatureVectorBuffer} kept for each thread.  Classification is then
  * based on the sign of the following score:
  *
  * <blockquote><pre>
@@ -256,7 +261,7 @@ import java.util.Map;
  * </blockquote>
  *
  * @author  Bob Carpenter
- * @version 4.0.0
+ * @version 4.1.0
  * @since   LingPipe3.1
  * @param <E> the type of object being classified
  */
@@ -276,6 +281,14 @@ public class PerceptronClassifier<E>
     final String mAcceptCategory;
     final String mRejectCategory;
 
+    private final ThreadLocal<FeatureVectorBuffer> mFeatureBuffers
+        = new ThreadLocal<FeatureVectorBuffer>() {
+            @Override
+            protected FeatureVectorBuffer initialValue() {
+                return new FeatureVectorBuffer(mSymbolTable);
+            }
+        };
+
 
     PerceptronClassifier(FeatureExtractor<? super E> featureExtractor,
                          KernelFunction kernelFunction,
@@ -442,8 +455,8 @@ public class PerceptronClassifier<E>
      * @return The scored classification for the specified element.
      */
     public ScoredClassification classify(E in) {
-        Map<String,? extends Number> featureVector = mFeatureExtractor.features(in);
-        Vector inputVector = Features.toVector(featureVector,mSymbolTable,Integer.MAX_VALUE,false);
+        Vector inputVector = Features.toVector(in,mFeatureExtractor,mFeatureBuffers.get(),
+                                               Integer.MAX_VALUE,false);
         double sum = 0.0;
         for (int i = mBasisVectors.length; --i >= 0; )
             sum += mBasisWeights[i] * mKernelFunction.proximity(mBasisVectors[i],
@@ -31,6 +31,7 @@ import com.aliasi.util.Math;
 import com.aliasi.util.Iterators;
 import com.aliasi.util.ObjectToCounterMap;
 import com.aliasi.util.ObjectToDoubleMap;
+import com.aliasi.util.Partitions;
 import com.aliasi.util.Strings;
 
 import java.io.IOException;
@@ -46,6 +47,8 @@ import java.util.Map;
 import java.util.Random;
 import java.util.Set;
 
+import java.util.concurrent.ExecutorService;
+
 /**
  * A <code>LatentDirichletAllocation</code> object represents a latent
  * Dirichlet allocation (LDA) model.  LDA provides a Bayesian model of
@@ -337,6 +340,22 @@ import java.util.Set;
  * batch of samples.  Then it may be configured to sample only periodically
  * thereafter to avoid correlations between samples.
  *
+ * <p>Computing the distribution above takes time proportional to
+ * the number of topics for every token.  The alternative sampler
+ * {@link #sparseGibbsSampler(int[][],short,double,double,int,int,int,Random,ObjectHandler)}
+ * samples from the same distributions, but in time proportional to
+ * the number of topics actually assigned to tokens in the document
+ * or to other instances of the word, which is much faster for large
+ * numbers of topics.  The sampler
+ * {@link #parallelGibbsSampler(int[][],short,double,double,int,int,int,Random,ExecutorService,int,ObjectHandler)}
+ * further divides the documents among several workers, which sample
+ * concurrently against their own copies of the topic-word counts and
+ * merge their changes after each epoch.
+ *
+ * <p>For corpora that arrive over time, an {@link OnlineLdaEstimator}
+ * folds in batches of documents one at a time, decaying the counts
+ * from earlier batches, and produces an LDA model on demand.
+ *
  * <h3>LDA as Multi-Topic Classifier</h3>
  *
  * <p>An LDA model consists of a topic distribution Dirichlet prior
@@ -369,7 +388,10 @@ import java.util.Set;
  * <p>This class provides a method to sample these topic assignments,
  * which may then be used to form Dirichlet distributions or MAP point
  * estimates of <code>&theta;<sup>*</sup></code> for the document
- * <code>words</code>.
+ * <code>words</code>.  For many documents, the method
+ * {@link #bayesTopicEstimates(int[][],int,int,int,Random,ExecutorService,int)}
+ * computes point estimates for all of them concurrently, returning
+ * them as a matrix of documents by topics.
 
  * <h3>LDA as a Conditional Language Model</h3>
  *
@@ -487,7 +509,7 @@ import java.util.Set;
  * </ul>
  *
  * @author Bob Carpenter
- * @version 4.0.0
+ * @version 4.1.0
  * @since   LingPipe3.3
  */
 public class LatentDirichletAllocation implements Serializable {
@@ -668,23 +690,7 @@ public class LatentDirichletAllocation implements Serializable {
                                   int sampleLag,
                                   Random random) {
 
-        if (burnin < 0) {
-            String msg = "Burnin period must be non-negative."
-                + " Found burnin=" + burnin;
-            throw new IllegalArgumentException(msg);
-        }
-
-        if (numSamples < 1) {
-            String msg = "Number of samples must be at least 1."
-                + " Found numSamples=" + numSamples;
-            throw new IllegalArgumentException(msg);
-        }
-
-        if (sampleLag < 1) {
-            String msg = "Sample lag must be at least 1."
-                + " Found sampleLag=" + sampleLag;
-            throw new IllegalArgumentException(msg);
-        }
+        validateTopicSampling(numSamples,burnin,sampleLag);
 
         double docTopicPrior = documentTopicPrior();
         int numTokens = tokens.length;
@@ -797,21 +803,167 @@ public class LatentDirichletAllocation implements Serializable {
                                        int burnin,
                                        int sampleLag,
                                        Random random) {
-        short[][] sampleTopics = sampleTopics(tokens,numSamples,burnin,sampleLag,random);
+        validateTopicSampling(numSamples,burnin,sampleLag);
+        double[] result = new double[numTopics()];
+        bayesTopicEstimate(tokens,numSamples,burnin,sampleLag,random,
+                           new InferenceBuffers(numTopics()),result);
+        return result;
+    }
+
+    /**
+     * Return the Bayesian point estimates of the topic distributions
+     * for the specified documents, sampling the documents concurrently
+     * with the specified executor and number of workers.  The result is
+     * a dense matrix, with one row per document and one column per
+     * topic, where each row is the estimate that {@link
+     * #bayesTopicEstimate(int[],int,int,int,Random)} would compute for
+     * the document.
+     *
+     * <p>The documents are divided into contiguous blocks, one per
+     * worker.  Each worker reuses a single set of buffers for
+     * sampling all of the documents in its block, so memory other
+     * than the result does not grow with the number of documents.
+     *
+     * <p>A random seed for each document is drawn from the specified
+     * random number generator before sampling begins, and the
+     * document is sampled with a generator seeded with it.  Thus the
+     * result depends only on the state of the specified generator,
+     * not on the number of workers or on the order in which the
+     * workers run.  If the executor is <code>null</code>, the
+     * documents are sampled in the calling thread.
+     *
+     * @param docWords The documents, each an array of word identifiers.
+     * @param numSamples Number of Gibbs samples per document.
+     * @param burnin The number of samples to take and throw away
+     * during the burnin period.
+     * @param sampleLag The interval between samples after burnin.
+     * @param random The random number generator from which the
+     * per-document seeds are drawn.
+     * @param executor Executor service used to run the workers, or
+     * <code>null</code> to sample in the calling thread.
+     * @param numWorkers Number of blocks into which to divide the
+     * documents.
+     * @return The topic distribution estimates, indexed by document,
+     * then topic.
+     * @throws IndexOutOfBoundsException If there are tokens whose
+     * value is less than zero, or whose value is greater than the
+     * number of tokens in this model.
+     * @throws IllegalArgumentException If the number of samples is
+     * not positive, the sample lag is not positive, the burnin
+     * period is negative, or the number of workers is not positive.
+     * @throws IllegalStateException If the calling thread is
+     * interrupted while waiting for the workers.
+     */
+    public double[][] bayesTopicEstimates(final int[][] docWords,
+                                          final int numSamples,
+                                          final int burnin,
+                                          final int sampleLag,
+                                          Random random,
+                                          ExecutorService executor,
+                                          int numWorkers) {
+        validateTopicSampling(numSamples,burnin,sampleLag);
+        if (numWorkers < 1) {
+            String msg = "Number of workers must be positive."
+                + " Found numWorkers=" + numWorkers;
+            throw new IllegalArgumentException(msg);
+        }
+        final int numTopics = numTopics();
+        final double[][] result = new double[docWords.length][numTopics];
+        final long[] seeds = new long[docWords.length];
+        for (int doc = 0; doc < docWords.length; ++doc)
+            seeds[doc] = random.nextLong();
+        Partitions.forEachPartition(docWords.length,numWorkers,executor,
+                                    "LDA sampling",
+                                    new Partitions.Task<Void>() {
+                public Void run(int partition, int start, int end) {
+                    InferenceBuffers buffers = new InferenceBuffers(numTopics);
+                    Random docRandom = new Random();
+                    for (int doc = start; doc < end; ++doc) {
+                        docRandom.setSeed(seeds[doc]);
+                        bayesTopicEstimate(docWords[doc],numSamples,burnin,sampleLag,
+                                           docRandom,buffers,result[doc]);
+                    }
+                    return null;
+                }
+            });
+        return result;
+    }
+
+    // same sampling as sampleTopics(), but only accumulates topic
+    // counts of the samples, using the buffers for all working space
+    void bayesTopicEstimate(int[] tokens,
+                            int numSamples,
+                            int burnin,
+                            int sampleLag,
+                            Random random,
+                            InferenceBuffers buffers,
+                            double[] result) {
+        double docTopicPrior = documentTopicPrior();
+        int numTokens = tokens.length;
         int numTopics = numTopics();
-        int[] counts = new int[numTopics];
-        for (short[] topics : sampleTopics) {
-            for (int tok = 0; tok < topics.length; ++tok)
-                ++counts[topics[tok]];
+
+        short[] currentSample = buffers.sample(numTokens);
+        int[] topicCount = buffers.mTopicCount;
+        int[] counts = buffers.mCounts;
+        double[] topicDistro = buffers.mTopicDistro;
+        Arrays.fill(topicCount,0);
+        Arrays.fill(counts,0);
+
+        for (int token = 0; token < numTokens; ++token) {
+            int randomTopic = random.nextInt(numTopics);
+            ++topicCount[randomTopic];
+            currentSample[token] = (short) randomTopic;
+        }
+
+        int numEpochs = burnin + sampleLag * (numSamples - 1);
+        for (int epoch = 0; epoch < numEpochs; ++epoch) {
+            for (int token = 0; token < numTokens; ++token) {
+                int word = tokens[token];
+                int currentTopic = currentSample[token];
+                --topicCount[currentTopic];
+                for (int topic = 0; topic < numTopics; ++topic) {
+                    topicDistro[topic]
+                        = (topicCount[topic] + docTopicPrior)
+                        * wordProbability(topic,word)
+                        + (topic == 0 ? 0.0 : topicDistro[topic-1]);
+                }
+                int sampledTopic = Statistics.sample(topicDistro,random);
+                ++topicCount[sampledTopic];
+                currentSample[token] = (short) sampledTopic;
+            }
+            if ((epoch >= burnin) && (((epoch - burnin) % sampleLag) == 0)) {
+                for (int topic = 0; topic < numTopics; ++topic)
+                    counts[topic] += topicCount[topic];
+            }
         }
-        double totalCount = 0;
         for (int topic = 0; topic < numTopics; ++topic)
-            totalCount += counts[topic];
-        double[] result = new double[numTopics];
+            counts[topic] += topicCount[topic];
+
+        double totalCount = ((double) numSamples) * numTokens;
         for (int topic = 0; topic < numTopics; ++topic)
             result[topic] = counts[topic] / totalCount;
-        return result;
+    }
+
+    static void validateTopicSampling(int numSamples,
+                                      int burnin,
+                                      int sampleLag) {
+        if (burnin < 0) {
+            String msg = "Burnin period must be non-negative."
+                + " Found burnin=" + burnin;
+            throw new IllegalArgumentException(msg);
+        }
 
+        if (numSamples < 1) {
+            String msg = "Number of samples must be at least 1."
+                + " Found numSamples=" + numSamples;
+            throw new IllegalArgumentException(msg);
+        }
+
+        if (sampleLag < 1) {
+            String msg = "Sample lag must be at least 1."
+                + " Found sampleLag=" + sampleLag;
+            throw new IllegalArgumentException(msg);
+        }
     }
 
 
@@ -1019,6 +1171,636 @@ public class LatentDirichletAllocation implements Serializable {
         throw new IllegalStateException("unreachable in practice because of return if epoch==numEpochs");
     }
 
+    /**
+     * Run Gibbs sampling exactly as for {@link
+     * #gibbsSampler(int[][],short,double,double,int,int,int,Random,ObjectHandler)},
+     * but sampling each token's topic in time proportional to the
+     * number of topics with non-zero counts in the token's document
+     * and for the token's word, rather than the total number of
+     * topics.  The samples are drawn from the same conditional
+     * distributions, so the resulting chain has the same stationary
+     * distribution, though it will not produce the same samples as
+     * the dense sampler given the same random number generator.
+     *
+     * <p>The sampler uses the bucket decomposition of Yao, Mimno and
+     * McCallum (2009).  The unnormalized conditional probability of a
+     * topic for a token with word <code>w</code> in document
+     * <code>d</code> is split into three terms:
+     *
+     * <blockquote><pre>
+     * (count'(d,topic) + &alpha;) * (count'(topic,w) + &beta;) / (count'(topic) + numWords*&beta;)
+     *   = &alpha; * &beta; / (count'(topic) + numWords*&beta;)
+     *   + count'(d,topic) * &beta; / (count'(topic) + numWords*&beta;)
+     *   + (count'(d,topic) + &alpha;) * count'(topic,w) / (count'(topic) + numWords*&beta;)</pre></blockquote>
+     *
+     * The totals of the first two buckets over topics are updated
+     * incrementally as counts change, and the second and third only
+     * have non-zero terms for topics that occur in the document or
+     * with the word, respectively.  A uniform draw over the total of
+     * the three buckets is resolved by iterating over the topics in
+     * the bucket it falls in.  Because the priors are usually small,
+     * the first bucket, which requires iterating over every topic,
+     * is rarely chosen.
+     *
+     * <p>The speedup over the dense sampler grows with the number of
+     * topics and with the sparsity of the counts, which increases as
+     * the sampler converges.  For small numbers of topics, the dense
+     * sampler may be faster.
+     *
+     * <p>The samples passed to the handler and returned are the same
+     * kind of object as returned by the dense sampler.
+     *
+     * <p><b>Reference</b>
+     *
+     * <ul>
+     * <li>Yao, Limin, David Mimno, and Andrew McCallum.  2009.  Efficient
+     * methods for topic model inference on streaming document
+     * collections.  In <i>KDD</i>.</li>
+     * </ul>
+     *
+     * @param docWords Corpus of documents to be processed.
+     * @param numTopics Number of latent topics to generate.
+     * @param docTopicPrior Prior count of topics in a document.
+     * @param topicWordPrior Prior count of words in a topic.
+     * @param burninEpochs  Number of epochs to run before taking a sample.
+     * @param sampleLag Frequency between samples.
+     * @param numSamples Number of samples to take before exiting.
+     * @param random Random number generator.
+     * @param handler Handler to which the samples are sent.
+     * @return The final Gibbs sample.
+     */
+    public static GibbsSample
+        sparseGibbsSampler(int[][] docWords,
+                           short numTopics,
+                           double docTopicPrior,
+                           double topicWordPrior,
+
+                           int burninEpochs,
+                           int sampleLag,
+                           int numSamples,
+
+                           Random random,
+
+                           ObjectHandler<GibbsSample> handler) {
+
+        validateInputs(docWords,numTopics,docTopicPrior,topicWordPrior,burninEpochs,sampleLag,numSamples);
+
+        int numDocs = docWords.length;
+        int numWords = max(docWords) + 1;
+
+        int numTokens = 0;
+        for (int doc = 0; doc < numDocs; ++doc)
+            numTokens += docWords[doc].length;
+
+        short[][] currentSample = new short[numDocs][];
+        for (int doc = 0; doc < numDocs; ++doc)
+            currentSample[doc] = new short[docWords[doc].length];
+
+        int[][] docTopicCount = new int[numDocs][numTopics];
+        int[][] wordTopicCount = new int[numWords][numTopics];
+        int[] topicTotalCount = new int[numTopics];
+
+        for (int doc = 0; doc < numDocs; ++doc) {
+            for (int tok = 0; tok < docWords[doc].length; ++tok) {
+                int word = docWords[doc][tok];
+                int topic = random.nextInt(numTopics);
+                currentSample[doc][tok] = (short) topic;
+                ++docTopicCount[doc][topic];
+                ++wordTopicCount[word][topic];
+                ++topicTotalCount[topic];
+            }
+        }
+
+        SparseSampler sampler
+            = new SparseSampler(docWords,currentSample,
+                                docTopicCount,wordTopicCount,topicTotalCount,
+                                docTopicPrior,topicWordPrior);
+        int numEpochs = burninEpochs + sampleLag * (numSamples - 1);
+        for (int epoch = 0; epoch <= numEpochs; ++epoch) {
+            int numChangedTopics = sampler.sampleEpoch(random);
+            if ((epoch >= burninEpochs)
+                && (((epoch - burninEpochs) % sampleLag) == 0)) {
+                GibbsSample sample
+                    = new GibbsSample(epoch,
+                                      currentSample,
+                                      docWords,
+                                      docTopicPrior,
+                                      topicWordPrior,
+                                      docTopicCount,
+                                      wordTopicCount,
+                                      topicTotalCount,
+                                      numChangedTopics,
+                                      numWords,
+                                      numTokens);
+                if (handler != null)
+                    handler.handle(sample);
+                if (epoch == numEpochs)
+                    return sample;
+            }
+        }
+        throw new IllegalStateException("unreachable in practice because of return if epoch==numEpochs");
+    }
+
+    /**
+     * Run Gibbs sampling in parallel using the approximate distributed
+     * sampler (AD-LDA) of Newman et al. (2009), returning the final
+     * sample and sending intermediate samples to an optional handler
+     * just as for {@link
+     * #gibbsSampler(int[][],short,double,double,int,int,int,Random,ObjectHandler)}.
+     *
+     * <p>The documents are divided into one contiguous shard per
+     * worker, with roughly the same number of tokens in each.  In each
+     * epoch, every shard copies the topic-word and topic counts at the
+     * start of the epoch and resamples the topics of its documents
+     * against its copy, using the sparse sampler described in {@link
+     * #sparseGibbsSampler(int[][],short,double,double,int,int,int,Random,ObjectHandler)}.
+     * The shards are sampled concurrently by the executor.  At the end
+     * of the epoch, the changes each shard made to its copy are added
+     * to the shared counts.  The document-topic counts and topic
+     * assignments belong to a single shard and are updated in place.
+     *
+     * <p>Because each shard does not see the other shards' changes
+     * until the end of the epoch, this is not an exact Gibbs sampler,
+     * but in practice it converges to models of the same quality as
+     * sequential sampling.  Each shard samples with its own random
+     * number generator, seeded from the specified generator at the
+     * start of each epoch, so the samples depend on the number of
+     * workers but not on the executor or the scheduling of its threads.
+     *
+     * <p>Each shard other than the first requires its own copy of the
+     * topic-word counts, and a further copy of the shared counts is
+     * taken at the start of each epoch so the shards' changes can be
+     * merged at its end.  Thus with more than one worker, memory grows
+     * by <code>4 * numWords * numTopics</code> bytes for each worker,
+     * including the first.  With a single worker, the counts are
+     * sampled in place and no copies are made.  If the executor
+     * is <code>null</code>, the shards are sampled one after another in
+     * the calling thread, which produces the same samples as an
+     * executor would.
+     *
+     * <p><b>Reference</b>
+     *
+     * <ul>
+     * <li>Newman, David, Arthur Asuncion, Padhraic Smyth, and Max
+     * Welling.  2009.  Distributed algorithms for topic models.
+     * <i>Journal of Machine Learning Research</i> <b>10</b>:1801-1828.</li>
+     * </ul>
+     *
+     * @param docWords Corpus of documents to be processed.
+     * @param numTopics Number of latent topics to generate.
+     * @param docTopicPrior Prior count of topics in a document.
+     * @param topicWordPrior Prior count of words in a topic.
+     * @param burninEpochs  Number of epochs to run before taking a sample.
+     * @param sampleLag Frequency between samples.
+     * @param numSamples Number of samples to take before exiting.
+     * @param random Random number generator.
+     * @param executor Executor service running the shards, or
+     * <code>null</code> to run them in the calling thread.
+     * @param numWorkers Number of shards into which documents are divided.
+     * @param handler Handler to which the samples are sent.
+     * @return The final Gibbs sample.
+     * @throws IllegalArgumentException If the number of workers is
+     * less than one, or under the conditions for the sequential
+     * sampler.
+     * @throws IllegalStateException If the thread is interrupted
+     * while waiting for the workers.
+     */
+    public static GibbsSample
+        parallelGibbsSampler(final int[][] docWords,
+                             short numTopics,
+                             final double docTopicPrior,
+                             final double topicWordPrior,
+
+                             int burninEpochs,
+                             int sampleLag,
+                             int numSamples,
+
+                             Random random,
+                             ExecutorService executor,
+                             int numWorkers,
+
+                             ObjectHandler<GibbsSample> handler) {
+
+        validateInputs(docWords,numTopics,docTopicPrior,topicWordPrior,burninEpochs,sampleLag,numSamples);
+        if (numWorkers < 1) {
+            String msg = "Number of workers must be positive."
+                + " Found numWorkers=" + numWorkers;
+            throw new IllegalArgumentException(msg);
+        }
+
+        int numDocs = docWords.length;
+        final int numWords = max(docWords) + 1;
+
+        int numTokens = 0;
+        for (int doc = 0; doc < numDocs; ++doc)
+            numTokens += docWords[doc].length;
+
+        final short[][] currentSample = new short[numDocs][];
+        for (int doc = 0; doc < numDocs; ++doc)
+            currentSample[doc] = new short[docWords[doc].length];
+
+        final int[][] docTopicCount = new int[numDocs][numTopics];
+        final int[][] wordTopicCount = new int[numWords][numTopics];
+        final int[] topicTotalCount = new int[numTopics];
+
+        for (int doc = 0; doc < numDocs; ++doc) {
+            for (int tok = 0; tok < docWords[doc].length; ++tok) {
+                int word = docWords[doc][tok];
+                int topic = random.nextInt(numTopics);
+                currentSample[doc][tok] = (short) topic;
+                ++docTopicCount[doc][topic];
+                ++wordTopicCount[word][topic];
+                ++topicTotalCount[topic];
+            }
+        }
+
+        final int numShards = java.lang.Math.max(1,java.lang.Math.min(numWorkers,numDocs));
+        final int[] shardStarts = shardStarts(docWords,numShards,numTokens);
+        // shard 0 samples against the shared counts, which are only
+        // read by other shards when they copy them before sampling
+        final int[][][] shardWordTopicCounts = new int[numShards][][];
+        final int[][] shardTopicTotalCounts = new int[numShards][];
+        shardWordTopicCounts[0] = wordTopicCount;
+        shardTopicTotalCounts[0] = topicTotalCount;
+        for (int shard = 1; shard < numShards; ++shard) {
+            shardWordTopicCounts[shard] = new int[numWords][numTopics];
+            shardTopicTotalCounts[shard] = new int[numTopics];
+        }
+        final int[][] startWordTopicCount
+            = numShards > 1 ? new int[numWords][numTopics] : null;
+        final int[] startTopicTotalCount = new int[numTopics];
+        // samplers persist across epochs; their word-topic counts are
+        // refreshed in place after each merge
+        final SparseSampler[] samplers = new SparseSampler[numShards];
+        for (int shard = 0; shard < numShards; ++shard) {
+            int first = shardStarts[shard];
+            int last = shardStarts[shard+1];
+            samplers[shard]
+                = new SparseSampler(Arrays.copyOfRange(docWords,first,last),
+                                    Arrays.copyOfRange(currentSample,first,last),
+                                    Arrays.copyOfRange(docTopicCount,first,last),
+                                    shardWordTopicCounts[shard],
+                                    shardTopicTotalCounts[shard],
+                                    docTopicPrior,topicWordPrior);
+        }
+
+        int numEpochs = burninEpochs + sampleLag * (numSamples - 1);
+        for (int epoch = 0; epoch <= numEpochs; ++epoch) {
+            final long[] seeds = new long[numShards];
+            for (int shard = 0; shard < numShards; ++shard)
+                seeds[shard] = random.nextLong();
+            final int[] numChangedTopicsByShard = new int[numShards];
+            System.arraycopy(topicTotalCount,0,startTopicTotalCount,0,numTopics);
+            if (numShards > 1) {
+                Partitions.forEachPartition(numWords,numShards,executor,
+                                            "LDA sampling",
+                                            new Partitions.Task<Void>() {
+                        public Void run(int partition, int start, int end) {
+                            for (int word = start; word < end; ++word) {
+                                int[] counts = wordTopicCount[word];
+                                System.arraycopy(counts,0,startWordTopicCount[word],0,
+                                                 counts.length);
+                                for (int shard = 1; shard < numShards; ++shard)
+                                    samplers[shard].setWordTopicCounts(word,counts);
+                            }
+                            return null;
+                        }
+                    });
+                for (int shard = 1; shard < numShards; ++shard)
+                    System.arraycopy(topicTotalCount,0,shardTopicTotalCounts[shard],0,
+                                     topicTotalCount.length);
+            }
+            Partitions.forEachPartition(numShards,numShards,executor,
+                                        "LDA sampling",
+                                        new Partitions.Task<Void>() {
+                    public Void run(int partition, int start, int end) {
+                        for (int shard = start; shard < end; ++shard)
+                            numChangedTopicsByShard[shard]
+                                = samplers[shard].sampleEpoch(new Random(seeds[shard]));
+                        return null;
+                    }
+                });
+            if (numShards > 1) {
+                // shared counts hold shard 0's; add other shards' changes
+                Partitions.forEachPartition(numWords,numShards,executor,
+                                            "LDA sampling",
+                                            new Partitions.Task<Void>() {
+                        public Void run(int partition, int start, int end) {
+                            for (int word = start; word < end; ++word) {
+                                int[] counts = wordTopicCount[word];
+                                int[] startCounts = startWordTopicCount[word];
+                                for (int topic = 0; topic < counts.length; ++topic) {
+                                    int count = counts[topic];
+                                    for (int shard = 1; shard < numShards; ++shard)
+                                        count += shardWordTopicCounts[shard][word][topic]
+                                            - startCounts[topic];
+                                    samplers[0].setWordTopicCount(word,topic,count);
+                                }
+                            }
+                            return null;
+                        }
+                    });
+                for (int shard = 1; shard < numShards; ++shard)
+                    for (int topic = 0; topic < numTopics; ++topic)
+                        topicTotalCount[topic]
+                            += shardTopicTotalCounts[shard][topic]
+                            - startTopicTotalCount[topic];
+            }
+            int numChangedTopics = 0;
+            for (int shard = 0; shard < numShards; ++shard)
+                numChangedTopics += numChangedTopicsByShard[shard];
+
+            if ((epoch >= burninEpochs)
+                && (((epoch - burninEpochs) % sampleLag) == 0)) {
+                GibbsSample sample
+                    = new GibbsSample(epoch,
+                                      currentSample,
+                                      docWords,
+                                      docTopicPrior,
+                                      topicWordPrior,
+                                      docTopicCount,
+                                      wordTopicCount,
+                                      topicTotalCount,
+                                      numChangedTopics,
+                                      numWords,
+                                      numTokens);
+                if (handler != null)
+                    handler.handle(sample);
+                if (epoch == numEpochs)
+                    return sample;
+            }
+        }
+        throw new IllegalStateException("unreachable in practice because of return if epoch==numEpochs");
+    }
+
+    // start doc of each shard, with roughly equal tokens and at least
+    // one doc per shard, plus an end marker
+    static int[] shardStarts(int[][] docWords, int numShards, int numTokens) {
+        int[] starts = new int[numShards + 1];
+        int doc = 0;
+        long tokens = 0;
+        for (int shard = 1; shard < numShards; ++shard) {
+            long target = (long) shard * numTokens / numShards;
+            do {
+                tokens += docWords[doc++].length;
+            } while (tokens < target && docWords.length - doc > numShards - shard);
+            starts[shard] = doc;
+        }
+        starts[numShards] = docWords.length;
+        return starts;
+    }
+
+    // working space for topic inference, reused across documents
+    static class InferenceBuffers {
+        private short[] mSample = new short[16];
+        final int[] mTopicCount;
+        final int[] mCounts;
+        final double[] mTopicDistro;
+        InferenceBuffers(int numTopics) {
+            mTopicCount = new int[numTopics];
+            mCounts = new int[numTopics];
+            mTopicDistro = new double[numTopics];
+        }
+        short[] sample(int numTokens) {
+            if (mSample.length < numTokens)
+                mSample = new short[java.lang.Math.max(numTokens,2 * mSample.length)];
+            return mSample;
+        }
+    }
+
+    // SparseLDA sampler over shared count arrays; see sparseGibbsSampler
+    static class SparseSampler {
+        private final int[][] mDocWords;
+        private final short[][] mCurrentSample;
+        private final int[][] mDocTopicCount;
+        private final int[][] mWordTopicCount;
+        private final int[] mTopicTotalCount;
+        private final int mNumTopics;
+        private final double mDocTopicPrior;
+        private final double mTopicWordPrior;
+        private final double mNumWordsTimesTopicWordPrior;
+
+        private final int[][] mWordTopics;     // topics with non-zero count per word
+        private final int[] mNumWordTopics;
+        private final int[] mDocTopics;        // topics with non-zero count in doc
+        private int mNumDocTopics;
+        private final double[] mCoefficients;  // (count(doc,t)+alpha)/(count(t)+V*beta)
+        private final double[] mWordTopicMass;
+
+        private double mSmoothingMass;         // sum_t alpha*beta/(count(t)+V*beta)
+        private double mDocMass;               // sum_t count(doc,t)*beta/(count(t)+V*beta)
+
+        SparseSampler(int[][] docWords,
+                      short[][] currentSample,
+                      int[][] docTopicCount,
+                      int[][] wordTopicCount,
+                      int[] topicTotalCount,
+                      double docTopicPrior,
+                      double topicWordPrior) {
+            mDocWords = docWords;
+            mCurrentSample = currentSample;
+            mDocTopicCount = docTopicCount;
+            mWordTopicCount = wordTopicCount;
+            mTopicTotalCount = topicTotalCount;
+            mNumTopics = topicTotalCount.length;
+            mDocTopicPrior = docTopicPrior;
+            mTopicWordPrior = topicWordPrior;
+            mNumWordsTimesTopicWordPrior = wordTopicCount.length * topicWordPrior;
+
+            int numWords = wordTopicCount.length;
+            mWordTopics = new int[numWords][];
+            mNumWordTopics = new int[numWords];
+            for (int word = 0; word < numWords; ++word) {
+                int[] counts = wordTopicCount[word];
+                int numNonZero = 0;
+                for (int topic = 0; topic < mNumTopics; ++topic)
+                    if (counts[topic] > 0)
+                        ++numNonZero;
+                int[] topics = new int[java.lang.Math.max(4,numNonZero)];
+                for (int topic = 0; topic < mNumTopics; ++topic)
+                    if (counts[topic] > 0)
+                        topics[mNumWordTopics[word]++] = topic;
+                mWordTopics[word] = topics;
+            }
+            mDocTopics = new int[mNumTopics];
+            mCoefficients = new double[mNumTopics];
+            mWordTopicMass = new double[mNumTopics];
+        }
+
+        // resamples every token once, returning number of topics changed
+        int sampleEpoch(Random random) {
+            // recomputed each epoch to bound accumulated rounding
+            mSmoothingMass = 0.0;
+            for (int topic = 0; topic < mNumTopics; ++topic) {
+                double denom = mTopicTotalCount[topic] + mNumWordsTimesTopicWordPrior;
+                mSmoothingMass += mDocTopicPrior * mTopicWordPrior / denom;
+                mCoefficients[topic] = mDocTopicPrior / denom;
+            }
+            int numChangedTopics = 0;
+            for (int doc = 0; doc < mDocWords.length; ++doc)
+                numChangedTopics += sampleDocument(doc,random);
+            return numChangedTopics;
+        }
+
+        int sampleDocument(int doc, Random random) {
+            int[] docWordsDoc = mDocWords[doc];
+            short[] currentSampleDoc = mCurrentSample[doc];
+            int[] docTopicCountDoc = mDocTopicCount[doc];
+            mNumDocTopics = 0;
+            mDocMass = 0.0;
+            for (int topic = 0; topic < mNumTopics; ++topic) {
+                if (docTopicCountDoc[topic] == 0) continue;
+                mDocTopics[mNumDocTopics++] = topic;
+                updateTopic(doc,topic,0);
+            }
+            int numChangedTopics = 0;
+            for (int tok = 0; tok < docWordsDoc.length; ++tok) {
+                int word = docWordsDoc[tok];
+                int currentTopic = currentSampleDoc[tok];
+                decrement(doc,word,currentTopic);
+                int sampledTopic = sample(doc,word,random);
+                increment(doc,word,sampledTopic);
+                if (sampledTopic != currentTopic) {
+                    currentSampleDoc[tok] = (short) sampledTopic;
+                    ++numChangedTopics;
+                }
+            }
+            // restore coefficients to count(doc,t) = 0 for next doc
+            for (int i = 0; i < mNumDocTopics; ++i) {
+                int topic = mDocTopics[i];
+                mCoefficients[topic]
+                    = mDocTopicPrior
+                    / (mTopicTotalCount[topic] + mNumWordsTimesTopicWordPrior);
+            }
+            return numChangedTopics;
+        }
+
+        int sample(int doc, int word, Random random) {
+            int[] docTopicCountDoc = mDocTopicCount[doc];
+            int[] wordTopicCountWord = mWordTopicCount[word];
+            int[] wordTopics = mWordTopics[word];
+            int numWordTopics = mNumWordTopics[word];
+            double wordMass = 0.0;
+            for (int i = 0; i < numWordTopics; ++i) {
+                int topic = wordTopics[i];
+                mWordTopicMass[i] = mCoefficients[topic] * wordTopicCountWord[topic];
+                wordMass += mWordTopicMass[i];
+            }
+            double u = random.nextDouble()
+                * (mSmoothingMass + mDocMass + wordMass);
+            if (u < wordMass) {
+                for (int i = 0; i < numWordTopics - 1; ++i) {
+                    u -= mWordTopicMass[i];
+                    if (u < 0.0)
+                        return wordTopics[i];
+                }
+                return wordTopics[numWordTopics - 1];
+            }
+            u -= wordMass;
+            if (u < mDocMass) {
+                for (int i = 0; i < mNumDocTopics - 1; ++i) {
+                    int topic = mDocTopics[i];
+                    u -= docTopicCountDoc[topic] * mTopicWordPrior
+                        / (mTopicTotalCount[topic] + mNumWordsTimesTopicWordPrior);
+                    if (u < 0.0)
+                        return topic;
+                }
+                if (mNumDocTopics > 0)
+                    return mDocTopics[mNumDocTopics - 1];
+            }
+            u -= mDocMass;
+            for (int topic = 0; topic < mNumTopics - 1; ++topic) {
+                u -= mDocTopicPrior * mTopicWordPrior
+                    / (mTopicTotalCount[topic] + mNumWordsTimesTopicWordPrior);
+                if (u < 0.0)
+                    return topic;
+            }
+            return mNumTopics - 1;
+        }
+
+        void decrement(int doc, int word, int topic) {
+            updateTopic(doc,topic,-1);
+            --mWordTopicCount[word][topic];
+            if (mWordTopicCount[word][topic] == 0)
+                removeWordTopic(word,topic);
+            if (mDocTopicCount[doc][topic] == 0)
+                removeDocTopic(topic);
+        }
+
+        void increment(int doc, int word, int topic) {
+            if (mDocTopicCount[doc][topic] == 0)
+                mDocTopics[mNumDocTopics++] = topic;
+            if (mWordTopicCount[word][topic] == 0)
+                addWordTopic(word,topic);
+            ++mWordTopicCount[word][topic];
+            updateTopic(doc,topic,1);
+        }
+
+        // adds delta to the doc and total counts for topic, keeping
+        // bucket masses and coefficient in sync; delta 0 adds topic's
+        // doc mass when starting a document
+        void updateTopic(int doc, int topic, int delta) {
+            int[] docTopicCountDoc = mDocTopicCount[doc];
+            double denom = mTopicTotalCount[topic] + mNumWordsTimesTopicWordPrior;
+            if (delta != 0) {
+                mSmoothingMass -= mDocTopicPrior * mTopicWordPrior / denom;
+                mDocMass -= docTopicCountDoc[topic] * mTopicWordPrior / denom;
+                docTopicCountDoc[topic] += delta;
+                mTopicTotalCount[topic] += delta;
+                denom = mTopicTotalCount[topic] + mNumWordsTimesTopicWordPrior;
+                mSmoothingMass += mDocTopicPrior * mTopicWordPrior / denom;
+            }
+            mDocMass += docTopicCountDoc[topic] * mTopicWordPrior / denom;
+            mCoefficients[topic] = (docTopicCountDoc[topic] + mDocTopicPrior) / denom;
+        }
+
+        void removeDocTopic(int topic) {
+            for (int i = 0; i < mNumDocTopics; ++i) {
+                if (mDocTopics[i] == topic) {
+                    mDocTopics[i] = mDocTopics[--mNumDocTopics];
+                    return;
+                }
+            }
+        }
+
+        void addWordTopic(int word, int topic) {
+            int[] topics = mWordTopics[word];
+            if (mNumWordTopics[word] == topics.length) {
+                topics = Arrays.copyOf(topics,
+                                       java.lang.Math.min(mNumTopics,2 * topics.length));
+                mWordTopics[word] = topics;
+            }
+            topics[mNumWordTopics[word]++] = topic;
+        }
+
+        // sets the word's counts, updating its list of topics only
+        // where a count becomes or stops being zero
+        void setWordTopicCounts(int word, int[] counts) {
+            for (int topic = 0; topic < mNumTopics; ++topic)
+                setWordTopicCount(word,topic,counts[topic]);
+        }
+
+        void setWordTopicCount(int word, int topic, int count) {
+            int oldCount = mWordTopicCount[word][topic];
+            if (count == oldCount) return;
+            if (oldCount == 0)
+                addWordTopic(word,topic);
+            else if (count == 0)
+                removeWordTopic(word,topic);
+            mWordTopicCount[word][topic] = count;
+        }
+
+        void removeWordTopic(int word, int topic) {
+            int[] topics = mWordTopics[word];
+            for (int i = 0; i < mNumWordTopics[word]; ++i) {
+                if (topics[i] == topic) {
+                    topics[i] = topics[--mNumWordTopics[word]];
+                    return;
+                }
+            }
+        }
+    }
+
     /**
      * Return an iterator over Gibbs samples for the specified
      * document-word corpus, number of topics, priors and randomizer.
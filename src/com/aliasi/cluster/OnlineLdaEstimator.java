@@ -0,0 +1,362 @@
+/*
+ * LingPipe v. 4.1.0
+ * Copyright (C) 2003-2011 Alias-i
+ *
+ * This program is licensed under the Alias-i Royalty Free License
+ * Version 1 WITHOUT ANY WARRANTY, without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the Alias-i
+ * Royalty Free License Version 1 for more details.
+ *
+ * You should have received a copy of the Alias-i Royalty Free License
+ * Version 1 along with this program; if not, visit
+ * http://alias-i.com/lingpipe/licenses/lingpipe-license-1.txt or contact
+ * Alias-i, Inc. at 181 North 11th Street, Suite 401, Brooklyn, NY 11211,
+ * +1 (718) 290-9170.
+ */
+
+
+package com.aliasi.cluster;
+
+import com.aliasi.stats.Statistics;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * An <code>OnlineLdaEstimator</code> estimates a latent Dirichlet
+ * allocation (LDA) model from a stream of document batches, folding
+ * each batch into decayed topic-word counts rather than re-estimating
+ * from the whole corpus.
+ *
+ * <p>The estimator keeps expected counts of words in topics, which are
+ * real-valued because of decay.  Training on a batch first multiplies
+ * all of the existing counts by the decay factor.  The batch is then
+ * sampled with collapsed Gibbs sampling, as described in the
+ * class documentation for {@link LatentDirichletAllocation}, with the
+ * decayed counts from earlier batches acting as fixed pseudo-counts
+ * alongside the counts of the batch itself.  In the first pass over
+ * the batch, each token's topic is sampled given the topics of the
+ * tokens before it, and the remaining passes are ordinary Gibbs
+ * sweeps over the batch.  The topic assignments from the final sweep
+ * are left in the counts, where they are decayed by later batches.
+ *
+ * <p>Counts from a batch trained <code>k</code> batches ago are
+ * weighted by <code>decay<sup>k</sup></code>.  With a decay less than
+ * one, the total count is bounded by the largest batch size divided by
+ * one minus the decay, so the model tracks drift in topics, and
+ * batches from long ago have little effect.  With a decay of one,
+ * nothing is forgotten.
+ *
+ * <p>At any point, the method {@link #lda()} returns an LDA model
+ * whose topic-word distributions are the MAP estimates given the
+ * current counts:
+ *
+ * <blockquote><pre>
+ * &phi;<sup>*</sup>[topic][word]
+ * = (count(topic,word) + &beta;) / (count(topic) + numWords*&beta;)</pre></blockquote>
+ *
+ * <h3>Memory</h3>
+ *
+ * The estimator stores one double per word per topic and one per
+ * topic, no matter how many documents it has been trained on.  The
+ * vocabulary grows to the largest word identifier seen in training.
+ * Training on a batch also requires the batch's topic assignments and
+ * an integer per topic per document in the batch.  Decay does not
+ * touch the counts; it updates a single scale factor, so it takes
+ * constant time, apart from an occasional rescaling to avoid
+ * underflow.
+ *
+ * <h3>Thread Safety</h3>
+ *
+ * An online estimator is not thread safe.  The models returned by
+ * {@link #lda()} are independent of the estimator and of each other.
+ *
+ * @author  Bob Carpenter
+ * @version 4.1.0
+ * @since   LingPipe4.1.0
+ */
+public class OnlineLdaEstimator {
+
+    private final short mNumTopics;
+    private final double mDocTopicPrior;
+    private final double mTopicWordPrior;
+    private final double mDecay;
+    private final int mNumSweeps;
+    private final Random mRandom;
+
+    // true counts are stored counts times mScale
+    private double[][] mWordTopicCounts;  // [word][topic]
+    private final double[] mTopicCounts;
+    private double mScale = 1.0;
+    private int mNumWords = 0;
+    private long mNumBatches = 0L;
+
+    /**
+     * Construct an online estimator with the specified number of
+     * topics, priors, decay, number of Gibbs sweeps per batch, and
+     * random number generator.
+     *
+     * @param numTopics Number of latent topics.
+     * @param docTopicPrior Prior count of topics in a document.
+     * @param topicWordPrior Prior count of words in a topic.
+     * @param decay Factor by which counts are multiplied before each
+     * batch is trained.
+     * @param numSweeps Number of passes over each batch.
+     * @param random Random number generator used for sampling.
+     * @throws IllegalArgumentException If the number of topics or
+     * sweeps is not positive, if either prior is not finite and
+     * positive, or if the decay is not greater than zero and at
+     * most one.
+     */
+    public OnlineLdaEstimator(short numTopics,
+                              double docTopicPrior,
+                              double topicWordPrior,
+                              double decay,
+                              int numSweeps,
+                              Random random) {
+        if (numTopics < 1) {
+            String msg = "Num topics must be positive."
+                + " Found numTopics=" + numTopics;
+            throw new IllegalArgumentException(msg);
+        }
+        if (docTopicPrior <= 0.0
+            || Double.isNaN(docTopicPrior)
+            || Double.isInfinite(docTopicPrior)) {
+            String msg = "Document-topic prior must be finite and positive."
+                + " Found docTopicPrior=" + docTopicPrior;
+            throw new IllegalArgumentException(msg);
+        }
+        if (topicWordPrior <= 0.0
+            || Double.isNaN(topicWordPrior)
+            || Double.isInfinite(topicWordPrior)) {
+            String msg = "Topic-word prior must be finite and positive."
+                + " Found topicWordPrior=" + topicWordPrior;
+            throw new IllegalArgumentException(msg);
+        }
+        if (!(decay > 0.0 && decay <= 1.0)) {
+            String msg = "Decay must be greater than 0 and at most 1."
+                + " Found decay=" + decay;
+            throw new IllegalArgumentException(msg);
+        }
+        if (numSweeps < 1) {
+            String msg = "Number of sweeps must be positive."
+                + " Found numSweeps=" + numSweeps;
+            throw new IllegalArgumentException(msg);
+        }
+        mNumTopics = numTopics;
+        mDocTopicPrior = docTopicPrior;
+        mTopicWordPrior = topicWordPrior;
+        mDecay = decay;
+        mNumSweeps = numSweeps;
+        mRandom = random;
+        mWordTopicCounts = new double[16][];
+        mTopicCounts = new double[numTopics];
+    }
+
+    /**
+     * Returns the number of topics for this estimator.
+     *
+     * @return The number of topics.
+     */
+    public int numTopics() {
+        return mNumTopics;
+    }
+
+    /**
+     * Returns one plus the largest word identifier seen in training.
+     *
+     * @return The number of words.
+     */
+    public int numWords() {
+        return mNumWords;
+    }
+
+    /**
+     * Returns the document-topic prior for this estimator.
+     *
+     * @return The document-topic prior.
+     */
+    public double documentTopicPrior() {
+        return mDocTopicPrior;
+    }
+
+    /**
+     * Returns the topic-word prior for this estimator.
+     *
+     * @return The topic-word prior.
+     */
+    public double topicWordPrior() {
+        return mTopicWordPrior;
+    }
+
+    /**
+     * Returns the factor by which counts are multiplied before
+     * each batch is trained.
+     *
+     * @return The decay factor.
+     */
+    public double decay() {
+        return mDecay;
+    }
+
+    /**
+     * Returns the number of batches trained.
+     *
+     * @return The number of batches.
+     */
+    public long numBatches() {
+        return mNumBatches;
+    }
+
+    /**
+     * Returns the current decayed count of the specified word in the
+     * specified topic.  Words beyond those seen in training have
+     * count zero.
+     *
+     * @param topic Topic identifier.
+     * @param word Word identifier.
+     * @return The count of the word in the topic.
+     * @throws IndexOutOfBoundsException If the topic or word is negative,
+     * or the topic is not less than the number of topics.
+     */
+    public double topicWordCount(int topic, int word) {
+        if (topic >= mNumTopics)
+            throw new IndexOutOfBoundsException("topic=" + topic);
+        if (word >= mNumWords)
+            return 0.0;
+        return mWordTopicCounts[word][topic] * mScale;
+    }
+
+    /**
+     * Returns the current decayed count of all words in the specified
+     * topic.
+     *
+     * @param topic Topic identifier.
+     * @return The count of the topic.
+     * @throws IndexOutOfBoundsException If the topic is not between 0
+     * (inclusive) and the number of topics (exclusive).
+     */
+    public double topicCount(int topic) {
+        return mTopicCounts[topic] * mScale;
+    }
+
+    /**
+     * Decays the existing counts, then samples topics for the
+     * specified batch of documents and adds them to the counts,
+     * returning the topic assignments from the final sweep.  See the
+     * class documentation for details.
+     *
+     * <p>Documents are represented as arrays of word identifiers, as
+     * produced by {@link
+     * LatentDirichletAllocation#tokenizeDocuments(CharSequence[],com.aliasi.tokenizer.TokenizerFactory,com.aliasi.symbol.SymbolTable,int)}.
+     * To grow the vocabulary over batches, the same symbol table
+     * should be used for every batch.
+     *
+     * @param docWords Batch of documents.
+     * @return Topic assignments to the tokens of the documents.
+     * @throws IllegalArgumentException If any word identifier is
+     * negative.
+     */
+    public short[][] train(int[][] docWords) {
+        LatentDirichletAllocation
+            .validateInputs(docWords,mNumTopics,mDocTopicPrior,mTopicWordPrior);
+        ensureNumWords(LatentDirichletAllocation.max(docWords) + 1);
+
+        mScale *= mDecay;
+        if (mScale < MIN_SCALE)
+            rescale();
+        double increment = 1.0 / mScale;
+        double numWordsTimesTopicWordPrior = mNumWords * mTopicWordPrior;
+        double[] topicCounts = mTopicCounts;
+        int numTopics = mNumTopics;
+
+        short[][] sample = new short[docWords.length][];
+        int[][] docTopicCount = new int[docWords.length][numTopics];
+        double[] topicDistro = new double[numTopics];
+        for (int sweep = 0; sweep < mNumSweeps; ++sweep) {
+            for (int doc = 0; doc < docWords.length; ++doc) {
+                int[] docWordsDoc = docWords[doc];
+                int[] docTopicCountDoc = docTopicCount[doc];
+                if (sweep == 0)
+                    sample[doc] = new short[docWordsDoc.length];
+                short[] sampleDoc = sample[doc];
+                for (int tok = 0; tok < docWordsDoc.length; ++tok) {
+                    double[] wordTopicCountWord = mWordTopicCounts[docWordsDoc[tok]];
+                    if (sweep > 0) {
+                        int currentTopic = sampleDoc[tok];
+                        --docTopicCountDoc[currentTopic];
+                        wordTopicCountWord[currentTopic] -= increment;
+                        topicCounts[currentTopic] -= increment;
+                    }
+                    double total = 0.0;
+                    for (int topic = 0; topic < numTopics; ++topic) {
+                        total += (docTopicCountDoc[topic] + mDocTopicPrior)
+                            * (wordTopicCountWord[topic] * mScale + mTopicWordPrior)
+                            / (topicCounts[topic] * mScale + numWordsTimesTopicWordPrior);
+                        topicDistro[topic] = total;
+                    }
+                    int sampledTopic = Statistics.sample(topicDistro,mRandom);
+                    sampleDoc[tok] = (short) sampledTopic;
+                    ++docTopicCountDoc[sampledTopic];
+                    wordTopicCountWord[sampledTopic] += increment;
+                    topicCounts[sampledTopic] += increment;
+                }
+            }
+        }
+        ++mNumBatches;
+        return sample;
+    }
+
+    /**
+     * Returns an LDA model with the MAP estimates of the topic-word
+     * distributions given the current counts.  The model is a copy,
+     * so further training does not affect it.
+     *
+     * @return The current LDA model.
+     * @throws IllegalStateException If no words have been seen in
+     * training.
+     */
+    public LatentDirichletAllocation lda() {
+        if (mNumWords == 0) {
+            String msg = "Require training data before creating model.";
+            throw new IllegalStateException(msg);
+        }
+        double numWordsTimesTopicWordPrior = mNumWords * mTopicWordPrior;
+        double[][] topicWordProbs = new double[mNumTopics][mNumWords];
+        for (int topic = 0; topic < mNumTopics; ++topic) {
+            double denom = mTopicCounts[topic] * mScale + numWordsTimesTopicWordPrior;
+            for (int word = 0; word < mNumWords; ++word)
+                topicWordProbs[topic][word]
+                    = (mWordTopicCounts[word][topic] * mScale + mTopicWordPrior)
+                    / denom;
+        }
+        return new LatentDirichletAllocation(mDocTopicPrior,topicWordProbs);
+    }
+
+    void ensureNumWords(int numWords) {
+        if (numWords <= mNumWords)
+            return;
+        if (numWords > mWordTopicCounts.length)
+            mWordTopicCounts
+                = Arrays.copyOf(mWordTopicCounts,
+                                java.lang.Math.max(numWords,2 * mWordTopicCounts.length));
+        for (int word = mNumWords; word < numWords; ++word)
+            mWordTopicCounts[word] = new double[mNumTopics];
+        mNumWords = numWords;
+    }
+
+    void rescale() {
+        for (int word = 0; word < mNumWords; ++word) {
+            double[] counts = mWordTopicCounts[word];
+            for (int topic = 0; topic < counts.length; ++topic)
+                counts[topic] *= mScale;
+        }
+        for (int topic = 0; topic < mTopicCounts.length; ++topic)
+            mTopicCounts[topic] *= mScale;
+        mScale = 1.0;
+    }
+
+    // keeps stored counts well within double range
+    static final double MIN_SCALE = 1e-100;
+
+}
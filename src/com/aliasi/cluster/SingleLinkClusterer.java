@@ -17,14 +17,17 @@
 package com.aliasi.cluster;
 
 import com.aliasi.util.Distance;
-import com.aliasi.util.ScoredObject;
+import com.aliasi.util.Partitions;
 
-import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Comparator;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Set;
 
+import java.util.concurrent.ExecutorService;
+
 /**
  * A <code>SingleLinkClusterer</code> implements standard single-link
  * agglomerative clustering.  Single link clustering is a greedy
@@ -125,7 +128,7 @@ import java.util.Set;
  * Data</i>.  Prentice-Hall.
  * </blockquote>
  *
- * The minimum spanning tree is constructed using Kruskal's algorithm,
+ * The minimum spanning tree is constructed using Prim's algorithm,
  * which is described in:
  *
  * <blockquote>
@@ -134,19 +137,30 @@ import java.util.Set;
  * <i>Introduction to Algorithms</i>. MIT Press.
  * </blockquote>
  *
- * This algorithm requires an efficient lookup of whether two
- * nodes are already in the same connected component, which
- * is implemented by the standard disjoint set algorithm with
- * path compression (also described in Cormen et al.).
+ * <P>In brief, the tree is grown from the first element by repeatedly
+ * adding the element closest to any element already in the tree.
+ * Only the closest tree element and its distance are stored for each
+ * element not yet in the tree, so each time an element is added, its
+ * distances to the remaining elements are computed and the closest
+ * remaining element is found in a single pass.  With <code>n</code>
+ * objects, this requires <code>n(n-1)/2</code> distance computations
+ * and <code>O(n<sup><sup>2</sup></sup>)</code> time, but only
+ * <code>O(n)</code> memory.  The <code>n-1</code> edges of the
+ * spanning tree are then sorted by distance and merged in order of
+ * increasing distance, using the dereferencing of dendrograms as a
+ * disjoint set structure with path compression.  Ties among distances
+ * are broken by the order of the elements in the input set's
+ * iterator, so the result is the same as linking every pair of
+ * elements in order of increasing distance.
+ *
+ * <h3>Parallel Distance Computation</h3>
  *
- * <P>In brief, the algorithm sorts all pairs of objects in order of
- * increasing distance (with <code>n</code> objects that involves
- * sorting <code>n<sup><sup>2</sup></sup></code> pairs of objects,
- * leading to an initial step with worst case time complexity bound
- * <code>O(n<sup><sup>2</sup></sup> log n)</code>.  The pairs are then
- * merged in order of decreasing distance.  The sets involved in
- * Kruskal's algorithm translate directly into dendrograms with their
- * dereferencing.
+ * If the clusterer is constructed with an executor service, the
+ * distance computations for each element added to the tree are
+ * divided among the specified number of workers, which run on the
+ * executor.  The distance must then be safe for concurrent use by
+ * multiple threads.  The dendrogram returned does not depend on the
+ * number of workers.
  *
  * @author  Bob Carpenter
  * @version 4.1.0
@@ -156,6 +170,9 @@ import java.util.Set;
 public class SingleLinkClusterer<E>
     extends AbstractHierarchicalClusterer<E> {
 
+    private final ExecutorService mExecutor;
+    private final int mNumWorkers;
+
     /**
      * Construct a single-link clusterer with the specified distance
      * bound.
@@ -166,7 +183,7 @@ public class SingleLinkClusterer<E>
      * a non-negative number.
      */
     public SingleLinkClusterer(double maxDistance, Distance<? super E> distance) {
-        super(maxDistance,distance);
+        this(maxDistance,distance,null,1);
     }
 
     /**
@@ -180,6 +197,38 @@ public class SingleLinkClusterer<E>
         this(Double.POSITIVE_INFINITY,distance);
     }
 
+    /**
+     * Construct a single-link clusterer with the specified distance
+     * bound that computes distances concurrently with the specified
+     * executor and number of workers.  If the executor is
+     * <code>null</code>, distances are computed in the calling
+     * thread.  See the class documentation for more information.
+     *
+     * @param maxDistance Maximum distance for clusters.
+     * @param distance Distance measure between objects to cluster,
+     * which must be thread safe if the executor is not null.
+     * @param executor Executor service used to run the workers, or
+     * <code>null</code> to compute distances in the calling thread.
+     * @param numWorkers Number of workers among which to divide the
+     * distance computations.
+     * @throws IllegalArgumentException If the specified bound is not
+     * a non-negative number, or if the number of workers is not
+     * positive.
+     */
+    public SingleLinkClusterer(double maxDistance,
+                               Distance<? super E> distance,
+                               ExecutorService executor,
+                               int numWorkers) {
+        super(maxDistance,distance);
+        if (numWorkers < 1) {
+            String msg = "Number of workers must be positive."
+                + " Found numWorkers=" + numWorkers;
+            throw new IllegalArgumentException(msg);
+        }
+        mExecutor = executor;
+        mNumWorkers = numWorkers;
+    }
+
     /**
      * Return the array of clusters derived from the specified
      * distance matrix by performing single-link clustering up to the
@@ -192,6 +241,8 @@ public class SingleLinkClusterer<E>
      * @param elementSet Set of elements to cluster.
      * @return Clustering in the form of a set of sets of elements.
      * @throws IllegalArgumentException If the set of elements is empty.
+     * @throws IllegalStateException If the calling thread is
+     * interrupted while waiting for the workers.
      */
     @Override
     public Dendrogram<E> hierarchicalCluster(Set<? extends E> elementSet) {
@@ -202,61 +253,38 @@ public class SingleLinkClusterer<E>
         }
         if (elementSet.size() == 1)
             return new LeafDendrogram<E>(elementSet.iterator().next());
-        Object[] elements = toElements(elementSet);
+        E[] elements = toElements(elementSet);
         // need array so identity is shared among leaf dendros
         // require supression for array
         @SuppressWarnings({"unchecked","rawtypes"})
         LeafDendrogram<E>[] leafs
             = (LeafDendrogram<E>[]) new LeafDendrogram[elements.length];
-        for (int i = 0; i < leafs.length; ++i) {
-            // required for obj array
-            @SuppressWarnings("unchecked")
-            E elt = (E) elements[i];
-            leafs[i] = new LeafDendrogram<E>(elt);
-        }
+        for (int i = 0; i < leafs.length; ++i)
+            leafs[i] = new LeafDendrogram<E>(elements[i]);
         Set<Dendrogram<E>> clusters
             = new HashSet<Dendrogram<E>>(elements.length);
         for (Dendrogram<E> dendrogram : leafs)
             clusters.add(dendrogram);
 
-        // compute ordered list of pairs of elements to merge
-        ArrayList<PairScore<E>> pairScoreList = new ArrayList<PairScore<E>>();
-        int len = elements.length;
-        double maxDistance = getMaxDistance();
-        for (int i = 0; i < len; ++i) {
-            // required for obj array
-            @SuppressWarnings("unchecked")
-            E eI = (E) elements[i];
-            Dendrogram<E> dendroI = leafs[i];
-            for (int j = i + 1; j < len; ++j) {
-                // required for obj array
-                @SuppressWarnings("unchecked")
-                E eJ = (E) elements[j];
-                double distanceIJ = distance().distance(eI,eJ);
-                // if (distanceIJ > maxDistance) continue;  // speeds up, but strands elements
-                Dendrogram<E> dendroJ = leafs[j];
-                pairScoreList.add(new PairScore<E>(dendroI,dendroJ,distanceIJ));
-            }
-        }
-        // required for array
-        @SuppressWarnings({"unchecked","rawtypes"})
-        PairScore<E>[] pairScores
-            = (PairScore<E>[]) new PairScore[pairScoreList.size()];
-        pairScoreList.toArray(pairScores);
-        Arrays.sort(pairScores,ScoredObject.comparator());  // increasing order of distance
+        SpanningTree<E> tree = new SpanningTree<E>(elements,distance());
+        tree.grow(mExecutor,mNumWorkers);
+        Integer[] edges = tree.edgesByDistance();
 
-        for (int i = 0;  i < pairScores.length && clusters.size() > 1;  ++i) {
-            PairScore<E> ps = pairScores[i];
-            if (ps.score() > getMaxDistance()) break;
-            Dendrogram<E> d1 = ps.mDendrogram1.dereference();
-            Dendrogram<E> d2 = ps.mDendrogram2.dereference();
+        double maxDistance = getMaxDistance();
+        for (int k = 0; k < edges.length && clusters.size() > 1; ++k) {
+            int v = edges[k].intValue();
+            double score = tree.mBestDistance[v];
+            if (score > maxDistance) break;
+            int u = tree.mBestFrom[v];
+            Dendrogram<E> d1 = leafs[Math.min(u,v)].dereference();
+            Dendrogram<E> d2 = leafs[Math.max(u,v)].dereference();
             if (d1.equals(d2)) {
                 continue; // already linked
             }
             clusters.remove(d1);
             clusters.remove(d2);
             LinkDendrogram<E> dLink
-                = new LinkDendrogram<E>(d1,d2,pairScores[i].mScore);
+                = new LinkDendrogram<E>(d1,d2,score);
             clusters.add(dLink);
         }
         // link up remaining unlinked dendros at +infinity distance
@@ -268,5 +296,116 @@ public class SingleLinkClusterer<E>
         return dendro;
     }
 
+    // Prim's algorithm; edges are ordered by distance, then by lower
+    // element index, then higher, so the tree is the one Kruskal's
+    // algorithm finds over pairs sorted stably by distance
+    static class SpanningTree<E> {
+        final E[] mElements;
+        final Distance<? super E> mDistance;
+        final double[] mBestDistance;  // to closest tree element
+        final int[] mBestFrom;         // closest tree element, -1 if none
+        final int[] mRemaining;        // elements not in tree
+        int mNumRemaining;
+        int mLastAdded;
+
+        SpanningTree(E[] elements, Distance<? super E> distance) {
+            mElements = elements;
+            mDistance = distance;
+            int len = elements.length;
+            mBestDistance = new double[len];
+            mBestFrom = new int[len];
+            Arrays.fill(mBestFrom,-1);
+            mRemaining = new int[len - 1];
+            for (int i = 1; i < len; ++i)
+                mRemaining[i-1] = i;
+            mNumRemaining = len - 1;
+            mLastAdded = 0;
+        }
+
+        void grow(ExecutorService executor, int numWorkers) {
+            while (mNumRemaining > 0) {
+                int numPartitions
+                    = Math.min(numWorkers,mNumRemaining / MIN_PARTITION_SIZE);
+                int pos = (executor == null || numPartitions < 2)
+                    ? update(0,mNumRemaining)
+                    : update(executor,numPartitions);
+                mLastAdded = mRemaining[pos];
+                mRemaining[pos] = mRemaining[--mNumRemaining];
+            }
+        }
+
+        // updates remaining[start,end) with distances to last added
+        // element; returns position of closest, or -1 if empty
+        int update(int start, int end) {
+            int u = mLastAdded;
+            E eU = mElements[u];
+            int bestPos = -1;
+            for (int pos = start; pos < end; ++pos) {
+                int w = mRemaining[pos];
+                double d = (u < w)
+                    ? mDistance.distance(eU,mElements[w])
+                    : mDistance.distance(mElements[w],eU);
+                if (mBestFrom[w] < 0
+                    || precedes(d,u,w,mBestDistance[w],mBestFrom[w],w)) {
+                    mBestDistance[w] = d;
+                    mBestFrom[w] = u;
+                }
+                if (bestPos < 0 || precedes(w,mRemaining[bestPos]))
+                    bestPos = pos;
+            }
+            return bestPos;
+        }
+
+        int update(ExecutorService executor, int numPartitions) {
+            List<Integer> positions
+                = Partitions.forEachPartition(mNumRemaining,numPartitions,executor,
+                                              "single-link clustering",
+                                              new Partitions.Task<Integer>() {
+                        public Integer run(int partition, int start, int end) {
+                            return Integer.valueOf(update(start,end));
+                        }
+                    });
+            int bestPos = -1;
+            for (Integer position : positions) {
+                int pos = position.intValue();
+                if (bestPos < 0 || precedes(mRemaining[pos],mRemaining[bestPos]))
+                    bestPos = pos;
+            }
+            return bestPos;
+        }
+
+        // elements other than the first, ordered by their tree edges
+        Integer[] edgesByDistance() {
+            Integer[] edges = new Integer[mElements.length - 1];
+            for (int i = 1; i < mElements.length; ++i)
+                edges[i-1] = Integer.valueOf(i);
+            Arrays.sort(edges,new Comparator<Integer>() {
+                    public int compare(Integer v1, Integer v2) {
+                        if (precedes(v1.intValue(),v2.intValue())) return -1;
+                        if (precedes(v2.intValue(),v1.intValue())) return 1;
+                        return 0;
+                    }
+                });
+            return edges;
+        }
+
+        // does the edge to v from the tree precede that to w
+        boolean precedes(int v, int w) {
+            return precedes(mBestDistance[v],mBestFrom[v],v,
+                            mBestDistance[w],mBestFrom[w],w);
+        }
+
+        static boolean precedes(double d1, int u1, int v1,
+                                double d2, int u2, int v2) {
+            if (d1 < d2) return true;
+            if (d1 > d2) return false;
+            int lo1 = Math.min(u1,v1);
+            int lo2 = Math.min(u2,v2);
+            if (lo1 != lo2) return lo1 < lo2;
+            return Math.max(u1,v1) < Math.max(u2,v2);
+        }
+    }
+
+    static final int MIN_PARTITION_SIZE = 256;
 
 }
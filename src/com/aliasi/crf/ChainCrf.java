@@ -26,7 +26,8 @@ import com.aliasi.tag.TagLattice;
 import com.aliasi.corpus.Corpus;
 import com.aliasi.corpus.ObjectHandler;
 
-import com.aliasi.features.Features;
+import com.aliasi.features.FeatureSink;
+import com.aliasi.features.FeatureVectorBuffer;
 
 import com.aliasi.io.Reporter;
 import com.aliasi.io.Reporters;
@@ -39,6 +40,7 @@ import com.aliasi.matrix.Vector;
 import com.aliasi.stats.AnnealingSchedule;
 import com.aliasi.stats.RegressionPrior;
 
+import com.aliasi.symbol.HashSymbolTable;
 import com.aliasi.symbol.MapSymbolTable;
 import com.aliasi.symbol.SymbolTable;
 
@@ -48,6 +50,7 @@ import com.aliasi.util.Exceptions;
 import com.aliasi.util.FeatureExtractor;
 import com.aliasi.util.Iterators;
 import com.aliasi.util.ObjectToCounterMap;
+import com.aliasi.util.Partitions;
 import com.aliasi.util.Scored;
 import com.aliasi.util.ScoredObject;
 import com.aliasi.util.Strings;
@@ -69,6 +72,8 @@ import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
 
+import java.util.concurrent.ExecutorService;
+
 
 /**
  * The {@code ChainCrf<E>} class implements linear chain conditional
@@ -175,6 +180,22 @@ import java.util.Set;
  * functionality is avaiable through the method {@link #tag(List)}
  * of the {@link Tagger} interface.
  *
+ * <p>The Viterbi scores and back pointers are kept in flat arrays,
+ * and the node scores for every position and tag are computed
+ * before the search.  Only the legal predecessors of each tag are
+ * considered, and previous tags with zero-probability Viterbi
+ * scores are never extended, so the quadratic cost in the number of
+ * tags is paid only for legal, reachable transitions.  The result
+ * is exactly the first-best tagging.
+ *
+ * <p>The method {@link #tag(List,double)} further prunes the search
+ * with a beam.  Previous tags whose Viterbi score falls more than
+ * the beam width below the best Viterbi score at their position
+ * are not extended.  This trades accuracy for speed, because the
+ * first-best tagging may be pruned.  If the beam prunes every legal
+ * tagging, the search is rerun without the beam.  With an infinite
+ * beam width, the result is identical to that of {@link #tag(List)}.
+ *
  * <h3>N-Best Sequence Output: Viterbi Forward, A<sup>*</sup> Backward</h3>
  *
  * N-best output may be calculated in one linear forward pass and an
@@ -252,6 +273,60 @@ import java.util.Set;
  * require a large amount of memory, because it stores the entire
  * lattice of vectors for each training instance.  
  *
+ * <h3>Compiled Features</h3>
+ *
+ * <p>For training and decoding, the node and edge features for an
+ * input are compiled once into a pair of parallel arrays holding the
+ * feature dimensions and values for every position and previous tag.
+ * Features are sent to the compiler through the sink-based methods
+ * {@link ChainCrfFeatures#nodeFeatures(int,com.aliasi.features.FeatureSink)}
+ * and {@link
+ * ChainCrfFeatures#edgeFeatures(int,int,com.aliasi.features.FeatureSink)},
+ * which feature implementations may override to avoid building maps.
+ * With feature caching, these arrays are what is stored for each
+ * training instance, requiring two arrays per instance rather than
+ * a vector per position and previous tag.
+ *
+ * <h3>Parallel Estimation</h3>
+ *
+ * <p>The estimator method {@link
+ * #estimate(Corpus,ChainCrfFeatureExtractor,boolean,int,boolean,boolean,RegressionPrior,int,AnnealingSchedule,double,int,int,int,ExecutorService,int,Reporter)}
+ * trains on minibatches of a specified size, dividing the work for
+ * each minibatch among workers run by an executor service.  First,
+ * the forward-backward lattices for the instances in the minibatch
+ * are computed in parallel, all using the coefficients at the
+ * start of the minibatch.  Then the gradient updates are applied in
+ * parallel, with each worker updating the coefficient vectors for a
+ * range of tags.  Each worker applies the instances in corpus order, so
+ * every coefficient receives the same sequence of updates no matter
+ * how many workers there are.  The prior updates and the log
+ * likelihood computed to monitor convergence are also divided
+ * among the workers.
+ *
+ * <p>As a result, the estimated CRF depends on the minibatch size
+ * but not on the number of workers.  With a minibatch size of 1,
+ * it is identical to the CRF produced by sequential estimation.
+ * For the forward-backward computations to run in parallel, the
+ * minibatch size must be at least the number of workers.  Larger
+ * minibatches reduce synchronization overhead at the cost of
+ * computing more gradients against stale coefficients.
+ *
+ * <p>Features are extracted by the workers, so the feature extractor
+ * must be thread safe if there is more than one worker and an
+ * executor is supplied.  Feature extractors with no mutable state,
+ * which includes almost all of them, are thread safe.
+ *
+ * <h3>Feature Hashing</h3>
+ *
+ * <p>The estimator method {@link
+ * #estimate(Corpus,ChainCrfFeatureExtractor,boolean,HashSymbolTable,boolean,boolean,RegressionPrior,int,AnnealingSchedule,double,int,int,Reporter)}
+ * uses a {@link HashSymbolTable} to map features to dimensions by
+ * hashing instead of building a symbol table of the features found
+ * in the training corpus.  This fixes the number of dimensions in
+ * advance, avoids storing feature strings in the model or its
+ * serialized form, and reduces feature lookup to computing a hash,
+ * at the cost of colliding features sharing coefficients.
+ *
  * <h3>Serialization</h3>
  *
  * A chain CRF may be serialized if its parts are serializable: the
@@ -277,7 +352,7 @@ import java.util.Set;
  * will be thread safe.
  *
  * @author  Bob Carpenter
- * @version 3.9.2
+ * @version 4.1.0
  * @since   LingPipe3.9
  * @param <E> Type of tokens in the tagging.
  */
@@ -293,6 +368,8 @@ public class ChainCrf<E>
     private final boolean[] mLegalTagStarts;
     private final boolean[] mLegalTagEnds;
     private final boolean[][] mLegalTagTransitions;
+    // mLegalPredecessors[kTo] = { kFrom : mLegalTagTransitions[kFrom][kTo] }
+    private final int[][] mLegalPredecessors;
     private final Vector[] mCoefficients;
     private final SymbolTable mFeatureSymbolTable;
     private final ChainCrfFeatureExtractor<E> mFeatureExtractor;
@@ -417,6 +494,7 @@ public class ChainCrf<E>
         mLegalTagStarts = legalTagStarts;
         mLegalTagEnds = legalTagEnds;
         mLegalTagTransitions = legalTagTransitions;
+        mLegalPredecessors = legalPredecessors(legalTagTransitions);
         mCoefficients = coefficients;
         mNumDimensions = coefficients[0].numDimensions();
         mFeatureSymbolTable = featureSymbolTable;
@@ -471,12 +549,16 @@ public class ChainCrf<E>
 
     /**
      * Returns an unmodifiable view of the symbol table for features for
-     * this CRF.
+     * this CRF.  If the features are hashed, the {@link
+     * HashSymbolTable} itself is returned, because it is already
+     * unmodifiable.
      *
      * @return A view of the symbol table for features.
      */
     public SymbolTable featureSymbolTable() {
-        return MapSymbolTable.unmodifiableView(mFeatureSymbolTable);
+        return (mFeatureSymbolTable instanceof HashSymbolTable)
+            ? mFeatureSymbolTable
+            : MapSymbolTable.unmodifiableView(mFeatureSymbolTable);
     }
 
 
@@ -503,68 +585,119 @@ public class ChainCrf<E>
 
     // Tagger
     public Tagging<E> tag(List<E> tokens) {
+        return tag(tokens,Double.POSITIVE_INFINITY);
+    }
+
+    /**
+     * Return the first-best tagging for the specified tokens found by
+     * Viterbi search with the specified beam width.  At each
+     * position, only previous tags whose Viterbi score is within the
+     * beam width of the best previous score are extended.  With an
+     * infinite beam width, the result is the exact first-best tagging
+     * returned by {@link #tag(List)}.  With a finite beam, the best
+     * tagging may be pruned, so the result may not be first best.
+     * If the beam prunes every legal tagging, the search is rerun
+     * without a beam.
+     *
+     * <p>See the class documentation above for more information.
+     *
+     * @param tokens Tokens to tag.
+     * @param beamWidth Maximum difference between the best previous
+     * score and a previous score that is extended.
+     * @return First-best tagging found within the beam.
+     * @throws IllegalArgumentException If the beam width is negative
+     * or not a number.
+     */
+    public Tagging<E> tag(List<E> tokens, double beamWidth) {
+        if (!(beamWidth >= 0.0)) {
+            String msg = "Beam width must be non-negative."
+                + " Found beamWidth=" + beamWidth;
+            throw new IllegalArgumentException(msg);
+        }
         int numTokens = tokens.size();
         if (numTokens == 0)
             return new Tagging<E>(tokens, Collections.<String>emptyList());
         int numTags = mTagList.size();
-        int numDimensions = mFeatureSymbolTable.numSymbols();
-        double[][] bestScores = new double[numTokens][numTags];
-        int[][] backPointers = new int[numTokens-1][numTags];
-
-        ChainCrfFeatures<E> features = mFeatureExtractor.extract(tokens,mTagList);
-        Vector nodeVector0 = nodeFeatures(0,features);
-        for (int k = 0; k < numTags; ++k)
-            bestScores[0][k]
-                = mLegalTagStarts[k]
-                ? nodeVector0.dotProduct(mCoefficients[k])
-                : Double.NEGATIVE_INFINITY;
+        CompiledFeatures features = features(tokens);
 
-        Vector[] edgeVectors = new Vector[numTags];
+        // scores and back pointers for (n,k) at [n*numTags + k]
+        double[] nodeScores = new double[numTokens * numTags];
+        double[] bestScores = new double[numTokens * numTags];
+        int[] backPointers = new int[numTokens * numTags];
+        for (int n = 0; n < numTokens; ++n) {
+            for (int k = 0; k < numTags; ++k) {
+                int nk = n * numTags + k;
+                // as for n-best and marginals, ends unchecked if n = 0
+                boolean illegal
+                    = (n == 0)
+                    ? !mLegalTagStarts[k]
+                    : (n == numTokens - 1 && !mLegalTagEnds[k]);
+                nodeScores[nk]
+                    = illegal
+                    ? Double.NEGATIVE_INFINITY
+                    : features.nodeDotProduct(n,mCoefficients[k]);
+            }
+        }
+        for (int k = 0; k < numTags; ++k) {
+            bestScores[k] = nodeScores[k];
+            backPointers[k] = -1;
+        }
+
+        // previous tags extended at the current position
+        boolean[] extended = new boolean[numTags];
         for (int n = 1; n < numTokens; ++n) {
-            Vector nodeVector = nodeFeatures(n,features);
+            int last = (n - 1) * numTags;
+            int next = n * numTags;
+            double maxLastScore = Double.NEGATIVE_INFINITY;
             for (int kMinus1 = 0; kMinus1 < numTags; ++kMinus1)
-                edgeVectors[kMinus1] = edgeFeatures(n,kMinus1,features); // mTagList.get(kMinus1));
+                if (bestScores[last + kMinus1] > maxLastScore)
+                    maxLastScore = bestScores[last + kMinus1];
+            double threshold = maxLastScore - beamWidth;
+            for (int kMinus1 = 0; kMinus1 < numTags; ++kMinus1) {
+                double lastScore = bestScores[last + kMinus1];
+                extended[kMinus1]
+                    = lastScore > Double.NEGATIVE_INFINITY
+                    && lastScore >= threshold;
+            }
             for (int k = 0; k < numTags; ++k) {
-                if (n == (numTokens-1) && !mLegalTagEnds[k]) {
-                    bestScores[n][k] = Double.NEGATIVE_INFINITY;
-                    backPointers[n-1][k] = -1;
-                    continue;
-                }
                 double bestScore = Double.NEGATIVE_INFINITY;
                 int backPtr = -1;
-                double nodeScore = nodeVector.dotProduct(mCoefficients[k]);
-                for (int kMinus1 = 0; kMinus1 < numTags; ++kMinus1) {
-                    if (!mLegalTagTransitions[kMinus1][k])
-                        continue;
-                    double score = nodeScore
-                        + edgeVectors[kMinus1].dotProduct(mCoefficients[k])
-                        + bestScores[n-1][kMinus1];
-                    if (score > bestScore) {
-                        bestScore = score;
-                        backPtr = kMinus1;
+                double nodeScore = nodeScores[next + k];
+                if (nodeScore > Double.NEGATIVE_INFINITY) {
+                    for (int kMinus1 : mLegalPredecessors[k]) {
+                        if (!extended[kMinus1])
+                            continue;
+                        double score = nodeScore
+                            + features.edgeDotProduct(n,kMinus1,mCoefficients[k])
+                            + bestScores[last + kMinus1];
+                        if (score > bestScore) {
+                            bestScore = score;
+                            backPtr = kMinus1;
+                        }
                     }
                 }
-                bestScores[n][k] = bestScore;
-                backPointers[n-1][k] = backPtr;
+                bestScores[next + k] = bestScore;
+                backPointers[next + k] = backPtr;
             }
         }
+        int lastPosition = (numTokens - 1) * numTags;
         double bestScore = Double.NEGATIVE_INFINITY;
         int bestFinalTag = -1;
         for (int k = 0; k < numTags; ++k) {
-            if (bestScores[numTokens-1][k] > bestScore) {
-                bestScore = bestScores[numTokens-1][k];
+            if (bestScores[lastPosition + k] > bestScore) {
+                bestScore = bestScores[lastPosition + k];
                 bestFinalTag = k;
             }
         }
-        List<String> tags = new ArrayList<String>(numTokens);
+        if (bestFinalTag < 0 && beamWidth < Double.POSITIVE_INFINITY)
+            return tag(tokens,Double.POSITIVE_INFINITY); // beam dead end
+        String[] tags = new String[numTokens];
         int bestPreviousTag = bestFinalTag;
-        tags.add(mTagList.get(bestFinalTag));
-        for (int n = numTokens-1; --n >= 0; ) {
-            bestPreviousTag = backPointers[n][bestPreviousTag];
-            tags.add(mTagList.get(bestPreviousTag));
+        for (int n = numTokens; --n >= 0; ) {
+            tags[n] = mTagList.get(bestPreviousTag);
+            bestPreviousTag = backPointers[n * numTags + bestPreviousTag];
         }
-        Collections.reverse(tags);
-        return new Tagging<E>(tokens,tags);
+        return new Tagging<E>(tokens,Arrays.asList(tags));
     }
 
     // NBestTagger
@@ -602,7 +735,7 @@ public class ChainCrf<E>
                                                     EMPTY_DOUBLE_3D_ARRAY,
                                                     0.0);
         }
-        FeatureVectors features = features(tokens);
+        CompiledFeatures features = features(tokens);
         TagLattice<E> lattice
             = forwardBackward(tokens,features);
         return lattice;
@@ -651,57 +784,22 @@ public class ChainCrf<E>
         return new Serializer<E>(this);
     }
 
-    private Vector nodeFeatures(int position,
-                                ChainCrfFeatures<E> features) {
-        return Features.toVector(features.nodeFeatures(position),
-                                 mFeatureSymbolTable,
-                                 mNumDimensions,
-                                 mAddInterceptFeature);
-    }
-
-    private Vector edgeFeatures(int position, int lastTagIndex,
-                                ChainCrfFeatures<E> features) {
-        return Features.toVector(features.edgeFeatures(position,lastTagIndex),
-                                 mFeatureSymbolTable,
-                                 mNumDimensions,
-                                 mAddInterceptFeature);
-    }
-
-
-
-    private FeatureVectors features(List<E> tokens) {
-        int numTags = mTagList.size();
-        int numDimensions = mFeatureSymbolTable.numSymbols();
-
+    private CompiledFeatures features(List<E> tokens) {
         if (tokens.size() == 0)
             return null;
-
         ChainCrfFeatures<E> features
             = mFeatureExtractor.extract(tokens,mTagList);
-
-        // nodeFeatureVectors[n] = phi0(tokens,n)
-        Vector[] nodeFeatureVectors
-            = new Vector[tokens.size()];
-        for (int n = 0; n < tokens.size(); ++n)
-            nodeFeatureVectors[n] = nodeFeatures(n,features);
-
-        // edgeFeatureVectorss[n-1][k] = phi1(tokens,n,tags[k])
-        Vector[][] edgeFeatureVectorss
-            = new Vector[tokens.size()-1][mTagList.size()];
-        for (int n = 1; n < tokens.size(); ++n) {
-            for (int k = 0; k < numTags; ++k) {
-                edgeFeatureVectorss[n-1][k] = edgeFeatures(n,k,features);
-            }
-        }
-
-        return new FeatureVectors(nodeFeatureVectors,
-                                  edgeFeatureVectorss);
+        return new CompiledFeatures(features,
+                                    tokens.size(),
+                                    mTagList.size(),
+                                    new FeatureVectorBuffer(mFeatureSymbolTable),
+                                    mAddInterceptFeature);
     }
 
 
 
     TagLattice<E> forwardBackward(List<E> tokens,
-                                  FeatureVectors features) {
+                                  CompiledFeatures features) {
 
         // assumes tokens.size() > 0
         int numTokens = tokens.size();
@@ -712,7 +810,7 @@ public class ChainCrf<E>
         for (int kTo = 0; kTo < numTags; ++kTo)
             logPotentials0Begin[kTo]
                 = mLegalTagStarts[kTo]
-                ? features.mNodeFeatureVectors[0].dotProduct(mCoefficients[kTo])
+                ? features.nodeDotProduct(0,mCoefficients[kTo])
                 : Double.NEGATIVE_INFINITY;
 
         // logPotentials[nTo-1][kFrom][kTo] = phi(nTo,kFrom) * beta[kTo]
@@ -725,11 +823,11 @@ public class ChainCrf<E>
                 if (nTo == (numTokens - 1) && !mLegalTagEnds[kTo])
                     continue;
                 double nodePotentialKTo
-                    = features.mNodeFeatureVectors[nTo].dotProduct(mCoefficients[kTo]);
+                    = features.nodeDotProduct(nTo,mCoefficients[kTo]);
                 for (int kFrom = 0; kFrom < numTags; ++kFrom)
                     if (mLegalTagTransitions[kFrom][kTo])
                         logPotentials[nTo-1][kFrom][kTo]
-                            = features.mEdgeFeatureVectorss[nTo-1][kFrom].dotProduct(mCoefficients[kTo])
+                            = features.edgeDotProduct(nTo,kFrom,mCoefficients[kTo])
                             + nodePotentialKTo;
             }
         }
@@ -804,19 +902,12 @@ public class ChainCrf<E>
             mBackPointers = new int[numTokens-1][numTags];
             for (int[] ptrs : mBackPointers)
                 Arrays.fill(ptrs,-1);
-            Vector[] edgeVectors = new Vector[numTags];
-            ChainCrfFeatures<E> features = mFeatureExtractor.extract(tokens,mTagList);
+            CompiledFeatures features = features(tokens);
             for (int n = 1; n < numTokens; ++n) {
-                Vector nodeVector = nodeFeatures(n,features);
-                for (int kMinus1 = 0; kMinus1 < numTags; ++kMinus1) {
-                    if (n == 1 && !mLegalTagStarts[kMinus1])
-                        continue;
-                    edgeVectors[kMinus1] = edgeFeatures(n,kMinus1,features);
-                }
                 for (int k = 0; k < numTags; ++k) {
                     if (n == (numTokens-1) && !mLegalTagEnds[k])
                         continue;
-                    double nodeScore = nodeVector.dotProduct(mCoefficients[k]);
+                    double nodeScore = features.nodeDotProduct(n,mCoefficients[k]);
                     for (int kMinus1 = 0; kMinus1 < numTags; ++kMinus1) {
                         if (!mLegalTagTransitions[kMinus1][k])
                             continue;
@@ -824,16 +915,15 @@ public class ChainCrf<E>
                             continue;
                         mTransitionScores[n-1][kMinus1][k]
                             = nodeScore
-                            + edgeVectors[kMinus1].dotProduct(mCoefficients[k]);
+                            + features.edgeDotProduct(n,kMinus1,mCoefficients[k]);
                     }
                 }
             }
-            Vector nodeVector0 = nodeFeatures(0,features);
             for (int k = 0; k < numTags; ++k) {
                 if (!mLegalTagStarts[k])
                     continue;
                 mViterbiScores[0][k]
-                    = nodeVector0.dotProduct(mCoefficients[k]);
+                    = features.nodeDotProduct(0,mCoefficients[k]);
             }
             for (int n = 1; n < numTokens; ++n) {
                 for (int k = 0; k < numTags; ++k) {
@@ -972,6 +1062,20 @@ public class ChainCrf<E>
         return legalTransitions;
     }
 
+    static int[][] legalPredecessors(boolean[][] legalTransitions) {
+        int numTags = legalTransitions.length;
+        int[][] predecessors = new int[numTags][];
+        int[] buf = new int[numTags];
+        for (int kTo = 0; kTo < numTags; ++kTo) {
+            int numPredecessors = 0;
+            for (int kFrom = 0; kFrom < numTags; ++kFrom)
+                if (legalTransitions[kFrom][kTo])
+                    buf[numPredecessors++] = kFrom;
+            predecessors[kTo] = Arrays.copyOf(buf,numPredecessors);
+        }
+        return predecessors;
+    }
+
     static boolean[] trueArray(int m) {
         boolean[] result = new boolean[m];
         Arrays.fill(result,true);
@@ -1149,13 +1253,195 @@ public class ChainCrf<E>
                  Reporter reporter)
         throws IOException {
 
+        return estimate(corpus,featureExtractor,addInterceptFeature,
+                        minFeatureCount,null,
+                        cacheFeatureVectors,allowUnseenTransitions,
+                        prior,priorBlockSize,annealingSchedule,
+                        minImprovement,minEpochs,maxEpochs,
+                        1,null,1,reporter);
+    }
+
+    /**
+     * Return the CRF estimated using minibatch stochastic gradient
+     * descent, with the work for each minibatch divided among the
+     * specified number of workers run by the specified executor.
+     * The result depends on the minibatch size, but not on the
+     * number of workers or the executor.  With a minibatch size of
+     * 1, the result is the same as that of {@link
+     * #estimate(Corpus,ChainCrfFeatureExtractor,boolean,int,boolean,boolean,RegressionPrior,int,AnnealingSchedule,double,int,int,Reporter)},
+     * which describes the remaining parameters.  See the class
+     * documentation above for more information.
+     *
+     * @param corpus Corpus from which to estimate.
+     * @param featureExtractor Feature extractor for the CRF.
+     * @param addInterceptFeature Set to {@code true} if an intercept
+     * feature with index 0 is automatically added to all feature
+     * vectors with value 1.0.
+     * @param minFeatureCount Minimum number of instances of a feature
+     * to keep it.
+     * @param cacheFeatureVectors Flag indicating whether or not to
+     * keep the computed feature vectors in memory.
+     * @param allowUnseenTransitions Flag indicating whether to allow
+     * tags to start a tagging, end a tagging, or follow another tag
+     * if there was not an example of that in the corpus.
+     * @param prior Prior for coefficients to use during estimation.
+     * @param priorBlockSize Number of instances between applications
+     * of the prior gradient.
+     * @param annealingSchedule Schedule for annealing the learning
+     * rate during gradient descent.
+     * @param minImprovement Minimum relative improvement objective
+     * (log likelihood plus log prior) computed as a 10-epoch rolling
+     * average to signal convergence.
+     * @param minEpochs Minimum number of epochs for which to run
+     * gradient descent estimation.
+     * @param maxEpochs Maximum number of epochs for which to run
+     * gradient descent estimation.
+     * @param minibatchSize Number of training instances whose
+     * gradients are computed with the same coefficients and applied
+     * together.
+     * @param executor Executor service with which to run workers, or
+     * {@code null} to run them in the calling thread.  If not
+     * {@code null} and there is more than one worker, the feature
+     * extractor must be thread safe.
+     * @param numWorkers Number of workers among which to divide the
+     * work for each minibatch.
+     * @param reporter Reporter to which results are written, or
+     * {@code null} for no reporting of intermediate results.
+     * @throws IOException If there is an I/O exception visiting the
+     * corpus.
+     * @throws IllegalArgumentException If the minibatch size or
+     * number of workers is less than 1.
+     */
+    public static <F> ChainCrf<F>
+        estimate(Corpus<ObjectHandler<Tagging<F>>> corpus,
+                 ChainCrfFeatureExtractor<F> featureExtractor,
+                 boolean addInterceptFeature,
+                 int minFeatureCount,
+                 boolean cacheFeatureVectors,
+                 boolean allowUnseenTransitions,
+                 RegressionPrior prior,
+                 int priorBlockSize,
+                 AnnealingSchedule annealingSchedule,
+                 double minImprovement,
+                 int minEpochs,
+                 int maxEpochs,
+                 int minibatchSize,
+                 ExecutorService executor,
+                 int numWorkers,
+                 Reporter reporter)
+        throws IOException {
+
+        return estimate(corpus,featureExtractor,addInterceptFeature,
+                        minFeatureCount,null,
+                        cacheFeatureVectors,allowUnseenTransitions,
+                        prior,priorBlockSize,annealingSchedule,
+                        minImprovement,minEpochs,maxEpochs,
+                        minibatchSize,executor,numWorkers,reporter);
+    }
+
+    /**
+     * Return the CRF estimated using stochastic gradient descent
+     * using the specified hash symbol table to map features to
+     * dimensions.  All features are kept.  The intercept feature, if
+     * added, uses the dimension 0 reserved by the hash symbol table.
+     * The remaining parameters are as for {@link
+     * #estimate(Corpus,ChainCrfFeatureExtractor,boolean,int,boolean,boolean,RegressionPrior,int,AnnealingSchedule,double,int,int,Reporter)}.
+     * See the class documentation above for more information.
+     *
+     * @param corpus Corpus from which to estimate.
+     * @param featureExtractor Feature extractor for the CRF.
+     * @param addInterceptFeature Set to {@code true} if an intercept
+     * feature with index 0 is automatically added to all feature
+     * vectors with value 1.0.
+     * @param featureSymbolTable Hash symbol table for mapping
+     * features to dimensions.
+     * @param cacheFeatureVectors Flag indicating whether or not to
+     * keep the computed feature vectors in memory.
+     * @param allowUnseenTransitions Flag indicating whether to allow
+     * tags to start a tagging, end a tagging, or follow another tag
+     * if there was not an example of that in the corpus.
+     * @param prior Prior for coefficients to use during estimation.
+     * @param priorBlockSize Number of instances between applications
+     * of the prior gradient.
+     * @param annealingSchedule Schedule for annealing the learning
+     * rate during gradient descent.
+     * @param minImprovement Minimum relative improvement objective
+     * (log likelihood plus log prior) computed as a 10-epoch rolling
+     * average to signal convergence.
+     * @param minEpochs Minimum number of epochs for which to run
+     * gradient descent estimation.
+     * @param maxEpochs Maximum number of epochs for which to run
+     * gradient descent estimation.
+     * @param reporter Reporter to which results are written, or
+     * {@code null} for no reporting of intermediate results.
+     * @throws IOException If there is an I/O exception visiting the
+     * corpus.
+     */
+    public static <F> ChainCrf<F>
+        estimate(Corpus<ObjectHandler<Tagging<F>>> corpus,
+                 ChainCrfFeatureExtractor<F> featureExtractor,
+                 boolean addInterceptFeature,
+                 HashSymbolTable featureSymbolTable,
+                 boolean cacheFeatureVectors,
+                 boolean allowUnseenTransitions,
+                 RegressionPrior prior,
+                 int priorBlockSize,
+                 AnnealingSchedule annealingSchedule,
+                 double minImprovement,
+                 int minEpochs,
+                 int maxEpochs,
+                 Reporter reporter)
+        throws IOException {
+
+        return estimate(corpus,featureExtractor,addInterceptFeature,
+                        0,featureSymbolTable,
+                        cacheFeatureVectors,allowUnseenTransitions,
+                        prior,priorBlockSize,annealingSchedule,
+                        minImprovement,minEpochs,maxEpochs,
+                        1,null,1,reporter);
+    }
+
+    // builds feature symbol table from corpus if hash table is null
+    private static <F> ChainCrf<F>
+        estimate(Corpus<ObjectHandler<Tagging<F>>> corpus,
+                 ChainCrfFeatureExtractor<F> featureExtractor,
+                 boolean addInterceptFeature,
+                 int minFeatureCount,
+                 HashSymbolTable hashSymbolTable,
+                 final boolean cacheFeatureVectors,
+                 boolean allowUnseenTransitions,
+                 final RegressionPrior prior,
+                 int priorBlockSize,
+                 AnnealingSchedule annealingSchedule,
+                 double minImprovement,
+                 int minEpochs,
+                 int maxEpochs,
+                 int minibatchSize,
+                 ExecutorService executor,
+                 int numWorkers,
+                 Reporter reporter)
+        throws IOException {
+
+        if (minibatchSize < 1) {
+            String msg = "Minibatch size must be positive."
+                + " Found minibatchSize=" + minibatchSize;
+            throw new IllegalArgumentException(msg);
+        }
+        if (numWorkers < 1) {
+            String msg = "Number of workers must be positive."
+                + " Found numWorkers=" + numWorkers;
+            throw new IllegalArgumentException(msg);
+        }
         if (reporter == null)
             reporter = Reporters.silent();
 
         reporter.info("ChainCrf.estimate Parameters");
         reporter.info("featureExtractor=" + featureExtractor);
         reporter.info("addInterceptFeature=" + addInterceptFeature);
-        reporter.info("minFeatureCount=" + minFeatureCount);
+        if (hashSymbolTable != null)
+            reporter.info("featureHashing=" + hashSymbolTable);
+        else
+            reporter.info("minFeatureCount=" + minFeatureCount);
         reporter.info("cacheFeatureVectors=" + cacheFeatureVectors);
         reporter.info("allowUnseenTransitions=" + allowUnseenTransitions);
         reporter.info("prior=" + prior);
@@ -1164,9 +1450,11 @@ public class ChainCrf<E>
         reporter.info("minEpochs=" + minEpochs);
         reporter.info("maxEpochs=" + maxEpochs);
         reporter.info("priorBlockSize=" + priorBlockSize);
+        reporter.info("minibatchSize=" + minibatchSize);
+        reporter.info("numWorkers=" + numWorkers);
 
         reporter.info("Computing corpus tokens and features");
-        List<List<F>> tokenss = corpusTokens(corpus);
+        final List<List<F>> tokenss = corpusTokens(corpus);
         String[][] tagss = corpusTags(corpus);
         int numTrainingInstances = tagss.length;
         int longestInput = longestInput(tagss);
@@ -1175,11 +1463,13 @@ public class ChainCrf<E>
         for (String[] tags : tagss)
             numTrainingTokens += tags.length;
 
-        int[][] tagIdss = new int[tagss.length][];
+        final int[][] tagIdss = new int[tagss.length][];
         MapSymbolTable tagSymbolTable
             = tagSymbolTable(tagss,tagIdss);
-        MapSymbolTable featureSymbolTable
-            = featureSymbolTable(tagss,tokenss,
+        SymbolTable featureSymbolTable
+            = (hashSymbolTable != null)
+            ? hashSymbolTable
+            : featureSymbolTable(tagss,tokenss,
                                  addInterceptFeature,
                                  featureExtractor,
                                  minFeatureCount);
@@ -1204,7 +1494,7 @@ public class ChainCrf<E>
             : legalTransitions(tagIdss,numTags);
 
         int numDimensions = featureSymbolTable.numSymbols();
-        DenseVector[] weightVectors = new DenseVector[numTags];
+        final DenseVector[] weightVectors = new DenseVector[numTags];
         for (int i = 0; i < weightVectors.length; ++i)
             weightVectors[i] = new DenseVector(numDimensions);
 
@@ -1216,7 +1506,7 @@ public class ChainCrf<E>
         reporter.info("Tags=" + tagSymbolTable);
 
 
-        ChainCrf<F> crf = new ChainCrf<F>(allTags,
+        final ChainCrf<F> crf = new ChainCrf<F>(allTags,
                                           legalTagStarts,
                                           legalTagEnds,
                                           legalTagTransitions,
@@ -1226,15 +1516,31 @@ public class ChainCrf<E>
                                           addInterceptFeature);
 
         
-        FeatureVectors[] featureVectorsCache
+        final CompiledFeatures[] featureVectorsCache
             = cacheFeatureVectors 
-            ? new FeatureVectors[numTrainingInstances]
+            ? new CompiledFeatures[numTrainingInstances]
             : null;
         if (cacheFeatureVectors) {
             reporter.info("Caching Feature Vectors");
-            for (int j = 0; j < numTrainingInstances; ++j)
-                featureVectorsCache[j] = crf.features(tokenss.get(j));
+            Partitions.forEachPartition(numTrainingInstances,numWorkers,executor,
+                                        "CRF estimation",
+                             new Partitions.Task<Void>() {
+                                 public Void run(int partition, int start, int end) {
+                                     for (int j = start; j < end; ++j)
+                                         featureVectorsCache[j]
+                                             = crf.features(tokenss.get(j));
+                                     return null;
+                                 }
+                             });
         }
+
+        // minibatch features and lattices, null for empty inputs
+        final CompiledFeatures[] batchFeatures
+            = new CompiledFeatures[minibatchSize];
+        @SuppressWarnings({"unchecked","rawtypes"})
+        final TagLattice<F>[] batchLattices
+            = (TagLattice<F>[]) new TagLattice[minibatchSize];
+        final double[] log2Likelihoods = new double[numTrainingInstances];
         
         double lastLog2LikelihoodAndPrior = -(Double.MAX_VALUE / 2.0);
         double rollingAverageRelativeDiff = 1.0; // arbitrary starting point
@@ -1246,63 +1552,89 @@ public class ChainCrf<E>
         long cumPriorUpdateMs = 0L;
         for (int epoch = 0; epoch < maxEpochs; ++epoch) {
             int instancesSinceLastPriorUpdate = 0;
-            double learningRate = annealingSchedule.learningRate(epoch);
+            final double learningRate = annealingSchedule.learningRate(epoch);
             double learningRatePerTrainingInstance = learningRate / numTrainingInstances;
-            for (int j = 0; j < numTrainingInstances; ++j) {
-                int[] tagIds = tagIdss[j];
-                List<F> tokens = tokenss.get(j);
-                int numTokens = tokens.size();
-                if (numTokens < 1) continue;
+            for (int batchStart = 0;
+                 batchStart < numTrainingInstances;
+                 batchStart += minibatchSize) {
+
+                final int start = batchStart;
+                final int batchSize
+                    = Math.min(minibatchSize,numTrainingInstances - start);
 
                 long startMs = System.currentTimeMillis();
-                FeatureVectors features
-                    = cacheFeatureVectors
-                    ? featureVectorsCache[j]
-                    : crf.features(tokens);
+                Partitions.forEachPartition(batchSize,numWorkers,executor,
+                                            "CRF estimation",
+                                 new Partitions.Task<Void>() {
+                                     public Void run(int partition, int from, int to) {
+                                         for (int i = from; i < to; ++i) {
+                                             int j = start + i;
+                                             List<F> tokens = tokenss.get(j);
+                                             batchFeatures[i]
+                                                 = tokens.size() < 1
+                                                 ? null
+                                                 : cacheFeatureVectors
+                                                 ? featureVectorsCache[j]
+                                                 : crf.features(tokens);
+                                         }
+                                         return null;
+                                     }
+                                 });
                 long featsMs = System.currentTimeMillis();
                 cumFeatureExtractionMs += (featsMs - startMs);
-                TagLattice<F> lattice
-                    = crf.forwardBackward(tokens,features);
+
+                // lattices for whole batch computed with same coeffs
+                Partitions.forEachPartition(batchSize,numWorkers,executor,
+                                            "CRF estimation",
+                                 new Partitions.Task<Void>() {
+                                     public Void run(int partition, int from, int to) {
+                                         for (int i = from; i < to; ++i) {
+                                             batchLattices[i]
+                                                 = batchFeatures[i] == null
+                                                 ? null
+                                                 : crf.forwardBackward(tokenss.get(start + i),
+                                                                       batchFeatures[i]);
+                                         }
+                                         return null;
+                                     }
+                                 });
                 long fwdBkMs = System.currentTimeMillis();
                 cumForwardBackwardMs += (fwdBkMs - featsMs);
 
-                // coeffs += learnRate * (true - expectation)
-                for (int nTo = 0; nTo < numTokens; ++nTo) {
-                    weightVectors[tagIds[nTo]].increment(learningRate,
-                                                         features.mNodeFeatureVectors[nTo]);
-                }
-                for (int nTo = 1; nTo < numTokens; ++nTo) {
-                    weightVectors[tagIds[nTo]].increment(learningRate,
-                                                         features.mEdgeFeatureVectorss[nTo-1][tagIds[nTo-1]]);
-                }
+                // each worker updates a range of tags' coefficients,
+                // applying instances in order so result is same for
+                // any number of workers
+                Partitions.forEachPartition(numTags,numWorkers,executor,
+                                            "CRF estimation",
+                                 new Partitions.Task<Void>() {
+                                     public Void run(int partition, int fromTag, int toTag) {
+                                         for (int i = 0; i < batchSize; ++i) {
+                                             if (batchLattices[i] == null)
+                                                 continue;
+                                             updateWeights(weightVectors,fromTag,toTag,
+                                                           tagIdss[start + i],
+                                                           batchFeatures[i],
+                                                           batchLattices[i],
+                                                           learningRate);
+                                         }
+                                         return null;
+                                     }
+                                 });
+                long updateMs = System.currentTimeMillis();
+                cumUpdateMs += (updateMs - fwdBkMs);
 
-                // Coeffs -= learnRate * expectation (step 2, coeffs += learnRate * (true - expectation)
-                for (int nTo = 0; nTo < numTokens; ++nTo) {
-                    for (int kTo = 0; kTo < numTags; ++kTo) {
-                        double logP = lattice.logProbability(nTo,kTo);
-                        if (logP < -400.0) continue; // will underflow to 0.0 or close enough
-                        double p = Math.exp(logP);
-                        weightVectors[kTo].increment(-p*learningRate,
-                                                     features.mNodeFeatureVectors[nTo]);
-                    }
+                for (int i = 0; i < batchSize; ++i) {
+                    if (batchLattices[i] != null)
+                        ++instancesSinceLastPriorUpdate;
+                    batchFeatures[i] = null;
+                    batchLattices[i] = null;
                 }
-                for (int nTo = 1; nTo < numTokens; ++nTo) {
-                    for (int kFrom = 0; kFrom < numTags; ++kFrom) {
-                        for (int kTo = 0; kTo < numTags; ++kTo) {
-                            double logP = lattice.logProbability(nTo,kFrom,kTo);
-                            if (logP < -400) continue;
-                            double p = Math.exp(logP);
-                            weightVectors[kTo].increment(-p*learningRate,
-                                                         features.mEdgeFeatureVectorss[nTo-1][kFrom]);
-                        }
-                    }
-                }
-                long updateMs = System.currentTimeMillis();
-                cumUpdateMs += (updateMs-fwdBkMs);
                 // put this on a blocked basis for efficiency
-                if ((++instancesSinceLastPriorUpdate) == priorBlockSize) {
+                if (priorBlockSize > 0
+                    && instancesSinceLastPriorUpdate >= priorBlockSize) {
                     adjustWeightsWithPrior(weightVectors,prior,
-                                           instancesSinceLastPriorUpdate * learningRatePerTrainingInstance);
+                                           instancesSinceLastPriorUpdate * learningRatePerTrainingInstance,
+                                           executor,numWorkers);
                     instancesSinceLastPriorUpdate = 0;
                 }
                 long priorMs = System.currentTimeMillis();
@@ -1310,23 +1642,39 @@ public class ChainCrf<E>
             }
             long finalPriorStartMs = System.currentTimeMillis();
             adjustWeightsWithPrior(weightVectors,prior,
-                                   instancesSinceLastPriorUpdate * learningRatePerTrainingInstance);
+                                   instancesSinceLastPriorUpdate * learningRatePerTrainingInstance,
+                                   executor,numWorkers);
             long finalPriorEndMs = System.currentTimeMillis();
             cumPriorUpdateMs += (finalPriorEndMs - finalPriorStartMs);
             
             long lossStartMs = System.currentTimeMillis();
-            // loss function
+            // loss function; summed in order for reproducibility
+            Partitions.forEachPartition(numTrainingInstances,numWorkers,executor,
+                                        "CRF estimation",
+                             new Partitions.Task<Void>() {
+                                 public Void run(int partition, int start, int end) {
+                                     for (int j = start; j < end; ++j) {
+                                         // don't really need lattice of features or backward part of lattice
+                                         List<F> tokens = tokenss.get(j);
+                                         if (tokens.size() < 1) {
+                                             log2Likelihoods[j] = 0.0;
+                                             continue;
+                                         }
+                                         CompiledFeatures features 
+                                             = cacheFeatureVectors
+                                             ? featureVectorsCache[j]
+                                             : crf.features(tokens);
+                                         TagLattice<F> lattice
+                                             = crf.forwardBackward(tokens,features);
+                                         log2Likelihoods[j]
+                                             = lattice.logProbability(0,tagIdss[j]);
+                                     }
+                                     return null;
+                                 }
+                             });
             double log2Likelihood = 0.0;
-            for (int j = 0; j < numTrainingInstances; ++j) {
-                // don't really need lattice of features or backward part of lattice
-                if (tokenss.get(j).size() < 1) continue;
-                FeatureVectors features 
-                    = cacheFeatureVectors
-                    ? featureVectorsCache[j]
-                    : crf.features(tokenss.get(j));
-                TagLattice<F> lattice = crf.forwardBackward(tokenss.get(j),features);
-                log2Likelihood += lattice.logProbability(0,tagIdss[j]);
-            }
+            for (int j = 0; j < numTrainingInstances; ++j)
+                log2Likelihood += log2Likelihoods[j];
             double log2Prior = prior == null ? 0.0 : prior.log2Prior(weightVectors);
             double log2LikelihoodAndPrior = log2Likelihood + log2Prior;
 
@@ -1377,12 +1725,75 @@ public class ChainCrf<E>
 
 
 
+    // coeffs += learnRate * (true - expectation) for tags in [fromTag,toTag)
+    static void updateWeights(DenseVector[] weightVectors,
+                              int fromTag, int toTag,
+                              int[] tagIds,
+                              CompiledFeatures features,
+                              TagLattice<?> lattice,
+                              double learningRate) {
+        int numTokens = tagIds.length;
+        int numTags = weightVectors.length;
+        for (int nTo = 0; nTo < numTokens; ++nTo) {
+            int kTo = tagIds[nTo];
+            if (kTo >= fromTag && kTo < toTag)
+                features.incrementNode(nTo,learningRate,
+                                       weightVectors[kTo]);
+        }
+        for (int nTo = 1; nTo < numTokens; ++nTo) {
+            int kTo = tagIds[nTo];
+            if (kTo >= fromTag && kTo < toTag)
+                features.incrementEdge(nTo,tagIds[nTo-1],learningRate,
+                                       weightVectors[kTo]);
+        }
+
+        // Coeffs -= learnRate * expectation (step 2, coeffs += learnRate * (true - expectation)
+        for (int nTo = 0; nTo < numTokens; ++nTo) {
+            for (int kTo = fromTag; kTo < toTag; ++kTo) {
+                double logP = lattice.logProbability(nTo,kTo);
+                if (logP < -400.0) continue; // will underflow to 0.0 or close enough
+                double p = Math.exp(logP);
+                features.incrementNode(nTo,-p*learningRate,
+                                       weightVectors[kTo]);
+            }
+        }
+        for (int nTo = 1; nTo < numTokens; ++nTo) {
+            for (int kFrom = 0; kFrom < numTags; ++kFrom) {
+                for (int kTo = fromTag; kTo < toTag; ++kTo) {
+                    double logP = lattice.logProbability(nTo,kFrom,kTo);
+                    if (logP < -400) continue;
+                    double p = Math.exp(logP);
+                    features.incrementEdge(nTo,kFrom,-p*learningRate,
+                                           weightVectors[kTo]);
+                }
+            }
+        }
+    }
+
+    static void adjustWeightsWithPrior(final DenseVector[] weightVectors,
+                                       final RegressionPrior prior,
+                                       final double learningRateDividedByNumTrainingInstances,
+                                       ExecutorService executor,
+                                       int numWorkers) {
+        if (prior.isUniform()) return;
+        Partitions.forEachPartition(weightVectors.length,numWorkers,executor,
+                                    "CRF estimation",
+                         new Partitions.Task<Void>() {
+                             public Void run(int partition, int start, int end) {
+                                 adjustWeightsWithPrior(weightVectors,start,end,prior,
+                                                        learningRateDividedByNumTrainingInstances);
+                                 return null;
+                             }
+                         });
+    }
+
     // cut and pasted from stats.LogisticRegression.adjustWeightsWithPriorDense()
     static void adjustWeightsWithPrior(DenseVector[] weightVectors,
+                                       int startTag, int endTag,
                                        RegressionPrior prior,
                                        double learningRateDividedByNumTrainingInstances) {
-        if (prior.isUniform()) return;
-        for (DenseVector weightVectorsK : weightVectors) {
+        for (int k = startTag; k < endTag; ++k) {
+            DenseVector weightVectorsK = weightVectors[k];
             for (int dim = 0; dim < weightVectorsK.numDimensions(); ++dim) {
                 double weightVectorsKDim = weightVectorsK.value(dim);
                 double priorMode = prior.mode(dim);
@@ -1419,22 +1830,24 @@ public class ChainCrf<E>
                                                  boolean addInterceptFeature,
                                                  ChainCrfFeatureExtractor<F> featureExtractor,
                                                  int minFeatureCount) {
-        ObjectToCounterMap<String> featureCounter
+        final ObjectToCounterMap<String> featureCounter
             = new ObjectToCounterMap<String>();
+        FeatureSink counter = new FeatureSink() {
+                public void add(String feature, double value) {
+                    featureCounter.increment(feature);
+                }
+            };
         for (int j = 0; j < tagss.length; ++j) {
             String[] tags = tagss[j];
             List<String> tagList = Arrays.asList(tags);
             List<F> tokens = tokenss.get(j);
             ChainCrfFeatures<F> features = featureExtractor.extract(tokens,tagList);
             // DIRECT REFACTOR; BUGGY?
-            for (int n = 0; n < tags.length; ++n) {
-                for (String feature : features.nodeFeatures(n).keySet())
-                    featureCounter.increment(feature);
-            }
+            for (int n = 0; n < tags.length; ++n)
+                features.nodeFeatures(n,counter);
             for (int k = 1; k < tags.length; ++k) {
                 // Edge<F> edge = new Edge<F>(tokens,k,tags[k-1]);
-                for (String feature : features.edgeFeatures(k,k-1).keySet())
-                    featureCounter.increment(feature);
+                features.edgeFeatures(k,k-1,counter);
             }
             // SHOULD BE?
             // for (int n = 0; n < tokens.size(); ++n)
@@ -1503,20 +1916,81 @@ public class ChainCrf<E>
 
 
 
-    static class FeatureVectors {
-        // mNodeFeatureVectors[nTo:N]
-        final Vector[] mNodeFeatureVectors;
-        // mEdgeFeatureVectorss[nFrom:(N-1)][kFrom:K]
-        final Vector[][] mEdgeFeatureVectorss; // length N-1, indexed by nFrom
-        FeatureVectors(Vector[] nodeFeatureVectors,
-                       Vector[][] edgeFeatureVectorss) {
-            mNodeFeatureVectors = nodeFeatureVectors;
-            mEdgeFeatureVectorss = edgeFeatureVectorss;
+    // node and edge feature vectors for an input compiled into
+    // parallel arrays of dimensions and values; the vector in slot s
+    // spans [mStarts[s],mStarts[s+1]), with node n in slot n and the
+    // edge into nTo from tag kFrom in slot N + (nTo-1)*K + kFrom
+    static class CompiledFeatures {
+        final int mNumTokens;
+        final int mNumTags;
+        final int[] mStarts;
+        final int[] mIds;
+        final float[] mValues;
+        CompiledFeatures(ChainCrfFeatures<?> features,
+                         int numTokens,
+                         int numTags,
+                         FeatureVectorBuffer buffer,
+                         boolean addInterceptFeature) {
+            mNumTokens = numTokens;
+            mNumTags = numTags;
+            int numSlots = numTokens + (numTokens - 1) * numTags;
+            int[] starts = new int[numSlots + 1];
+            int[] ids = new int[4 * numSlots + 1];
+            float[] values = new float[ids.length];
+            int size = 0;
+            for (int slot = 0; slot < numSlots; ++slot) {
+                buffer.reset();
+                if (slot < numTokens) {
+                    features.nodeFeatures(slot,buffer);
+                } else {
+                    int edge = slot - numTokens;
+                    features.edgeFeatures(1 + edge / numTags,
+                                          edge % numTags,
+                                          buffer);
+                }
+                int minLength = size + buffer.size() + 1;
+                if (minLength > ids.length) {
+                    int length = Math.max(minLength,2 * ids.length);
+                    ids = Arrays.copyOf(ids,length);
+                    values = Arrays.copyOf(values,length);
+                }
+                size += buffer.copyTo(ids,values,size,addInterceptFeature);
+                starts[slot+1] = size;
+            }
+            mStarts = starts;
+            mIds = Arrays.copyOf(ids,size);
+            mValues = Arrays.copyOf(values,size);
+        }
+        double nodeDotProduct(int n, Vector coefficients) {
+            return dotProduct(n,coefficients);
+        }
+        double edgeDotProduct(int nTo, int kFrom, Vector coefficients) {
+            return dotProduct(edgeSlot(nTo,kFrom),coefficients);
+        }
+        void incrementNode(int n, double scale, Vector coefficients) {
+            increment(n,scale,coefficients);
+        }
+        void incrementEdge(int nTo, int kFrom, double scale,
+                           Vector coefficients) {
+            increment(edgeSlot(nTo,kFrom),scale,coefficients);
+        }
+        int edgeSlot(int nTo, int kFrom) {
+            return mNumTokens + (nTo - 1) * mNumTags + kFrom;
+        }
+        double dotProduct(int slot, Vector coefficients) {
+            double sum = 0.0;
+            for (int i = mStarts[slot]; i < mStarts[slot+1]; ++i)
+                sum += coefficients.value(mIds[i]) * mValues[i];
+            return sum;
+        }
+        void increment(int slot, double scale, Vector coefficients) {
+            for (int i = mStarts[slot]; i < mStarts[slot+1]; ++i) {
+                int id = mIds[i];
+                coefficients.setValue(id,
+                                      coefficients.value(id)
+                                      + scale * mValues[i]);
+            }
         }
     }
 
-
-
-
-
 }
@@ -23,6 +23,11 @@ import java.util.List;
  * for conditional random fields to extract the necessary node and
  * edge features for estimation and tagging.
  *
+ * <p>Feature extractors used for parallel estimation with {@link
+ * ChainCrf#estimate(com.aliasi.corpus.Corpus,ChainCrfFeatureExtractor,boolean,int,boolean,boolean,com.aliasi.stats.RegressionPrior,int,com.aliasi.stats.AnnealingSchedule,double,int,int,int,java.util.concurrent.ExecutorService,int,com.aliasi.io.Reporter)}
+ * are called concurrently from multiple threads, and so must be
+ * thread safe.
+ *
  * @author  Bob Carpenter
  * @version 3.9
  * @since   LingPipe3.9
@@ -16,6 +16,8 @@
 
 package com.aliasi.crf;
 
+import com.aliasi.features.FeatureSink;
+
 import java.util.List;
 import java.util.Map;
 
@@ -35,6 +37,16 @@ import java.util.Map;
  * <p>During construction, the features implementation may cache
  * values, such as part-of-speech tags for CRF chunker features.
  *
+ * <h3>Sending Features to a Sink</h3>
+ *
+ * <p>CRFs compile features by calling {@link
+ * #nodeFeatures(int,FeatureSink)} and {@link
+ * #edgeFeatures(int,int,FeatureSink)}, which by default send the
+ * entries of the maps returned by the abstract feature methods to
+ * the sink.  Subclasses may override these methods to send features
+ * to the sink directly without building maps.  Overrides must send
+ * the same features and values as the maps contain.
+ *
  * <h3>Thread Safety</h3>
  *
  * After safely publishing the constructed features, the feature
@@ -42,7 +54,7 @@ import java.util.Map;
  * implemented by this class are all thread safe.
  *
  * @author  Bob Carpenter
- * @version 3.9
+ * @version 4.1.0
  * @since   LingPipe3.9
  * @param <E> Type of tokens in the tagging.
  */
@@ -128,4 +140,42 @@ public abstract class ChainCrfFeatures<E> {
      */
     public abstract Map<String,? extends Number> edgeFeatures(int n, int previousTagIndex);
 
-}
\ No newline at end of file
+    /**
+     * Sends the node features for the specified input position to
+     * the specified sink.
+     *
+     * <p>The default implementation sends each entry of the map
+     * returned by {@link #nodeFeatures(int)} to the sink.
+     *
+     * @param n Position in input token sequence.
+     * @param sink Sink to which features are sent.
+     * @throws IndexOutOfBoundsException If the specifieid token position
+     * is out of bounds.
+     */
+    public void nodeFeatures(int n, FeatureSink sink) {
+        send(nodeFeatures(n),sink);
+    }
+
+    /**
+     * Sends the edge features for the specified input position and
+     * index of the previous tag to the specified sink.
+     *
+     * <p>The default implementation sends each entry of the map
+     * returned by {@link #edgeFeatures(int,int)} to the sink.
+     *
+     * @param n Position in input token sequence.
+     * @param previousTagIndex Index of previous tag in list of tags.
+     * @param sink Sink to which features are sent.
+     * @throws IndexOutOfBoundsException If the specifieid token position or
+     * tag index are out of bounds.
+     */
+    public void edgeFeatures(int n, int previousTagIndex, FeatureSink sink) {
+        send(edgeFeatures(n,previousTagIndex),sink);
+    }
+
+    static void send(Map<String,? extends Number> features, FeatureSink sink) {
+        for (Map.Entry<String,? extends Number> entry : features.entrySet())
+            sink.add(entry.getKey(),entry.getValue().doubleValue());
+    }
+
+}
@@ -0,0 +1,44 @@
+/*
+ * LingPipe v. 4.1.0
+ * Copyright (C) 2003-2011 Alias-i
+ *
+ * This program is licensed under the Alias-i Royalty Free License
+ * Version 1 WITHOUT ANY WARRANTY, without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the Alias-i
+ * Royalty Free License Version 1 for more details.
+ *
+ * You should have received a copy of the Alias-i Royalty Free License
+ * Version 1 along with this program; if not, visit
+ * http://alias-i.com/lingpipe/licenses/lingpipe-license-1.txt or contact
+ * Alias-i, Inc. at 181 North 11th Street, Suite 401, Brooklyn, NY 11211,
+ * +1 (718) 290-9170.
+ */
+
+package com.aliasi.features;
+
+/**
+ * A {@code FeatureSink} receives features one at a time as pairs of
+ * feature names and values.  A feature sink is the target of the
+ * method {@link PrimitiveFeatureExtractor#features(Object,FeatureSink)},
+ * which allows feature extractors to produce features without
+ * building a map.
+ *
+ * <p>If the same feature is added more than once, the values are
+ * summed.
+ *
+ * @author  Bob Carpenter
+ * @version 4.1.0
+ * @since   LingPipe4.1.0
+ */
+public interface FeatureSink {
+
+    /**
+     * Add the specified value for the specified feature to this
+     * sink.
+     *
+     * @param feature Name of feature.
+     * @param value Value of feature.
+     */
+    public void add(String feature, double value);
+
+}
@@ -0,0 +1,253 @@
+/*
+ * LingPipe v. 4.1.0
+ * Copyright (C) 2003-2011 Alias-i
+ *
+ * This program is licensed under the Alias-i Royalty Free License
+ * Version 1 WITHOUT ANY WARRANTY, without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the Alias-i
+ * Royalty Free License Version 1 for more details.
+ *
+ * You should have received a copy of the Alias-i Royalty Free License
+ * Version 1 along with this program; if not, visit
+ * http://alias-i.com/lingpipe/licenses/lingpipe-license-1.txt or contact
+ * Alias-i, Inc. at 181 North 11th Street, Suite 401, Brooklyn, NY 11211,
+ * +1 (718) 290-9170.
+ */
+
+package com.aliasi.features;
+
+import com.aliasi.matrix.SparseFloatVector;
+import com.aliasi.matrix.Vector;
+
+import com.aliasi.symbol.HashSymbolTable;
+import com.aliasi.symbol.SymbolTable;
+
+import java.util.Arrays;
+
+/**
+ * A {@code FeatureVectorBuffer} is a reusable feature sink that
+ * converts features to dimensions using a symbol table and collects
+ * them in primitive arrays, from which a sparse vector may be
+ * built.
+ *
+ * <p>Features not in the symbol table are ignored.  Values for the
+ * same feature are summed.  The vector produced by {@link
+ * #toVector(int,boolean)} is the same as that produced by applying
+ * {@link Features#toVector(java.util.Map,SymbolTable,int,boolean)}
+ * to a map containing the summed values.
+ *
+ * <p>If the symbol table is a signed {@link HashSymbolTable}, each
+ * value is multiplied by the sign of its feature before being added.
+ *
+ * <p>The buffer's arrays grow as needed and are reused after a call
+ * to {@link #reset()}, so that after warming up, the only
+ * allocations for converting an input to a vector are the arrays of
+ * the vector itself.
+ *
+ * <p><b>Thread Safety</b></p>
+ *
+ * <p>A feature vector buffer is not thread safe.  Classifiers that
+ * use buffers keep one per thread.
+ *
+ * @author  Bob Carpenter
+ * @version 4.1.0
+ * @since   LingPipe4.1.0
+ */
+public class FeatureVectorBuffer implements FeatureSink {
+
+    private final SymbolTable mSymbolTable;
+    private final HashSymbolTable mSignedTable;
+    private int[] mIds;
+    private double[] mValues;
+    private long[] mSortKeys;
+    private int mSize;
+
+    /**
+     * Construct an empty feature vector buffer using the specified
+     * symbol table to convert features to dimensions.
+     *
+     * @param symbolTable Symbol table for features.
+     */
+    public FeatureVectorBuffer(SymbolTable symbolTable) {
+        mSymbolTable = symbolTable;
+        mSignedTable
+            = ((symbolTable instanceof HashSymbolTable)
+               && ((HashSymbolTable) symbolTable).signed())
+            ? (HashSymbolTable) symbolTable
+            : null;
+        mIds = new int[INITIAL_CAPACITY];
+        mValues = new double[INITIAL_CAPACITY];
+        mSortKeys = new long[INITIAL_CAPACITY];
+    }
+
+    /**
+     * Returns the symbol table for this buffer.
+     *
+     * @return The symbol table for this buffer.
+     */
+    public SymbolTable symbolTable() {
+        return mSymbolTable;
+    }
+
+    /**
+     * Removes all features from this buffer.
+     */
+    public void reset() {
+        mSize = 0;
+    }
+
+    /**
+     * Returns the number of features added to this buffer since it
+     * was constructed or last reset, counting repeated features each
+     * time they were added and ignoring unknown features.
+     *
+     * @return Number of features added.
+     */
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * Add the specified value for the specified feature if the
+     * feature is in the symbol table.
+     *
+     * @param feature Name of feature.
+     * @param value Value of feature.
+     */
+    public void add(String feature, double value) {
+        int id;
+        if (mSignedTable == null) {
+            id = mSymbolTable.symbolToID(feature);
+            if (id < 0)
+                return; // ignore unknown
+        } else {
+            id = mSignedTable.signedSymbolToID(feature);
+            if (id < 0) {
+                id = -id;
+                value = -value;
+            }
+        }
+        if (mSize == mIds.length) {
+            int capacity = 2 * mIds.length;
+            mIds = Arrays.copyOf(mIds,capacity);
+            mValues = Arrays.copyOf(mValues,capacity);
+            mSortKeys = new long[capacity];
+        }
+        mIds[mSize] = id;
+        mValues[mSize] = value;
+        ++mSize;
+    }
+
+    /**
+     * Returns a sparse vector with the specified number of
+     * dimensions containing the features in this buffer.  If the add
+     * intercept flag is set to {@code true}, dimension 0 is set to
+     * 1.0.  The buffer is not reset.
+     *
+     * @param numDimensions Number of dimensions for the vector.
+     * @param addIntercept Flag indicating whether or not to add an
+     * intercept value of 1.0 at position 0.
+     * @return Sparse vector for the features in this buffer.
+     * @throws IllegalArgumentException If a feature's dimension is
+     * not less than the number of dimensions.
+     */
+    public Vector toVector(int numDimensions, boolean addIntercept) {
+        int numKeys = sort(addIntercept);
+        int[] keys = new int[numKeys];
+        float[] values = new float[numKeys];
+        write(keys,values,0,addIntercept);
+        return new SparseFloatVector(keys,values,numDimensions);
+    }
+
+    /**
+     * Writes the dimensions and values of the features in this buffer
+     * into the specified arrays starting at the specified offset, and
+     * returns the number of dimensions written.  Dimensions are
+     * written in increasing order, with the values for repeated
+     * features summed, so that the arrays hold exactly the non-zero
+     * dimensions and values of the vector that {@link
+     * #toVector(int,boolean)} would return.  The buffer is not reset.
+     *
+     * <p>At most {@code size()+1} dimensions are written, so
+     * arrays with that much room after the offset are always large
+     * enough.
+     *
+     * @param ids Array into which to write dimensions.
+     * @param values Array into which to write values.
+     * @param offset Position in the arrays at which to start writing.
+     * @param addIntercept Flag indicating whether or not to add an
+     * intercept value of 1.0 at position 0.
+     * @return Number of dimensions written.
+     * @throws IndexOutOfBoundsException If the arrays are not long
+     * enough to hold the dimensions and values.
+     */
+    public int copyTo(int[] ids, float[] values, int offset,
+                      boolean addIntercept) {
+        int numKeys = sort(addIntercept);
+        if (offset < 0
+            || offset + numKeys > ids.length
+            || offset + numKeys > values.length) {
+            String msg = "Arrays too short to hold features."
+                + " Found ids.length=" + ids.length
+                + " values.length=" + values.length
+                + " offset=" + offset
+                + " number of dimensions=" + numKeys;
+            throw new IndexOutOfBoundsException(msg);
+        }
+        write(ids,values,offset,addIntercept);
+        return numKeys;
+    }
+
+    // sorts positions by dimension, breaking ties by position, and
+    // returns number of distinct dimensions including intercept
+    private int sort(boolean addIntercept) {
+        long[] sortKeys = mSortKeys;
+        for (int i = 0; i < mSize; ++i)
+            sortKeys[i] = (((long) mIds[i]) << 32) | i;
+        Arrays.sort(sortKeys,0,mSize);
+
+        int numKeys = 0;
+        int lastId = -1;
+        for (int i = 0; i < mSize; ++i) {
+            int id = (int) (sortKeys[i] >>> 32);
+            if (id != lastId) {
+                ++numKeys;
+                lastId = id;
+            }
+        }
+        if (needsIntercept(addIntercept))
+            ++numKeys;
+        return numKeys;
+    }
+
+    // requires sort() to have been called
+    private boolean needsIntercept(boolean addIntercept) {
+        return addIntercept
+            && (mSize == 0 || (int) (mSortKeys[0] >>> 32) != 0);
+    }
+
+    // requires sort() to have been called
+    private void write(int[] keys, float[] values, int offset,
+                       boolean addIntercept) {
+        long[] sortKeys = mSortKeys;
+        int k = offset;
+        if (needsIntercept(addIntercept)) {
+            keys[k] = 0;
+            values[k] = 1.0f;
+            ++k;
+        }
+        int i = 0;
+        while (i < mSize) {
+            int id = (int) (sortKeys[i] >>> 32);
+            double sum = 0.0;
+            for ( ; i < mSize && (int) (sortKeys[i] >>> 32) == id; ++i)
+                sum += mValues[(int) sortKeys[i]];
+            keys[k] = id;
+            values[k] = (addIntercept && id == 0) ? 1.0f : (float) sum;
+            ++k;
+        }
+    }
+
+    static final int INITIAL_CAPACITY = 16;
+
+}
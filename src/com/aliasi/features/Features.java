@@ -19,8 +19,11 @@ package com.aliasi.features;
 import com.aliasi.matrix.SparseFloatVector;
 import com.aliasi.matrix.Vector;
 
+import com.aliasi.symbol.HashSymbolTable;
 import com.aliasi.symbol.SymbolTable;
 
+import com.aliasi.util.FeatureExtractor;
+
 import java.util.HashMap;
 import java.util.Map;
 
@@ -29,7 +32,7 @@ import java.util.Map;
  * manipulating features.
  *
  * @author  Bob Carpenter
- * @version 3.8.1
+ * @version 4.1.0
  * @since   LingPipe3.9
  */
 public class Features {
@@ -48,6 +51,10 @@ public class Features {
      * to {@code true}, an intercept value of 1.0 will be added as the
      * value of dimension 0.
      *
+     * <p>If the symbol table is a {@link HashSymbolTable}, values
+     * of features that collide are summed, and if the table is
+     * signed, values are multiplied by their feature's sign.
+     *
      * @param table Symbol table for encoding features as integers.
      * @param featureVector Feature vector to convert to sparse float vector.
      * @param numDimensions Number of dimensions for the vector.
@@ -61,6 +68,8 @@ public class Features {
                            SymbolTable table,
                            int numDimensions,
                            boolean addIntercept) {
+        if (table instanceof HashSymbolTable)
+            return toHashedVector(featureVector,table,numDimensions,addIntercept);
         int size = (featureVector.size() * 3) / 2;
         Map<Integer, Number> vectorMap
             = new HashMap<Integer, Number>(size);
@@ -84,7 +93,9 @@ public class Features {
      * the add intercept flag is set to {@code true}, an intercept value of
      * 1.0 will be added as the value of dimension 0.
      *
-
+     * <p>If the symbol table is a {@link HashSymbolTable}, values
+     * of features that collide are summed, and if the table is
+     * signed, values are multiplied by their feature's sign.
      *
      * @param table Symbol table for encoding features as integers.
      * @param featureVector Feature vector to convert to sparse float vector.
@@ -99,6 +110,8 @@ public class Features {
                  SymbolTable table,
                  int numDimensions,
                  boolean addIntercept) {
+        if (table instanceof HashSymbolTable)
+            return toHashedVector(featureVector,table,numDimensions,addIntercept);
         int size = (featureVector.size() * 3) / 2;
         Map<Integer, Number> vectorMap
             = new HashMap<Integer, Number>(size);
@@ -116,4 +129,59 @@ public class Features {
         return new SparseFloatVector(vectorMap, numDimensions);
     }
 
-}
\ No newline at end of file
+    static Vector toHashedVector(Map<String,? extends Number> featureVector,
+                                 SymbolTable table,
+                                 int numDimensions,
+                                 boolean addIntercept) {
+        FeatureVectorBuffer buffer = new FeatureVectorBuffer(table);
+        for (Map.Entry<String, ? extends Number> entry
+                 : featureVector.entrySet())
+            buffer.add(entry.getKey(),entry.getValue().doubleValue());
+        return buffer.toVector(numDimensions,addIntercept);
+    }
+
+    /**
+     * Extract features from the specified input with the specified
+     * feature extractor and convert them to a sparse float vector
+     * using the symbol table of the specified buffer.  Features not
+     * in the symbol table are ignored.  If the add intercept flag is
+     * set to {@code true}, an intercept value of 1.0 will be added as
+     * the value of dimension 0.
+     *
+     * <p>If the feature extractor implements {@link
+     * PrimitiveFeatureExtractor}, the buffer is reset and the
+     * features are sent directly to the buffer, from which the vector
+     * is built.  Otherwise, the feature map is converted as by {@link
+     * #toVector(Map,SymbolTable,int,boolean)}.  The result is the same
+     * either way.
+     *
+     * @param in Input object.
+     * @param extractor Feature extractor for input.
+     * @param buffer Buffer for collecting features.
+     * @param numDimensions Number of dimensions for the vector.
+     * @param addIntercept Flag indicating whether or not to add an intercept
+     * value of 1.0 at position 0.
+     * @return Sparse float vector encoding the features of the input.
+     * @param <E> Type of input object.
+     */
+    public static <E> Vector
+        toVector(E in,
+                 FeatureExtractor<? super E> extractor,
+                 FeatureVectorBuffer buffer,
+                 int numDimensions,
+                 boolean addIntercept) {
+        if (!(extractor instanceof PrimitiveFeatureExtractor<?>))
+            return toVector(extractor.features(in),
+                            buffer.symbolTable(),
+                            numDimensions,
+                            addIntercept);
+        // safe because extractor accepts supertype of E
+        @SuppressWarnings("unchecked")
+        PrimitiveFeatureExtractor<? super E> primitiveExtractor
+            = (PrimitiveFeatureExtractor<? super E>) extractor;
+        buffer.reset();
+        primitiveExtractor.features(in,buffer);
+        return buffer.toVector(numDimensions,addIntercept);
+    }
+
+}
@@ -0,0 +1,55 @@
+/*
+ * LingPipe v. 4.1.0
+ * Copyright (C) 2003-2011 Alias-i
+ *
+ * This program is licensed under the Alias-i Royalty Free License
+ * Version 1 WITHOUT ANY WARRANTY, without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the Alias-i
+ * Royalty Free License Version 1 for more details.
+ *
+ * You should have received a copy of the Alias-i Royalty Free License
+ * Version 1 along with this program; if not, visit
+ * http://alias-i.com/lingpipe/licenses/lingpipe-license-1.txt or contact
+ * Alias-i, Inc. at 181 North 11th Street, Suite 401, Brooklyn, NY 11211,
+ * +1 (718) 290-9170.
+ */
+
+package com.aliasi.features;
+
+import com.aliasi.util.FeatureExtractor;
+
+/**
+ * A {@code PrimitiveFeatureExtractor} is a feature extractor that is
+ * also able to send its features to a {@link FeatureSink} rather
+ * than returning them as a map.
+ *
+ * <p>The features sent to the sink must be the same as those in the
+ * map returned by {@link #features(Object)}, though a feature may be
+ * sent more than once, in which case its values are summed.  For
+ * example, a token feature extractor may send each token with value
+ * 1.0 as it is found instead of counting the tokens in a map.
+ *
+ * <p>Classifiers such as {@link
+ * com.aliasi.classify.LogisticRegressionClassifier} check if their
+ * feature extractor implements this interface, and if it does, use
+ * {@link FeatureVectorBuffer} to convert inputs to vectors without
+ * the intermediate maps, boxed numbers and symbol lookups on boxed
+ * integers of {@link Features#toVector(java.util.Map,com.aliasi.symbol.SymbolTable,int,boolean)}.
+ *
+ * @author  Bob Carpenter
+ * @version 4.1.0
+ * @since   LingPipe4.1.0
+ * @param <E> Type of object whose features are extracted
+ */
+public interface PrimitiveFeatureExtractor<E> extends FeatureExtractor<E> {
+
+    /**
+     * Send the features for the specified input to the specified
+     * sink.
+     *
+     * @param in Input object.
+     * @param sink Sink to which features are sent.
+     */
+    public void features(E in, FeatureSink sink);
+
+}
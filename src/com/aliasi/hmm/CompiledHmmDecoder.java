@@ -0,0 +1,261 @@
+/*
+ * LingPipe v. 4.1.0
+ * Copyright (C) 2003-2011 Alias-i
+ *
+ * This program is licensed under the Alias-i Royalty Free License
+ * Version 1 WITHOUT ANY WARRANTY, without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the Alias-i
+ * Royalty Free License Version 1 for more details.
+ *
+ * You should have received a copy of the Alias-i Royalty Free License
+ * Version 1 along with this program; if not, visit
+ * http://alias-i.com/lingpipe/licenses/lingpipe-license-1.txt or contact
+ * Alias-i, Inc. at 181 North 11th Street, Suite 401, Brooklyn, NY 11211,
+ * +1 (718) 290-9170.
+ */
+
+
+package com.aliasi.hmm;
+
+import com.aliasi.symbol.MapSymbolTable;
+import com.aliasi.symbol.SymbolTable;
+
+import com.aliasi.tag.Tagger;
+import com.aliasi.tag.Tagging;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A <code>CompiledHmmDecoder</code> is a first-best tagger that runs
+ * the Viterbi algorithm of an {@link HmmDecoder} over tables
+ * precomputed from the decoder's hidden Markov model.
+ *
+ * <h3>Compiled Tables</h3>
+ *
+ * <p>At construction time, the start, end and transition log (base
+ * 2) probabilities of the HMM are copied into arrays, with the
+ * transitions held in a single flat array.  A collection of known
+ * tokens, such as the tokens in the training corpus, is mapped to
+ * integer identifiers with a symbol table, and the vector of log
+ * (base 2) emission probabilities over all states is computed for
+ * each known token, with the decoder's emission beam applied.
+ *
+ * <p>During decoding, emission vectors for known tokens are looked
+ * up by identifier.  Emission vectors for unknown tokens fall back
+ * to the decoder, which computes them from the HMM or retrieves them
+ * from its log emission cache if one has been set.  The Viterbi
+ * lattice and back pointers are kept in flat arrays that are reused
+ * across calls, so that decoding a sequence of known tokens
+ * allocates only the returned tagging.
+ *
+ * <p>The first-best tagging returned by {@link #tag(List)} is
+ * identical to that returned by the underlying decoder's {@link
+ * HmmDecoder#tag(List)} method, including the effect of the Viterbi
+ * and emission beams.
+ *
+ * <p>Memory for the emission table is proportional to the number of
+ * known tokens times the number of states.
+ *
+ * <h3>Changes to the HMM or Decoder</h3>
+ *
+ * <p>The tables are a snapshot of the HMM and decoder at
+ * construction time.  If the HMM is changed, for instance by further
+ * training an estimator, or if the decoder's beams are reset, a new
+ * compiled decoder must be constructed.
+ *
+ * <h3>Thread Safety</h3>
+ *
+ * <p>A compiled decoder keeps its working arrays per thread, and its
+ * tables are immutable after construction, so it may be used
+ * concurrently to the extent that the underlying decoder's HMM and
+ * log emission cache may be used concurrently to compute emissions
+ * for unknown tokens.
+ *
+ * @author  Bob Carpenter
+ * @version 4.1.0
+ * @since   LingPipe4.1.0
+ */
+public class CompiledHmmDecoder implements Tagger<String> {
+
+    private final HmmDecoder mDecoder;
+    private final String[] mStates;
+    private final double[] mStartLog2Probs;
+    private final double[] mEndLog2Probs;
+    // mTransitLog2Probs[targetId * numStates + sourceId]
+    private final double[] mTransitLog2Probs;
+    private final SymbolTable mTokenSymbolTable;
+    // mEmitLog2Probs[tokenId][stateId]
+    private final double[][] mEmitLog2Probs;
+    private final double mLog2Beam;
+    private final ThreadLocal<Workspace> mWorkspaces
+        = new ThreadLocal<Workspace>() {
+            @Override
+            protected Workspace initialValue() {
+                return new Workspace(mStates.length);
+            }
+        };
+
+    /**
+     * Construct a compiled decoder from the specified decoder with
+     * precomputed emission estimates for the specified tokens.
+     * Duplicate tokens are ignored.
+     *
+     * @param decoder Decoder to compile.
+     * @param knownTokens Tokens for which emission estimates are
+     * precomputed.
+     */
+    public CompiledHmmDecoder(HmmDecoder decoder,
+                              Iterable<String> knownTokens) {
+        mDecoder = decoder;
+        mLog2Beam = decoder.log2Beam();
+        HiddenMarkovModel hmm = decoder.getHmm();
+        SymbolTable stateSymbolTable = hmm.stateSymbolTable();
+        int numStates = stateSymbolTable.numSymbols();
+
+        mStates = new String[numStates];
+        mStartLog2Probs = new double[numStates];
+        mEndLog2Probs = new double[numStates];
+        mTransitLog2Probs = new double[numStates * numStates];
+        for (int targetId = 0; targetId < numStates; ++targetId) {
+            mStates[targetId] = stateSymbolTable.idToSymbol(targetId);
+            mStartLog2Probs[targetId] = hmm.startLog2Prob(targetId);
+            mEndLog2Probs[targetId] = hmm.endLog2Prob(targetId);
+            for (int sourceId = 0; sourceId < numStates; ++sourceId)
+                mTransitLog2Probs[targetId * numStates + sourceId]
+                    = hmm.transitLog2Prob(sourceId,targetId);
+        }
+
+        MapSymbolTable tokenSymbolTable = new MapSymbolTable();
+        List<double[]> emitLog2Probs = new ArrayList<double[]>();
+        for (String token : knownTokens) {
+            int tokenId = tokenSymbolTable.getOrAddSymbol(token);
+            if (tokenId == emitLog2Probs.size())
+                emitLog2Probs.add(decoder.computeEmitLog2Probs(token));
+        }
+        mTokenSymbolTable = MapSymbolTable.unmodifiableView(tokenSymbolTable);
+        mEmitLog2Probs = emitLog2Probs.toArray(new double[emitLog2Probs.size()][]);
+    }
+
+    /**
+     * Returns the decoder from which this compiled decoder was
+     * constructed.  It is used to compute emission estimates for
+     * unknown tokens.
+     *
+     * @return The underlying decoder.
+     */
+    public HmmDecoder decoder() {
+        return mDecoder;
+    }
+
+    /**
+     * Returns an unmodifiable view of the symbol table for the known
+     * tokens of this decoder.
+     *
+     * @return The symbol table for known tokens.
+     */
+    public SymbolTable tokenSymbolTable() {
+        return mTokenSymbolTable;
+    }
+
+    public Tagging<String> tag(List<String> tokens) {
+        int numTokens = tokens.size();
+        String[] tags = new String[numTokens];
+        if (numTokens == 0)
+            return new Tagging<String>(tokens,Arrays.asList(tags));
+
+        int numStates = mStates.length;
+        Workspace workspace = mWorkspaces.get();
+        workspace.ensureCapacity(numTokens * numStates);
+        double[] lattice = workspace.mLattice;
+        int[] backPts = workspace.mBackPts;
+        int[] sources = workspace.mSources;
+        double[] transitLog2Probs = mTransitLog2Probs;
+
+        double[] emitLog2Probs = emitLog2Probs(tokens.get(0));
+        for (int stateId = 0; stateId < numStates; ++stateId)
+            lattice[stateId]
+                = emitLog2Probs[stateId]
+                + mStartLog2Probs[stateId];
+
+        for (int i = 1; i < numTokens; ++i) {
+            int last = (i - 1) * numStates;
+            int next = i * numStates;
+            int numSources = unprunedSources(lattice,last,numStates,sources);
+            emitLog2Probs = emitLog2Probs(tokens.get(i));
+            for (int targetId = 0; targetId < numStates; ++targetId) {
+                if (Double.NEGATIVE_INFINITY != emitLog2Probs[targetId]) {
+                    int transitStart = targetId * numStates;
+                    double best = Double.NEGATIVE_INFINITY;
+                    int bk = 0; // default tag
+                    for (int k = 0; k < numSources; ++k) {
+                        int sourceId = sources[k];
+                        double est = lattice[last + sourceId]
+                            + transitLog2Probs[transitStart + sourceId];
+                        if (est > best) {
+                            best = est;
+                            bk = sourceId;
+                        }
+                    }
+                    lattice[next + targetId] = best + emitLog2Probs[targetId];
+                    backPts[next + targetId] = bk;
+                } else {
+                    lattice[next + targetId] = Double.NEGATIVE_INFINITY;
+                    backPts[next + targetId] = 0; // default tag
+                }
+            }
+        }
+
+        // handles finals even if only one emission
+        int last = (numTokens - 1) * numStates;
+        for (int stateId = 0; stateId < numStates; ++stateId)
+            lattice[last + stateId] += mEndLog2Probs[stateId];
+        int bestStateId = 0;
+        for (int stateId = 1; stateId < numStates; ++stateId)
+            if (lattice[last + stateId] > lattice[last + bestStateId])
+                bestStateId = stateId;
+        for (int i = numTokens; --i >= 0; ) {
+            tags[i] = mStates[bestStateId];
+            bestStateId = backPts[i * numStates + bestStateId];
+        }
+        return new Tagging<String>(tokens,Arrays.asList(tags));
+    }
+
+    double[] emitLog2Probs(String token) {
+        int tokenId = mTokenSymbolTable.symbolToID(token);
+        return (tokenId >= 0)
+            ? mEmitLog2Probs[tokenId]
+            : mDecoder.emitLog2Probs(token);
+    }
+
+    // same pruning as HmmDecoder.unprunedSources(), returns number
+    int unprunedSources(double[] lattice, int start, int numStates,
+                        int[] survivors) {
+        double best = lattice[start];
+        for (int i = 0; i < numStates; ++i)
+            if (lattice[start + i] > best)
+                best = lattice[start + i];
+        int next = 0;
+        for (int i = 0; i < numStates; ++i)
+            if (lattice[start + i] + mLog2Beam >= best)
+                survivors[next++] = i;
+        return next;
+    }
+
+    static class Workspace {
+        double[] mLattice = new double[0];
+        int[] mBackPts = new int[0];
+        final int[] mSources;
+        Workspace(int numStates) {
+            mSources = new int[numStates];
+        }
+        void ensureCapacity(int size) {
+            if (mLattice.length >= size) return;
+            int capacity = Math.max(size,2 * mLattice.length);
+            mLattice = new double[capacity];
+            mBackPts = new int[capacity];
+        }
+    }
+
+}
@@ -100,6 +100,28 @@ import java.util.List;
  * designed specifically to be used as a cache in settings such as
  * these.
  *
+ * <P>For decoders shared by many threads, {@link
+ * com.aliasi.util.ShardedCache} bounds the number of cached tokens
+ * exactly, evicts the least recently used tokens, and splits the
+ * cache into independently locked shards so that threads tagging
+ * different tokens do not contend.  Its hit and miss counts may be
+ * used to tune the cache size:
+ *
+ * <blockquote><pre>
+ * ShardedCache&lt;String,double[]&gt; cache
+ *     = new ShardedCache&lt;String,double[]&gt;(100000);
+ * HmmDecoder decoder = new HmmDecoder(hmm,null,cache);
+ * ...
+ * double hitRate = cache.numHits()
+ *     / (double) (cache.numHits() + cache.numMisses());</pre></blockquote>
+ *
+ * <P>A single cache may be shared by several decoders wrapping the
+ * same hidden Markov model, so that tokens cached by one decoder are
+ * available to the others.  Because cached log probabilities have
+ * already been pruned by the emission beam, decoders sharing a log
+ * cache must also share the same emission beam.  Linear and log
+ * caches hold different values and must never be the same map.
+ *
  * <P>It is often (e.g. on English newsire) easy to get high token
  * coverage (e.g. 97%) with a rather modestly sized cache (e.g. 100K
  * tokens).  Other corpora and languages may vary and we encourage
@@ -128,8 +150,15 @@ import java.util.List;
  * than the beam less than the bes5t emission estimate is eliminated
  * from further consideration.
  *
+ * <h3>Compiled Decoding</h3>
+ *
+ * <p>For high-throughput first-best tagging, a decoder may be
+ * compiled into a {@link CompiledHmmDecoder}, which precomputes
+ * emission estimates for a set of known tokens and holds the
+ * transition estimates in flat arrays.
+ *
  * @author Bob Carpenter
- * @version 4.0.0
+ * @version 4.1.0
  * @since   LingPipe2.1
  */
 public class HmmDecoder 
@@ -236,6 +265,26 @@ public class HmmDecoder
     }
 
 
+    /**
+     * Returns the log (base 2) beam width used to prune full Viterbi
+     * hypotheses.
+     *
+     * @return The log (base 2) Viterbi beam.
+     */
+    public double log2Beam() {
+        return mLog2Beam;
+    }
+
+    /**
+     * Returns the log (base 2) beam width used to prune emission
+     * estimates.
+     *
+     * @return The log (base 2) emission beam.
+     */
+    public double log2EmissionBeam() {
+        return mLog2EmissionBeam;
+    }
+
     /**
      * Sets the emission cache to the specified value.
      *
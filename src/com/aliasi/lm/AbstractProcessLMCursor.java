@@ -0,0 +1,69 @@
+/*
+ * LingPipe v. 4.1.0
+ * Copyright (C) 2003-2011 Alias-i
+ *
+ * This program is licensed under the Alias-i Royalty Free License
+ * Version 1 WITHOUT ANY WARRANTY, without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the Alias-i
+ * Royalty Free License Version 1 for more details.
+ *
+ * You should have received a copy of the Alias-i Royalty Free License
+ * Version 1 along with this program; if not, visit
+ * http://alias-i.com/lingpipe/licenses/lingpipe-license-1.txt or contact
+ * Alias-i, Inc. at 181 North 11th Street, Suite 401, Brooklyn, NY 11211,
+ * +1 (718) 290-9170.
+ */
+
+package com.aliasi.lm;
+
+import com.aliasi.util.Strings;
+
+/**
+ * An <code>AbstractProcessLMCursor</code> keeps the running totals
+ * for a cursor, leaving subclasses to estimate characters and update
+ * the context.
+ *
+ * @author  Bob Carpenter
+ * @version 4.1.0
+ * @since   LingPipe4.1.0
+ */
+abstract class AbstractProcessLMCursor implements ProcessLMCursor {
+
+    private double mLog2Estimate = 0.0;
+    private long mNumChars = 0L;
+
+    // returns the estimate of c in the context and appends c to the context
+    abstract double advance(char c);
+
+    abstract void resetContext();
+
+    public double next(char c) {
+        double log2Estimate = advance(c);
+        mLog2Estimate += log2Estimate;
+        ++mNumChars;
+        return log2Estimate;
+    }
+
+    public double next(char[] cs, int start, int end) {
+        Strings.checkArgsStartEnd(cs,start,end);
+        double sum = 0.0;
+        for (int i = start; i < end; ++i)
+            sum += next(cs[i]);
+        return sum;
+    }
+
+    public double log2Estimate() {
+        return mLog2Estimate;
+    }
+
+    public long numChars() {
+        return mNumChars;
+    }
+
+    public void reset() {
+        resetContext();
+        mLog2Estimate = 0.0;
+        mNumChars = 0L;
+    }
+
+}
@@ -0,0 +1,289 @@
+/*
+ * LingPipe v. 4.1.0
+ * Copyright (C) 2003-2011 Alias-i
+ *
+ * This program is licensed under the Alias-i Royalty Free License
+ * Version 1 WITHOUT ANY WARRANTY, without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the Alias-i
+ * Royalty Free License Version 1 for more details.
+ *
+ * You should have received a copy of the Alias-i Royalty Free License
+ * Version 1 along with this program; if not, visit
+ * http://alias-i.com/lingpipe/licenses/lingpipe-license-1.txt or contact
+ * Alias-i, Inc. at 181 North 11th Street, Suite 401, Brooklyn, NY 11211,
+ * +1 (718) 290-9170.
+ */
+
+package com.aliasi.lm;
+
+import com.aliasi.util.Strings;
+
+import java.io.IOException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * An <code>ArrayTrie</code> stores a read-only character trie with
+ * counts in a handful of parallel primitive arrays rather than in one
+ * object per node.
+ *
+ * <P>Nodes are numbered in breadth-first order with daughters sorted
+ * by character, so the daughters of node <code>i</code> occupy the
+ * contiguous range <code>[firstChild[i],firstChild[i+1])</code> and
+ * may be found by binary search on the character array.  Because the
+ * deepest level and any trailing leaves come last in this order, the
+ * offsets are only stored up to the last node with daughters.  Counts
+ * are stored in a single unsigned byte per node; the rare counts too
+ * large for a byte are marked with an escape value and stored in a
+ * sorted overflow table.  Each node thus takes at most seven bytes.
+ *
+ * <P>Tries are exposed to the rest of the package as {@link Node}
+ * instances through the flyweight {@link ArrayTrieNode}.
+ *
+ * @author  Bob Carpenter
+ * @version 4.1.0
+ * @since   LingPipe4.1.0
+ */
+final class ArrayTrie {
+
+    final char[] mChars;
+    final int[] mFirstChild;
+    final byte[] mCounts;
+    final int[] mOverflowNodes;
+    final long[] mOverflowCounts;
+
+    ArrayTrie(char[] chars, int[] firstChild, byte[] counts,
+              int[] overflowNodes, long[] overflowCounts) {
+        mChars = chars;
+        mFirstChild = firstChild;
+        mCounts = counts;
+        mOverflowNodes = overflowNodes;
+        mOverflowCounts = overflowCounts;
+    }
+
+    int numNodes() {
+        return mChars.length;
+    }
+
+    long count(int node) {
+        int count = mCounts[node] & 0xFF;
+        if (count != OVERFLOW) return count;
+        return mOverflowCounts[Arrays.binarySearch(mOverflowNodes,node)];
+    }
+
+    // first child offsets are only stored up to the last node with children
+    boolean hasChildren(int node) {
+        return node + 1 < mFirstChild.length
+            && mFirstChild[node] < mFirstChild[node+1];
+    }
+
+    int firstChild(int node) {
+        return node + 1 < mFirstChild.length
+            ? mFirstChild[node]
+            : mChars.length;
+    }
+
+    int numChildren(int node) {
+        return hasChildren(node)
+            ? mFirstChild[node+1] - mFirstChild[node]
+            : 0;
+    }
+
+    int child(int node, char c) {
+        if (node + 1 >= mFirstChild.length) return -1;
+        int low = mFirstChild[node];
+        int high = mFirstChild[node+1] - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            char midC = mChars[mid];
+            if (midC < c)
+                low = mid + 1;
+            else if (midC > c)
+                high = mid - 1;
+            else
+                return mid;
+        }
+        return -1;
+    }
+
+    // returns -1 if the path is not in the trie
+    int find(int node, char[] cs, int start, int end) {
+        for (int i = start; i < end && node >= 0; ++i)
+            node = child(node,cs[i]);
+        return node;
+    }
+
+    long contextCount(int node) {
+        if (!hasChildren(node)) return 0L;
+        long sum = 0L;
+        for (int i = mFirstChild[node]; i < mFirstChild[node+1]; ++i)
+            sum += count(i);
+        return sum;
+    }
+
+    char[] outcomes(int node) {
+        return hasChildren(node)
+            ? Arrays.copyOfRange(mChars,mFirstChild[node],mFirstChild[node+1])
+            : Strings.EMPTY_CHAR_ARRAY;
+    }
+
+    // descendants on each level form a contiguous range
+    long size(int node) {
+        long size = 0L;
+        int low = node;
+        int high = node + 1;
+        while (low < high) {
+            size += high - low;
+            low = firstChild(low);
+            high = firstChild(high);
+        }
+        return size;
+    }
+
+    static ArrayTrie read(TrieReader reader, int maxDepth)
+        throws IOException {
+
+        Builder builder = new Builder();
+        read(reader,builder,'\u0000',0,maxDepth);
+        return builder.build();
+    }
+
+    private static void read(TrieReader reader, Builder builder,
+                             char c, int depth, int maxDepth)
+        throws IOException {
+
+        builder.add(depth,c,reader.readCount());
+        long sym;
+        while ((sym = reader.readSymbol()) != -1L) {
+            if (depth < maxDepth)
+                read(reader,builder,(char)sym,depth+1,maxDepth);
+            else
+                skip(reader);
+        }
+    }
+
+    private static void skip(TrieReader reader) throws IOException {
+        reader.readCount();
+        while (reader.readSymbol() != -1L)
+            skip(reader);
+    }
+
+    static ArrayTrie copy(Node node, long minCount) {
+        Builder builder = new Builder();
+        copy(node,builder,'\u0000',0,minCount);
+        return builder.build();
+    }
+
+    private static void copy(Node node, Builder builder, char c,
+                             int depth, long minCount) {
+        builder.add(depth,c,node.count());
+        char[] cs = node.outcomes(Strings.EMPTY_CHAR_ARRAY,0,0);
+        for (int i = 0; i < cs.length; ++i) {
+            Node dtr = node.daughter(cs[i]);
+            if (dtr.count() >= minCount)
+                copy(dtr,builder,cs[i],depth+1,minCount);
+        }
+    }
+
+    static final int OVERFLOW = 0xFF;
+
+    // collects nodes added in depth-first order into one list per level;
+    // within a level, depth-first order is breadth-first order
+    static class Builder {
+        private final List<Level> mLevels = new ArrayList<Level>();
+
+        void add(int depth, char c, long count) {
+            if (depth == mLevels.size())
+                mLevels.add(new Level());
+            mLevels.get(depth).add(c,count);
+            if (depth > 0)
+                mLevels.get(depth-1).addChild();
+        }
+
+        ArrayTrie build() {
+            long numNodesL = 0L;
+            int numOverflows = 0;
+            long lastInternal = -1L;
+            for (Level level : mLevels) {
+                for (int i = 0; i < level.mSize; ++i)
+                    if (level.mNumChildren[i] > 0)
+                        lastInternal = numNodesL + i;
+                numNodesL += level.mSize;
+                numOverflows += level.mNumOverflows;
+            }
+            if (numNodesL >= Integer.MAX_VALUE) {
+                String msg = "Too many nodes for array trie."
+                    + " Found numNodes=" + numNodesL;
+                throw new IllegalArgumentException(msg);
+            }
+            int numNodes = (int) numNodesL;
+            char[] chars = new char[numNodes];
+            int[] firstChild = new int[(int) lastInternal + 2];
+            byte[] counts = new byte[numNodes];
+            int[] overflowNodes = new int[numOverflows];
+            long[] overflowCounts = new long[numOverflows];
+            int levelStart = 0;
+            int overflow = 0;
+            for (int d = 0; d < mLevels.size(); ++d) {
+                Level level = mLevels.get(d);
+                int nextChild = levelStart + level.mSize;
+                System.arraycopy(level.mChars,0,chars,levelStart,level.mSize);
+                System.arraycopy(level.mCounts,0,counts,levelStart,level.mSize);
+                for (int i = 0; i < level.mSize && levelStart + i <= lastInternal; ++i) {
+                    firstChild[levelStart+i] = nextChild;
+                    nextChild += level.mNumChildren[i];
+                }
+                for (int i = 0; i < level.mNumOverflows; ++i) {
+                    overflowNodes[overflow] = levelStart + level.mOverflowIndexes[i];
+                    overflowCounts[overflow] = level.mOverflowCounts[i];
+                    ++overflow;
+                }
+                levelStart += level.mSize;
+                mLevels.set(d,null); // free as we go
+            }
+            firstChild[firstChild.length-1] = numNodes;
+            return new ArrayTrie(chars,firstChild,counts,
+                                 overflowNodes,overflowCounts);
+        }
+    }
+
+    static class Level {
+        char[] mChars = new char[16];
+        byte[] mCounts = new byte[16];
+        int[] mNumChildren = new int[16];
+        int mSize = 0;
+        int[] mOverflowIndexes = new int[4];
+        long[] mOverflowCounts = new long[4];
+        int mNumOverflows = 0;
+
+        void addChild() {
+            ++mNumChildren[mSize-1];
+        }
+
+        void add(char c, long count) {
+            if (mSize == mChars.length) {
+                int capacity = (int) Math.min(2L * mSize,Integer.MAX_VALUE - 8);
+                mChars = Arrays.copyOf(mChars,capacity);
+                mCounts = Arrays.copyOf(mCounts,capacity);
+                mNumChildren = Arrays.copyOf(mNumChildren,capacity);
+            }
+            mChars[mSize] = c;
+            if (count < OVERFLOW) {
+                mCounts[mSize] = (byte) count;
+            } else {
+                mCounts[mSize] = (byte) OVERFLOW;
+                if (mNumOverflows == mOverflowIndexes.length) {
+                    mOverflowIndexes = Arrays.copyOf(mOverflowIndexes,2*mNumOverflows);
+                    mOverflowCounts = Arrays.copyOf(mOverflowCounts,2*mNumOverflows);
+                }
+                mOverflowIndexes[mNumOverflows] = mSize;
+                mOverflowCounts[mNumOverflows] = count;
+                ++mNumOverflows;
+            }
+            ++mSize;
+        }
+    }
+
+}
@@ -0,0 +1,171 @@
+/*
+ * LingPipe v. 4.1.0
+ * Copyright (C) 2003-2011 Alias-i
+ *
+ * This program is licensed under the Alias-i Royalty Free License
+ * Version 1 WITHOUT ANY WARRANTY, without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the Alias-i
+ * Royalty Free License Version 1 for more details.
+ *
+ * You should have received a copy of the Alias-i Royalty Free License
+ * Version 1 along with this program; if not, visit
+ * http://alias-i.com/lingpipe/licenses/lingpipe-license-1.txt or contact
+ * Alias-i, Inc. at 181 North 11th Street, Suite 401, Brooklyn, NY 11211,
+ * +1 (718) 290-9170.
+ */
+
+package com.aliasi.lm;
+
+import com.aliasi.util.ObjectToCounterMap;
+import com.aliasi.util.Strings;
+
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * An <code>ArrayTrieNode</code> is a flyweight node for a subtree of
+ * an {@link ArrayTrie}.  Lookups are carried out directly on the
+ * arrays.  Updates copy the nodes on the path being updated into
+ * ordinary nodes whose other daughters remain flyweights, so the bulk
+ * of the trie stays in array form.
+ *
+ * @author  Bob Carpenter
+ * @version 4.1.0
+ * @since   LingPipe4.1.0
+ */
+final class ArrayTrieNode implements Node {
+
+    final ArrayTrie mTrie;
+    final int mIndex;
+
+    ArrayTrieNode(ArrayTrie trie, int index) {
+        mTrie = trie;
+        mIndex = index;
+    }
+
+    ArrayTrieNode(ArrayTrie trie) {
+        this(trie,0);
+    }
+
+    public long count() {
+        return mTrie.count(mIndex);
+    }
+
+    public long count(char[] cs, int start, int end) {
+        int node = mTrie.find(mIndex,cs,start,end);
+        return node < 0 ? 0L : mTrie.count(node);
+    }
+
+    public long contextCount(char[] cs, int start, int end) {
+        int node = mTrie.find(mIndex,cs,start,end);
+        return node < 0 ? 0L : mTrie.contextCount(node);
+    }
+
+    public int numOutcomes(char[] cs, int start, int end) {
+        int node = mTrie.find(mIndex,cs,start,end);
+        return node < 0 ? 0 : mTrie.numChildren(node);
+    }
+
+    public char[] outcomes(char[] cs, int start, int end) {
+        int node = mTrie.find(mIndex,cs,start,end);
+        return node < 0
+            ? Strings.EMPTY_CHAR_ARRAY
+            : mTrie.outcomes(node);
+    }
+
+    public Node daughter(char c) {
+        int dtr = mTrie.child(mIndex,c);
+        return dtr < 0 ? null : new ArrayTrieNode(mTrie,dtr);
+    }
+
+    public long size() {
+        return mTrie.size(mIndex);
+    }
+
+    public Node prune(long minCount) {
+        if (count() < minCount) return null;
+        return new ArrayTrieNode(ArrayTrie.copy(this,minCount));
+    }
+
+    // updates and reporting go through an ordinary node for this
+    // node with flyweight daughters
+    Node toNode() {
+        int first = mTrie.firstChild(mIndex);
+        Node[] dtrs = new Node[mTrie.numChildren(mIndex)];
+        for (int i = 0; i < dtrs.length; ++i)
+            dtrs[i] = new ArrayTrieNode(mTrie,first+i);
+        return Node.Nodes.createNode(mTrie.outcomes(mIndex),dtrs,count());
+    }
+
+    public Node increment(char[] cs, int start, int end) {
+        return toNode().increment(cs,start,end);
+    }
+
+    public Node increment(char[] cs, int start, int end, int incr) {
+        return toNode().increment(cs,start,end,incr);
+    }
+
+    public Node decrement() {
+        return toNode().decrement();
+    }
+
+    public Node decrement(int count) {
+        return toNode().decrement(count);
+    }
+
+    public Node decrement(char[] cs, int start, int end) {
+        return toNode().decrement(cs,start,end);
+    }
+
+    public Node decrement(char[] cs, int start, int end, int count) {
+        return toNode().decrement(cs,start,end,count);
+    }
+
+    public void toString(StringBuilder sb, int depth) {
+        toNode().toString(sb,depth);
+    }
+
+    public void addCounts(List<Long> counts, int dtrLevel) {
+        toNode().addCounts(counts,dtrLevel);
+    }
+
+    public void topNGrams(NBestCounter counter,
+                          char[] csAccum, int level, int dtrLevel) {
+        toNode().topNGrams(counter,csAccum,level,dtrLevel);
+    }
+
+    public void addNGramCounts(long[][] uniqueTotalCounts, int depth) {
+        toNode().addNGramCounts(uniqueTotalCounts,depth);
+    }
+
+    public long uniqueNGramCount(int dtrLevel) {
+        return toNode().uniqueNGramCount(dtrLevel);
+    }
+
+    public long totalNGramCount(int dtrLevel) {
+        return toNode().totalNGramCount(dtrLevel);
+    }
+
+    public void countNodeTypes(ObjectToCounterMap<String> counter) {
+        counter.increment(getClass().toString());
+        int first = mTrie.firstChild(mIndex);
+        int numDtrs = mTrie.numChildren(mIndex);
+        for (int i = 0; i < numDtrs; ++i)
+            new ArrayTrieNode(mTrie,first+i).countNodeTypes(counter);
+    }
+
+    public void addDaughters(LinkedList<Node> queue) {
+        int first = mTrie.firstChild(mIndex);
+        int numDtrs = mTrie.numChildren(mIndex);
+        for (int i = 0; i < numDtrs; ++i)
+            queue.addLast(new ArrayTrieNode(mTrie,first+i));
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        toString(sb,0);
+        return sb.toString();
+    }
+
+}
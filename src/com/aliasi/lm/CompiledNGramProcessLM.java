@@ -20,7 +20,9 @@ import com.aliasi.stats.Model;
 
 import com.aliasi.util.Strings;
 
+import java.io.DataInput;
 import java.io.ObjectInput;
+import java.io.ObjectOutput;
 import java.io.IOException;
 
 import java.util.Arrays;
@@ -204,7 +206,9 @@ import java.util.Arrays;
  * <P>For estimates of sequences, the final node used will act
  * as the first potential context for the next estimate.  This
  * replaces a number of lookups equal to the n-gram length by
- * binary character search with a simple array lookup.
+ * binary character search with a simple array lookup.  The cursors
+ * returned by {@link #cursor()} use the same technique to score
+ * unbounded character streams one character at a time.
  *
  * <P><i>Implementation Note:</i> The suffix indices are not included
  * in the binary serialization format. Instead, they are initialized
@@ -214,24 +218,42 @@ import java.util.Arrays;
  * require at most 8 million binary character searches during
  * initialization.
  *
+ * <P>When compiled with {@link
+ * NGramProcessLM#compileTo(ObjectOutput,int)}, contexts of length
+ * two or less with many daughters, such as the root, are given dense
+ * tables indexed by character, replacing the binary search over
+ * their daughters with a single array lookup, and small sets of
+ * daughters are scanned linearly rather than by binary search.  The
+ * estimates are unaffected.  For large models that must be opened
+ * quickly, the compiled model, including its suffix indices, may be
+ * written in a flat layout and memory mapped using {@link
+ * MappedNGramProcessLM}.
+ *
  * @author  Bob Carpenter
  * @version 3.6
  * @since   LingPipe2.0
  */
 public class CompiledNGramProcessLM
-    implements LanguageModel.Process,
+    implements LanguageModel.Incremental,
                LanguageModel.Conditional,
                Model<CharSequence> {
 
-    private final int mMaxNGram;
-    private final float mLogUniformEstimate;
-    private final char[] mChars;
-    private final float[] mLogProbs;
-    private final float[] mLogOneMinusLambdas;
-    private final int[] mFirstChild;
-    private final int[] mSuffix;
+    final int mMaxNGram;
+    final float mLogUniformEstimate;
+    final char[] mChars;
+    final float[] mLogProbs;
+    final float[] mLogOneMinusLambdas;
+    final int[] mFirstChild;
+    final int[] mSuffix;
     private final int mLastContextIndex;
 
+    // dense child tables for high fan-out contexts near the root
+    private final int mDenseLimit;
+    private final char[] mDenseLow;
+    private final int[] mDenseOffset;
+    private final int[] mDenseChildren;
+    private final int mLinearScanLimit;
+
     // Data Format
     // -------------------------------------------------
     // maxNGram:int
@@ -257,29 +279,115 @@ public class CompiledNGramProcessLM
      * input.
      */
     CompiledNGramProcessLM(ObjectInput dataIn) throws IOException {
-        mMaxNGram = dataIn.readInt();
-        mLogUniformEstimate = dataIn.readFloat();
-        int numTotalNodes = dataIn.readInt();
-        int lastInternalNodeIndex = dataIn.readInt();
-        mLastContextIndex = lastInternalNodeIndex;
-        mChars = new char[numTotalNodes];
-        mLogProbs = new float[numTotalNodes];
-        mSuffix = new int[numTotalNodes];
+        this(dataIn,NO_DENSE_CHILDREN);
+    }
+
+    /**
+     * Construct a compiled n-gram process language model by reading
+     * it from the specified data input, building dense child tables
+     * for contexts of length zero, one or two with at least the
+     * specified number of daughters.  See {@link
+     * NGramProcessLM#compileTo(ObjectOutput,int)} for more information.
+     *
+     * @param dataIn Data input from which to read the model.
+     * @param minDenseFanout Minimum number of daughters for a context
+     * to receive a dense child table, or zero for none.
+     * @throws IOException If there is an exception reading from the
+     * input.
+     */
+    CompiledNGramProcessLM(ObjectInput dataIn, int minDenseFanout)
+        throws IOException {
+
+        this(Data.read(dataIn),minDenseFanout);
+    }
+
+    CompiledNGramProcessLM(Data data, int minDenseFanout) {
+        mMaxNGram = data.mMaxNGram;
+        mLogUniformEstimate = data.mLogUniformEstimate;
+        mChars = data.mChars;
+        mLogProbs = data.mLogProbs;
+        mLogOneMinusLambdas = data.mLogOneMinusLambdas;
+        mFirstChild = data.mFirstChild;
+        mLastContextIndex = mLogOneMinusLambdas.length - 1;
+        mSuffix = new int[mChars.length];
         Arrays.fill(mSuffix,CACHE_NOT_COMPUTED_VALUE);
-        mLogOneMinusLambdas = new float[lastInternalNodeIndex+1];
-        mFirstChild = new int[lastInternalNodeIndex+2];
-        mFirstChild[lastInternalNodeIndex+1] = numTotalNodes;
-        for (int i = 0; i <= lastInternalNodeIndex; ++i) {
-            mChars[i] = dataIn.readChar();
-            mLogProbs[i] = dataIn.readFloat();
-            mLogOneMinusLambdas[i] = dataIn.readFloat();
-            mFirstChild[i] = dataIn.readInt();
+        compileSuffixes("",ROOT_NODE_INDEX);
+
+        // candidates are contexts of length at most two, which come
+        // first in breadth-first order
+        int numContexts = mLogOneMinusLambdas.length;
+        int candidateLimit
+            = Math.min(numContexts,
+                       mFirstChild[Math.min(mFirstChild[1],numContexts)]);
+        int denseLimit = 0;
+        long numDenseChildren = 0;
+        for (int i = 0; minDenseFanout > 0 && i < candidateLimit; ++i) {
+            int span = denseSpan(i,minDenseFanout);
+            if (span == 0) continue;
+            denseLimit = i + 1;
+            numDenseChildren += span;
         }
-        for (int i = lastInternalNodeIndex+1; i < numTotalNodes; ++i) {
-            mChars[i] = dataIn.readChar();
-            mLogProbs[i] = dataIn.readFloat();
+        mDenseLimit = denseLimit;
+        mDenseLow = new char[denseLimit];
+        mDenseOffset = new int[denseLimit+1];
+        mDenseChildren = new int[(int) numDenseChildren];
+        Arrays.fill(mDenseChildren,-1);
+        int offset = 0;
+        for (int i = 0; i < denseLimit; ++i) {
+            mDenseOffset[i] = offset;
+            int span = denseSpan(i,minDenseFanout);
+            if (span == 0) continue;
+            char low = mChars[mFirstChild[i]];
+            mDenseLow[i] = low;
+            for (int k = mFirstChild[i]; k < mFirstChild[i+1]; ++k)
+                mDenseChildren[offset + mChars[k] - low] = k;
+            offset += span;
         }
-        compileSuffixes("",ROOT_NODE_INDEX);
+        mDenseOffset[denseLimit] = offset;
+        mLinearScanLimit = Math.min(minDenseFanout,MAX_LINEAR_SCAN) - 1;
+    }
+
+    // the arrays making up a compiled model, as read from a stream
+    static class Data {
+        int mMaxNGram;
+        float mLogUniformEstimate;
+        char[] mChars;
+        float[] mLogProbs;
+        float[] mLogOneMinusLambdas;
+        int[] mFirstChild;
+
+        static Data read(DataInput dataIn) throws IOException {
+            Data data = new Data();
+            data.mMaxNGram = dataIn.readInt();
+            data.mLogUniformEstimate = dataIn.readFloat();
+            int numTotalNodes = dataIn.readInt();
+            int lastInternalNodeIndex = dataIn.readInt();
+            data.mChars = new char[numTotalNodes];
+            data.mLogProbs = new float[numTotalNodes];
+            data.mLogOneMinusLambdas = new float[lastInternalNodeIndex+1];
+            data.mFirstChild = new int[lastInternalNodeIndex+2];
+            data.mFirstChild[lastInternalNodeIndex+1] = numTotalNodes;
+            for (int i = 0; i <= lastInternalNodeIndex; ++i) {
+                data.mChars[i] = dataIn.readChar();
+                data.mLogProbs[i] = dataIn.readFloat();
+                data.mLogOneMinusLambdas[i] = dataIn.readFloat();
+                data.mFirstChild[i] = dataIn.readInt();
+            }
+            for (int i = lastInternalNodeIndex+1; i < numTotalNodes; ++i) {
+                data.mChars[i] = dataIn.readChar();
+                data.mLogProbs[i] = dataIn.readFloat();
+            }
+            return data;
+        }
+    }
+
+    // width of dense table for node, or 0 if it should not get one
+    private int denseSpan(int index, int minDenseFanout) {
+        int first = mFirstChild[index];
+        int numChildren = mFirstChild[index+1] - first;
+        if (numChildren < minDenseFanout || numChildren == 0) return 0;
+        int span = mChars[first + numChildren - 1] - mChars[first] + 1;
+        return span <= MAX_DENSE_SPAN_RATIO * numChildren ? span : 0;
     }
 
     /**
@@ -470,8 +578,95 @@ public class CompiledNGramProcessLM
     }
 
     public final double log2Estimate(char[] cs, int start, int end) {
-        int len = mLogOneMinusLambdas.length;
         Strings.checkArgsStartEnd(cs,start,end);
+        return log2EstimateUnchecked(cs,start,end);
+    }
+
+    /**
+     * Returns a new cursor for scoring character streams with this
+     * model.  The context of the cursor is tracked by a context index
+     * as for {@link #nextContext(int,char)}, with the estimate and
+     * the next context computed together in a single pass.
+     *
+     * @return A cursor for this model.
+     */
+    public ProcessLMCursor cursor() {
+        return new Cursor();
+    }
+
+    /**
+     * Writes the log (base 2) estimates of the specified slices of a
+     * character array into the specified array of estimates.  The
+     * slices are given by parallel arrays of start and end positions,
+     * with the estimate for the slice from <code>starts[i]</code> to
+     * <code>ends[i]</code> being written into
+     * <code>estimates[i]</code>.  The result is the same as calling
+     * {@link #log2Estimate(char[],int,int)} for each slice, but no
+     * objects are allocated, so the estimates array may be reused
+     * across calls.
+     *
+     * @param cs Underlying character array.
+     * @param starts Index of first character in each slice.
+     * @param ends Index of one past the last character in each slice.
+     * @param estimates Array into which estimates are written.
+     * @throws IllegalArgumentException If the start and end arrays
+     * are not the same length or the estimates array is shorter than
+     * them.
+     * @throws IndexOutOfBoundsException If any of the slices are
+     * out of range for the character array.
+     */
+    public void log2Estimates(char[] cs, int[] starts, int[] ends,
+                              double[] estimates) {
+        if (starts.length != ends.length
+            || estimates.length < starts.length) {
+            String msg = "Require starts and ends of same length"
+                + " and estimates at least as long."
+                + " Found starts.length=" + starts.length
+                + " ends.length=" + ends.length
+                + " estimates.length=" + estimates.length;
+            throw new IllegalArgumentException(msg);
+        }
+        for (int i = 0; i < starts.length; ++i)
+            Strings.checkArgsStartEnd(cs,starts[i],ends[i]);
+        for (int i = 0; i < starts.length; ++i)
+            estimates[i] = log2EstimateUnchecked(cs,starts[i],ends[i]);
+    }
+
+    /**
+     * Writes the log (base 2) estimates of the specified character
+     * slice in each of the specified models into the specified array
+     * of estimates.  The estimate for <code>lms[i]</code> is written
+     * into <code>estimates[i]</code>.  The result is the same as
+     * calling {@link #log2Estimate(char[],int,int)} for each model,
+     * but no objects are allocated, so the estimates array may be
+     * reused across calls.
+     *
+     * @param lms Language models with which to estimate the slice.
+     * @param cs Underlying character array.
+     * @param start Index of first character in slice.
+     * @param end Index of one past the last character in slice.
+     * @param estimates Array into which estimates are written.
+     * @throws IllegalArgumentException If the estimates array is
+     * shorter than the array of models.
+     * @throws IndexOutOfBoundsException If the slice is out of range
+     * for the character array.
+     */
+    public static void log2Estimates(CompiledNGramProcessLM[] lms,
+                                     char[] cs, int start, int end,
+                                     double[] estimates) {
+        if (estimates.length < lms.length) {
+            String msg = "Require estimates at least as long as models."
+                + " Found lms.length=" + lms.length
+                + " estimates.length=" + estimates.length;
+            throw new IllegalArgumentException(msg);
+        }
+        Strings.checkArgsStartEnd(cs,start,end);
+        for (int i = 0; i < lms.length; ++i)
+            estimates[i] = lms[i].log2EstimateUnchecked(cs,start,end);
+    }
+
+    private double log2EstimateUnchecked(char[] cs, int start, int end) {
+        int len = mLogOneMinusLambdas.length;
         double sum = 0.0;
         int contextIndex = ROOT_NODE_INDEX;
         NEXT_CHAR:
@@ -498,6 +693,35 @@ public class CompiledNGramProcessLM
 
     }
 
+    class Cursor extends AbstractProcessLMCursor {
+        int mContextIndex = ROOT_NODE_INDEX;
+        public double log2ConditionalEstimate(char c) {
+            return CompiledNGramProcessLM.this.log2Estimate(mContextIndex,c);
+        }
+        @Override
+        double advance(char c) {
+            int len = mLogOneMinusLambdas.length;
+            double estimate = 0.0;
+            int outcomeIndex;
+            while ((outcomeIndex = getIndex(mContextIndex,c)) < 0) {
+                if (mContextIndex < len)
+                    estimate += mLogOneMinusLambdas[mContextIndex];
+                if (mContextIndex == ROOT_NODE_INDEX)
+                    return estimate + mLogUniformEstimate;
+                mContextIndex = mSuffix[mContextIndex];
+            }
+            mContextIndex
+                = outcomeIndex < len
+                ? outcomeIndex
+                : mSuffix[outcomeIndex];
+            return estimate + mLogProbs[outcomeIndex];
+        }
+        @Override
+        void resetContext() {
+            mContextIndex = ROOT_NODE_INDEX;
+        }
+    }
+
     public double log2ConditionalEstimate(CharSequence cSeq) {
         char[] cs = cSeq.toString().toCharArray();
         return log2ConditionalEstimate(cs,0,cs.length);
@@ -563,10 +787,28 @@ public class CompiledNGramProcessLM
         return sb.toString();
     }
 
-    private int getIndex(int fromIndex, char c) {
+    int getIndex(int fromIndex, char c) {
+        if (fromIndex < mDenseLimit) {
+            int offset = mDenseOffset[fromIndex];
+            int span = mDenseOffset[fromIndex+1] - offset;
+            if (span > 0) {
+                int k = c - mDenseLow[fromIndex];
+                return (k >= 0 && k < span)
+                    ? mDenseChildren[offset+k]
+                    : -1;
+            }
+        }
         if (fromIndex+1 >= mFirstChild.length) return -1;
         int low = mFirstChild[fromIndex];
         int high = mFirstChild[fromIndex+1]-1;
+        if (high - low < mLinearScanLimit) {
+            for (int k = low; k <= high; ++k) {
+                char ck = mChars[k];
+                if (ck >= c)
+                    return ck == c ? k : -1;
+            }
+            return -1;
+        }
         while (low <= high) {
             int mid = (high + low)/2;
             if (mChars[mid] == c) return mid;
@@ -595,4 +837,12 @@ public class CompiledNGramProcessLM
     public static final int ROOT_NODE_INDEX = 0;
 
     private static final int CACHE_NOT_COMPUTED_VALUE = -1;
+
+    static final int NO_DENSE_CHILDREN = 0;
+
+    // dense tables may be at most this many times the number of daughters
+    static final int MAX_DENSE_SPAN_RATIO = 4;
+
+    // daughters scanned linearly rather than by binary search
+    static final int MAX_LINEAR_SCAN = 8;
 }
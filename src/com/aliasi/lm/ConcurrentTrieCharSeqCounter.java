@@ -0,0 +1,246 @@
+/*
+ * LingPipe v. 4.1.0
+ * Copyright (C) 2003-2011 Alias-i
+ *
+ * This program is licensed under the Alias-i Royalty Free License
+ * Version 1 WITHOUT ANY WARRANTY, without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the Alias-i
+ * Royalty Free License Version 1 for more details.
+ *
+ * You should have received a copy of the Alias-i Royalty Free License
+ * Version 1 along with this program; if not, visit
+ * http://alias-i.com/lingpipe/licenses/lingpipe-license-1.txt or contact
+ * Alias-i, Inc. at 181 North 11th Street, Suite 401, Brooklyn, NY 11211,
+ * +1 (718) 290-9170.
+ */
+
+package com.aliasi.lm;
+
+import com.aliasi.corpus.ObjectHandler;
+
+import com.aliasi.util.Strings;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A <code>ConcurrentTrieCharSeqCounter</code> accumulates substring
+ * counts from multiple threads at once and then hands them off as a
+ * single {@link TrieCharSeqCounter}.
+ *
+ * <P>Counts are collected in a fixed number of stripes, each of which
+ * is a trie counter protected by its own lock.  Each substring is
+ * counted by incrementing the prefixes of every suffix, just as in
+ * {@link TrieCharSeqCounter#incrementSubstrings(char[],int,int)}; the
+ * prefixes of a given suffix are routed to the stripe determined by
+ * its first two characters.  Threads training on different text thus
+ * rarely contend for the same lock, even for very common characters
+ * such as spaces.
+ *
+ * <P>Once training is complete, the method {@link
+ * #toTrieCharSeqCounter()} merges the stripes into a single trie
+ * counter.  Because counts are simple sums, the resulting counter is
+ * identical to the one produced by training a {@link
+ * TrieCharSeqCounter} sequentially on the same data in any order.
+ * Below the second level, the merge reuses the stripes' trie nodes
+ * rather than copying them.  A typical use to train an n-gram language
+ * model with many threads is:
+ *
+ * <blockquote><pre>
+ * ConcurrentTrieCharSeqCounter counter
+ *     = new ConcurrentTrieCharSeqCounter(maxNGram);
+ * // call counter.incrementSubstrings(cs) or counter.handle(cs) from many threads
+ * ...
+ * NGramProcessLM lm
+ *     = new NGramProcessLM(numChars,lambdaFactor,
+ *                          counter.toTrieCharSeqCounter());</pre></blockquote>
+ *
+ * <h3>Thread Safety</h3>
+ *
+ * All of the public methods of this class are thread safe.
+ *
+ * @author  Bob Carpenter
+ * @version 4.1.0
+ * @since   LingPipe4.1.0
+ */
+public class ConcurrentTrieCharSeqCounter
+    implements ObjectHandler<CharSequence> {
+
+    private final int mMaxLength;
+    private final TrieCharSeqCounter[] mStripes;
+    private final ReentrantLock[] mLocks;
+
+    /**
+     * Construct a concurrent substring counter that stores substrings
+     * up to the specified maximum length, with the default number of
+     * lock stripes.
+     *
+     * @param maxLength Maximum length of substrings stored by this
+     * counter.
+     * @throws IllegalArgumentException If the maximum length is
+     * negative.
+     */
+    public ConcurrentTrieCharSeqCounter(int maxLength) {
+        this(maxLength,DEFAULT_NUM_STRIPES);
+    }
+
+    /**
+     * Construct a concurrent substring counter that stores substrings
+     * up to the specified maximum length, striping counts across the
+     * specified number of locks.
+     *
+     * @param maxLength Maximum length of substrings stored by this
+     * counter.
+     * @param numStripes Number of independently locked stripes.
+     * @throws IllegalArgumentException If the maximum length is
+     * negative or the number of stripes is not positive.
+     */
+    public ConcurrentTrieCharSeqCounter(int maxLength, int numStripes) {
+        if (maxLength < 0) {
+            String msg = "Max length must be >= 0."
+                + " Found length=" + maxLength;
+            throw new IllegalArgumentException(msg);
+        }
+        if (numStripes < 1) {
+            String msg = "Number of stripes must be positive."
+                + " Found numStripes=" + numStripes;
+            throw new IllegalArgumentException(msg);
+        }
+        mMaxLength = maxLength;
+        mStripes = new TrieCharSeqCounter[numStripes];
+        mLocks = new ReentrantLock[numStripes];
+        for (int i = 0; i < numStripes; ++i) {
+            mStripes[i] = new TrieCharSeqCounter(maxLength);
+            mLocks[i] = new ReentrantLock();
+        }
+    }
+
+    /**
+     * Returns the maximum length of substring counted by this
+     * counter.
+     *
+     * @return The maximum substring length.
+     */
+    public int maxLength() {
+        return mMaxLength;
+    }
+
+    /**
+     * Increments the counts of all substrings of the specified
+     * character sequence.  This method delegates to {@link
+     * #incrementSubstrings(CharSequence)}.
+     *
+     * @param cSeq Character sequence to count.
+     */
+    public void handle(CharSequence cSeq) {
+        incrementSubstrings(cSeq);
+    }
+
+    /**
+     * Increments the counts of all substrings of the specified
+     * character sequence up to the maximum length.
+     *
+     * @param cSeq Character sequence to count.
+     */
+    public void incrementSubstrings(CharSequence cSeq) {
+        incrementSubstrings(cSeq,1);
+    }
+
+    /**
+     * Increments the counts of all substrings of the specified
+     * character sequence up to the maximum length by the specified
+     * count.
+     *
+     * @param cSeq Character sequence to count.
+     * @param count Amount to increment.
+     */
+    public void incrementSubstrings(CharSequence cSeq, int count) {
+        char[] cs = Strings.toCharArray(cSeq);
+        incrementSubstrings(cs,0,cs.length,count);
+    }
+
+    /**
+     * Increments the counts of all substrings of the specified
+     * character slice up to the maximum length.
+     *
+     * @param cs Underlying character array.
+     * @param start Index of first character in slice.
+     * @param end Index of one past last character in slice.
+     * @throws IndexOutOfBoundsException If the indices are out of
+     * range for the character array.
+     */
+    public void incrementSubstrings(char[] cs, int start, int end) {
+        incrementSubstrings(cs,start,end,1);
+    }
+
+    /**
+     * Increments the counts of all substrings of the specified
+     * character slice up to the maximum length by the specified
+     * count.  The substrings counted are the same as for {@link
+     * TrieCharSeqCounter#incrementSubstrings(char[],int,int,int)}.
+     *
+     * @param cs Underlying character array.
+     * @param start Index of first character in slice.
+     * @param end Index of one past last character in slice.
+     * @param count Amount to increment.
+     * @throws IndexOutOfBoundsException If the indices are out of
+     * range for the character array.
+     */
+    public void incrementSubstrings(char[] cs, int start, int end,
+                                    int count) {
+        Strings.checkArgsStartEnd(cs,start,end);
+        for (int i = start; i+mMaxLength <= end; ++i)
+            incrementPrefixes(cs,i,i+mMaxLength,count);
+        for (int i = Math.max(start,end-mMaxLength+1); i < end; ++i)
+            incrementPrefixes(cs,i,end,count);
+    }
+
+    /**
+     * Returns a trie counter containing all of the counts collected
+     * by this counter and resets this counter to be empty.  This
+     * method should only be called after all training threads have
+     * finished; counts added concurrently with the merge will go into
+     * either the returned counter or the reset one.
+     *
+     * @return A trie counter containing the counts collected.
+     */
+    public TrieCharSeqCounter toTrieCharSeqCounter() {
+        List<Node> roots = new ArrayList<Node>(mStripes.length);
+        for (int i = 0; i < mStripes.length; ++i) {
+            mLocks[i].lock();
+            try {
+                roots.add(mStripes[i].mRootNode);
+                mStripes[i] = new TrieCharSeqCounter(mMaxLength);
+            } finally {
+                mLocks[i].unlock();
+            }
+        }
+        TrieCharSeqCounter counter = new TrieCharSeqCounter(mMaxLength);
+        counter.mRootNode = Node.Nodes.merge(roots);
+        return counter;
+    }
+
+    private void incrementPrefixes(char[] cs, int start, int end, int count) {
+        int stripe = stripe(cs,start,end);
+        ReentrantLock lock = mLocks[stripe];
+        lock.lock();
+        try {
+            mStripes[stripe].incrementPrefixes(cs,start,end,count);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private int stripe(char[] cs, int start, int end) {
+        if (start == end) return 0;
+        int code = end - start == 1
+            ? cs[start]
+            : 31 * cs[start] + cs[start+1];
+        return code % mStripes.length;
+    }
+
+    static final int DEFAULT_NUM_STRIPES = 64;
+
+}
@@ -40,8 +40,10 @@ import com.aliasi.util.Compilable;
  * <P>The {@link Conditional} interface provides additional methods
  * for conditional estimates.  The {@link Dynamic} interface provides
  * a method for training the model with sample character sequence
- * data.  Finally, several of the language model implementations are
- * serializable to an object output stream.
+ * data.  The {@link Incremental} interface provides cursors for
+ * scoring character streams one character at a time.  Finally,
+ * several of the language model implementations are serializable to
+ * an object output stream.
  *
  * @author  Bob Carpenter
  * @version 4.1.0
@@ -189,6 +191,28 @@ public interface LanguageModel {
     public interface Process extends LanguageModel { /* empty marker interface */}
 
 
+    /**
+     * A <code>LanguageModel.Incremental</code> is a process language
+     * model that supplies cursors for scoring character streams one
+     * character at a time.  See {@link ProcessLMCursor} for details.
+     *
+     * @author  Bob Carpenter
+     * @version 4.1.0
+     * @since   LingPipe4.1.0
+     */
+    public interface Incremental extends Process {
+
+        /**
+         * Returns a new cursor for this model positioned at the empty
+         * context.
+         *
+         * @return A cursor for this model.
+         */
+        public ProcessLMCursor cursor();
+
+    }
+
+
     /**
      * A <code>LanguageModel.Dynamic</code> accepts training events in
      * the form of character slices or sequences.  A dynamic language
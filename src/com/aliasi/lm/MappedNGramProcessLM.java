@@ -0,0 +1,512 @@
+/*
+ * LingPipe v. 4.1.0
+ * Copyright (C) 2003-2011 Alias-i
+ *
+ * This program is licensed under the Alias-i Royalty Free License
+ * Version 1 WITHOUT ANY WARRANTY, without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the Alias-i
+ * Royalty Free License Version 1 for more details.
+ *
+ * You should have received a copy of the Alias-i Royalty Free License
+ * Version 1 along with this program; if not, visit
+ * http://alias-i.com/lingpipe/licenses/lingpipe-license-1.txt or contact
+ * Alias-i, Inc. at 181 North 11th Street, Suite 401, Brooklyn, NY 11211,
+ * +1 (718) 290-9170.
+ */
+
+package com.aliasi.lm;
+
+import com.aliasi.stats.Model;
+
+import com.aliasi.util.Strings;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A <code>MappedNGramProcessLM</code> provides the estimates of a
+ * {@link CompiledNGramProcessLM} directly from a flat binary layout
+ * held in a byte buffer, typically a memory-mapped file.
+ *
+ * <P>The layout is a fixed-size header followed by the parallel arrays
+ * of the compiled model, each section starting on an eight-byte
+ * boundary.  Unlike the serialized form of a compiled model, the
+ * suffix links are stored, so nothing needs to be computed or copied
+ * onto the heap when a model is opened.  Reads are made directly
+ * against the buffer, so the cost of opening a memory-mapped model is
+ * independent of its size, and multiple processes mapping the same
+ * file share a single copy of it in the operating system's page
+ * cache.
+ *
+ * <P>A mapped model is created by first compiling a process
+ * language model and then writing the compiled model out in the
+ * mapped layout:
+ *
+ * <blockquote><pre>
+ * NGramProcessLM lm = ...;
+ * CompiledNGramProcessLM clm
+ *     = (CompiledNGramProcessLM) AbstractExternalizable.compile(lm);
+ * OutputStream out = new BufferedOutputStream(new FileOutputStream(f));
+ * MappedNGramProcessLM.writeTo(clm,out);
+ * out.close();
+ *
+ * ...
+ * MappedNGramProcessLM mappedLm = MappedNGramProcessLM.open(f);</pre></blockquote>
+ *
+ * The estimates returned by a mapped model, including the
+ * incremental estimates computed through {@link #nextContext(int,char)},
+ * {@link #log2Estimate(int,char)} and {@link #cursor()}, are identical
+ * to those of the compiled model from which it was written.
+ *
+ * <h3>Binary Layout</h3>
+ *
+ * All values are written in big-endian order.
+ *
+ * <blockquote><pre>
+ * magic:int  version:int
+ * maxNGram:int  logUniformEstimate:float
+ * numNodes:int  numContexts:int
+ * reserved:int  reserved:int
+ * firstChild:int^(numContexts+1)      <i>padded to 8 bytes</i>
+ * logOneMinusLambda:float^numContexts  <i>padded to 8 bytes</i>
+ * suffix:int^numNodes                  <i>padded to 8 bytes</i>
+ * logProb:float^numNodes               <i>padded to 8 bytes</i>
+ * char:char^numNodes                   <i>padded to 8 bytes</i></pre></blockquote>
+ *
+ * The number of contexts is one more than the index of the last
+ * context node, as contexts are arranged before terminal nodes in
+ * the breadth-first order of the compiled trie.  Because the underlying
+ * buffers are indexed by integers, the total size of the layout may
+ * not exceed <code>Integer.MAX_VALUE</code> bytes.
+ *
+ * <h3>Thread Safety</h3>
+ *
+ * Mapped models are immutable and only ever use absolute reads
+ * against the underlying buffer, so they are thread safe.
+ *
+ * @author  Bob Carpenter
+ * @version 4.1.0
+ * @since   LingPipe4.1.0
+ */
+public class MappedNGramProcessLM
+    implements LanguageModel.Incremental,
+               LanguageModel.Conditional,
+               Model<CharSequence> {
+
+    private final int mMaxNGram;
+    private final float mLogUniformEstimate;
+    private final int mNumNodes;
+    private final int mNumContexts;
+    private final IntBuffer mFirstChild;
+    private final FloatBuffer mLogOneMinusLambdas;
+    private final IntBuffer mSuffix;
+    private final FloatBuffer mLogProbs;
+    private final CharBuffer mChars;
+
+    /**
+     * Construct a mapped n-gram process language model whose data is
+     * contained in the specified buffer, starting at the buffer's
+     * current position.  The buffer's position and limit are not
+     * modified, and the buffer must not be modified while the model
+     * is in use.
+     *
+     * @param buf Buffer containing the model in the mapped layout.
+     * @throws IllegalArgumentException If the buffer does not contain
+     * a model in the mapped layout.
+     */
+    public MappedNGramProcessLM(ByteBuffer buf) {
+        ByteBuffer data = buf.slice();
+        data.order(ByteOrder.BIG_ENDIAN);
+        if (data.remaining() < HEADER_BYTES
+            || data.getInt(0) != MAGIC) {
+            String msg = "Buffer does not contain a mapped process LM.";
+            throw new IllegalArgumentException(msg);
+        }
+        int version = data.getInt(4);
+        if (version != VERSION) {
+            String msg = "Unsupported mapped LM version."
+                + " Expected version=" + VERSION
+                + " Found version=" + version;
+            throw new IllegalArgumentException(msg);
+        }
+        mMaxNGram = data.getInt(8);
+        mLogUniformEstimate = data.getFloat(12);
+        mNumNodes = data.getInt(16);
+        mNumContexts = data.getInt(20);
+        long numBytes = numBytes(mNumNodes,mNumContexts);
+        if (data.remaining() < numBytes) {
+            String msg = "Buffer too small for mapped LM."
+                + " Required bytes=" + numBytes
+                + " Found bytes=" + data.remaining();
+            throw new IllegalArgumentException(msg);
+        }
+        int pos = HEADER_BYTES;
+        mFirstChild = section(data,pos,mNumContexts+1,4).asIntBuffer();
+        pos += padded(4L*(mNumContexts+1));
+        mLogOneMinusLambdas = section(data,pos,mNumContexts,4).asFloatBuffer();
+        pos += padded(4L*mNumContexts);
+        mSuffix = section(data,pos,mNumNodes,4).asIntBuffer();
+        pos += padded(4L*mNumNodes);
+        mLogProbs = section(data,pos,mNumNodes,4).asFloatBuffer();
+        pos += padded(4L*mNumNodes);
+        mChars = section(data,pos,mNumNodes,2).asCharBuffer();
+    }
+
+    /**
+     * Returns the maximum length n-gram used for this model.
+     *
+     * @return The maximum length n-gram for this model.
+     */
+    public int maxNGram() {
+        return mMaxNGram;
+    }
+
+    /**
+     * Returns the total number of nodes in this language model's
+     * trie structure.
+     *
+     * @return The total number of nodes in the underlying trie.
+     */
+    public int numNodes() {
+        return mNumNodes;
+    }
+
+    /**
+     * Returns the array of characters that have been observed for
+     * this language model, in increasing unicode order.
+     *
+     * @return The observed characters for this language model.
+     */
+    public char[] observedCharacters() {
+        if (mNumContexts < 1) return new char[0];
+        char[] result = new char[mFirstChild.get(1)-1];
+        for (int i = 0; i < result.length; ++i)
+            result[i] = mChars.get(i+1);
+        return result;
+    }
+
+    /**
+     * This method is a convenience implementation of the {@link
+     * Model} interface which delegates the call to {@link
+     * #log2Estimate(CharSequence)}.
+     *
+     * @param cSeq Character sequence whose probability is returned.
+     * @return The log (base 2) probability of the specified character sequence.
+     */
+    public double log2Prob(CharSequence cSeq) {
+        return log2Estimate(cSeq);
+    }
+
+    /**
+     * This method is a convenience implementation of the {@link Model}
+     * interface which returns the result of raising 2.0 to the
+     * power of the result of a call to {@link #log2Estimate(CharSequence)}.
+     *
+     * @param cSeq Character sequence whose probability is returned.
+     * @return The probability of the specified character sequence.
+     */
+    public double prob(CharSequence cSeq) {
+        return java.lang.Math.pow(2.0,log2Estimate(cSeq));
+    }
+
+    public final double log2Estimate(CharSequence cSeq) {
+        char[] cs = Strings.toCharArray(cSeq);
+        return log2Estimate(cs,0,cs.length);
+    }
+
+    public final double log2Estimate(char[] cs, int start, int end) {
+        Strings.checkArgsStartEnd(cs,start,end);
+        double sum = 0.0;
+        int contextIndex = ROOT_NODE_INDEX;
+        NEXT_CHAR:
+        for (int i = start; i < end; ++i) {
+            char nextChar = cs[i];
+            int outcomeIndex;
+            while ((outcomeIndex = getIndex(contextIndex,nextChar)) < 0) {
+                if (contextIndex < mNumContexts)
+                    sum += mLogOneMinusLambdas.get(contextIndex);
+                if (contextIndex == ROOT_NODE_INDEX) {
+                    sum += mLogUniformEstimate;
+                    continue NEXT_CHAR;
+                }
+                contextIndex = mSuffix.get(contextIndex);
+            }
+            sum += mLogProbs.get(outcomeIndex);
+            contextIndex
+                = outcomeIndex < mNumContexts
+                ? outcomeIndex
+                : mSuffix.get(outcomeIndex);
+        }
+        return sum;
+    }
+
+    /**
+     * Returns a new cursor for scoring character streams with this
+     * model.  See {@link CompiledNGramProcessLM#cursor()}.
+     *
+     * @return A cursor for this model.
+     */
+    public ProcessLMCursor cursor() {
+        return new Cursor();
+    }
+
+    /**
+     * Returns the log (base 2) estimate of the specified character in
+     * the context with the specified index.  See {@link
+     * CompiledNGramProcessLM#log2Estimate(int,char)}.
+     *
+     * @param contextIndex Index of context of estimate.
+     * @param nextChar Character being estimated.
+     * @return Log (base 2) estimate of character in context.
+     */
+    public final double log2Estimate(int contextIndex, char nextChar) {
+        double sum = 0.0;
+        int outcomeIndex;
+        for (int currentContextIndex = contextIndex;
+             (outcomeIndex = getIndex(currentContextIndex,nextChar)) < 0;
+             currentContextIndex = mSuffix.get(currentContextIndex)) {
+            if (currentContextIndex < mNumContexts)
+                sum += mLogOneMinusLambdas.get(currentContextIndex);
+            if (currentContextIndex == ROOT_NODE_INDEX)
+                return sum + mLogUniformEstimate;
+        }
+        return sum + mLogProbs.get(outcomeIndex);
+    }
+
+    /**
+     * Returns the index of the context formed by appending the
+     * specified character to the context of the specified index.  See
+     * {@link CompiledNGramProcessLM#nextContext(int,char)}.
+     *
+     * @param contextIndex Index of present context.
+     * @param nextChar Next character.
+     * @return Index of context formed by appending next character to
+     * the present context.
+     * @throws IllegalArgumentException If the context index is less
+     * than zero or greater than the last context index.
+     */
+    public int nextContext(int contextIndex, char nextChar) {
+        if (contextIndex < 0 || contextIndex >= mNumContexts) {
+            String msg = "Context must be greater than zero."
+                + " Context must be less than last index=" + (mNumContexts-1)
+                + " Context=" + contextIndex;
+            throw new IllegalArgumentException(msg);
+        }
+        for (int currentContextIndex = contextIndex;
+             true;
+             currentContextIndex = mSuffix.get(currentContextIndex)) {
+            int outcomeIndex = getIndex(currentContextIndex,nextChar);
+            if (outcomeIndex < mNumContexts
+                && outcomeIndex >= 0) return outcomeIndex;
+            if (currentContextIndex == ROOT_NODE_INDEX)
+                return ROOT_NODE_INDEX;
+        }
+    }
+
+    class Cursor extends AbstractProcessLMCursor {
+        int mContextIndex = ROOT_NODE_INDEX;
+        public double log2ConditionalEstimate(char c) {
+            return MappedNGramProcessLM.this.log2Estimate(mContextIndex,c);
+        }
+        @Override
+        double advance(char c) {
+            double estimate = 0.0;
+            int outcomeIndex;
+            while ((outcomeIndex = getIndex(mContextIndex,c)) < 0) {
+                if (mContextIndex < mNumContexts)
+                    estimate += mLogOneMinusLambdas.get(mContextIndex);
+                if (mContextIndex == ROOT_NODE_INDEX)
+                    return estimate + mLogUniformEstimate;
+                mContextIndex = mSuffix.get(mContextIndex);
+            }
+            mContextIndex
+                = outcomeIndex < mNumContexts
+                ? outcomeIndex
+                : mSuffix.get(outcomeIndex);
+            return estimate + mLogProbs.get(outcomeIndex);
+        }
+        @Override
+        void resetContext() {
+            mContextIndex = ROOT_NODE_INDEX;
+        }
+    }
+
+    public double log2ConditionalEstimate(CharSequence cSeq) {
+        char[] cs = Strings.toCharArray(cSeq);
+        return log2ConditionalEstimate(cs,0,cs.length);
+    }
+
+    public double log2ConditionalEstimate(char[] cs, int start, int end) {
+        Strings.checkArgsStartEnd(cs,start,end);
+        double total = 0.0;
+        int contextEnd = end - 1;
+        char c = cs[contextEnd];
+        int maxContextLength = Math.min(contextEnd-start,mMaxNGram-1);
+        for (int contextLength = maxContextLength;
+             contextLength >= 0;
+             --contextLength) {
+            int contextStart = contextEnd - contextLength;
+            int contextIndex = getIndex(cs,contextStart,contextEnd);
+            if (contextIndex == -1) continue;
+            while (contextIndex >= mNumContexts)
+                contextIndex = mSuffix.get(contextIndex);
+            int outcomeIndex = getIndex(contextIndex,c);
+            if (outcomeIndex != -1)
+                return total + mLogProbs.get(outcomeIndex);
+            total += mLogOneMinusLambdas.get(contextIndex);
+        }
+        return total + mLogUniformEstimate;
+    }
+
+    private int getIndex(int fromIndex, char c) {
+        if (fromIndex >= mNumContexts) return -1;
+        int low = mFirstChild.get(fromIndex);
+        int high = mFirstChild.get(fromIndex+1)-1;
+        while (low <= high) {
+            int mid = (high + low) >>> 1;
+            char midChar = mChars.get(mid);
+            if (midChar == c) return mid;
+            else if (midChar < c)
+                low = mid+1;
+            else
+                high = mid-1;
+        }
+        return -1;
+    }
+
+    private int getIndex(char[] cs, int start, int end) {
+        int index = ROOT_NODE_INDEX;
+        for (int i = start; i < end; ++i) {
+            index = getIndex(index,cs[i]);
+            if (index == -1) return -1;
+        }
+        return index;
+    }
+
+    /**
+     * Writes the specified compiled language model to the specified
+     * output stream in the mapped layout described in the class
+     * documentation.  The output stream is flushed, but not closed.
+     *
+     * @param lm Compiled language model to write.
+     * @param out Output stream to which the model is written.
+     * @throws IOException If there is an underlying I/O error.
+     * @throws IllegalArgumentException If the layout of the model
+     * would require more than <code>Integer.MAX_VALUE</code> bytes.
+     */
+    public static void writeTo(CompiledNGramProcessLM lm, OutputStream out)
+        throws IOException {
+
+        int numNodes = lm.mChars.length;
+        int numContexts = lm.mLogOneMinusLambdas.length;
+        long numBytes = numBytes(numNodes,numContexts);
+        if (numBytes > Integer.MAX_VALUE) {
+            String msg = "Mapped layout limited to Integer.MAX_VALUE bytes."
+                + " Found number of bytes=" + numBytes;
+            throw new IllegalArgumentException(msg);
+        }
+        DataOutputStream dataOut = new DataOutputStream(out);
+        dataOut.writeInt(MAGIC);
+        dataOut.writeInt(VERSION);
+        dataOut.writeInt(lm.mMaxNGram);
+        dataOut.writeFloat(lm.mLogUniformEstimate);
+        dataOut.writeInt(numNodes);
+        dataOut.writeInt(numContexts);
+        dataOut.writeInt(0);
+        dataOut.writeInt(0);
+        for (int i = 0; i <= numContexts; ++i)
+            dataOut.writeInt(lm.mFirstChild[i]);
+        pad(dataOut,4L*(numContexts+1));
+        for (int i = 0; i < numContexts; ++i)
+            dataOut.writeFloat(lm.mLogOneMinusLambdas[i]);
+        pad(dataOut,4L*numContexts);
+        for (int i = 0; i < numNodes; ++i)
+            dataOut.writeInt(lm.mSuffix[i]);
+        pad(dataOut,4L*numNodes);
+        for (int i = 0; i < numNodes; ++i)
+            dataOut.writeFloat(lm.mLogProbs[i]);
+        pad(dataOut,4L*numNodes);
+        for (int i = 0; i < numNodes; ++i)
+            dataOut.writeChar(lm.mChars[i]);
+        pad(dataOut,2L*numNodes);
+        dataOut.flush();
+    }
+
+    /**
+     * Returns a language model read-only memory mapped from the
+     * specified file, which must have been written with {@link
+     * #writeTo(CompiledNGramProcessLM,OutputStream)}.  The file
+     * itself is closed before this method returns; the mapping
+     * remains valid until the returned model is garbage collected.
+     *
+     * @param file File containing the model in the mapped layout.
+     * @return The mapped language model.
+     * @throws IOException If there is an underlying I/O error or if
+     * the file does not contain a model in the mapped layout.
+     */
+    public static MappedNGramProcessLM open(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file,"r");
+        try {
+            FileChannel channel = raf.getChannel();
+            ByteBuffer buf
+                = channel.map(FileChannel.MapMode.READ_ONLY,0,channel.size());
+            try {
+                return new MappedNGramProcessLM(buf);
+            } catch (IllegalArgumentException e) {
+                String msg = "Could not read mapped LM from file=" + file
+                    + " " + e.getMessage();
+                throw new IOException(msg);
+            }
+        } finally {
+            raf.close();
+        }
+    }
+
+    static long numBytes(int numNodes, int numContexts) {
+        return HEADER_BYTES
+            + padded(4L*(numContexts+1))
+            + padded(4L*numContexts)
+            + padded(4L*numNodes)
+            + padded(4L*numNodes)
+            + padded(2L*numNodes);
+    }
+
+    static long padded(long numBytes) {
+        return (numBytes + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+    }
+
+    static void pad(DataOutputStream out, long numBytes) throws IOException {
+        for (long i = numBytes; i < padded(numBytes); ++i)
+            out.writeByte(0);
+    }
+
+    private static ByteBuffer section(ByteBuffer data, int pos,
+                                      int numElts, int eltBytes) {
+        ByteBuffer dup = data.duplicate();
+        dup.order(ByteOrder.BIG_ENDIAN);
+        dup.position(pos);
+        dup.limit(pos + numElts*eltBytes);
+        return dup.slice().order(ByteOrder.BIG_ENDIAN);
+    }
+
+    /**
+     * The index of the root node, namely <code>0</code>.
+     */
+    public static final int ROOT_NODE_INDEX = 0;
+
+    static final int MAGIC = 0x4c504d31; // "LPM1"
+    static final int VERSION = 1;
+    static final int HEADER_BYTES = 32;
+    static final int ALIGNMENT = 8;
+
+}
@@ -0,0 +1,381 @@
+/*
+ * LingPipe v. 4.1.0
+ * Copyright (C) 2003-2011 Alias-i
+ *
+ * This program is licensed under the Alias-i Royalty Free License
+ * Version 1 WITHOUT ANY WARRANTY, without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the Alias-i
+ * Royalty Free License Version 1 for more details.
+ *
+ * You should have received a copy of the Alias-i Royalty Free License
+ * Version 1 along with this program; if not, visit
+ * http://alias-i.com/lingpipe/licenses/lingpipe-license-1.txt or contact
+ * Alias-i, Inc. at 181 North 11th Street, Suite 401, Brooklyn, NY 11211,
+ * +1 (718) 290-9170.
+ */
+
+package com.aliasi.lm;
+
+import com.aliasi.util.Strings;
+
+import java.util.Arrays;
+import java.util.LinkedList;
+
+/**
+ * A <code>MergedNGramProcessLM</code> merges the tries of several
+ * compiled n-gram process language models into a single trie, so that
+ * the estimates of a character sequence under all of the models may
+ * be computed in a single pass over the sequence.
+ *
+ * <P>The merged trie contains every n-gram found in any of the
+ * models.  Each node stores a vector of log (base 2) conditional
+ * estimates of its last character given the characters leading to
+ * it, one per model.  For models that do not contain the n-gram
+ * itself, the vector entry holds the model's backed-off estimate, so
+ * no per-model search is needed.  Each context node also stores a
+ * vector of log (base 2) one-minus-lambda interpolation values, which
+ * are added when backing off from a context in which none of the
+ * models has seen the next character.  As for {@link
+ * CompiledNGramProcessLM}, nodes are arranged breadth first, with
+ * suffix indices precomputed, so that the context for the next
+ * character follows from the node found for the previous one.
+ *
+ * <P>The trie is walked once for each character no matter how many
+ * models there are, leaving only a vector addition per character to
+ * scale with the number of models.  The estimates agree with those of
+ * the individual models up to floating point rounding, because the
+ * backed-off estimates are summed before being stored as floats.
+ *
+ * <h3>Memory</h3>
+ *
+ * Every node stores one float per model, whether or not the model
+ * contains the node's n-gram, so a merged model requires roughly
+ * <code>4 * numModels * numNodes</code> bytes, where
+ * <code>numNodes</code> is the number of distinct n-grams across the
+ * models.  This is a good trade when the models are small relative to
+ * the number of documents to score, or when they share most of their
+ * n-grams, as in language identification over a common script.
+ *
+ * <h3>Thread Safety</h3>
+ *
+ * A merged model is immutable and may be used concurrently.
+ *
+ * @author  Bob Carpenter
+ * @version 4.1.0
+ * @since   LingPipe4.1.0
+ */
+public class MergedNGramProcessLM {
+
+    private final int mNumModels;
+    private final int mMaxNGram;
+    private final float[] mLogUniformEstimates;
+    private final char[] mChars;
+    private final int[] mFirstChild;
+    private final int[] mSuffix;
+    private final float[] mLogProbs;            // [node * numModels + model]
+    private final float[] mLogOneMinusLambdas;  // [context * numModels + model]
+
+    /**
+     * Construct a merged model from the specified compiled models.
+     * The models themselves are not retained.
+     *
+     * @param lms Compiled models to merge.
+     * @throws IllegalArgumentException If there are no models or if
+     * the merged trie would have too many entries to store in arrays.
+     */
+    public MergedNGramProcessLM(CompiledNGramProcessLM[] lms) {
+        if (lms.length == 0) {
+            String msg = "Require at least one model to merge.";
+            throw new IllegalArgumentException(msg);
+        }
+        int numModels = lms.length;
+        mNumModels = numModels;
+        int maxNGram = 0;
+        mLogUniformEstimates = new float[numModels];
+        for (int m = 0; m < numModels; ++m) {
+            maxNGram = Math.max(maxNGram,lms[m].maxNGram());
+            mLogUniformEstimates[m] = lms[m].mLogUniformEstimate;
+        }
+        mMaxNGram = maxNGram;
+
+        Builder builder = new Builder(lms);
+        builder.build();
+        int numNodes = builder.mNumNodes;
+        int numContexts = builder.mLastInternal + 1;
+        mChars = Arrays.copyOf(builder.mChars,numNodes);
+        mFirstChild = Arrays.copyOf(builder.mFirstChild,numContexts + 1);
+        mFirstChild[numContexts] = numNodes;
+        mLogProbs = Arrays.copyOf(builder.mLogProbs,numNodes * numModels);
+        mLogOneMinusLambdas
+            = Arrays.copyOf(builder.mLogOneMinusLambdas,numContexts * numModels);
+        builder = null;
+
+        // daughter suffixes extend parent suffixes, which come first
+        mSuffix = new int[numNodes];
+        mSuffix[ROOT_NODE_INDEX] = -1;
+        for (int i = 0; i < numContexts; ++i) {
+            for (int k = mFirstChild[i]; k < mFirstChild[i+1]; ++k)
+                mSuffix[k] = (i == ROOT_NODE_INDEX)
+                    ? ROOT_NODE_INDEX
+                    : getIndex(mSuffix[i],mChars[k]);
+        }
+    }
+
+    /**
+     * Returns the number of models merged into this model.
+     *
+     * @return The number of models.
+     */
+    public int numModels() {
+        return mNumModels;
+    }
+
+    /**
+     * Returns the length of the longest n-gram in any of the merged
+     * models.
+     *
+     * @return The maximum n-gram length.
+     */
+    public int maxNGram() {
+        return mMaxNGram;
+    }
+
+    /**
+     * Returns the number of nodes in the merged trie, which is the
+     * number of distinct n-grams across the models plus one for the
+     * root.
+     *
+     * @return The number of nodes in the merged trie.
+     */
+    public int numNodes() {
+        return mChars.length;
+    }
+
+    /**
+     * Returns an array of the log (base 2) estimates of the specified
+     * character sequence, indexed by model in the order the models
+     * were supplied to the constructor.
+     *
+     * @param cSeq Character sequence to estimate.
+     * @return The log (base 2) estimates under each model.
+     */
+    public double[] log2Estimates(CharSequence cSeq) {
+        char[] cs = Strings.toCharArray(cSeq);
+        double[] estimates = new double[mNumModels];
+        log2Estimates(cs,0,cs.length,estimates);
+        return estimates;
+    }
+
+    /**
+     * Writes the log (base 2) estimates of the specified character
+     * slice into the specified array, indexed by model in the order
+     * the models were supplied to the constructor.  No objects are
+     * allocated, so the estimates array may be reused across calls.
+     *
+     * @param cs Underlying character array.
+     * @param start Index of first character in slice.
+     * @param end Index of one past the last character in slice.
+     * @param estimates Array into which estimates are written.
+     * @throws IllegalArgumentException If the estimates array is
+     * shorter than the number of models.
+     * @throws IndexOutOfBoundsException If the slice is out of range
+     * for the character array.
+     */
+    public void log2Estimates(char[] cs, int start, int end,
+                              double[] estimates) {
+        if (estimates.length < mNumModels) {
+            String msg = "Require estimates at least as long as number of models."
+                + " Found numModels=" + mNumModels
+                + " estimates.length=" + estimates.length;
+            throw new IllegalArgumentException(msg);
+        }
+        Strings.checkArgsStartEnd(cs,start,end);
+        int numModels = mNumModels;
+        int numContexts = mFirstChild.length - 1;
+        Arrays.fill(estimates,0,numModels,0.0);
+        int contextIndex = ROOT_NODE_INDEX;
+        NEXT_CHAR:
+        for (int i = start; i < end; ++i) {
+            char nextChar = cs[i];
+            int outcomeIndex;
+            while ((outcomeIndex = getIndex(contextIndex,nextChar)) < 0) {
+                if (contextIndex < numContexts)
+                    add(mLogOneMinusLambdas,contextIndex * numModels,estimates);
+                if (contextIndex == ROOT_NODE_INDEX) {
+                    add(mLogUniformEstimates,0,estimates);
+                    continue NEXT_CHAR;
+                }
+                contextIndex = mSuffix[contextIndex];
+            }
+            add(mLogProbs,outcomeIndex * numModels,estimates);
+            contextIndex
+                = outcomeIndex < numContexts
+                ? outcomeIndex
+                : mSuffix[outcomeIndex];
+        }
+    }
+
+    private void add(float[] xs, int offset, double[] estimates) {
+        for (int m = 0; m < mNumModels; ++m)
+            estimates[m] += xs[offset + m];
+    }
+
+    private int getIndex(int fromIndex, char c) {
+        if (fromIndex + 1 >= mFirstChild.length) return -1;
+        int low = mFirstChild[fromIndex];
+        int high = mFirstChild[fromIndex+1] - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            char midC = mChars[mid];
+            if (midC < c)
+                low = mid + 1;
+            else if (midC > c)
+                high = mid - 1;
+            else
+                return mid;
+        }
+        return -1;
+    }
+
+    // walks the union of the models' tries breadth first; each queued
+    // node records, per model, its index in the model's trie (or -1)
+    // and the context the model would use after reading its n-gram
+    static class Builder {
+        final CompiledNGramProcessLM[] mLms;
+        final int mNumModels;
+        char[] mChars = new char[1024];
+        int[] mFirstChild = new int[1024];
+        float[] mLogProbs;
+        float[] mLogOneMinusLambdas;
+        int mNumNodes = 0;
+        int mLastInternal = 0;
+
+        Builder(CompiledNGramProcessLM[] lms) {
+            mLms = lms;
+            mNumModels = lms.length;
+            mLogProbs = new float[1024 * mNumModels];
+            mLogOneMinusLambdas = new float[1024 * mNumModels];
+        }
+
+        void build() {
+            int numModels = mNumModels;
+            LinkedList<QueuedNode> queue = new LinkedList<QueuedNode>();
+            int[] rootIndexes = new int[numModels]; // root is 0 in each model
+            addNode('\uFFFF');
+            queue.add(new QueuedNode(rootIndexes,rootIndexes.clone()));
+            char[] dtrChars = new char[16];
+            for (int index = 0; !queue.isEmpty(); ++index) {
+                QueuedNode node = queue.removeFirst();
+                ensureContextCapacity(index);
+                mFirstChild[index] = mNumNodes;
+                int numDtrs;
+                while ((numDtrs = dtrChars(node,dtrChars)) > dtrChars.length)
+                    dtrChars = new char[numDtrs];
+                int offset = index * numModels;
+                for (int m = 0; m < numModels; ++m) {
+                    int contextIndex = node.mContexts[m];
+                    CompiledNGramProcessLM lm = mLms[m];
+                    mLogOneMinusLambdas[offset + m]
+                        = (contextIndex == node.mIndexes[m]
+                           && contextIndex < lm.mLogOneMinusLambdas.length)
+                        ? lm.mLogOneMinusLambdas[contextIndex]
+                        : 0f;
+                }
+                if (numDtrs > 0)
+                    mLastInternal = index;
+                for (int k = 0; k < numDtrs; ++k) {
+                    char c = dtrChars[k];
+                    int dtr = addNode(c);
+                    int[] indexes = new int[numModels];
+                    int[] contexts = new int[numModels];
+                    int dtrOffset = dtr * numModels;
+                    for (int m = 0; m < numModels; ++m) {
+                        CompiledNGramProcessLM lm = mLms[m];
+                        int parentIndex = node.mIndexes[m];
+                        indexes[m] = parentIndex < 0
+                            ? -1
+                            : lm.getIndex(parentIndex,c);
+                        mLogProbs[dtrOffset + m]
+                            = (float) lm.log2Estimate(node.mContexts[m],c);
+                        contexts[m] = lm.nextContext(node.mContexts[m],c);
+                    }
+                    queue.add(new QueuedNode(indexes,contexts));
+                }
+            }
+        }
+
+        // writes the sorted union of daughter chars; returns the number
+        // of them, or a larger number if they do not fit in the buffer
+        int dtrChars(QueuedNode node, char[] buf) {
+            int num = 0;
+            for (int m = 0; m < mNumModels; ++m) {
+                int index = node.mIndexes[m];
+                CompiledNGramProcessLM lm = mLms[m];
+                if (index < 0 || index + 1 >= lm.mFirstChild.length)
+                    continue;
+                for (int k = lm.mFirstChild[index]; k < lm.mFirstChild[index+1]; ++k) {
+                    char c = lm.mChars[k];
+                    int pos = Arrays.binarySearch(buf,0,Math.min(num,buf.length),c);
+                    if (pos >= 0) continue;
+                    if (num < buf.length) {
+                        int insert = -(pos + 1);
+                        System.arraycopy(buf,insert,buf,insert+1,num-insert);
+                        buf[insert] = c;
+                    }
+                    ++num;
+                }
+            }
+            return num;
+        }
+
+        int addNode(char c) {
+            int index = mNumNodes;
+            if (index == mChars.length) {
+                int capacity = grow(index);
+                mChars = Arrays.copyOf(mChars,capacity);
+                mLogProbs = Arrays.copyOf(mLogProbs,checkedSize(capacity));
+            }
+            mChars[index] = c;
+            ++mNumNodes;
+            return index;
+        }
+
+        void ensureContextCapacity(int index) {
+            if (index < mFirstChild.length) return;
+            int capacity = grow(index);
+            mFirstChild = Arrays.copyOf(mFirstChild,capacity);
+            mLogOneMinusLambdas
+                = Arrays.copyOf(mLogOneMinusLambdas,checkedSize(capacity));
+        }
+
+        int checkedSize(int capacity) {
+            long size = (long) capacity * mNumModels;
+            if (size > Integer.MAX_VALUE - 8) {
+                String msg = "Merged trie too large for arrays."
+                    + " Found numNodes=" + mNumNodes
+                    + " numModels=" + mNumModels;
+                throw new IllegalArgumentException(msg);
+            }
+            return (int) size;
+        }
+
+        static int grow(int size) {
+            return (int) Math.min(2L * size,Integer.MAX_VALUE - 8);
+        }
+    }
+
+    static class QueuedNode {
+        final int[] mIndexes;
+        final int[] mContexts;
+        QueuedNode(int[] indexes, int[] contexts) {
+            mIndexes = indexes;
+            mContexts = contexts;
+        }
+    }
+
+    /**
+     * The index of the root node, namely <code>0</code>.
+     */
+    public static final int ROOT_NODE_INDEX = 0;
+
+}
@@ -0,0 +1,80 @@
+/*
+ * LingPipe v. 4.1.0
+ * Copyright (C) 2003-2011 Alias-i
+ *
+ * This program is licensed under the Alias-i Royalty Free License
+ * Version 1 WITHOUT ANY WARRANTY, without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the Alias-i
+ * Royalty Free License Version 1 for more details.
+ *
+ * You should have received a copy of the Alias-i Royalty Free License
+ * Version 1 along with this program; if not, visit
+ * http://alias-i.com/lingpipe/licenses/lingpipe-license-1.txt or contact
+ * Alias-i, Inc. at 181 North 11th Street, Suite 401, Brooklyn, NY 11211,
+ * +1 (718) 290-9170.
+ */
+
+package com.aliasi.lm;
+
+import com.aliasi.util.BoundedPriorityQueue;
+import com.aliasi.util.ObjectToCounterMap;
+
+import java.util.Comparator;
+
+/**
+ * @author Bob Carpenter
+ * @version 3.8
+ */
+class NBestCounter extends BoundedPriorityQueue<NBestCounter.NBEntry> {
+    static final long serialVersionUID = -1604467508550079460L;
+    private final boolean mReversed;  // [carp: my hack]
+    public NBestCounter(int maxEntries) {
+        this(maxEntries,false);
+    }
+    public NBestCounter(int maxEntries, boolean reversed) {
+        super(COMPARATOR,maxEntries);
+        mReversed = reversed;
+    }
+    public ObjectToCounterMap<String> toObjectToCounter() {
+        ObjectToCounterMap<String> otc = new ObjectToCounterMap<String>();
+        for (NBEntry entry : this) {
+            if (entry.mCount > Integer.MAX_VALUE) {
+                String msg = "Entry too large.";
+                throw new IllegalArgumentException(msg);
+            }
+            otc.set(entry.mString,(int)entry.mCount);
+        }
+        return otc;
+    }
+    public void put(char[] cs, int length, long count) {
+        offer(new NBEntry(cs,length,count));
+    }
+    class NBEntry implements Comparable<NBEntry> {
+        // static w/o hack
+        final String mString;
+        final long mCount;
+        public NBEntry(char[] cs, int length, long count) {
+            mString = new String(cs,0,length);
+            mCount = count;
+        }
+        public int compareTo(NBEntry thatEntry) {
+            if (thatEntry.mCount == mCount)
+                return thatEntry.mString.compareTo(mString);
+            long diff = thatEntry.mCount - mCount;
+            int comp
+                = (diff < 0)
+                ? -1
+                : ( (diff > 0)
+                    ? 1
+                    : 0 );
+            return mReversed ? -comp : comp;
+        }
+    }
+    static Comparator<NBestCounter.NBEntry> COMPARATOR
+        = new Comparator<NBEntry>() {
+        public int compare(NBestCounter.NBEntry entry1,
+                           NBestCounter.NBEntry entry2) {
+            return entry1.compareTo(entry2);
+        }
+    };
+}
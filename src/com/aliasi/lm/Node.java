@@ -16,13 +16,12 @@
 
 package com.aliasi.lm;
 
-import com.aliasi.util.BoundedPriorityQueue;
 import com.aliasi.util.ObjectToCounterMap;
 
 import com.aliasi.util.Strings;
 
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Comparator;
 import java.util.LinkedList;
 import java.util.List;
 
@@ -45,6 +44,8 @@ interface Node {
     public Node decrement(char[] cs, int start, int end);
     public Node decrement(char[] cs, int start, int end, int count);
     public Node prune(long minCount);
+    // daughter for first char of outcome, or null if there is none
+    public Node daughter(char c);
     // below here is just for reporting!
     public void toString(StringBuilder sb, int depth);
     public void addCounts(List<Long> counts, int dtrLevel);
@@ -55,6 +56,42 @@ interface Node {
     public long totalNGramCount(int dtrLevel);
     public void countNodeTypes(ObjectToCounterMap<String> counter);
     public void addDaughters(LinkedList<Node> queue);
+
+    // operations for node classes and counters in other files, which
+    // should not refer to the auxiliary classes in this file
+    static class Nodes {
+        static Node createNode(char[] cs, Node[] dtrs, long count) {
+            return NodeFactory.createNode(cs,dtrs,count);
+        }
+        // merges tries by summing counts; single tries are reused as is
+        static Node merge(List<Node> nodes) {
+            if (nodes.size() == 1) return nodes.get(0);
+            long count = 0L;
+            StringBuilder sb = new StringBuilder();
+            for (Node node : nodes) {
+                count += node.count();
+                sb.append(node.outcomes(Strings.EMPTY_CHAR_ARRAY,0,0));
+            }
+            char[] allCs = Strings.toCharArray(sb);
+            Arrays.sort(allCs);
+            int numCs = 0;
+            for (int i = 0; i < allCs.length; ++i)
+                if (i == 0 || allCs[i] != allCs[i-1])
+                    allCs[numCs++] = allCs[i];
+            char[] cs = Arrays.copyOf(allCs,numCs);
+            Node[] dtrs = new Node[cs.length];
+            for (int i = 0; i < cs.length; ++i) {
+                List<Node> dtrNodes = new ArrayList<Node>(nodes.size());
+                for (Node node : nodes) {
+                    Node dtr = node.daughter(cs[i]);
+                    if (dtr != null)
+                        dtrNodes.add(dtr);
+                }
+                dtrs[i] = merge(dtrNodes);
+            }
+            return NodeFactory.createNode(cs,dtrs,count);
+        }
+    }
 }
 
 abstract class AbstractNode implements Node {
@@ -124,6 +161,9 @@ abstract class AbstractDtrNode extends AbstractNode {
         if (i < 0) return null;
         return dtrs()[i];
     }
+    public Node daughter(char c) {
+        return getDtr(c);
+    }
 
     public int numOutcomes(char[] cs, int start, int end) {
         if (start == end) return numDtrs();
@@ -450,6 +490,12 @@ abstract class ArrayDtrNode extends AbstractDtrNode {
 abstract class AbstractPATNode extends AbstractNode {
     abstract char[] chars();
     abstract int length();
+    public Node daughter(char c) {
+        char[] patCs = chars();
+        return patCs[0] == c
+            ? NodeFactory.createNode(patCs,1,patCs.length,count())
+            : null;
+    }
     public Node prune(long minCount) {
         return count() < minCount ? null : this;
     }
@@ -1519,58 +1565,3 @@ class NodeFactory {
 
     static Node[] EMPTY_NODES = new Node[0];
 }
-
-
-class NBestCounter extends BoundedPriorityQueue<NBestCounter.NBEntry> {
-    static final long serialVersionUID = -1604467508550079460L;
-    private final boolean mReversed;  // [carp: my hack]
-    public NBestCounter(int maxEntries) {
-        this(maxEntries,false);
-    }
-    public NBestCounter(int maxEntries, boolean reversed) {
-        super(COMPARATOR,maxEntries);
-        mReversed = reversed;
-    }
-    public ObjectToCounterMap<String> toObjectToCounter() {
-        ObjectToCounterMap<String> otc = new ObjectToCounterMap<String>();
-        for (NBEntry entry : this) {
-            if (entry.mCount > Integer.MAX_VALUE) {
-                String msg = "Entry too large.";
-                throw new IllegalArgumentException(msg);
-            }
-            otc.set(entry.mString,(int)entry.mCount);
-        }
-        return otc;
-    }
-    public void put(char[] cs, int length, long count) {
-        offer(new NBEntry(cs,length,count));
-    }
-    class NBEntry implements Comparable<NBEntry> {
-        // static w/o hack
-        final String mString;
-        final long mCount;
-        public NBEntry(char[] cs, int length, long count) {
-            mString = new String(cs,0,length);
-            mCount = count;
-        }
-        public int compareTo(NBEntry thatEntry) {
-            if (thatEntry.mCount == mCount)
-                return thatEntry.mString.compareTo(mString);
-            long diff = thatEntry.mCount - mCount;
-            int comp
-                = (diff < 0)
-                ? -1
-                : ( (diff > 0)
-                    ? 1
-                    : 0 );
-            return mReversed ? -comp : comp;
-        }
-    }
-    static Comparator<NBestCounter.NBEntry> COMPARATOR
-        = new Comparator<NBEntry>() {
-        public int compare(NBestCounter.NBEntry entry1,
-                           NBestCounter.NBEntry entry2) {
-            return entry1.compareTo(entry2);
-        }
-    };
-}
@@ -0,0 +1,111 @@
+/*
+ * LingPipe v. 4.1.0
+ * Copyright (C) 2003-2011 Alias-i
+ *
+ * This program is licensed under the Alias-i Royalty Free License
+ * Version 1 WITHOUT ANY WARRANTY, without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the Alias-i
+ * Royalty Free License Version 1 for more details.
+ *
+ * You should have received a copy of the Alias-i Royalty Free License
+ * Version 1 along with this program; if not, visit
+ * http://alias-i.com/lingpipe/licenses/lingpipe-license-1.txt or contact
+ * Alias-i, Inc. at 181 North 11th Street, Suite 401, Brooklyn, NY 11211,
+ * +1 (718) 290-9170.
+ */
+
+package com.aliasi.lm;
+
+/**
+ * A <code>ProcessLMCursor</code> scores a stream of characters one
+ * character at a time against a process language model.
+ *
+ * <P>A cursor holds the context formed by the characters it has seen
+ * so far.  The method {@link #log2ConditionalEstimate(char)} returns
+ * the estimate of a character in the current context without
+ * changing the context, whereas {@link #next(char)} returns the
+ * estimate and then appends the character to the context.  Because
+ * process language models estimate a sequence as the product of its
+ * conditional character estimates, the value of {@link
+ * #log2Estimate()} after a sequence of calls to <code>next</code> is
+ * the same as the log estimate of the whole sequence returned by the
+ * underlying model.
+ *
+ * <P>The amount of work per character does not depend on the number
+ * of characters already seen, so cursors are suitable for scoring
+ * unbounded streams of text.  It does depend on the model: cursors
+ * for compiled models follow suffix links and take amortized
+ * constant time per character, whereas the cursor for a dynamic
+ * {@link NGramProcessLM} walks the trie from its root for each
+ * context length.  Cursors are obtained from language models
+ * implementing {@link LanguageModel.Incremental}.
+ *
+ * <h3>Thread Safety</h3>
+ *
+ * Cursors are not thread safe; each thread should use its own
+ * cursor.  Any number of cursors may be used concurrently on the same
+ * underlying model as long as the model is not being modified.
+ *
+ * @author  Bob Carpenter
+ * @version 4.1.0
+ * @since   LingPipe4.1.0
+ */
+public interface ProcessLMCursor {
+
+    /**
+     * Returns the log (base 2) estimate of the specified character
+     * given the current context.  The context is not changed.
+     *
+     * @param c Character to estimate.
+     * @return Log (base 2) conditional estimate of the character.
+     */
+    public double log2ConditionalEstimate(char c);
+
+    /**
+     * Returns the log (base 2) estimate of the specified character
+     * given the current context and then appends the character to
+     * the context.
+     *
+     * @param c Next character.
+     * @return Log (base 2) conditional estimate of the character.
+     */
+    public double next(char c);
+
+    /**
+     * Appends the characters in the specified slice to the context
+     * in order and returns the sum of their log (base 2) conditional
+     * estimates.
+     *
+     * @param cs Underlying character array.
+     * @param start Index of first character in slice.
+     * @param end Index of one past last character in slice.
+     * @return Log (base 2) estimate of the slice given the context.
+     * @throws IndexOutOfBoundsException If the indices are out of
+     * range for the character array.
+     */
+    public double next(char[] cs, int start, int end);
+
+    /**
+     * Returns the sum of the log (base 2) conditional estimates of
+     * all characters appended since this cursor was created or last
+     * reset.
+     *
+     * @return Log (base 2) estimate of the characters seen.
+     */
+    public double log2Estimate();
+
+    /**
+     * Returns the number of characters appended since this cursor was
+     * created or last reset.
+     *
+     * @return Number of characters seen.
+     */
+    public long numChars();
+
+    /**
+     * Resets this cursor to the empty context with a total estimate
+     * of zero.
+     */
+    public void reset();
+
+}
@@ -0,0 +1,300 @@
+/*
+ * LingPipe v. 4.1.0
+ * Copyright (C) 2003-2011 Alias-i
+ *
+ * This program is licensed under the Alias-i Royalty Free License
+ * Version 1 WITHOUT ANY WARRANTY, without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the Alias-i
+ * Royalty Free License Version 1 for more details.
+ *
+ * You should have received a copy of the Alias-i Royalty Free License
+ * Version 1 along with this program; if not, visit
+ * http://alias-i.com/lingpipe/licenses/lingpipe-license-1.txt or contact
+ * Alias-i, Inc. at 181 North 11th Street, Suite 401, Brooklyn, NY 11211,
+ * +1 (718) 290-9170.
+ */
+
+package com.aliasi.lm;
+
+import com.aliasi.io.BitInput;
+import com.aliasi.io.BitOutput;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import java.util.Arrays;
+
+/**
+ * The <code>QuantizedLMCodec</code> writes and reads the arrays of a
+ * compiled n-gram process language model in a compact quantized
+ * format.
+ *
+ * <P>The log probabilities and log one-minus-lambda values are each
+ * replaced by an index into a codebook of at most
+ * <code>2<sup>numBits</sup></code> values, with a separate codebook
+ * for each n-gram length.  If a length has no more distinct values
+ * than the codebook size, the codebook holds them exactly; otherwise
+ * it is fit by starting from equal-count bins and refining with a
+ * few rounds of one-dimensional k-means, so that each value is
+ * coded by its nearest codebook entry.
+ *
+ * <P>The trie structure is bit packed with {@link BitOutput}.  Rather
+ * than storing a child offset for each context, the number of
+ * daughters of each context is written in gamma code, from which the
+ * offsets are recovered by summation.  The characters of each
+ * node's daughters, which are sorted, are gamma coded as differences
+ * from the previous daughter.  The codebook indexes are written in
+ * fixed-width binary, using only as many bits as the size of the
+ * codebook requires.
+ *
+ * <h3>Format</h3>
+ *
+ * <pre>
+ * maxNGram:int
+ * logUniformEstimate:float
+ * numNodes:int
+ * lastInternalNodeIndex:int
+ * ((numCodes:int, code:float^numCodes)^2)^(maxNGram+1)
+ * numBytes:int
+ * bits:byte^numBytes
+ * </pre>
+ *
+ * The two codebooks for each length are for log probabilities and
+ * log one-minus-lambda values, in that order.
+ *
+ * @author  Bob Carpenter
+ * @version 4.1.0
+ * @since   LingPipe4.1.0
+ */
+final class QuantizedLMCodec {
+
+    private QuantizedLMCodec() {
+        /* no instances */
+    }
+
+    static void write(CompiledNGramProcessLM.Data data, int numBits,
+                      DataOutput out) throws IOException {
+
+        int numNodes = data.mChars.length;
+        int numContexts = data.mLogOneMinusLambdas.length;
+        int[] levelStarts = levelStarts(data.mFirstChild,numNodes,data.mMaxNGram);
+        int numLevels = data.mMaxNGram + 1;
+        float[][] probCodes = new float[numLevels][];
+        float[][] lambdaCodes = new float[numLevels][];
+        for (int d = 0; d < numLevels; ++d) {
+            int start = d + 1 < levelStarts.length ? levelStarts[d] : numNodes;
+            int end = d + 1 < levelStarts.length ? levelStarts[d+1] : numNodes;
+            probCodes[d] = codebook(Arrays.copyOfRange(data.mLogProbs,start,end),
+                                    numBits);
+            lambdaCodes[d]
+                = codebook(Arrays.copyOfRange(data.mLogOneMinusLambdas,
+                                              Math.min(start,numContexts),
+                                              Math.min(end,numContexts)),
+                           numBits);
+        }
+
+        out.writeInt(data.mMaxNGram);
+        out.writeFloat(data.mLogUniformEstimate);
+        out.writeInt(numNodes);
+        out.writeInt(numContexts - 1);
+        for (int d = 0; d < numLevels; ++d) {
+            writeCodebook(probCodes[d],out);
+            writeCodebook(lambdaCodes[d],out);
+        }
+
+        ByteArrayOutputStream bytesOut = new ByteArrayOutputStream();
+        BitOutput bitOut = new BitOutput(bytesOut);
+        int[] firstChild = data.mFirstChild;
+        for (int i = 0; i < numContexts; ++i) {
+            bitOut.writeGamma(firstChild[i+1] - firstChild[i] + 1);
+            char previous = 0;
+            for (int k = firstChild[i]; k < firstChild[i+1]; ++k) {
+                char c = data.mChars[k];
+                bitOut.writeGamma(k == firstChild[i] ? c + 1 : c - previous);
+                previous = c;
+            }
+        }
+        for (int d = 0; d + 1 < levelStarts.length; ++d) {
+            int probBits = numBits(probCodes[d].length);
+            int lambdaBits = numBits(lambdaCodes[d].length);
+            for (int i = levelStarts[d]; i < levelStarts[d+1]; ++i) {
+                if (probBits > 0)
+                    bitOut.writeBinary(nearest(probCodes[d],data.mLogProbs[i]),
+                                       probBits);
+                if (lambdaBits > 0 && i < numContexts)
+                    bitOut.writeBinary(nearest(lambdaCodes[d],
+                                               data.mLogOneMinusLambdas[i]),
+                                       lambdaBits);
+            }
+        }
+        bitOut.close();
+        byte[] bytes = bytesOut.toByteArray();
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    static CompiledNGramProcessLM.Data read(DataInput in) throws IOException {
+        CompiledNGramProcessLM.Data data = new CompiledNGramProcessLM.Data();
+        data.mMaxNGram = in.readInt();
+        data.mLogUniformEstimate = in.readFloat();
+        int numNodes = in.readInt();
+        int numContexts = in.readInt() + 1;
+        int numLevels = data.mMaxNGram + 1;
+        float[][] probCodes = new float[numLevels][];
+        float[][] lambdaCodes = new float[numLevels][];
+        for (int d = 0; d < numLevels; ++d) {
+            probCodes[d] = readCodebook(in);
+            lambdaCodes[d] = readCodebook(in);
+        }
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        BitInput bitIn = new BitInput(new ByteArrayInputStream(bytes));
+
+        char[] chars = new char[numNodes];
+        int[] firstChild = new int[numContexts + 1];
+        chars[0] = '\uFFFF';
+        int next = 1;
+        for (int i = 0; i < numContexts; ++i) {
+            firstChild[i] = next;
+            int numChildren = (int) bitIn.readGamma() - 1;
+            char previous = 0;
+            for (int k = 0; k < numChildren; ++k) {
+                previous = (k == 0)
+                    ? (char) (bitIn.readGamma() - 1)
+                    : (char) (previous + bitIn.readGamma());
+                chars[next++] = previous;
+            }
+        }
+        firstChild[numContexts] = numNodes;
+        if (next != numNodes) {
+            String msg = "Inconsistent quantized model."
+                + " Found numNodes=" + numNodes
+                + " nodes in trie=" + next;
+            throw new IOException(msg);
+        }
+
+        float[] logProbs = new float[numNodes];
+        float[] logOneMinusLambdas = new float[numContexts];
+        int[] levelStarts = levelStarts(firstChild,numNodes,data.mMaxNGram);
+        for (int d = 0; d + 1 < levelStarts.length; ++d) {
+            int probBits = numBits(probCodes[d].length);
+            int lambdaBits = numBits(lambdaCodes[d].length);
+            for (int i = levelStarts[d]; i < levelStarts[d+1]; ++i) {
+                logProbs[i] = probBits > 0
+                    ? probCodes[d][(int) bitIn.readBinary(probBits)]
+                    : probCodes[d][0];
+                if (i < numContexts)
+                    logOneMinusLambdas[i] = lambdaBits > 0
+                        ? lambdaCodes[d][(int) bitIn.readBinary(lambdaBits)]
+                        : lambdaCodes[d][0];
+            }
+        }
+        data.mChars = chars;
+        data.mFirstChild = firstChild;
+        data.mLogProbs = logProbs;
+        data.mLogOneMinusLambdas = logOneMinusLambdas;
+        return data;
+    }
+
+    // levels are contiguous in breadth-first order, with level d
+    // spanning [starts[d],starts[d+1]); empty levels are dropped
+    static int[] levelStarts(int[] firstChild, int numNodes, int maxNGram) {
+        int[] starts = new int[maxNGram + 2];
+        int numLevels = 0;
+        int end = 1;
+        while (starts[numLevels] < end) {
+            starts[++numLevels] = end;
+            end = end < firstChild.length ? firstChild[end] : numNodes;
+        }
+        return Arrays.copyOf(starts,numLevels + 1);
+    }
+
+    static float[] codebook(float[] values, int numBits) {
+        if (values.length == 0)
+            return new float[] { 0f };
+        float[] sorted = values.clone();
+        Arrays.sort(sorted);
+        float[] distinct = distinct(sorted);
+        int maxCodes = 1 << numBits;
+        if (distinct.length <= maxCodes)
+            return distinct;
+
+        // equal-count bins, then Lloyd's iterations on sorted values
+        int n = sorted.length;
+        double[] codes = new double[maxCodes];
+        for (int k = 0; k < maxCodes; ++k) {
+            int start = (int) ((long) k * n / maxCodes);
+            int end = (int) ((long) (k + 1) * n / maxCodes);
+            codes[k] = mean(sorted,start,end);
+        }
+        for (int iteration = 0; iteration < NUM_LLOYD_ITERATIONS; ++iteration) {
+            int j = 0;
+            for (int k = 0; k < maxCodes; ++k) {
+                double upper = (k + 1 < maxCodes)
+                    ? (codes[k] + codes[k+1]) / 2.0
+                    : Double.POSITIVE_INFINITY;
+                int start = j;
+                while (j < n && sorted[j] <= upper)
+                    ++j;
+                if (j > start)
+                    codes[k] = mean(sorted,start,j);
+            }
+        }
+        float[] result = new float[maxCodes];
+        for (int k = 0; k < maxCodes; ++k)
+            result[k] = (float) codes[k];
+        Arrays.sort(result);
+        return distinct(result);
+    }
+
+    static int nearest(float[] codes, float x) {
+        int k = Arrays.binarySearch(codes,x);
+        if (k >= 0) return k;
+        int insert = -(k + 1);
+        if (insert == 0) return 0;
+        if (insert == codes.length) return codes.length - 1;
+        return (x - codes[insert-1]) <= (codes[insert] - x)
+            ? insert - 1
+            : insert;
+    }
+
+    static int numBits(int numCodes) {
+        return 32 - Integer.numberOfLeadingZeros(numCodes - 1);
+    }
+
+    private static double mean(float[] xs, int start, int end) {
+        double sum = 0.0;
+        for (int i = start; i < end; ++i)
+            sum += xs[i];
+        return sum / (end - start);
+    }
+
+    private static float[] distinct(float[] sorted) {
+        int n = 0;
+        for (int i = 0; i < sorted.length; ++i)
+            if (n == 0 || Float.compare(sorted[i],sorted[n-1]) != 0)
+                sorted[n++] = sorted[i];
+        return Arrays.copyOf(sorted,n);
+    }
+
+    private static void writeCodebook(float[] codes, DataOutput out)
+        throws IOException {
+
+        out.writeInt(codes.length);
+        for (float code : codes)
+            out.writeFloat(code);
+    }
+
+    private static float[] readCodebook(DataInput in) throws IOException {
+        float[] codes = new float[in.readInt()];
+        for (int k = 0; k < codes.length; ++k)
+            codes[k] = in.readFloat();
+        return codes;
+    }
+
+    static final int NUM_LLOYD_ITERATIONS = 8;
+
+}
@@ -0,0 +1,413 @@
+/*
+ * LingPipe v. 4.1.0
+ * Copyright (C) 2003-2011 Alias-i
+ *
+ * This program is licensed under the Alias-i Royalty Free License
+ * Version 1 WITHOUT ANY WARRANTY, without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the Alias-i
+ * Royalty Free License Version 1 for more details.
+ *
+ * You should have received a copy of the Alias-i Royalty Free License
+ * Version 1 along with this program; if not, visit
+ * http://alias-i.com/lingpipe/licenses/lingpipe-license-1.txt or contact
+ * Alias-i, Inc. at 181 North 11th Street, Suite 401, Brooklyn, NY 11211,
+ * +1 (718) 290-9170.
+ */
+
+package com.aliasi.lm;
+
+import com.aliasi.corpus.ObjectHandler;
+
+import com.aliasi.io.BitInput;
+
+import com.aliasi.util.Streams;
+import com.aliasi.util.Strings;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A <code>ShardedTrieCharSeqCounter</code> counts substrings from
+ * many threads into independent per-thread shards, spills the shards
+ * to disk when they grow too large, and then merges the spilled
+ * shards into a single counter.
+ *
+ * <P>Each thread calling one of the increment methods trains its own
+ * {@link TrieCharSeqCounter}, so no locking is required during
+ * training.  When a thread's shard has been trained on the maximum
+ * number of characters specified at construction, it is written to a
+ * temporary file in the spill directory using {@link
+ * TrieCharSeqCounter#writeTo(OutputStream)} and replaced with an
+ * empty shard.  Peak heap usage during training is thus bounded by
+ * the size of one shard per thread, no matter how much data is seen.
+ *
+ * <P>The method {@link #merge(long)} spills the remaining shards and
+ * then streams all of the spilled tries through a balanced tree of
+ * {@link MultiTrieReader} instances, which sum their counts, and
+ * finally through a {@link PruneTrieReader} before reading the result
+ * into a new trie counter.  Only the pruned result is ever held in
+ * memory.  The method {@link #mergeCompact(long)} reads the result
+ * directly into the compact array-based representation described in
+ * {@link TrieCharSeqCounter#compact()}.  The static method {@link #merge(List,long)} carries out
+ * the same merge for shards written by other means.
+ *
+ * <P>A language model may be constructed from the merged counter
+ * with {@link NGramProcessLM#NGramProcessLM(int,double,TrieCharSeqCounter)}
+ * and then compiled as usual.  With a minimum count of one, the merged
+ * counter is identical to that produced by training a single counter
+ * on all of the data.
+ *
+ * <h3>Thread Safety</h3>
+ *
+ * The increment and handle methods may be called concurrently from
+ * any number of threads.  The merge method must only be called after
+ * all training has completed.
+ *
+ * @author  Bob Carpenter
+ * @version 4.1.0
+ * @since   LingPipe4.1.0
+ */
+public class ShardedTrieCharSeqCounter
+    implements ObjectHandler<CharSequence> {
+
+    private final int mMaxLength;
+    private final File mSpillDir;
+    private final long mMaxCharsPerShard;
+
+    private final List<Shard> mShards = new ArrayList<Shard>();
+    private final List<File> mSpillFiles = new ArrayList<File>();
+
+    private final ThreadLocal<Shard> mThreadShard
+        = new ThreadLocal<Shard>() {
+            @Override
+            protected Shard initialValue() {
+                Shard shard = new Shard(mMaxLength);
+                synchronized (mShards) {
+                    mShards.add(shard);
+                }
+                return shard;
+            }
+        };
+
+    /**
+     * Construct a sharded counter for substrings up to the specified
+     * maximum length, spilling to the specified directory whenever a
+     * shard has been trained on the specified number of characters.
+     *
+     * @param maxLength Maximum length of substrings counted.
+     * @param spillDir Directory in which to write spilled shards.
+     * @param maxCharsPerShard Number of characters on which a shard
+     * is trained before it is spilled.
+     * @throws IllegalArgumentException If the maximum length is
+     * negative, the spill directory is not a directory, or the
+     * maximum characters per shard is not positive.
+     */
+    public ShardedTrieCharSeqCounter(int maxLength, File spillDir,
+                                     long maxCharsPerShard) {
+        if (maxLength < 0) {
+            String msg = "Max length must be >= 0."
+                + " Found length=" + maxLength;
+            throw new IllegalArgumentException(msg);
+        }
+        if (!spillDir.isDirectory()) {
+            String msg = "Spill directory must be an existing directory."
+                + " Found spillDir=" + spillDir;
+            throw new IllegalArgumentException(msg);
+        }
+        if (maxCharsPerShard < 1) {
+            String msg = "Max chars per shard must be positive."
+                + " Found maxCharsPerShard=" + maxCharsPerShard;
+            throw new IllegalArgumentException(msg);
+        }
+        mMaxLength = maxLength;
+        mSpillDir = spillDir;
+        mMaxCharsPerShard = maxCharsPerShard;
+    }
+
+    /**
+     * Returns the maximum length of substring counted.
+     *
+     * @return The maximum substring length.
+     */
+    public int maxLength() {
+        return mMaxLength;
+    }
+
+    /**
+     * Returns the number of shards spilled to disk so far.
+     *
+     * @return The number of spilled shards.
+     */
+    public int numSpilledShards() {
+        synchronized (mSpillFiles) {
+            return mSpillFiles.size();
+        }
+    }
+
+    /**
+     * Increments the counts of all substrings of the specified
+     * character sequence.  This method delegates to {@link
+     * #incrementSubstrings(CharSequence)}.
+     *
+     * @param cSeq Character sequence to count.
+     * @throws IllegalStateException If there is an I/O error spilling
+     * a shard.
+     */
+    public void handle(CharSequence cSeq) {
+        incrementSubstrings(cSeq);
+    }
+
+    /**
+     * Increments the counts of all substrings of the specified
+     * character sequence.
+     *
+     * @param cSeq Character sequence to count.
+     * @throws IllegalStateException If there is an I/O error spilling
+     * a shard.
+     */
+    public void incrementSubstrings(CharSequence cSeq) {
+        char[] cs = Strings.toCharArray(cSeq);
+        incrementSubstrings(cs,0,cs.length,1);
+    }
+
+    /**
+     * Increments the counts of all substrings of the specified
+     * character slice by the specified amount, as for {@link
+     * TrieCharSeqCounter#incrementSubstrings(char[],int,int,int)}.
+     *
+     * @param cs Underlying character array.
+     * @param start Index of first character in slice.
+     * @param end Index of one past last character in slice.
+     * @param count Amount to increment.
+     * @throws IndexOutOfBoundsException If the indices are out of
+     * range for the character array.
+     * @throws IllegalStateException If there is an I/O error spilling
+     * a shard.
+     */
+    public void incrementSubstrings(char[] cs, int start, int end,
+                                    int count) {
+        Shard shard = mThreadShard.get();
+        shard.mCounter.incrementSubstrings(cs,start,end,count);
+        shard.mNumChars += end - start;
+        if (shard.mNumChars < mMaxCharsPerShard) return;
+        try {
+            spill(shard);
+        } catch (IOException e) {
+            String msg = "I/O error spilling shard=" + e;
+            throw new IllegalStateException(msg,e);
+        }
+    }
+
+    /**
+     * Spills all remaining shards, merges all of the spilled shards
+     * after pruning substrings with counts below the specified
+     * minimum, and returns the result.  The spilled files are deleted
+     * after they are merged and this counter is reset to be empty.
+     * If the merge fails, the spilled files are kept and the merge
+     * may be retried.
+     *
+     * @param minCount Minimum count of substrings retained.
+     * @return The merged counter.
+     * @throws IOException If there is an underlying I/O error.
+     * @throws IllegalArgumentException If the minimum count is
+     * negative.
+     */
+    public TrieCharSeqCounter merge(long minCount) throws IOException {
+        return merge(minCount,false);
+    }
+
+    /**
+     * Spills all remaining shards and returns the compact result of
+     * merging them, as for {@link #merge(long)}.  The merged counts are
+     * streamed directly into the compact representation described in
+     * {@link TrieCharSeqCounter#compact()}, so a trie of ordinary nodes
+     * is never built.
+     *
+     * @param minCount Minimum count of substrings retained.
+     * @return The merged compact counter.
+     * @throws IOException If there is an underlying I/O error.
+     * @throws IllegalArgumentException If the minimum count is
+     * negative.
+     */
+    public TrieCharSeqCounter mergeCompact(long minCount) throws IOException {
+        return merge(minCount,true);
+    }
+
+    private TrieCharSeqCounter merge(long minCount, boolean compact)
+        throws IOException {
+
+        checkMinCount(minCount);
+        synchronized (mShards) {
+            for (Shard shard : mShards)
+                spill(shard);
+        }
+        List<File> files;
+        synchronized (mSpillFiles) {
+            files = new ArrayList<File>(mSpillFiles);
+            mSpillFiles.clear();
+        }
+        boolean merged = false;
+        try {
+            TrieCharSeqCounter counter;
+            if (files.isEmpty()) {
+                counter = new TrieCharSeqCounter(mMaxLength);
+                if (compact)
+                    counter.compact();
+            } else {
+                counter = merge(files,minCount,compact);
+            }
+            merged = true;
+            return counter;
+        } finally {
+            if (merged) {
+                for (File file : files)
+                    file.delete();
+            } else {
+                // keep spilled counts so the merge may be retried
+                synchronized (mSpillFiles) {
+                    mSpillFiles.addAll(0,files);
+                }
+            }
+        }
+    }
+
+    private void spill(Shard shard) throws IOException {
+        if (shard.mCounter.mRootNode.count() == 0L) return;
+        File file = File.createTempFile("shard",".trie",mSpillDir);
+        OutputStream out = null;
+        boolean written = false;
+        try {
+            out = new BufferedOutputStream(new FileOutputStream(file));
+            shard.mCounter.writeTo(out);
+            out.close(); // report flush and close errors
+            out = null;
+            written = true;
+        } finally {
+            Streams.closeQuietly(out);
+            if (!written)
+                file.delete();
+        }
+        synchronized (mSpillFiles) {
+            mSpillFiles.add(file);
+        }
+        shard.mCounter = new TrieCharSeqCounter(mMaxLength);
+        shard.mNumChars = 0L;
+    }
+
+    /**
+     * Returns the result of merging the counters written to the
+     * specified files, pruning substrings with counts below the
+     * specified minimum.  Each file must have been written with
+     * {@link TrieCharSeqCounter#writeTo(OutputStream)} by a counter
+     * with the same maximum length.  The files are read in a single
+     * streaming pass, so only the pruned result is held in memory.
+     *
+     * @param files Files containing the counters to merge.
+     * @param minCount Minimum count of substrings retained.
+     * @return The merged counter.
+     * @throws IOException If there is an underlying I/O error.
+     * @throws IllegalArgumentException If there are no files, the
+     * counters have different maximum lengths, or the minimum count
+     * is negative.
+     */
+    public static TrieCharSeqCounter merge(List<File> files, long minCount)
+        throws IOException {
+
+        return merge(files,minCount,false);
+    }
+
+    /**
+     * Returns the compact result of merging the counters written to
+     * the specified files, as for {@link #merge(List,long)}.  The
+     * merged counts are streamed directly into the compact
+     * representation described in {@link TrieCharSeqCounter#compact()}.
+     *
+     * @param files Files containing the counters to merge.
+     * @param minCount Minimum count of substrings retained.
+     * @return The merged compact counter.
+     * @throws IOException If there is an underlying I/O error.
+     * @throws IllegalArgumentException If there are no files, the
+     * counters have different maximum lengths, or the minimum count
+     * is negative.
+     */
+    public static TrieCharSeqCounter mergeCompact(List<File> files,
+                                                  long minCount)
+        throws IOException {
+
+        return merge(files,minCount,true);
+    }
+
+    private static TrieCharSeqCounter merge(List<File> files, long minCount,
+                                            boolean compact)
+        throws IOException {
+
+        if (files.isEmpty()) {
+            String msg = "Require at least one file to merge.";
+            throw new IllegalArgumentException(msg);
+        }
+        checkMinCount(minCount);
+        List<BitInput> inputs = new ArrayList<BitInput>(files.size());
+        try {
+            List<TrieReader> readers = new ArrayList<TrieReader>(files.size());
+            int maxNGram = -1;
+            for (File file : files) {
+                BitInput bitIn
+                    = new BitInput(new BufferedInputStream(new FileInputStream(file)));
+                inputs.add(bitIn);
+                int fileMaxNGram = (int) (bitIn.readDelta() - 1L);
+                if (maxNGram >= 0 && fileMaxNGram != maxNGram) {
+                    String msg = "All counters must have same max length."
+                        + " Found lengths=" + maxNGram
+                        + " and " + fileMaxNGram
+                        + " in file=" + file;
+                    throw new IllegalArgumentException(msg);
+                }
+                maxNGram = fileMaxNGram;
+                readers.add(new BitTrieReader(bitIn));
+            }
+            // balanced binary tree of pairwise merges
+            while (readers.size() > 1) {
+                List<TrieReader> nextReaders
+                    = new ArrayList<TrieReader>((readers.size()+1)/2);
+                for (int i = 0; i + 1 < readers.size(); i += 2)
+                    nextReaders.add(new MultiTrieReader(readers.get(i),
+                                                        readers.get(i+1)));
+                if (readers.size() % 2 == 1)
+                    nextReaders.add(readers.get(readers.size()-1));
+                readers = nextReaders;
+            }
+            TrieReader reader = new PruneTrieReader(readers.get(0),minCount);
+            return compact
+                ? TrieCharSeqCounter.readCompactCounter(reader,maxNGram)
+                : TrieCharSeqCounter.readCounter(reader,maxNGram);
+        } finally {
+            for (BitInput bitIn : inputs)
+                bitIn.close();
+        }
+    }
+
+    static void checkMinCount(long minCount) {
+        if (minCount < 0) {
+            String msg = "Minimum count must be >= 0."
+                + " Found minCount=" + minCount;
+            throw new IllegalArgumentException(msg);
+        }
+    }
+
+    static class Shard {
+        TrieCharSeqCounter mCounter;
+        long mNumChars = 0L;
+        Shard(int maxLength) {
+            mCounter = new TrieCharSeqCounter(maxLength);
+        }
+    }
+
+}
@@ -53,6 +53,8 @@ import java.util.List;
  *
  * <P><i>Implementation Note:</i> The trie counters are a heavily
  * unfolded implementation of a character-based Patricia (PAT) trie.
+ * For large counters, the method {@link #compact()} converts the trie
+ * to a much smaller representation based on primitive arrays.
  *
  * @author  Bob Carpenter
  * @version 3.8
@@ -175,6 +177,36 @@ public class TrieCharSeqCounter implements CharSeqCounter {
             mRootNode = NodeFactory.createNode(0);
     }
 
+    /**
+     * Converts the counts stored by this counter to a compact
+     * representation backed by primitive arrays.  Counts and all
+     * other reported values are not affected.
+     *
+     * <P>The compact representation stores each substring in seven
+     * bytes rather than in a trie node object, which typically
+     * reduces memory several-fold for large high-order counters and
+     * removes almost all of the objects the garbage collector must
+     * trace.  Lookups in the compact representation are allocation
+     * free.
+     *
+     * <P>The counter may still be updated after it is compacted.  An
+     * update converts only the substrings on the path being updated
+     * back into ordinary trie nodes, leaving the rest of the counts in
+     * array form.  Thus compaction is best carried out after training,
+     * and may be repeated after further training.  Pruning a compact
+     * counter produces a compact counter.
+     *
+     * <P>During compaction, both representations are held in memory.
+     * To avoid ever building the node-based trie, use {@link
+     * #readCompactCounter(TrieReader,int)}.
+     *
+     * @throws IllegalArgumentException If there are more than
+     * <code>Integer.MAX_VALUE-1</code> substrings in this counter.
+     */
+    public void compact() {
+        mRootNode = new ArrayTrieNode(ArrayTrie.copy(mRootNode,0L));
+    }
+
     /**
      * Returns an array of frequency counts for n-grams of the
      * specified n-gram order sorted in descending frequency order.
@@ -549,6 +581,30 @@ public class TrieCharSeqCounter implements CharSeqCounter {
         return counter;
     }
 
+    /**
+     * Reads a compact trie character sequence counter from the
+     * specified trie reader, restricting the result to the specified
+     * maximum n-gram.  The result is the same as compacting the
+     * result of {@link #readCounter(TrieReader,int)} as described in
+     * {@link #compact()}, but the counts are read directly into the
+     * compact representation.
+     *
+     * @param reader Reader from which to read the trie.
+     * @param maxNGram Maximum length n-gram to read.
+     * @return The compact counter read from the reader.
+     * @throws IOException If there is an underlying I/O error.
+     * @throws IllegalArgumentException If there are more than
+     * <code>Integer.MAX_VALUE-1</code> substrings to read.
+     */
+    public static TrieCharSeqCounter readCompactCounter(TrieReader reader,
+                                                        int maxNGram)
+        throws IOException {
+
+        TrieCharSeqCounter counter = new TrieCharSeqCounter(maxNGram);
+        counter.mRootNode = new ArrayTrieNode(ArrayTrie.read(reader,maxNGram));
+        return counter;
+    }
+
     static void writeCounter(char[] cs, int pos, 
                              CharSeqCounter counter,
                              TrieWriter writer)
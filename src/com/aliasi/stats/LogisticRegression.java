@@ -15,6 +15,7 @@
  */
 package com.aliasi.stats;
 
+import com.aliasi.corpus.Corpus;
 import com.aliasi.corpus.ObjectHandler;
 
 import com.aliasi.io.LogLevel;
@@ -28,6 +29,8 @@ import com.aliasi.matrix.Vector;
 
 import com.aliasi.util.AbstractExternalizable;
 import com.aliasi.util.Compilable;
+import com.aliasi.util.Pair;
+import com.aliasi.util.Partitions;
 
 import java.io.IOException;
 import java.io.ObjectInput;
@@ -38,8 +41,11 @@ import java.io.Serializable;
 import java.util.Arrays;
 import java.util.Formatter;
 import java.util.IllegalFormatException;
+import java.util.List;
 import java.util.Locale;
 
+import java.util.concurrent.ExecutorService;
+
 /**
  * A <code>LogisticRegression</code> instance is a multi-class vector
  * classifier model generating conditional probability estimates of
@@ -321,6 +327,47 @@ import java.util.Locale;
  * still be calculated with the learning rate, not by a line search
  * along the gradient direction.
  *
+ * <h4>Parallel Estimation</h4>
+ *
+ * The estimator {@link
+ * #estimate(Vector[],int[],RegressionPrior,int,LogisticRegression,AnnealingSchedule,double,int,int,int,ObjectHandler,ExecutorService,int,Reporter)}
+ * divides the training examples into a specified number of
+ * contiguous partitions, each of which is run through blocked
+ * updates by a task submitted to an executor service.  The tasks
+ * share a single set of coefficient vectors, which they read and
+ * update without locking, following the <i>Hogwild!</i> approach of
+ * Niu et al. (2011).  Because feature vectors are typically sparse,
+ * concurrent updates rarely touch the same coefficients, and the
+ * occasional lost update does not prevent convergence.  Each epoch
+ * ends when all of the partitions are finished, after which the
+ * handler, convergence monitoring and annealing schedule are applied
+ * as for the sequential estimator.  The log likelihood used to
+ * monitor convergence is also computed in parallel.
+ *
+ * <p>With more than one worker, the result depends on the
+ * scheduling of threads and is not reproducible from run to run.
+ * With a single worker, the parallel estimator is identical to
+ * the sequential one.
+ *
+ * <p>The prior update is applied by each task after each of its
+ * blocks and scaled by the fraction of the training data in the
+ * block, so the total prior adjustment per epoch is the same as
+ * for the sequential estimator.  As with the sequential
+ * estimator, larger blocks reduce the cost of the dense prior
+ * updates.
+ *
+ * <h4>Streaming Estimation</h4>
+ *
+ * The estimator {@link
+ * #estimate(Corpus,RegressionPrior,int,LogisticRegression,AnnealingSchedule,double,int,int,int,ObjectHandler,Reporter)}
+ * visits the training section of a corpus of input vector and
+ * category pairs once per epoch rather than taking arrays of them, so
+ * only one block of examples needs to be held in memory at a time.
+ * The updates are the same as for the array-based estimators.  The
+ * only difference is that convergence is monitored using the log
+ * likelihood of each example computed while training, before the
+ * example's block is used to update the coefficients, rather than
+ * with a second pass over the data after each epoch.
  *
  * <h4>Serialization and Compilation</h4>
  *
@@ -374,7 +421,7 @@ import java.util.Locale;
  *
  * @author  Bob Carpenter
  * @author Mike Ross
- * @version 4.0.1
+ * @version 4.1.0
  * @since   LingPipe3.5
  */
 public class LogisticRegression
@@ -669,6 +716,85 @@ public class LogisticRegression
 
                  Reporter reporter) {
 
+        return estimate(xs,cs,
+                        prior,
+                        blockSize,
+                        hotStart,annealingSchedule,minImprovement,rollingAverageSize,minEpochs,maxEpochs,
+                        handler,
+                        null, // executor
+                        1,    // number of workers
+                        reporter);
+    }
+
+    /**
+     * Estimate a logistic regression model from the specified input
+     * data, dividing the work of each epoch among the specified
+     * number of workers run by the specified executor service.
+     *
+     * <p>The examples are divided into contiguous partitions, one
+     * per worker.  Each worker runs blocked stochastic gradient
+     * updates over its partition, updating the shared coefficients
+     * without locking.  See the class documentation above for more
+     * information.  If the executor is {@code null}, the partitions
+     * are processed one after the other in the calling thread.  With
+     * a single worker, this method returns the same result as
+     * {@link
+     * #estimate(Vector[],int[],RegressionPrior,int,LogisticRegression,AnnealingSchedule,double,int,int,int,ObjectHandler,Reporter)}.
+     *
+     * <p>The handler and reporter are only called from the thread
+     * calling this method or from the worker for the first
+     * partition, so they need not be thread safe.  The executor is
+     * not shut down by this method.
+     *
+     * @param xs Input vectors indexed by training case.
+     * @param cs Output categories indexed by training case.
+     * @param prior The prior to be used for regression.
+     * @param blockSize Number of examples whose gradient is
+     * computed before updating coefficients.
+     * @param hotStart Logistic regression from which to retrieve
+     * initial weights or null to use zero vectors.
+     * @param annealingSchedule Class to compute learning rate for each epoch.
+     * @param minImprovement The minimum relative improvement in
+     * log likelihood for the corpus to continue to another epoch.
+     * @param rollingAverageSize Number of epochs over which to
+     * average objective improvement for monitoring convergence.
+     * @param minEpochs Minimum number of epochs.
+     * @param maxEpochs Maximum number of epochs.
+     * @param handler Handler for intermediate regression results.
+     * @param executor Executor service to run the workers, or
+     * {@code null} to run them in the calling thread.
+     * @param numWorkers Number of partitions into which the
+     * examples are divided.
+     * @param reporter Reporter to which progress reports are written, or
+     * {@code null} if no progress reports are needed.
+     * @throws IllegalArgumentException If the set of input vectors
+     * does not contain at least one instance, if the number of output
+     * categories isn't the same as the input categories, if two input
+     * vectors have different dimensions, if the prior has a
+     * different number of dimensions than the instances, or if the
+     * number of workers is not positive.
+     * @throws IllegalStateException If the thread is interrupted
+     * while waiting for the workers.
+     */
+    public static LogisticRegression
+        estimate(final Vector[] xs,
+                 final int[] cs,
+                 final RegressionPrior prior,
+
+                 final int blockSize,
+                 LogisticRegression hotStart,
+                 AnnealingSchedule annealingSchedule,
+                 double minImprovement,
+                 int rollingAverageSize,
+                 int minEpochs,
+                 int maxEpochs,
+
+                 ObjectHandler<LogisticRegression> handler,
+
+                 ExecutorService executor,
+                 int numWorkers,
+
+                 Reporter reporter) {
 
         if (reporter == null)
             reporter = Reporters.silent();
@@ -698,7 +824,14 @@ public class LogisticRegression
 
         }
 
-        int numTrainingInstances = xs.length;
+        if (numWorkers < 1) {
+            String msg = "Number of workers must be positive."
+                + " Found numWorkers=" + numWorkers;
+            reporter.fatal(msg);
+            throw new IllegalArgumentException(msg);
+        }
+
+        final int numTrainingInstances = xs.length;
         int numOutcomesMinus1 = com.aliasi.util.Math.max(cs);
         int numOutcomes = numOutcomesMinus1 + 1;
         int numDimensions = xs[0].numDimensions();
@@ -716,39 +849,19 @@ public class LogisticRegression
         }
 
 
-        DenseVector[] weightVectors = new DenseVector[numOutcomesMinus1];
-        if (hotStart == null) {
-            for (int k = 0; k < numOutcomesMinus1; ++k)
-                weightVectors[k] = new DenseVector(numDimensions);  // values all 0.0
-        } else {
-            Vector[] hotStartWeightVectors = hotStart.weightVectors();
-            for (int k = 0; k < weightVectors.length; ++k)
-                weightVectors[k] = new DenseVector(hotStartWeightVectors[k]); // deep copy
-        }
+        DenseVector[] weightVectors
+            = initialWeightVectors(numOutcomesMinus1,numDimensions,hotStart);
         LogisticRegression regression = new LogisticRegression(weightVectors);
 
-        boolean hasPrior = (prior != null) && !prior.isUniform();
-
-        reporter.info("Number of dimensions=" + numDimensions);
-        reporter.info("Number of Outcomes=" + numOutcomes);
-        reporter.info("Number of Parameters=" + (numOutcomes-1)*(long)numDimensions);
-        reporter.info("Number of Training Instances=" + cs.length);
-        reporter.info("Prior=" + prior);
-        reporter.info("Annealing Schedule=" + annealingSchedule);
-        reporter.info("Minimum Epochs=" + minEpochs);
-        reporter.info("Maximum Epochs=" + maxEpochs);
-        reporter.info("Minimum Improvement Per Period=" + minImprovement);
-        reporter.info("Has Informative Prior=" + hasPrior);
+        reportParameters(numDimensions,numOutcomes,cs.length,prior,annealingSchedule,
+                         minImprovement,minEpochs,maxEpochs,reporter);
 
-        double lastLog2LikelihoodAndPrior = -(Double.MAX_VALUE / 2.0);
+        numWorkers = Math.min(numWorkers,numTrainingInstances);
+        reporter.info("Number of Workers=" + numWorkers);
 
-        double[] rollingAbsDiffs = new double[rollingAverageSize];
-        Arrays.fill(rollingAbsDiffs,Double.POSITIVE_INFINITY);
-        int rollingAveragePosition = 0;
-        double bestLog2LikelihoodAndPrior = Double.NEGATIVE_INFINITY;
-        int partialBlockSize = numTrainingInstances % blockSize;
-        int numFullBlocks = numTrainingInstances / blockSize;
-        double[][] blockCondProbs = new double[blockSize][numOutcomes];
+        ConvergenceMonitor monitor = new ConvergenceMonitor(rollingAverageSize);
+        final double[][][] blockCondProbs = new double[numWorkers][blockSize][numOutcomes];
+        final Reporter workerReporter = reporter;
 
         for (int epoch = 0; epoch < maxEpochs; ++epoch) {
             // copy allows backout by annealing schedule
@@ -757,21 +870,30 @@ public class LogisticRegression
                 ? copy(weightVectors)
                 : weightVectors;
 
-            double learningRate = annealingSchedule.learningRate(epoch);
-
-            for (int b = 0; b < numFullBlocks; ++b) {
-
-                adjustBlock(b*blockSize,(b+1)*blockSize,
-                            xs,cs,weightVectors,learningRate,prior,
-                            blockCondProbs,regression);
-                if (reporter.isDebugEnabled())
-                    reporter.debug("          epoch " + epoch + " " 
-                                   + (int) ((100.0 * (b+1) * blockSize) / numTrainingInstances)
-                                   + "% complete");            }
-            if (partialBlockSize > 0)
-                adjustBlock(numFullBlocks*blockSize,numTrainingInstances,
-                            xs,cs,weightVectors,learningRate,prior,
-                            blockCondProbs,regression);
+            final int epochNum = epoch;
+            final double learningRate = annealingSchedule.learningRate(epoch);
+            final DenseVector[] epochWeightVectors = weightVectors;
+            final LogisticRegression epochRegression = regression;
+
+            Partitions.forEachPartition(numTrainingInstances,numWorkers,executor,
+                                        "logistic regression estimation",
+                                        new Partitions.Task<Void>() {
+                public Void run(int partition, int start, int end) {
+                    double[][] condProbs = blockCondProbs[partition];
+                    for (int b = start; b < end; b += blockSize) {
+                        int blockEnd = Math.min(end,b + blockSize);
+                        adjustBlock(b,blockEnd,
+                                    xs,cs,numTrainingInstances,epochWeightVectors,
+                                    learningRate,prior,
+                                    condProbs,epochRegression,false);
+                        if (partition == 0 && workerReporter.isDebugEnabled())
+                            workerReporter.debug("          epoch " + epochNum + " "
+                                                 + (int) ((100.0 * (blockEnd - start)) / (end - start))
+                                                 + "% complete");
+                    }
+                    return null;
+                }
+            });
 
             if (handler != null) {
                 reporter.debug("handling regression for epoch");
@@ -789,12 +911,316 @@ public class LogisticRegression
             
             reporter.debug("computing log likelihood");
             // recompute all estimates; very expensive, but required to monitor convergence
-            double log2Likelihood = log2Likelihood(xs,cs,regression);
-            double log2Prior = prior.log2Prior(weightVectors);
-            double log2LikelihoodAndPrior = log2Likelihood + prior.log2Prior(weightVectors);
-            if (log2LikelihoodAndPrior > bestLog2LikelihoodAndPrior)
-                bestLog2LikelihoodAndPrior = log2LikelihoodAndPrior;
-            
+            List<Double> partitionLog2Likelihoods
+                = Partitions.forEachPartition(numTrainingInstances,numWorkers,executor,
+                                              "logistic regression estimation",
+                                              new Partitions.Task<Double>() {
+                    public Double run(int partition, int start, int end) {
+                        return log2Likelihood(start,end,xs,cs,epochRegression);
+                    }
+                });
+            double log2Likelihood = 0.0;
+            for (Double partitionLog2Likelihood : partitionLog2Likelihoods)
+                log2Likelihood += partitionLog2Likelihood;
+            int status = monitor.endEpoch(epoch,learningRate,log2Likelihood,
+                                          prior.log2Prior(weightVectors),
+                                          annealingSchedule,minImprovement,reporter);
+            if (status == ConvergenceMonitor.REJECTED) {
+                weightVectors = weightVectorCopies;
+                regression = new LogisticRegression(weightVectors);
+            } else if (status == ConvergenceMonitor.CONVERGED) {
+                break; // goes to "return regression;"
+            }
+        }
+        return regression;
+    }
+
+    /**
+     * Estimate a logistic regression model from the training section
+     * of the specified corpus, visiting the corpus once per epoch.
+     * The corpus supplies pairs consisting of an input vector and an
+     * output category.  Only one block of examples is held in memory
+     * at a time, so memory use does not depend on the size of the
+     * corpus.
+     *
+     * <p>Before training, the corpus is visited once to count the
+     * training instances and determine the number of outcomes and
+     * input dimensions.  The corpus must supply the same examples in
+     * the same order on every visit.
+     *
+     * <p>The parameters and updates are the same as for {@link
+     * #estimate(Vector[],int[],RegressionPrior,int,LogisticRegression,AnnealingSchedule,double,int,int,int,ObjectHandler,Reporter)}
+     * with the examples in the order visited.  See the class
+     * documentation above for information on how convergence is
+     * monitored.
+     *
+     * @param corpus Corpus of input vector and output category pairs.
+     * @param prior The prior to be used for regression.
+     * @param blockSize Number of examples whose gradient is
+     * computed before updating coefficients.
+     * @param hotStart Logistic regression from which to retrieve
+     * initial weights or null to use zero vectors.
+     * @param annealingSchedule Class to compute learning rate for each epoch.
+     * @param minImprovement The minimum relative improvement in
+     * log likelihood for the corpus to continue to another epoch.
+     * @param rollingAverageSize Number of epochs over which to
+     * average objective improvement for monitoring convergence.
+     * @param minEpochs Minimum number of epochs.
+     * @param maxEpochs Maximum number of epochs.
+     * @param handler Handler for intermediate regression results.
+     * @param reporter Reporter to which progress reports are written, or
+     * {@code null} if no progress reports are needed.
+     * @throws IOException If there is an I/O exception visiting the
+     * corpus.
+     * @throws IllegalArgumentException If the corpus does not contain
+     * at least one training instance, if two input vectors have
+     * different dimensions, if the block size is not positive, or if
+     * the prior has a different number of dimensions than the
+     * instances.
+     */
+    public static LogisticRegression
+        estimate(Corpus<ObjectHandler<Pair<Vector,Integer>>> corpus,
+                 RegressionPrior prior,
+
+                 int blockSize,
+                 LogisticRegression hotStart,
+                 AnnealingSchedule annealingSchedule,
+                 double minImprovement,
+                 int rollingAverageSize,
+                 int minEpochs,
+                 int maxEpochs,
+
+                 ObjectHandler<LogisticRegression> handler,
+
+                 Reporter reporter) throws IOException {
+
+        if (reporter == null)
+            reporter = Reporters.silent();
+
+        reporter.info("Streaming Logistic Regression Estimation");
+
+        boolean monitoringConvergence = !Double.isNaN(minImprovement);
+        reporter.info("Monitoring convergence=" + monitoringConvergence);
+        if (minImprovement < 0.0) {
+            String msg = "Min improvement should be Double.NaN to turn off convergence or >= 0.0 otherwise."
+                + " Found minImprovement=" + minImprovement;
+            throw new IllegalArgumentException(msg);
+        }
+        if (blockSize < 1) {
+            String msg = "Block size must be positive."
+                + " Found blockSize=" + blockSize;
+            throw new IllegalArgumentException(msg);
+        }
+
+        reporter.debug("Sizing corpus");
+        CorpusSizer sizer = new CorpusSizer();
+        corpus.visitTrain(sizer);
+        if (sizer.mNumInstances < 1) {
+            String msg = "Require at least one training instance.";
+            reporter.fatal(msg);
+            throw new IllegalArgumentException(msg);
+        }
+        long numTrainingInstances = sizer.mNumInstances;
+        int numOutcomesMinus1 = sizer.mMaxCategory;
+        int numOutcomes = numOutcomesMinus1 + 1;
+        int numDimensions = sizer.mNumDimensions;
+
+        prior.verifyNumberOfDimensions(numDimensions);
+
+        DenseVector[] weightVectors
+            = initialWeightVectors(numOutcomesMinus1,numDimensions,hotStart);
+
+        reportParameters(numDimensions,numOutcomes,numTrainingInstances,prior,
+                         annealingSchedule,minImprovement,minEpochs,maxEpochs,
+                         reporter);
+        reporter.info("Block Size=" + blockSize);
+
+        ConvergenceMonitor monitor = new ConvergenceMonitor(rollingAverageSize);
+        BlockTrainer trainer
+            = new BlockTrainer(blockSize,numOutcomes,numDimensions,
+                               numTrainingInstances,prior);
+        for (int epoch = 0; epoch < maxEpochs; ++epoch) {
+            DenseVector[] weightVectorCopies
+                = annealingSchedule.allowsRejection()
+                ? copy(weightVectors)
+                : weightVectors;
+
+            double learningRate = annealingSchedule.learningRate(epoch);
+            trainer.startEpoch(weightVectors,learningRate);
+            corpus.visitTrain(trainer);
+            trainer.flush();
+            if (trainer.mNumVisited != numTrainingInstances) {
+                String msg = "Corpus must supply same instances each epoch."
+                    + " Found initial count=" + numTrainingInstances
+                    + " epoch=" + epoch
+                    + " count=" + trainer.mNumVisited;
+                throw new IllegalArgumentException(msg);
+            }
+
+            if (handler != null) {
+                reporter.debug("handling regression for epoch");
+                handler.handle(trainer.mRegression);
+            }
+
+            if (!monitoringConvergence) {
+                reporter.info("Unmonitored Epoch=" + epoch);
+                continue;
+            }
+
+            int status = monitor.endEpoch(epoch,learningRate,trainer.mLog2Likelihood,
+                                          prior.log2Prior(weightVectors),
+                                          annealingSchedule,minImprovement,reporter);
+            if (status == ConvergenceMonitor.REJECTED)
+                weightVectors = weightVectorCopies;
+            else if (status == ConvergenceMonitor.CONVERGED)
+                break;
+        }
+        return new LogisticRegression(weightVectors);
+    }
+
+    private static DenseVector[] initialWeightVectors(int numOutcomesMinus1,
+                                                      int numDimensions,
+                                                      LogisticRegression hotStart) {
+        DenseVector[] weightVectors = new DenseVector[numOutcomesMinus1];
+        if (hotStart == null) {
+            for (int k = 0; k < numOutcomesMinus1; ++k)
+                weightVectors[k] = new DenseVector(numDimensions);  // values all 0.0
+        } else {
+            Vector[] hotStartWeightVectors = hotStart.weightVectors();
+            for (int k = 0; k < weightVectors.length; ++k)
+                weightVectors[k] = new DenseVector(hotStartWeightVectors[k]); // deep copy
+        }
+        return weightVectors;
+    }
+
+    private static void reportParameters(int numDimensions, int numOutcomes,
+                                         long numTrainingInstances,
+                                         RegressionPrior prior,
+                                         AnnealingSchedule annealingSchedule,
+                                         double minImprovement,
+                                         int minEpochs, int maxEpochs,
+                                         Reporter reporter) {
+        boolean hasPrior = (prior != null) && !prior.isUniform();
+        reporter.info("Number of dimensions=" + numDimensions);
+        reporter.info("Number of Outcomes=" + numOutcomes);
+        reporter.info("Number of Parameters=" + (numOutcomes-1)*(long)numDimensions);
+        reporter.info("Number of Training Instances=" + numTrainingInstances);
+        reporter.info("Prior=" + prior);
+        reporter.info("Annealing Schedule=" + annealingSchedule);
+        reporter.info("Minimum Epochs=" + minEpochs);
+        reporter.info("Maximum Epochs=" + maxEpochs);
+        reporter.info("Minimum Improvement Per Period=" + minImprovement);
+        reporter.info("Has Informative Prior=" + hasPrior);
+    }
+
+    static class CorpusSizer implements ObjectHandler<Pair<Vector,Integer>> {
+        long mNumInstances = 0L;
+        int mMaxCategory = 0;
+        int mNumDimensions = -1;
+        public void handle(Pair<Vector,Integer> example) {
+            int numDimensions = example.a().numDimensions();
+            if (mNumDimensions < 0) {
+                mNumDimensions = numDimensions;
+            } else if (numDimensions != mNumDimensions) {
+                String msg = "Number of dimensions must match for all input vectors."
+                    + " Found first numDimensions=" + mNumDimensions
+                    + " instance " + mNumInstances
+                    + " numDimensions=" + numDimensions;
+                throw new IllegalArgumentException(msg);
+            }
+            mMaxCategory = Math.max(mMaxCategory,example.b().intValue());
+            ++mNumInstances;
+        }
+    }
+
+    // buffers a block of examples at a time and updates the weights
+    static class BlockTrainer implements ObjectHandler<Pair<Vector,Integer>> {
+        final Vector[] mXs;
+        final int[] mCs;
+        final double[][] mCondProbs;
+        final int mNumOutcomesMinus1;
+        final int mNumDimensions;
+        final long mNumTrainingInstances;
+        final RegressionPrior mPrior;
+        DenseVector[] mWeightVectors;
+        LogisticRegression mRegression;
+        double mLearningRate;
+        int mBlockFill;
+        long mNumVisited;
+        double mLog2Likelihood;
+        BlockTrainer(int blockSize, int numOutcomes, int numDimensions,
+                     long numTrainingInstances, RegressionPrior prior) {
+            mXs = new Vector[blockSize];
+            mCs = new int[blockSize];
+            mCondProbs = new double[blockSize][numOutcomes];
+            mNumOutcomesMinus1 = numOutcomes - 1;
+            mNumDimensions = numDimensions;
+            mNumTrainingInstances = numTrainingInstances;
+            mPrior = prior;
+        }
+        void startEpoch(DenseVector[] weightVectors, double learningRate) {
+            mWeightVectors = weightVectors;
+            mRegression = new LogisticRegression(weightVectors);
+            mLearningRate = learningRate;
+            mBlockFill = 0;
+            mNumVisited = 0L;
+            mLog2Likelihood = 0.0;
+        }
+        public void handle(Pair<Vector,Integer> example) {
+            Vector x = example.a();
+            int c = example.b().intValue();
+            if (x.numDimensions() != mNumDimensions
+                || c < 0 || c > mNumOutcomesMinus1) {
+                String msg = "Instance inconsistent with first pass over corpus."
+                    + " Expected numDimensions=" + mNumDimensions
+                    + " max category=" + mNumOutcomesMinus1
+                    + " Found numDimensions=" + x.numDimensions()
+                    + " category=" + c;
+                throw new IllegalArgumentException(msg);
+            }
+            mXs[mBlockFill] = x;
+            mCs[mBlockFill] = c;
+            ++mNumVisited;
+            if (++mBlockFill == mXs.length)
+                flush();
+        }
+        void flush() {
+            if (mBlockFill == 0) return;
+            mLog2Likelihood
+                += adjustBlock(0,mBlockFill,mXs,mCs,mNumTrainingInstances,
+                               mWeightVectors,mLearningRate,mPrior,
+                               mCondProbs,mRegression,true);
+            Arrays.fill(mXs,0,mBlockFill,null);
+            mBlockFill = 0;
+        }
+    }
+
+    // tracks the objective across epochs to decide on rejection and convergence
+    static class ConvergenceMonitor {
+        static final int ACCEPTED = 0;
+        static final int REJECTED = 1;
+        static final int CONVERGED = 2;
+
+        final double[] mRollingAbsDiffs;
+        int mRollingAveragePosition = 0;
+        double mLastLog2LikelihoodAndPrior = -(Double.MAX_VALUE / 2.0);
+        double mBestLog2LikelihoodAndPrior = Double.NEGATIVE_INFINITY;
+
+        ConvergenceMonitor(int rollingAverageSize) {
+            mRollingAbsDiffs = new double[rollingAverageSize];
+            Arrays.fill(mRollingAbsDiffs,Double.POSITIVE_INFINITY);
+        }
+
+        int endEpoch(int epoch, double learningRate,
+                     double log2Likelihood, double log2Prior,
+                     AnnealingSchedule annealingSchedule,
+                     double minImprovement,
+                     Reporter reporter) {
+
+            double log2LikelihoodAndPrior = log2Likelihood + log2Prior;
+            if (log2LikelihoodAndPrior > mBestLog2LikelihoodAndPrior)
+                mBestLog2LikelihoodAndPrior = log2LikelihoodAndPrior;
+
             if (reporter.isInfoEnabled()) {
                 Formatter formatter = null;
                 try {
@@ -804,7 +1230,7 @@ public class LogisticRegression
                                      log2Likelihood,
                                      log2Prior,
                                      log2LikelihoodAndPrior,
-                                     bestLog2LikelihoodAndPrior);
+                                     mBestLog2LikelihoodAndPrior);
                     reporter.info(formatter.toString());
                 } catch (IllegalFormatException e) {
                     reporter.warn("Illegal format in Logistic Regression");
@@ -817,33 +1243,30 @@ public class LogisticRegression
             boolean acceptUpdate = annealingSchedule.receivedError(epoch,learningRate,-log2LikelihoodAndPrior);
             if (!acceptUpdate) {
                 reporter.info("Annealing rejected update at learningRate=" + learningRate + " error=" + (-log2LikelihoodAndPrior));
-                weightVectors = weightVectorCopies;
-                regression = new LogisticRegression(weightVectors);
-            } else {
-                double relativeAbsDiff
-                    = com.aliasi.util.Math
-                    .relativeAbsoluteDifference(lastLog2LikelihoodAndPrior,log2LikelihoodAndPrior);
-                    
-
-                rollingAbsDiffs[rollingAveragePosition] = relativeAbsDiff;
-                if (++rollingAveragePosition == rollingAbsDiffs.length)
-                    rollingAveragePosition = 0;
-
-                double rollingAvgAbsDiff = Statistics.mean(rollingAbsDiffs);
-                
-                reporter.debug("relativeAbsDiff=" + relativeAbsDiff
-                               + " rollingAvg=" + rollingAvgAbsDiff);
-
-                lastLog2LikelihoodAndPrior = log2LikelihoodAndPrior;
-                
-                if (rollingAvgAbsDiff < minImprovement) {
-                    reporter.info("Converged with Rolling Average Absolute Difference="
-                                  + rollingAvgAbsDiff);
-                    break; // goes to "return regression;"
-                }
+                return REJECTED;
             }
+            double relativeAbsDiff
+                = com.aliasi.util.Math
+                .relativeAbsoluteDifference(mLastLog2LikelihoodAndPrior,log2LikelihoodAndPrior);
+
+            mRollingAbsDiffs[mRollingAveragePosition] = relativeAbsDiff;
+            if (++mRollingAveragePosition == mRollingAbsDiffs.length)
+                mRollingAveragePosition = 0;
+
+            double rollingAvgAbsDiff = Statistics.mean(mRollingAbsDiffs);
+
+            reporter.debug("relativeAbsDiff=" + relativeAbsDiff
+                           + " rollingAvg=" + rollingAvgAbsDiff);
+
+            mLastLog2LikelihoodAndPrior = log2LikelihoodAndPrior;
+
+            if (rollingAvgAbsDiff < minImprovement) {
+                reporter.info("Converged with Rolling Average Absolute Difference="
+                              + rollingAvgAbsDiff);
+                return CONVERGED;
+            }
+            return ACCEPTED;
         }
-        return regression;
     }
 
     /**
@@ -864,10 +1287,15 @@ public class LogisticRegression
                 + " cats.length=" + cats.length;
             throw new IllegalArgumentException(msg);
         }
-        int numTrainingInstances = inputs.length;
+        return log2Likelihood(0,inputs.length,inputs,cats,regression);
+    }
+
+    static double log2Likelihood(int start, int end,
+                                 Vector[] inputs, int[] cats,
+                                 LogisticRegression regression) {
         double log2Likelihood = 0.0;
         double[] conditionalProbs = new double[regression.numOutcomes()];
-        for (int j = 0; j < numTrainingInstances; ++j) {
+        for (int j = start; j < end; ++j) {
             regression.classify(inputs[j],conditionalProbs);
             log2Likelihood += com.aliasi.util.Math.log2(conditionalProbs[cats[j]]);
         }
@@ -876,15 +1304,24 @@ public class LogisticRegression
 
 
 
-    private static void adjustBlock(int start, int end, 
-                                    Vector[] xs, int[] cs,
-                                    DenseVector[] weightVectors,
-                                    double learningRate,
-                                    RegressionPrior prior,
-                                    double[][] conditionalProbs,
-                                    LogisticRegression regression) {
-        for (int j = start; j < end; ++j)
+    // returns log2 likelihood of the block before the update if
+    // computeLikelihood is true, 0.0 otherwise
+    private static double adjustBlock(int start, int end,
+                                      Vector[] xs, int[] cs,
+                                      long numTrainingInstances,
+                                      DenseVector[] weightVectors,
+                                      double learningRate,
+                                      RegressionPrior prior,
+                                      double[][] conditionalProbs,
+                                      LogisticRegression regression,
+                                      boolean computeLikelihood) {
+        double log2Likelihood = 0.0;
+        for (int j = start; j < end; ++j) {
             regression.classify(xs[j],conditionalProbs[j-start]);
+            if (computeLikelihood)
+                log2Likelihood
+                    += com.aliasi.util.Math.log2(conditionalProbs[j-start][cs[j]]);
+        }
         for (int j = start; j < end; ++j)
             for (int k = 0; k < weightVectors.length; ++k)
                 adjustWeightsWithConditionalProbs(weightVectors[k],
@@ -893,7 +1330,8 @@ public class LogisticRegression
                                                   xs[j],k,cs[j]);
         if (prior != null && !prior.isUniform())
             adjustWeightsWithPrior(weightVectors,prior,
-                                   (learningRate*(end-start))/xs.length);
+                                   (learningRate*(end-start))/numTrainingInstances);
+        return log2Likelihood;
     }
 
     private static void adjustWeightsWithPrior(DenseVector[] weightVectors,
@@ -0,0 +1,288 @@
+/*
+ * LingPipe v. 4.1.0
+ * Copyright (C) 2003-2011 Alias-i
+ *
+ * This program is licensed under the Alias-i Royalty Free License
+ * Version 1 WITHOUT ANY WARRANTY, without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the Alias-i
+ * Royalty Free License Version 1 for more details.
+ *
+ * You should have received a copy of the Alias-i Royalty Free License
+ * Version 1 along with this program; if not, visit
+ * http://alias-i.com/lingpipe/licenses/lingpipe-license-1.txt or contact
+ * Alias-i, Inc. at 181 North 11th Street, Suite 401, Brooklyn, NY 11211,
+ * +1 (718) 290-9170.
+ */
+
+package com.aliasi.symbol;
+
+import com.aliasi.util.AbstractExternalizable;
+
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.io.Serializable;
+
+/**
+ * A {@code HashSymbolTable} implements the hashing trick for
+ * features, mapping symbols to identifiers by hashing rather than
+ * storing them.  A hash symbol table takes a fixed, small amount of
+ * memory regardless of how many symbols it is used for, and symbol
+ * lookup requires only computing a hash of the symbol's characters.
+ *
+ * <h3>Identifiers</h3>
+ *
+ * <p>A hash symbol table with {@code numBits} bits maps every symbol
+ * to an identifier between 1 and <code>2<sup>numBits</sup></code>
+ * inclusive, by taking the low-order bits of a 32-bit MurmurHash3
+ * hash of the symbol's characters and adding one.  The identifier 0
+ * is never returned for a symbol, which leaves it free for the
+ * intercept feature used by classes such as {@link
+ * com.aliasi.classify.LogisticRegressionClassifier} and {@link
+ * com.aliasi.crf.ChainCrf}.  The number of symbols is thus
+ * <code>2<sup>numBits</sup> + 1</code>.
+ *
+ * <p>Every symbol is in the table, so {@link #symbolToID(String)}
+ * never returns {@code -1}, and {@link #getOrAddSymbol(String)}
+ * returns the same result without modifying the table.  Different
+ * symbols may collide on the same identifier.  Because symbols are
+ * not stored, {@link #idToSymbol(int)} returns a synthetic symbol
+ * consisting of {@code #} followed by the identifier.  Symbols may
+ * not be removed.
+ *
+ * <h3>Signed Hashing</h3>
+ *
+ * <p>If the table is signed, the high-order bit of the hash assigns
+ * each symbol a sign, returned by {@link #signedSymbolToID(String)}.
+ * {@link com.aliasi.features.Features} and {@link
+ * com.aliasi.features.FeatureVectorBuffer} multiply feature values
+ * by their signs when converting features to vectors with a signed
+ * hash symbol table, so that collisions cancel in expectation rather
+ * than accumulate (Weinberger et al. 2009).  Values of features that
+ * collide are summed in either case.
+ *
+ * <h3>Serialization</h3>
+ *
+ * <p>A hash symbol table is serializable.  Only the number of bits
+ * and the sign flag are written.
+ *
+ * <h3>References</h3>
+ *
+ * <ul>
+ * <li>Weinberger, K., A. Dasgupta, J. Langford, A. Smola and
+ * J. Attenberg.  2009.  Feature hashing for large scale multitask
+ * learning.  <i>ICML</i>.</li>
+ * </ul>
+ *
+ * @author  Bob Carpenter
+ * @version 4.1.0
+ * @since   LingPipe4.1.0
+ */
+public class HashSymbolTable implements SymbolTable, Serializable {
+
+    static final long serialVersionUID = 7520960215623398741L;
+
+    private final int mNumBits;
+    private final boolean mSigned;
+    private final int mMask;
+
+    /**
+     * Construct a hash symbol table with the specified number of
+     * bits, with signed hashing if the specified flag is true.
+     *
+     * @param numBits Number of bits of the hash to use.
+     * @param signed Flag indicating whether symbols are assigned signs.
+     * @throws IllegalArgumentException If the number of bits is not
+     * between 1 and 30 inclusive.
+     */
+    public HashSymbolTable(int numBits, boolean signed) {
+        if (numBits < 1 || numBits > MAX_NUM_BITS) {
+            String msg = "Number of bits must be between 1 and " + MAX_NUM_BITS + "."
+                + " Found numBits=" + numBits;
+            throw new IllegalArgumentException(msg);
+        }
+        mNumBits = numBits;
+        mSigned = signed;
+        mMask = (1 << numBits) - 1;
+    }
+
+    /**
+     * Returns the number of bits of the hash used by this table.
+     *
+     * @return Number of bits.
+     */
+    public int numBits() {
+        return mNumBits;
+    }
+
+    /**
+     * Returns {@code true} if this table assigns signs to symbols.
+     *
+     * @return Whether this table is signed.
+     */
+    public boolean signed() {
+        return mSigned;
+    }
+
+    /**
+     * Returns the identifier for the specified symbol, which is
+     * always between 1 and <code>2<sup>numBits</sup></code>.
+     *
+     * @param symbol Symbol whose identifier is returned.
+     * @return Identifier for the symbol.
+     */
+    public int symbolToID(String symbol) {
+        return (hash(symbol) & mMask) + 1;
+    }
+
+    /**
+     * Returns the identifier for the specified symbol, negated if the
+     * table is signed and the symbol's sign is negative.  This allows
+     * the identifier and sign to be computed with a single hash.
+     *
+     * @param symbol Symbol whose signed identifier is returned.
+     * @return Identifier for the symbol, negated if its sign is
+     * negative.
+     */
+    public int signedSymbolToID(String symbol) {
+        int hash = hash(symbol);
+        int id = (hash & mMask) + 1;
+        return (mSigned && hash < 0) ? -id : id;
+    }
+
+    /**
+     * Returns a synthetic symbol for the specified identifier,
+     * consisting of {@code #} followed by the identifier.
+     *
+     * @param id Identifier.
+     * @return Synthetic symbol for identifier.
+     * @throws IndexOutOfBoundsException If the identifier is negative
+     * or not less than the number of symbols.
+     */
+    public String idToSymbol(int id) {
+        if (id < 0 || id >= numSymbols()) {
+            String msg = "Identifier out of range."
+                + " Found id=" + id
+                + " numSymbols()=" + numSymbols();
+            throw new IndexOutOfBoundsException(msg);
+        }
+        return "#" + id;
+    }
+
+    /**
+     * Returns the number of identifiers for this table,
+     * <code>2<sup>numBits</sup> + 1</code>, including the
+     * reserved identifier 0.
+     *
+     * @return Number of identifiers.
+     */
+    public int numSymbols() {
+        return mMask + 2;
+    }
+
+    /**
+     * Returns the identifier for the specified symbol.  This is the
+     * same as {@link #symbolToID(String)}; the table is not modified.
+     *
+     * @param symbol Symbol whose identifier is returned.
+     * @return Identifier for the symbol.
+     */
+    public int getOrAddSymbol(String symbol) {
+        return symbolToID(symbol);
+    }
+
+    /**
+     * Throws an unsupported operation exception.
+     *
+     * @param symbol Ignored.
+     * @return Never returns.
+     * @throws UnsupportedOperationException Always.
+     */
+    public int removeSymbol(String symbol) {
+        String msg = "Cannot remove symbols from a hash symbol table.";
+        throw new UnsupportedOperationException(msg);
+    }
+
+    /**
+     * Throws an unsupported operation exception.
+     *
+     * @throws UnsupportedOperationException Always.
+     */
+    public void clear() {
+        String msg = "Cannot clear a hash symbol table.";
+        throw new UnsupportedOperationException(msg);
+    }
+
+    /**
+     * Returns a string-based representation of this table.
+     *
+     * @return String representation of this table.
+     */
+    @Override
+    public String toString() {
+        return "HashSymbolTable(numBits=" + mNumBits
+            + ", signed=" + mSigned + ")";
+    }
+
+    Object writeReplace() {
+        return new Externalizer(this);
+    }
+
+    // MurmurHash3 x86_32 over the UTF-16 chars, two chars per block
+    static int hash(String symbol) {
+        int h = SEED;
+        int length = symbol.length();
+        int i = 0;
+        for ( ; i + 1 < length; i += 2) {
+            int k = symbol.charAt(i) | (symbol.charAt(i+1) << 16);
+            h ^= mixK(k);
+            h = Integer.rotateLeft(h,13);
+            h = h * 5 + 0xe6546b64;
+        }
+        if (i < length)
+            h ^= mixK(symbol.charAt(i));
+        h ^= 2 * length;
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    private static int mixK(int k) {
+        k *= 0xcc9e2d51;
+        k = Integer.rotateLeft(k,15);
+        return k * 0x1b873593;
+    }
+
+    static final int SEED = 0x9747b28c;
+
+    /**
+     * The maximum number of bits for a hash symbol table, 30.
+     */
+    public static final int MAX_NUM_BITS = 30;
+
+    static class Externalizer extends AbstractExternalizable {
+        static final long serialVersionUID = -4315580281768612170L;
+        final HashSymbolTable mTable;
+        public Externalizer() {
+            this(null);
+        }
+        public Externalizer(HashSymbolTable table) {
+            mTable = table;
+        }
+        @Override
+        public void writeExternal(ObjectOutput out) throws IOException {
+            out.writeInt(mTable.mNumBits);
+            out.writeBoolean(mTable.mSigned);
+        }
+        @Override
+        public Object read(ObjectInput in) throws IOException {
+            int numBits = in.readInt();
+            boolean signed = in.readBoolean();
+            return new HashSymbolTable(numBits,signed);
+        }
+    }
+
+}
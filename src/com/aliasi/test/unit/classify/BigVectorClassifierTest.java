@@ -5,6 +5,8 @@ import com.aliasi.classify.ScoredClassification;
 import com.aliasi.matrix.Vector;
 import com.aliasi.matrix.SparseFloatVector;
 import com.aliasi.util.AbstractExternalizable;
+import com.aliasi.util.BoundedPriorityQueue;
+import com.aliasi.util.ScoredObject;
 
 import org.junit.Test;
 
@@ -14,7 +16,9 @@ import static org.junit.Assert.assertNotNull;
 import java.io.IOException;
 
 import java.util.HashSet;
+import java.util.Random;
 import java.util.Set;
+import java.util.TreeMap;
 
 
 public class BigVectorClassifierTest {
@@ -53,6 +57,98 @@ public class BigVectorClassifierTest {
         assertAsExpected(c2);
     }
 
+    @Test
+    public void testPruningMatchesExhaustive()
+        throws IOException, ClassNotFoundException {
+
+        Random random = new Random(77);
+        for (int trial = 0; trial < 20; ++trial) {
+            int numTerms = 1 + random.nextInt(30);
+            int numDocs = 1 + random.nextInt(2000);
+            // small integers produce many ties
+            boolean integral = trial % 2 == 0;
+            Vector[] termVectors = new Vector[numTerms];
+            for (int t = 0; t < numTerms; ++t)
+                termVectors[t] = randomVector(random,numDocs,
+                                              random.nextDouble(),integral);
+            int maxResults = 1 + random.nextInt(15);
+            BigVectorClassifier classifier
+                = new BigVectorClassifier(termVectors,maxResults);
+            BigVectorClassifier classifier2
+                = (BigVectorClassifier)
+                AbstractExternalizable.serializeDeserialize(classifier);
+            for (int k = 0; k < 10; ++k) {
+                // some dimensions beyond the number of terms
+                Vector x = randomVector(random,numTerms + 3,0.3,integral);
+                ScoredClassification expected
+                    = exhaustive(termVectors,x,maxResults);
+                if (expected == null) continue; // empty unsupported
+                assertSameClassification(expected,classifier.classify(x));
+                assertSameClassification(expected,classifier2.classify(x));
+            }
+        }
+    }
+
+    static Vector randomVector(Random random, int numDims, double density,
+                               boolean integral) {
+        TreeMap<Integer,Float> map = new TreeMap<Integer,Float>();
+        for (int d = 0; d < numDims; ++d)
+            if (random.nextDouble() < density)
+                map.put(d,integral
+                        ? (float) (random.nextInt(7) - 2)
+                        : (float) random.nextGaussian());
+        int[] keys = new int[map.size()];
+        float[] values = new float[map.size()];
+        int i = 0;
+        for (Integer key : map.keySet()) {
+            keys[i] = key;
+            values[i] = map.get(key);
+            ++i;
+        }
+        return new SparseFloatVector(keys,values,numDims);
+    }
+
+    // scores every doc in some posting list in increasing doc order,
+    // returning null if there are none
+    static ScoredClassification exhaustive(Vector[] termVectors, Vector x,
+                                           int maxResults) {
+        TreeMap<Integer,Double> scores = new TreeMap<Integer,Double>();
+        for (int term : x.nonZeroDimensions()) {
+            if (term >= termVectors.length) continue;
+            float value = (float) x.value(term);
+            for (int doc : termVectors[term].nonZeroDimensions()) {
+                Double score = scores.get(doc);
+                double product = value * (float) termVectors[term].value(doc);
+                scores.put(doc,(score == null ? 0.0 : score) + product);
+            }
+        }
+        if (scores.isEmpty())
+            return null;
+        BoundedPriorityQueue<ScoredObject<Integer>> queue
+            = new BoundedPriorityQueue<ScoredObject<Integer>>(ScoredObject.comparator(),
+                                                              maxResults);
+        for (Integer doc : scores.keySet())
+            queue.offer(new ScoredObject<Integer>(doc,scores.get(doc)));
+        String[] categories = new String[queue.size()];
+        double[] topScores = new double[queue.size()];
+        int i = 0;
+        for (ScoredObject<Integer> so : queue) {
+            categories[i] = Integer.toString(so.getObject());
+            topScores[i] = so.score();
+            ++i;
+        }
+        return new ScoredClassification(categories,topScores);
+    }
+
+    static void assertSameClassification(ScoredClassification expected,
+                                         ScoredClassification found) {
+        assertEquals(expected.size(),found.size());
+        for (int i = 0; i < expected.size(); ++i) {
+            assertEquals(expected.category(i),found.category(i));
+            assertEquals(expected.score(i),found.score(i),0.0);
+        }
+    }
+
     void assertAsExpected(ScoredClassification c) {
         assertNotNull(c);
         // System.out.println("c=" + c);
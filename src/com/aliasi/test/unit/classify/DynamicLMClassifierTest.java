@@ -1,6 +1,7 @@
 package com.aliasi.test.unit.classify;
 
 import com.aliasi.classify.DynamicLMClassifier;
+import com.aliasi.classify.JointClassification;
 import com.aliasi.classify.LMClassifier;
 
 import com.aliasi.stats.MultivariateEstimator;
@@ -21,6 +22,11 @@ import java.io.File;
 import com.aliasi.util.Files;
 import com.aliasi.util.Strings;
 
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
 
 public class DynamicLMClassifierTest  {
 
@@ -103,4 +109,164 @@ public class DynamicLMClassifierTest  {
     }
 
 
+    @Test
+    public void testParallel() throws IOException, ClassNotFoundException {
+        DynamicLMClassifier classifier = randomClassifier(10);
+        LMClassifier compiledClassifier
+            = (LMClassifier) AbstractExternalizable.compile(classifier);
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            Random random = new Random(42);
+            for (int k = 0; k < 20; ++k) {
+                String test = randomString(random,k * 17);
+                assertSameClassification(classifier,test,executor);
+                assertSameClassification(compiledClassifier,test,executor);
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    void assertSameClassification(LMClassifier classifier, String test,
+                                  ExecutorService executor) {
+        classifier.setExecutor(null);
+        JointClassification expected = classifier.classify(test);
+        classifier.setExecutor(executor);
+        JointClassification found = classifier.classify(test);
+        classifier.setExecutor(null);
+        assertEquals(expected.size(),found.size());
+        for (int rank = 0; rank < expected.size(); ++rank) {
+            assertEquals(expected.category(rank),found.category(rank));
+            assertEquals(expected.jointLog2Probability(rank),
+                         found.jointLog2Probability(rank),0.0);
+        }
+    }
+
+    @Test
+    public void testPrune() throws IOException, ClassNotFoundException {
+        DynamicLMClassifier classifier = randomClassifier(8);
+        LMClassifier compiledClassifier
+            = (LMClassifier) AbstractExternalizable.compile(classifier);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Random random = new Random(7);
+            for (int k = 0; k < 10; ++k) {
+                String test = randomString(random,50 + k * 100);
+                assertPruned(classifier,test,null);
+                assertPruned(classifier,test,executor);
+                assertPruned(compiledClassifier,test,executor);
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    void assertPruned(LMClassifier classifier, String test,
+                      ExecutorService executor) {
+        JointClassification expected = classifier.classify(test);
+        classifier.setExecutor(executor);
+        classifier.setPruneThreshold(20.0);
+        JointClassification found = classifier.classify(test);
+        classifier.setPruneThreshold(Double.POSITIVE_INFINITY);
+        classifier.setExecutor(null);
+        assertEquals(expected.bestCategory(),found.bestCategory());
+        assertEquals(expected.jointLog2Probability(0),
+                     found.jointLog2Probability(0),0.0001);
+        for (int rank = 1; rank < found.size(); ++rank) {
+            double log2P = found.jointLog2Probability(rank);
+            assertTrue(log2P == Double.NEGATIVE_INFINITY
+                       || Math.abs(log2P - jointLog2Probability(expected,found.category(rank))) < 0.0001);
+        }
+    }
+
+    @Test
+    public void testPruneAll() {
+        DynamicLMClassifier classifier
+            = DynamicLMClassifier.createNGramProcess(new String[] { "a", "b" },3);
+        classifier.train("a","aaaaaaaaaa",10);
+        classifier.train("b","bbbbbbbbbb",10);
+        classifier.setPruneThreshold(5.0);
+        char[] cs = new char[LMClassifier.PRUNE_BLOCK_SIZE * 2];
+        Arrays.fill(cs,'a');
+        String test = new String(cs);
+        JointClassification c = classifier.classify(test);
+        assertEquals("a",c.bestCategory());
+        assertEquals(Double.NEGATIVE_INFINITY,c.jointLog2Probability(1),0.0);
+        assertEquals(0.0,c.conditionalProbability(1),0.0);
+    }
+
+    @Test
+    public void testMerged() throws IOException, ClassNotFoundException {
+        DynamicLMClassifier classifier = randomClassifier(12);
+        LMClassifier compiledClassifier
+            = (LMClassifier) AbstractExternalizable.compile(classifier);
+        Random random = new Random(5);
+        for (int k = 0; k < 20; ++k) {
+            String test = randomString(random,k * 23);
+            JointClassification expected = compiledClassifier.classify(test);
+            compiledClassifier.setMergedScoring(true);
+            assertTrue(compiledClassifier.mergedScoring());
+            JointClassification found = compiledClassifier.classify(test);
+            compiledClassifier.setMergedScoring(false);
+            assertEquals(expected.bestCategory(),found.bestCategory());
+            for (int rank = 0; rank < found.size(); ++rank)
+                assertEquals(jointLog2Probability(expected,found.category(rank)),
+                             found.jointLog2Probability(rank),0.001);
+        }
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testMergedExc() {
+        DynamicLMClassifier.createNGramProcess(new String[] { "a", "b" },3)
+            .setMergedScoring(true);
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testPruneThresholdExc() {
+        DynamicLMClassifier.createNGramProcess(new String[] { "a", "b" },3)
+            .setPruneThreshold(0.0);
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testPruneThresholdNaNExc() {
+        DynamicLMClassifier.createNGramProcess(new String[] { "a", "b" },3)
+            .setPruneThreshold(Double.NaN);
+    }
+
+    static double jointLog2Probability(JointClassification c, String category) {
+        for (int rank = 0; rank < c.size(); ++rank)
+            if (c.category(rank).equals(category))
+                return c.jointLog2Probability(rank);
+        return Double.NaN;
+    }
+
+    static DynamicLMClassifier randomClassifier(int numCategories) {
+        String[] categories = new String[numCategories];
+        for (int i = 0; i < numCategories; ++i)
+            categories[i] = "cat" + i;
+        DynamicLMClassifier classifier
+            = DynamicLMClassifier.createNGramProcess(categories,4);
+        Random random = new Random(numCategories);
+        for (int i = 0; i < numCategories; ++i) {
+            // skew each category towards its own letters
+            StringBuilder sb = new StringBuilder();
+            for (int j = 0; j < 2000; ++j)
+                sb.append(random.nextInt(3) == 0
+                          ? (char) ('a' + random.nextInt(26))
+                          : (char) ('a' + (i * 3 + random.nextInt(3)) % 26));
+            classifier.train(categories[i],sb,1);
+        }
+        return classifier;
+    }
+
+    static String randomString(Random random, int length) {
+        char[] cs = new char[length];
+        int category = random.nextInt(8);
+        for (int i = 0; i < length; ++i)
+            cs[i] = (char) ('a' + (random.nextBoolean()
+                                   ? category * 3 + random.nextInt(3)
+                                   : random.nextInt(26)) % 26);
+        return new String(cs);
+    }
+
 }
@@ -2,6 +2,7 @@ package com.aliasi.test.unit.classify;
 
 import com.aliasi.classify.Classification;
 import com.aliasi.classify.Classified;
+import com.aliasi.classify.ConditionalClassification;
 import com.aliasi.classify.LogisticRegressionClassifier;
 
 import com.aliasi.corpus.XValidatingObjectCorpus;
@@ -9,9 +10,12 @@ import com.aliasi.corpus.XValidatingObjectCorpus;
 import com.aliasi.stats.AnnealingSchedule;
 import com.aliasi.stats.RegressionPrior;
 
+import com.aliasi.symbol.HashSymbolTable;
+
 import com.aliasi.tokenizer.TokenFeatureExtractor;
 import com.aliasi.tokenizer.RegExTokenizerFactory;
 
+import com.aliasi.util.AbstractExternalizable;
 import com.aliasi.util.FeatureExtractor;
 
 import org.junit.Test;
@@ -19,6 +23,7 @@ import org.junit.Test;
 import static junit.framework.Assert.assertEquals;
 
 
+import java.io.File;
 import java.io.IOException;
 
 import java.util.Random;
@@ -116,6 +121,146 @@ public class LogisticRegressionClassifierTest  {
         
     }
 
+    @Test
+    public void testStreaming() throws IOException {
+        XValidatingObjectCorpus<Classified<CharSequence>> corpus
+            = new XValidatingObjectCorpus<Classified<CharSequence>>(5);
+        for (int j = 0; j < 3; ++j) {
+            Classification c = new Classification("cat_" + ((char)('a' + j)));
+            for (int i = 0; i < 40; ++i)
+                corpus.handle(new Classified<CharSequence>(generateExample(j),c));
+        }
+        corpus.permuteCorpus(new Random(42));
+
+        FeatureExtractor<CharSequence> featureExtractor
+            = new  TokenFeatureExtractor(new RegExTokenizerFactory("\\S+"));
+        RegressionPrior prior = RegressionPrior.gaussian(2.0,true);
+        AnnealingSchedule annealingSchedule
+            = AnnealingSchedule.inverse(0.01,100);
+        int blockSize = 7;
+        double minImprovement = Double.NaN; // fixed number of epochs
+        int maxEpochs = 5;
+
+        LogisticRegressionClassifier<CharSequence> classifier
+            = LogisticRegressionClassifier.train(corpus,featureExtractor,2,true,
+                                                 prior,blockSize,null,
+                                                 annealingSchedule,minImprovement,
+                                                 5,1,maxEpochs,null,null);
+        LogisticRegressionClassifier<CharSequence> streamed
+            = LogisticRegressionClassifier.trainStreaming(corpus,featureExtractor,2,true,
+                                                          prior,blockSize,null,
+                                                          annealingSchedule,minImprovement,
+                                                          5,1,maxEpochs,null,null,null);
+        File spillFile = File.createTempFile("lr-spill",".bin");
+        try {
+            LogisticRegressionClassifier<CharSequence> spilled
+                = LogisticRegressionClassifier.trainStreaming(corpus,featureExtractor,2,true,
+                                                              prior,blockSize,null,
+                                                              annealingSchedule,minImprovement,
+                                                              5,1,maxEpochs,null,spillFile,null);
+            for (int j = 0; j < 3; ++j) {
+                for (int i = 0; i < 5; ++i) {
+                    StringBuilder sb = generateExample(j);
+                    assertSameClassification(classifier.classify(sb),
+                                             streamed.classify(sb));
+                    assertSameClassification(classifier.classify(sb),
+                                             spilled.classify(sb));
+                }
+            }
+        } finally {
+            spillFile.delete();
+        }
+    }
+
+    @Test
+    public void testStreamingConverges() throws IOException {
+        XValidatingObjectCorpus<Classified<CharSequence>> corpus
+            = new XValidatingObjectCorpus<Classified<CharSequence>>(5);
+        for (int j = 0; j < 4; ++j) {
+            Classification c = new Classification("cat_" + ((char)('a' + j)));
+            for (int i = 0; i < 50; ++i)
+                corpus.handle(new Classified<CharSequence>(generateExample(j),c));
+        }
+        corpus.permuteCorpus(new Random(7));
+
+        FeatureExtractor<CharSequence> featureExtractor
+            = new  TokenFeatureExtractor(new RegExTokenizerFactory("\\S+"));
+        LogisticRegressionClassifier<CharSequence> classifier
+            = LogisticRegressionClassifier
+            .trainStreaming(corpus,featureExtractor,2,true,
+                            RegressionPrior.noninformative(),-1,null,
+                            AnnealingSchedule.inverse(0.01,500),
+                            0.001,5,2,10000,null,null,null);
+        for (int j = 0; j < 4; ++j) {
+            String category = "cat_" + ((char)('a' + j));
+            for (int i = 0; i < 10; ++i)
+                assertEquals(category,
+                             classifier.classify(generateExample(j)).bestCategory());
+        }
+    }
+
+    @Test
+    public void testHashed() throws IOException, ClassNotFoundException {
+        XValidatingObjectCorpus<Classified<CharSequence>> corpus
+            = new XValidatingObjectCorpus<Classified<CharSequence>>(5);
+        for (int j = 0; j < 4; ++j) {
+            Classification c = new Classification("cat_" + ((char)('a' + j)));
+            for (int i = 0; i < 50; ++i)
+                corpus.handle(new Classified<CharSequence>(generateExample(j),c));
+        }
+        corpus.permuteCorpus(new Random(11));
+
+        FeatureExtractor<CharSequence> featureExtractor
+            = new  TokenFeatureExtractor(new RegExTokenizerFactory("\\S+"));
+        HashSymbolTable table = new HashSymbolTable(10,true);
+        LogisticRegressionClassifier<CharSequence> classifier
+            = LogisticRegressionClassifier
+            .trainHashed(corpus,featureExtractor,table,true,
+                         RegressionPrior.noninformative(),-1,null,
+                         AnnealingSchedule.inverse(0.01,500),
+                         0.001,5,2,10000,null,null);
+        assertEquals(table.numSymbols(),
+                     classifier.model().numInputDimensions());
+
+        @SuppressWarnings("unchecked")
+        LogisticRegressionClassifier<CharSequence> classifier2
+            = (LogisticRegressionClassifier<CharSequence>)
+            AbstractExternalizable.serializeDeserialize(classifier);
+        for (int j = 0; j < 4; ++j) {
+            String category = "cat_" + ((char)('a' + j));
+            for (int i = 0; i < 10; ++i) {
+                StringBuilder sb = generateExample(j);
+                ConditionalClassification c = classifier.classify(sb);
+                assertEquals(category,c.bestCategory());
+                assertSameClassification(c,classifier2.classify(sb));
+            }
+        }
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testStreamingEmptyExc() throws IOException {
+        XValidatingObjectCorpus<Classified<CharSequence>> corpus
+            = new XValidatingObjectCorpus<Classified<CharSequence>>(2);
+        FeatureExtractor<CharSequence> featureExtractor
+            = new  TokenFeatureExtractor(new RegExTokenizerFactory("\\S+"));
+        LogisticRegressionClassifier
+            .trainStreaming(corpus,featureExtractor,1,true,
+                            RegressionPrior.noninformative(),-1,null,
+                            AnnealingSchedule.inverse(0.01,500),
+                            0.001,5,2,10,null,null,null);
+    }
+
+    static void assertSameClassification(ConditionalClassification expected,
+                                         ConditionalClassification found) {
+        assertEquals(expected.size(),found.size());
+        for (int rank = 0; rank < expected.size(); ++rank) {
+            assertEquals(expected.category(rank),found.category(rank));
+            assertEquals(expected.conditionalProbability(rank),
+                         found.conditionalProbability(rank),
+                         0.000001);
+        }
+    }
+
     static StringBuilder generateExample(int j) {
         Random random = new Random();
         StringBuilder sb = new StringBuilder();
@@ -1,17 +1,24 @@
 package com.aliasi.test.unit.cluster;
 
 import com.aliasi.cluster.LatentDirichletAllocation;
+import com.aliasi.cluster.LatentDirichletAllocation.GibbsSample;
+
+import com.aliasi.corpus.ObjectHandler;
 
 import com.aliasi.util.AbstractExternalizable;
 
 import org.junit.Test;
 
 import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
 
 import java.io.IOException;
 
 import java.util.Random;
 
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
 public class LatentDirichletAllocationTest  {
 
 
@@ -171,4 +178,243 @@ public class LatentDirichletAllocationTest  {
     }
 
 
+    @Test
+    public void testSparseSamplerCounts() {
+        Random random = new Random(5);
+        int[][] docWords = randomCorpus(random,40,30,25);
+        GibbsSample sample
+            = LatentDirichletAllocation
+            .sparseGibbsSampler(docWords,(short)12,0.1,0.01,
+                                5,2,3,random,null);
+        assertEquals(9,sample.epoch());
+        assertCountsConsistent(sample);
+    }
+
+    @Test
+    public void testSparseSamplerSeparatesTopics() {
+        // words 0-4 only in even docs, 5-9 only in odd docs
+        Random random = new Random(17);
+        int[][] docWords = new int[20][50];
+        for (int doc = 0; doc < docWords.length; ++doc)
+            for (int tok = 0; tok < docWords[doc].length; ++tok)
+                docWords[doc][tok] = random.nextInt(5) + (doc % 2) * 5;
+        GibbsSample sample
+            = LatentDirichletAllocation
+            .sparseGibbsSampler(docWords,(short)2,0.1,0.01,
+                                100,1,1,random,null);
+        assertCountsConsistent(sample);
+        for (int doc = 0; doc < docWords.length; ++doc) {
+            int topic = sample.topicSample(doc,0);
+            assertEquals(docWords[doc].length,
+                         sample.documentTopicCount(doc,topic));
+            assertEquals(doc % 2 == 0,
+                         topic == sample.topicSample(0,0));
+        }
+    }
+
+    @Test
+    public void testSparseSamplerMatchesDense() {
+        // compares posterior co-assignment frequencies of the two chains
+        int[][] docWords = new int[][] { { 0, 1, 0 }, { 1, 2 }, { 2, 2, 0, 3 } };
+        int numEpochs = 20000;
+        CoAssignmentCounter dense = new CoAssignmentCounter();
+        LatentDirichletAllocation
+            .gibbsSampler(docWords,(short)3,0.5,0.1,
+                          10,1,numEpochs,new Random(1),dense);
+        CoAssignmentCounter sparse = new CoAssignmentCounter();
+        LatentDirichletAllocation
+            .sparseGibbsSampler(docWords,(short)3,0.5,0.1,
+                                10,1,numEpochs,new Random(2),sparse);
+        for (int k = 0; k < dense.mCounts.length; ++k)
+            assertEquals(dense.mCounts[k] / (double) numEpochs,
+                         sparse.mCounts[k] / (double) numEpochs,
+                         0.03);
+    }
+
+    @Test
+    public void testParallelSampler() {
+        int[][] docWords = randomCorpus(new Random(3),50,40,30);
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            GibbsSample sample
+                = LatentDirichletAllocation
+                .parallelGibbsSampler(docWords,(short)8,0.1,0.01,
+                                      5,2,3,new Random(11),executor,3,null);
+            assertEquals(9,sample.epoch());
+            assertCountsConsistent(sample);
+
+            // same samples with or without executor
+            GibbsSample sample2
+                = LatentDirichletAllocation
+                .parallelGibbsSampler(docWords,(short)8,0.1,0.01,
+                                      5,2,3,new Random(11),null,3,null);
+            for (int doc = 0; doc < docWords.length; ++doc)
+                for (int tok = 0; tok < docWords[doc].length; ++tok)
+                    assertEquals(sample.topicSample(doc,tok),
+                                 sample2.topicSample(doc,tok));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testParallelSamplerMoreWorkersThanDocs() {
+        int[][] docWords = new int[][] { { 0, 1 }, { 1, 2, 2 } };
+        GibbsSample sample
+            = LatentDirichletAllocation
+            .parallelGibbsSampler(docWords,(short)2,0.1,0.01,
+                                  3,1,1,new Random(5),null,8,null);
+        assertCountsConsistent(sample);
+    }
+
+    @Test
+    public void testParallelSamplerSeparatesTopics() {
+        Random random = new Random(17);
+        int[][] docWords = new int[20][50];
+        for (int doc = 0; doc < docWords.length; ++doc)
+            for (int tok = 0; tok < docWords[doc].length; ++tok)
+                docWords[doc][tok] = random.nextInt(5) + (doc % 2) * 5;
+        GibbsSample sample
+            = LatentDirichletAllocation
+            .parallelGibbsSampler(docWords,(short)2,0.1,0.01,
+                                  100,1,1,random,null,4,null);
+        assertCountsConsistent(sample);
+        for (int doc = 0; doc < docWords.length; ++doc) {
+            int topic = sample.topicSample(doc,0);
+            assertEquals(docWords[doc].length,
+                         sample.documentTopicCount(doc,topic));
+            assertEquals(doc % 2 == 0,
+                         topic == sample.topicSample(0,0));
+        }
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testParallelSamplerWorkersExc() {
+        LatentDirichletAllocation
+            .parallelGibbsSampler(new int[][] { { 0 } },(short)2,0.1,0.01,
+                                  1,1,1,new Random(),null,0,null);
+    }
+
+    @Test
+    public void testBayesTopicEstimateMatchesSamples() {
+        LatentDirichletAllocation lda = randomLda(new Random(21),4,12);
+        int[] tokens = new int[] { 0, 3, 3, 7, 11, 2, 5, 5, 5 };
+        short[][] samples = lda.sampleTopics(tokens,4,3,2,new Random(8));
+        double[] expected = new double[4];
+        for (short[] sample : samples)
+            for (int tok = 0; tok < sample.length; ++tok)
+                expected[sample[tok]] += 1.0 / (samples.length * tokens.length);
+        double[] estimate = lda.bayesTopicEstimate(tokens,4,3,2,new Random(8));
+        for (int topic = 0; topic < 4; ++topic)
+            assertEquals(expected[topic],estimate[topic],1e-12);
+    }
+
+    @Test
+    public void testBayesTopicEstimates() {
+        LatentDirichletAllocation lda = randomLda(new Random(4),5,30);
+        int[][] docWords = randomCorpus(new Random(6),40,25,30);
+        docWords[7] = new int[0];
+
+        Random seeds = new Random(13);
+        double[][] expected = new double[docWords.length][];
+        for (int doc = 0; doc < docWords.length; ++doc)
+            expected[doc] = lda.bayesTopicEstimate(docWords[doc],3,5,2,
+                                                   new Random(seeds.nextLong()));
+
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            double[][] estimates
+                = lda.bayesTopicEstimates(docWords,3,5,2,new Random(13),executor,3);
+            double[][] estimates2
+                = lda.bayesTopicEstimates(docWords,3,5,2,new Random(13),null,7);
+            assertEquals(docWords.length,estimates.length);
+            for (int doc = 0; doc < docWords.length; ++doc) {
+                assertEquals(5,estimates[doc].length);
+                for (int topic = 0; topic < 5; ++topic) {
+                    assertEquals(expected[doc][topic],estimates[doc][topic],0.0);
+                    assertEquals(expected[doc][topic],estimates2[doc][topic],0.0);
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testBayesTopicEstimatesEmpty() {
+        LatentDirichletAllocation lda = randomLda(new Random(4),3,5);
+        assertEquals(0,lda.bayesTopicEstimates(new int[0][],1,1,1,
+                                               new Random(),null,2).length);
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testBayesTopicEstimatesWorkersExc() {
+        LatentDirichletAllocation lda = randomLda(new Random(4),3,5);
+        lda.bayesTopicEstimates(new int[][] { { 0 } },1,1,1,new Random(),null,0);
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testBayesTopicEstimatesLagExc() {
+        LatentDirichletAllocation lda = randomLda(new Random(4),3,5);
+        lda.bayesTopicEstimates(new int[][] { { 0 } },1,1,0,new Random(),null,1);
+    }
+
+    static LatentDirichletAllocation randomLda(Random random, int numTopics,
+                                               int numWords) {
+        double[][] topicWordProbs = new double[numTopics][numWords];
+        for (int topic = 0; topic < numTopics; ++topic) {
+            double sum = 0.0;
+            for (int word = 0; word < numWords; ++word)
+                sum += (topicWordProbs[topic][word] = random.nextDouble());
+            for (int word = 0; word < numWords; ++word)
+                topicWordProbs[topic][word] /= sum;
+        }
+        return new LatentDirichletAllocation(0.2,topicWordProbs);
+    }
+
+    static class CoAssignmentCounter implements ObjectHandler<GibbsSample> {
+        final int[] mCounts = new int[3];
+        public void handle(GibbsSample sample) {
+            if (sample.topicSample(0,0) == sample.topicSample(0,1)) ++mCounts[0];
+            if (sample.topicSample(0,1) == sample.topicSample(1,0)) ++mCounts[1];
+            if (sample.topicSample(1,1) == sample.topicSample(2,3)) ++mCounts[2];
+        }
+    }
+
+    static int[][] randomCorpus(Random random, int numDocs, int maxLength,
+                                int numWords) {
+        int[][] docWords = new int[numDocs][];
+        for (int doc = 0; doc < numDocs; ++doc) {
+            docWords[doc] = new int[1 + random.nextInt(maxLength)];
+            for (int tok = 0; tok < docWords[doc].length; ++tok)
+                docWords[doc][tok] = random.nextInt(numWords);
+        }
+        return docWords;
+    }
+
+    static void assertCountsConsistent(GibbsSample sample) {
+        int numTopics = sample.numTopics();
+        int[][] docTopicCount = new int[sample.numDocuments()][numTopics];
+        int[][] topicWordCount = new int[numTopics][sample.numWords()];
+        int[] topicCount = new int[numTopics];
+        for (int doc = 0; doc < sample.numDocuments(); ++doc) {
+            for (int tok = 0; tok < sample.documentLength(doc); ++tok) {
+                int topic = sample.topicSample(doc,tok);
+                ++docTopicCount[doc][topic];
+                ++topicWordCount[topic][sample.word(doc,tok)];
+                ++topicCount[topic];
+            }
+        }
+        for (int topic = 0; topic < numTopics; ++topic) {
+            assertEquals(topicCount[topic],sample.topicCount(topic));
+            for (int doc = 0; doc < sample.numDocuments(); ++doc)
+                assertEquals(docTopicCount[doc][topic],
+                             sample.documentTopicCount(doc,topic));
+            for (int word = 0; word < sample.numWords(); ++word)
+                assertEquals(topicWordCount[topic][word],
+                             sample.topicWordCount(topic,word));
+        }
+        assertTrue(sample.numChangedTopics() <= sample.numTokens());
+    }
+
 }
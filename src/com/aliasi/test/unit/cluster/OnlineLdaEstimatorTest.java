@@ -0,0 +1,147 @@
+package com.aliasi.test.unit.cluster;
+
+import com.aliasi.cluster.LatentDirichletAllocation;
+import com.aliasi.cluster.OnlineLdaEstimator;
+
+import org.junit.Test;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+import java.util.Random;
+
+public class OnlineLdaEstimatorTest {
+
+    // words 0-4 only in topic A, words 5-9 only in topic B
+    static int[][] separableBatch(Random random, int numDocs, int docLength) {
+        int[][] docWords = new int[numDocs][docLength];
+        for (int doc = 0; doc < numDocs; ++doc) {
+            int offset = (doc % 2 == 0) ? 0 : 5;
+            for (int tok = 0; tok < docLength; ++tok)
+                docWords[doc][tok] = offset + random.nextInt(5);
+        }
+        return docWords;
+    }
+
+    @Test
+    public void testSeparatesTopics() {
+        Random random = new Random(42L);
+        OnlineLdaEstimator estimator
+            = new OnlineLdaEstimator((short) 2,0.1,0.01,0.9,10,random);
+        for (int batch = 0; batch < 10; ++batch)
+            estimator.train(separableBatch(random,20,25));
+        assertEquals(10L,estimator.numBatches());
+        assertEquals(10,estimator.numWords());
+
+        LatentDirichletAllocation lda = estimator.lda();
+        assertEquals(2,lda.numTopics());
+        assertEquals(10,lda.numWords());
+        int topicA = lda.wordProbability(0,0) > lda.wordProbability(1,0) ? 0 : 1;
+        int topicB = 1 - topicA;
+        for (int word = 0; word < 5; ++word) {
+            assertTrue(lda.wordProbability(topicA,word) > 0.15);
+            assertTrue(lda.wordProbability(topicB,word) < 0.01);
+        }
+        for (int word = 5; word < 10; ++word) {
+            assertTrue(lda.wordProbability(topicB,word) > 0.15);
+            assertTrue(lda.wordProbability(topicA,word) < 0.01);
+        }
+    }
+
+    @Test
+    public void testDecayBoundsCounts() {
+        Random random = new Random(7L);
+        double decay = 0.5;
+        OnlineLdaEstimator estimator
+            = new OnlineLdaEstimator((short) 3,0.5,0.1,decay,2,random);
+        int batchTokens = 10 * 8;
+        double expectedTotal = 0.0;
+        for (int batch = 0; batch < 400; ++batch) {
+            estimator.train(separableBatch(random,10,8));
+            expectedTotal = expectedTotal * decay + batchTokens;
+            double total = 0.0;
+            for (int topic = 0; topic < 3; ++topic)
+                total += estimator.topicCount(topic);
+            assertEquals(expectedTotal,total,1e-6 * expectedTotal);
+            double wordTotal = 0.0;
+            for (int topic = 0; topic < 3; ++topic)
+                for (int word = 0; word < estimator.numWords(); ++word)
+                    wordTotal += estimator.topicWordCount(topic,word);
+            assertEquals(total,wordTotal,1e-6 * total);
+        }
+        assertTrue(expectedTotal <= batchTokens / (1.0 - decay));
+    }
+
+    @Test
+    public void testNoDecay() {
+        Random random = new Random(3L);
+        OnlineLdaEstimator estimator
+            = new OnlineLdaEstimator((short) 2,0.5,0.1,1.0,1,random);
+        estimator.train(separableBatch(random,4,5));
+        estimator.train(separableBatch(random,6,5));
+        double total = estimator.topicCount(0) + estimator.topicCount(1);
+        assertEquals(50.0,total,1e-9);
+    }
+
+    @Test
+    public void testVocabularyGrows() {
+        Random random = new Random(5L);
+        OnlineLdaEstimator estimator
+            = new OnlineLdaEstimator((short) 2,0.5,0.1,0.8,3,random);
+        short[][] sample = estimator.train(new int[][] { { 0, 1, 2 }, { 1 } });
+        assertEquals(3,estimator.numWords());
+        assertEquals(2,sample.length);
+        assertEquals(3,sample[0].length);
+        assertEquals(1,sample[1].length);
+        assertEquals(0.0,estimator.topicWordCount(0,17),0.0);
+
+        estimator.train(new int[][] { { 17, 2 } });
+        assertEquals(18,estimator.numWords());
+        assertEquals(1.0,
+                     estimator.topicWordCount(0,17)
+                     + estimator.topicWordCount(1,17),
+                     1e-9);
+
+        LatentDirichletAllocation lda = estimator.lda();
+        assertEquals(18,lda.numWords());
+        for (int topic = 0; topic < 2; ++topic) {
+            double sum = 0.0;
+            for (int word = 0; word < 18; ++word)
+                sum += lda.wordProbability(topic,word);
+            assertEquals(1.0,sum,1e-9);
+        }
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testNegativeWordExc() {
+        OnlineLdaEstimator estimator
+            = new OnlineLdaEstimator((short) 2,0.5,0.1,0.8,3,new Random());
+        estimator.train(new int[][] { { 0, -1 } });
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testDecayExc() {
+        new OnlineLdaEstimator((short) 2,0.5,0.1,0.0,3,new Random());
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testDecayTooBigExc() {
+        new OnlineLdaEstimator((short) 2,0.5,0.1,1.5,3,new Random());
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testSweepsExc() {
+        new OnlineLdaEstimator((short) 2,0.5,0.1,0.5,0,new Random());
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testPriorExc() {
+        new OnlineLdaEstimator((short) 2,0.0,0.1,0.5,1,new Random());
+    }
+
+    @Test(expected=IllegalStateException.class)
+    public void testUntrainedExc() {
+        new OnlineLdaEstimator((short) 2,0.5,0.1,0.5,1,new Random()).lda();
+    }
+
+}
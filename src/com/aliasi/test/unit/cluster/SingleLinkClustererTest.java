@@ -2,6 +2,7 @@ package com.aliasi.test.unit.cluster;
 
 import com.aliasi.cluster.Dendrogram;
 import com.aliasi.cluster.LeafDendrogram;
+import com.aliasi.cluster.LinkDendrogram;
 import com.aliasi.cluster.SingleLinkClusterer;
 
 import org.junit.Test;
@@ -11,11 +12,20 @@ import static junit.framework.Assert.assertTrue;
 
 import com.aliasi.util.Distance;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Random;
 import java.util.Set;
 
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
 public class SingleLinkClustererTest  {
 
     static class FixedDistance<E> implements Distance<E> {
@@ -199,4 +209,119 @@ public class SingleLinkClustererTest  {
     }
 
 
+    @Test
+    public void testMatchesAllPairs() {
+        Random random = new Random(7);
+        for (int trial = 0; trial < 50; ++trial) {
+            // small grid for lots of tied distances
+            Distance<Integer> distance = gridDistance(random,1 + random.nextInt(30),4);
+            Set<Integer> elts = shuffledElements(random,distance);
+            Dendrogram<Integer> expected = allPairsSingleLink(elts,distance);
+            Dendrogram<Integer> dendro
+                = new SingleLinkClusterer<Integer>(distance).hierarchicalCluster(elts);
+            assertIdentical(expected,dendro);
+        }
+    }
+
+    @Test
+    public void testParallel() {
+        Random random = new Random(5);
+        Distance<Integer> distance = gridDistance(random,1200,20);
+        Set<Integer> elts = shuffledElements(random,distance);
+        Dendrogram<Integer> expected
+            = new SingleLinkClusterer<Integer>(distance).hierarchicalCluster(elts);
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            SingleLinkClusterer<Integer> clusterer
+                = new SingleLinkClusterer<Integer>(Double.POSITIVE_INFINITY,
+                                                   distance,executor,3);
+            assertIdentical(expected,clusterer.hierarchicalCluster(elts));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testWorkersExc() {
+        new SingleLinkClusterer<String>(1.0,TEST_DISTANCE,null,0);
+    }
+
+    static GridDistance gridDistance(Random random, int numElts, int size) {
+        GridDistance distance = new GridDistance(numElts);
+        for (int i = 0; i < numElts; ++i) {
+            distance.mXs[i] = random.nextInt(size);
+            distance.mYs[i] = random.nextInt(size);
+        }
+        return distance;
+    }
+
+    static class GridDistance implements Distance<Integer> {
+        final int[] mXs;
+        final int[] mYs;
+        GridDistance(int numElts) {
+            mXs = new int[numElts];
+            mYs = new int[numElts];
+        }
+        public double distance(Integer e1, Integer e2) {
+            return Math.abs(mXs[e1] - mXs[e2]) + Math.abs(mYs[e1] - mYs[e2]);
+        }
+    }
+
+    static Set<Integer> shuffledElements(Random random, Distance<Integer> distance) {
+        int numElts = ((GridDistance) distance).mXs.length;
+        List<Integer> elts = new ArrayList<Integer>();
+        for (int i = 0; i < numElts; ++i)
+            elts.add(i);
+        Collections.shuffle(elts,random);
+        return new LinkedHashSet<Integer>(elts);
+    }
+
+    // links all pairs in stable order of distance
+    static Dendrogram<Integer> allPairsSingleLink(Set<Integer> eltSet,
+                                                  Distance<Integer> distance) {
+        List<Integer> elts = new ArrayList<Integer>(eltSet);
+        List<int[]> pairs = new ArrayList<int[]>();
+        for (int i = 0; i < elts.size(); ++i)
+            for (int j = i + 1; j < elts.size(); ++j)
+                pairs.add(new int[] { i, j });
+        final List<Integer> eltList = elts;
+        final Distance<Integer> dist = distance;
+        Collections.sort(pairs,new Comparator<int[]>() {
+                public int compare(int[] p1, int[] p2) {
+                    return Double.compare(dist.distance(eltList.get(p1[0]),eltList.get(p1[1])),
+                                          dist.distance(eltList.get(p2[0]),eltList.get(p2[1])));
+                }
+            });
+        List<Dendrogram<Integer>> leafs = new ArrayList<Dendrogram<Integer>>();
+        for (Integer elt : elts)
+            leafs.add(new LeafDendrogram<Integer>(elt));
+        Dendrogram<Integer> result = leafs.get(0);
+        for (int[] pair : pairs) {
+            Dendrogram<Integer> d1 = leafs.get(pair[0]).dereference();
+            Dendrogram<Integer> d2 = leafs.get(pair[1]).dereference();
+            if (d1.equals(d2)) continue;
+            result = new LinkDendrogram<Integer>(d1,d2,
+                                                 distance.distance(elts.get(pair[0]),
+                                                                   elts.get(pair[1])));
+        }
+        return result;
+    }
+
+    // structural equality including order of daughters
+    static void assertIdentical(Dendrogram<Integer> expected,
+                                Dendrogram<Integer> found) {
+        assertEquals(expected.score(),found.score(),0.0);
+        if (expected instanceof LeafDendrogram) {
+            assertTrue(found instanceof LeafDendrogram);
+            assertEquals(((LeafDendrogram<Integer>) expected).object(),
+                         ((LeafDendrogram<Integer>) found).object());
+            return;
+        }
+        assertTrue(found instanceof LinkDendrogram);
+        LinkDendrogram<Integer> link1 = (LinkDendrogram<Integer>) expected;
+        LinkDendrogram<Integer> link2 = (LinkDendrogram<Integer>) found;
+        assertIdentical(link1.dendrogram1(),link2.dendrogram1());
+        assertIdentical(link1.dendrogram2(),link2.dendrogram2());
+    }
+
 }
@@ -6,6 +6,7 @@ import com.aliasi.corpus.ObjectHandler;
 import com.aliasi.crf.ChainCrf;
 import com.aliasi.crf.ChainCrfFeatureExtractor;
 import com.aliasi.crf.ChainCrfFeatures;
+import com.aliasi.features.FeatureSink;
 
 import com.aliasi.io.LogLevel;
 import com.aliasi.io.Reporter;
@@ -17,6 +18,7 @@ import com.aliasi.matrix.Vector;
 import com.aliasi.stats.AnnealingSchedule;
 import com.aliasi.stats.RegressionPrior;
 
+import com.aliasi.symbol.HashSymbolTable;
 import com.aliasi.symbol.SymbolTable;
 import com.aliasi.symbol.SymbolTableCompiler;
 
@@ -34,16 +36,22 @@ import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
 import java.util.Set;
 import java.util.TreeSet;
 
 import java.io.IOException;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.io.Serializable;
 
 import org.junit.Test;
 
 import static junit.framework.Assert.assertEquals;
 import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertSame;
+import static junit.framework.Assert.assertTrue;
 import static junit.framework.Assert.fail;
 import static org.junit.Assert.assertArrayEquals;
 
@@ -151,6 +159,32 @@ public class ChainCrfTest {
         }
     }
 
+    static class SinkFeatureExtractor
+        implements ChainCrfFeatureExtractor<String>,
+                   Serializable {
+
+        public ChainCrfFeatures<String> extract(List<String> tokens, List<String> tags) {
+            return new TestCrfFeatures(tokens,tags) {
+                @Override
+                public Map<String,Integer> nodeFeatures(int n) {
+                    throw new UnsupportedOperationException();
+                }
+                @Override
+                public Map<String,Integer> edgeFeatures(int n, int prevTagIndex) {
+                    throw new UnsupportedOperationException();
+                }
+                @Override
+                public void nodeFeatures(int n, FeatureSink sink) {
+                    sink.add(token(n),1.0);
+                }
+                @Override
+                public void edgeFeatures(int n, int prevTagIndex, FeatureSink sink) {
+                    sink.add(tag(prevTagIndex),1.0);
+                }
+            };
+        }
+    }
+
     static boolean ADD_INTERCEPT_FEATURE = false;
 
     static ChainCrf<String> CRF
@@ -472,6 +506,200 @@ public class ChainCrfTest {
         assertNotNull(crf.tag(Arrays.asList(";",".","likes","likes")));
     }
 
+    @Test
+    public void testEstimateHashed() throws Exception {
+        Corpus<ObjectHandler<Tagging<String>>> corpus = new TestCorpus();
+        HashSymbolTable table = new HashSymbolTable(8,true);
+        ChainCrf<String> crf
+            = ChainCrf.estimate(corpus,
+                                FEATURE_EXTRACTOR,
+                                true,
+                                table,
+                                true,
+                                true,
+                                RegressionPrior.gaussian(10.0,true),
+                                3,
+                                AnnealingSchedule.exponential(0.02,0.995),
+                                0.00001,
+                                2,
+                                2000,
+                                null);
+        assertTagging(Arrays.asList("John","likes","Mary","."),
+                      Arrays.asList("PN","TV","PN","EOS"),
+                      crf);
+        assertTagging(Arrays.asList("The","dog","sat","!"),
+                      Arrays.asList("DET","N","IV","EOS"),
+                      crf);
+        assertSame(table,crf.featureSymbolTable());
+
+        @SuppressWarnings("unchecked")
+        ChainCrf<String> crf2
+            = (ChainCrf<String>) AbstractExternalizable.serializeDeserialize(crf);
+        assertTrue(crf2.featureSymbolTable() instanceof HashSymbolTable);
+        assertTagging(Arrays.asList("Mary","likes","John","."),
+                      Arrays.asList("PN","TV","PN","EOS"),
+                      crf2);
+    }
+
+    @Test
+    public void testSinkFeatures() throws Exception {
+        ChainCrf<String> crf
+            = new ChainCrf<String>(TAGS,
+                                   COEFFICIENTS,
+                                   FEATURE_SYMBOL_TABLE,
+                                   new SinkFeatureExtractor(),
+                                   ADD_INTERCEPT_FEATURE);
+        for (int length = 1; length < 4; ++length) {
+            for (int[] tokenIds : allArrays(length,TOKENS.length)) {
+                List<String> tokenList = new ArrayList<String>(length);
+                for (int i = 0; i < tokenIds.length; ++i)
+                    tokenList.add(TOKENS[tokenIds[i]]);
+                assertEquals(CRF.tag(tokenList).tags(),
+                             crf.tag(tokenList).tags());
+                TagLattice<String> expected = CRF.tagMarginal(tokenList);
+                TagLattice<String> found = crf.tagMarginal(tokenList);
+                assertEquals(expected.logZ(),found.logZ(),0.0001);
+            }
+        }
+
+        ChainCrf<String> estimated
+            = ChainCrf.estimate(new TestCorpus(),
+                                new SinkFeatureExtractor(),
+                                true,
+                                1,
+                                true,
+                                true,
+                                RegressionPrior.gaussian(10.0,true),
+                                3,
+                                AnnealingSchedule.exponential(0.02,0.995),
+                                0.00001,
+                                2,
+                                2000,
+                                null);
+        assertTagging(Arrays.asList("John","likes","Mary","."),
+                      Arrays.asList("PN","TV","PN","EOS"),
+                      estimated);
+    }
+
+    @Test
+    public void testBeam() {
+        Random random = new Random(31);
+        for (int trial = 0; trial < 20; ++trial) {
+            Vector[] coefficients = new Vector[TAGS.length];
+            for (int k = 0; k < TAGS.length; ++k) {
+                double[] vals = new double[FEATURES.length];
+                for (int d = 0; d < vals.length; ++d)
+                    vals[d] = random.nextGaussian();
+                coefficients[k] = new DenseVector(vals);
+            }
+            boolean[] legalStarts = randomBooleans(random,TAGS.length);
+            boolean[] legalEnds = randomBooleans(random,TAGS.length);
+            boolean[][] legalTransitions = new boolean[TAGS.length][];
+            for (int k = 0; k < TAGS.length; ++k)
+                legalTransitions[k] = randomBooleans(random,TAGS.length);
+            ChainCrf<String> crf
+                = new ChainCrf<String>(TAGS,legalStarts,legalEnds,legalTransitions,
+                                       coefficients,FEATURE_SYMBOL_TABLE,
+                                       FEATURE_EXTRACTOR,ADD_INTERCEPT_FEATURE);
+            for (int length = 1; length < 6; ++length) {
+                for (int[] tokenIds : allArrays(length,TOKENS.length)) {
+                    List<String> tokenList = new ArrayList<String>(length);
+                    for (int i = 0; i < tokenIds.length; ++i)
+                        tokenList.add(TOKENS[tokenIds[i]]);
+                    ScoredTagging<String> best
+                        = crf.tagNBest(tokenList,1).next();
+                    if (best.score() == Double.NEGATIVE_INFINITY)
+                        continue; // no legal tagging
+                    assertEquals(best.tags(),crf.tag(tokenList).tags());
+                    assertEquals(best.tags(),
+                                 crf.tag(tokenList,Double.POSITIVE_INFINITY).tags());
+                    List<String> greedyTags = crf.tag(tokenList,0.0).tags();
+                    assertEquals(length,greedyTags.size());
+                }
+            }
+        }
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testBeamExc() {
+        CRF.tag(Arrays.asList("a","b"),-1.0);
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testBeamNaNExc() {
+        CRF.tag(Arrays.asList("a","b"),Double.NaN);
+    }
+
+    static boolean[] randomBooleans(Random random, int length) {
+        boolean[] xs = new boolean[length];
+        for (int i = 0; i < length; ++i)
+            xs[i] = random.nextInt(4) != 0;
+        return xs;
+    }
+
+    @Test
+    public void testEstimateParallel() throws Exception {
+        ChainCrf<String> sequential = estimateParallel(1,null,1);
+        assertSameCoefficients(sequential,
+                               ChainCrf.estimate(new TestCorpus(),
+                                                 FEATURE_EXTRACTOR,
+                                                 true,1,true,false,
+                                                 RegressionPrior.gaussian(10.0,true),
+                                                 3,
+                                                 AnnealingSchedule.exponential(0.02,0.995),
+                                                 0.0,20,20,null));
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            assertSameCoefficients(sequential,estimateParallel(1,executor,3));
+            ChainCrf<String> batched = estimateParallel(4,null,1);
+            assertSameCoefficients(batched,estimateParallel(4,executor,2));
+            assertSameCoefficients(batched,estimateParallel(4,executor,3));
+            assertTagging(Arrays.asList("John","likes","Mary","."),
+                          Arrays.asList("PN","TV","PN","EOS"),
+                          batched);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testMinibatchSizeExc() throws Exception {
+        estimateParallel(0,null,1);
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testNumWorkersExc() throws Exception {
+        estimateParallel(1,null,0);
+    }
+
+    static ChainCrf<String> estimateParallel(int minibatchSize,
+                                             ExecutorService executor,
+                                             int numWorkers)
+        throws IOException {
+
+        return ChainCrf.estimate(new TestCorpus(),
+                                 FEATURE_EXTRACTOR,
+                                 true,1,true,false,
+                                 RegressionPrior.gaussian(10.0,true),
+                                 3,
+                                 AnnealingSchedule.exponential(0.02,0.995),
+                                 0.0,20,20,
+                                 minibatchSize,executor,numWorkers,
+                                 null);
+    }
+
+    static void assertSameCoefficients(ChainCrf<String> expected,
+                                       ChainCrf<String> found) {
+        Vector[] expectedCoeffs = expected.coefficients();
+        Vector[] foundCoeffs = found.coefficients();
+        assertEquals(expectedCoeffs.length,foundCoeffs.length);
+        for (int k = 0; k < expectedCoeffs.length; ++k)
+            for (int d = 0; d < expectedCoeffs[k].numDimensions(); ++d)
+                assertEquals(expectedCoeffs[k].value(d),
+                             foundCoeffs[k].value(d),
+                             0.0);
+    }
+
     static <E> void assertTagging(List<E> tokens,
                                   List<String> tagsExpected,
                                   ChainCrf<E> crf) {
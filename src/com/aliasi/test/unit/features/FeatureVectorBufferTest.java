@@ -0,0 +1,156 @@
+package com.aliasi.test.unit.features;
+
+import org.junit.Test;
+
+import static junit.framework.Assert.assertEquals;
+
+import com.aliasi.features.FeatureVectorBuffer;
+import com.aliasi.features.Features;
+
+import com.aliasi.matrix.Vector;
+
+import com.aliasi.symbol.MapSymbolTable;
+
+import com.aliasi.tokenizer.IndoEuropeanTokenizerFactory;
+import com.aliasi.tokenizer.TokenFeatureExtractor;
+
+import com.aliasi.util.FeatureExtractor;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+public class FeatureVectorBufferTest {
+
+    @Test
+    public void testBasic() {
+        MapSymbolTable table = new MapSymbolTable();
+        table.getOrAddSymbol("*intercept*");
+        table.getOrAddSymbol("b");
+        table.getOrAddSymbol("a");
+        FeatureVectorBuffer buffer = new FeatureVectorBuffer(table);
+        buffer.add("a",2.0);
+        buffer.add("unknown",5.0);
+        buffer.add("b",-1.5);
+        buffer.add("a",0.5);
+        assertEquals(3,buffer.size());
+
+        Vector v = buffer.toVector(5,false);
+        assertEquals(5,v.numDimensions());
+        assertEquals(2,v.nonZeroDimensions().length);
+        assertEquals(-1.5,v.value(1),0.0);
+        assertEquals(2.5,v.value(2),0.0);
+
+        Vector vIntercept = buffer.toVector(5,true);
+        assertEquals(1.0,vIntercept.value(0),0.0);
+        assertEquals(3,vIntercept.nonZeroDimensions().length);
+
+        buffer.reset();
+        assertEquals(0,buffer.size());
+        assertEquals(0,buffer.toVector(5,false).nonZeroDimensions().length);
+        assertEquals(1,buffer.toVector(5,true).nonZeroDimensions().length);
+    }
+
+    @Test
+    public void testMatchesMap() {
+        Random random = new Random(17);
+        MapSymbolTable table = new MapSymbolTable();
+        for (int i = 0; i < 50; ++i)
+            table.getOrAddSymbol("f" + i);
+        FeatureVectorBuffer buffer = new FeatureVectorBuffer(table);
+        for (int trial = 0; trial < 100; ++trial) {
+            // keeps zero sums, unlike ObjectToDoubleMap
+            Map<String,Double> map = new HashMap<String,Double>();
+            buffer.reset();
+            int numFeats = random.nextInt(100);
+            for (int n = 0; n < numFeats; ++n) {
+                // includes unknown features and repeats
+                String feature = "f" + random.nextInt(60);
+                double value = random.nextInt(7) - 3;
+                Double sum = map.get(feature);
+                map.put(feature,(sum == null) ? value : (sum + value));
+                buffer.add(feature,value);
+            }
+            boolean addIntercept = random.nextBoolean();
+            assertEquals(Features.toVector(map,table,60,addIntercept),
+                         buffer.toVector(60,addIntercept));
+        }
+    }
+
+    @Test
+    public void testCopyTo() {
+        Random random = new Random(5);
+        MapSymbolTable table = new MapSymbolTable();
+        for (int i = 0; i < 30; ++i)
+            table.getOrAddSymbol("f" + i);
+        FeatureVectorBuffer buffer = new FeatureVectorBuffer(table);
+        int[] ids = new int[200];
+        float[] values = new float[200];
+        for (int trial = 0; trial < 50; ++trial) {
+            buffer.reset();
+            int numFeats = random.nextInt(40);
+            for (int n = 0; n < numFeats; ++n)
+                buffer.add("f" + random.nextInt(35),random.nextInt(7) - 3);
+            boolean addIntercept = random.nextBoolean();
+            int offset = random.nextInt(100);
+            int numWritten = buffer.copyTo(ids,values,offset,addIntercept);
+            Vector v = buffer.toVector(30,addIntercept);
+            int[] nzDims = v.nonZeroDimensions();
+            assertEquals(nzDims.length,numWritten);
+            for (int k = 0; k < numWritten; ++k) {
+                assertEquals(nzDims[k],ids[offset + k]);
+                assertEquals(v.value(nzDims[k]),values[offset + k],0.0);
+            }
+        }
+    }
+
+    @Test(expected=IndexOutOfBoundsException.class)
+    public void testCopyToExc() {
+        MapSymbolTable table = new MapSymbolTable();
+        table.getOrAddSymbol("a");
+        table.getOrAddSymbol("b");
+        FeatureVectorBuffer buffer = new FeatureVectorBuffer(table);
+        buffer.add("a",1.0);
+        buffer.add("b",1.0);
+        buffer.copyTo(new int[3],new float[3],2,false);
+    }
+
+    @Test
+    public void testPrimitiveExtractor() {
+        TokenFeatureExtractor extractor
+            = new TokenFeatureExtractor(IndoEuropeanTokenizerFactory.INSTANCE);
+        MapSymbolTable table = new MapSymbolTable();
+        table.getOrAddSymbol("*intercept*");
+        table.getOrAddSymbol("the");
+        table.getOrAddSymbol("cat");
+        table.getOrAddSymbol("hat");
+        FeatureVectorBuffer buffer = new FeatureVectorBuffer(table);
+        String[] inputs = new String[] {
+            "",
+            "the cat in the hat",
+            "the the the",
+            "a dog"
+        };
+        for (String in : inputs) {
+            Map<String,? extends Number> featureMap = extractor.features(in);
+            for (int i = 0; i < 2; ++i) {
+                boolean addIntercept = (i == 0);
+                Vector expected = Features.toVector(featureMap,table,10,addIntercept);
+                assertEquals(expected,
+                             Features.toVector(in,extractor,buffer,10,addIntercept));
+                // map-only extractor takes the map path
+                assertEquals(expected,
+                             Features.toVector(in,mapOnly(extractor),buffer,10,addIntercept));
+            }
+        }
+    }
+
+    static <E> FeatureExtractor<E> mapOnly(final FeatureExtractor<E> extractor) {
+        return new FeatureExtractor<E>() {
+            public Map<String,? extends Number> features(E in) {
+                return extractor.features(in);
+            }
+        };
+    }
+
+}
@@ -0,0 +1,80 @@
+package com.aliasi.test.unit.hmm;
+
+import com.aliasi.hmm.CompiledHmmDecoder;
+import com.aliasi.hmm.HiddenMarkovModel;
+import com.aliasi.hmm.HmmCharLmEstimator;
+import com.aliasi.hmm.HmmDecoder;
+
+import com.aliasi.tag.Tagging;
+
+import com.aliasi.util.AbstractExternalizable;
+import com.aliasi.util.FastCache;
+
+import org.junit.Test;
+
+import static junit.framework.Assert.assertEquals;
+
+import java.io.IOException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+public class CompiledHmmDecoderTest  {
+
+    @Test
+    public void testMatchesDecoder() throws IOException, ClassNotFoundException {
+        Random random = new Random(19);
+        HmmCharLmEstimator estimator = new HmmCharLmEstimator();
+        Set<String> knownTokens = new HashSet<String>();
+        for (int i = 0; i < 200; ++i) {
+            Tagging<String> tagging = randomTagging(random);
+            knownTokens.addAll(tagging.tokens());
+            estimator.handle(tagging);
+        }
+        HiddenMarkovModel hmm
+            = (HiddenMarkovModel) AbstractExternalizable.compile(estimator);
+
+        HmmDecoder[] decoders = new HmmDecoder[] {
+            new HmmDecoder(hmm),
+            new HmmDecoder(hmm,null,new FastCache<String,double[]>(1000)),
+            new HmmDecoder(hmm,null,null,8.0,6.0),
+            new HmmDecoder(estimator)
+        };
+        for (HmmDecoder decoder : decoders) {
+            CompiledHmmDecoder compiled
+                = new CompiledHmmDecoder(decoder,knownTokens);
+            assertEquals(knownTokens.size(),
+                         compiled.tokenSymbolTable().numSymbols());
+            for (int i = 0; i < 100; ++i) {
+                // includes unknown tokens
+                List<String> tokens = randomTagging(random).tokens();
+                assertEquals(decoder.tag(tokens).tags(),
+                             compiled.tag(tokens).tags());
+            }
+            List<String> empty = Collections.<String>emptyList();
+            assertEquals(0,compiled.tag(empty).size());
+            List<String> single = Arrays.asList("w7");
+            assertEquals(decoder.tag(single).tags(),
+                         compiled.tag(single).tags());
+        }
+    }
+
+    static Tagging<String> randomTagging(Random random) {
+        int length = 1 + random.nextInt(12);
+        List<String> tokens = new ArrayList<String>(length);
+        List<String> tags = new ArrayList<String>(length);
+        int tag = random.nextInt(5);
+        for (int n = 0; n < length; ++n) {
+            tag = (tag + random.nextInt(3)) % 5;
+            tags.add("T" + tag);
+            tokens.add("w" + (tag * 10 + random.nextInt(15)));
+        }
+        return new Tagging<String>(tokens,tags);
+    }
+
+}
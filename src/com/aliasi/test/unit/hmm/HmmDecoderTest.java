@@ -9,6 +9,7 @@ import com.aliasi.tag.Tagging;
 
 import com.aliasi.util.FastCache;
 import com.aliasi.util.ScoredObject;
+import com.aliasi.util.ShardedCache;
 import com.aliasi.util.Strings;
 
 import org.junit.Test;
@@ -73,6 +74,40 @@ public class HmmDecoderTest  {
         
     }
 
+    @Test
+    public void testSharedShardedCache() {
+        HmmCharLmEstimator est = new HmmCharLmEstimator();
+        handle(est,new String[] { "John", "ran", "." },null,
+               new String[] { "PN", "IV", "." });
+        handle(est,new String[] { "John", "likes", "Mary", "." },null,
+               new String[] { "PN", "TV", "PN", "." });
+
+        ShardedCache<String,double[]> log2Cache
+            = new ShardedCache<String,double[]>(4,1);
+        HmmDecoder decoder = new HmmDecoder(est);
+        HmmDecoder decoder1 = new HmmDecoder(est,null,log2Cache);
+        HmmDecoder decoder2 = new HmmDecoder(est,null,log2Cache);
+
+        String[] toks = new String[] { "Mary", "likes", "John", "." };
+        String[] expected = firstBest(decoder,toks);
+        assertArrayEquals(expected,firstBest(decoder1,toks));
+        assertEquals(0L,log2Cache.numHits());
+        assertEquals(4L,log2Cache.numMisses());
+
+        // tokens cached by decoder1 are hits for decoder2
+        assertArrayEquals(expected,firstBest(decoder2,toks));
+        assertEquals(4L,log2Cache.numHits());
+        assertEquals(4L,log2Cache.numMisses());
+        assertEquals(4,log2Cache.size());
+
+        // evicts least recently used tokens to stay bounded
+        firstBest(decoder2,new String[] { "Fred", "ran" });
+        assertEquals(4,log2Cache.size());
+        assertFalse(log2Cache.containsKey("Mary"));
+        assertFalse(log2Cache.containsKey("likes"));
+        assertTrue(log2Cache.containsKey("John"));
+    }
+
     static String[] firstBest(HmmDecoder decoder, String[] tokens) {
         Tagging<String> tagging = decoder.tag(Arrays.asList(tokens));
         return tagging.tags().toArray(Strings.EMPTY_STRING_ARRAY);
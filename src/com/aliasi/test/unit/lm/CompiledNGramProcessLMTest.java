@@ -3,15 +3,24 @@ package com.aliasi.test.unit.lm;
 import org.junit.Test;
 
 import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
 import static org.junit.Assert.assertArrayEquals;
 
 
 import com.aliasi.lm.CompiledNGramProcessLM;
 import com.aliasi.lm.NGramProcessLM;
+import com.aliasi.lm.ProcessLMCursor;
 
 import com.aliasi.util.AbstractExternalizable;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+import java.util.Random;
 
 public class CompiledNGramProcessLMTest  {
 
@@ -56,4 +65,227 @@ public class CompiledNGramProcessLMTest  {
     assertEquals(12,clm.longestContextIndex("abra"));
     }
 
+    @Test
+    public void testBatchSpans() throws ClassNotFoundException, IOException {
+        NGramProcessLM lm = new NGramProcessLM(3,128);
+        lm.train("abracadabra");
+        lm.train("cadabra cab");
+        CompiledNGramProcessLM clm
+            = (CompiledNGramProcessLM) AbstractExternalizable.compile(lm);
+        char[] cs = "abracadabra xyz cabra".toCharArray();
+        int[] starts = new int[] { 0, 0, 3, 12, 16, 21 };
+        int[] ends = new int[] { 0, 11, 9, 15, 21, 21 };
+        double[] estimates = new double[starts.length + 2];
+        clm.log2Estimates(cs,starts,ends,estimates);
+        for (int i = 0; i < starts.length; ++i)
+            assertEquals(clm.log2Estimate(cs,starts[i],ends[i]),
+                         estimates[i],0.0);
+        assertEquals(0.0,estimates[starts.length]);
+
+        try {
+            clm.log2Estimates(cs,starts,new int[2],estimates);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            clm.log2Estimates(cs,new int[] { 3 }, new int[] { 25 },
+                              estimates);
+            fail();
+        } catch (IndexOutOfBoundsException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testBatchModels() throws ClassNotFoundException, IOException {
+        String[] trainTexts = new String[] { "abracadabra", "John ran.", "" };
+        CompiledNGramProcessLM[] lms
+            = new CompiledNGramProcessLM[trainTexts.length];
+        for (int i = 0; i < lms.length; ++i) {
+            NGramProcessLM lm = new NGramProcessLM(4,128);
+            lm.train(trainTexts[i]);
+            lms[i] = (CompiledNGramProcessLM) AbstractExternalizable.compile(lm);
+        }
+        char[] cs = "xxabracadabra ran".toCharArray();
+        double[] estimates = new double[lms.length];
+        CompiledNGramProcessLM.log2Estimates(lms,cs,2,17,estimates);
+        for (int i = 0; i < lms.length; ++i)
+            assertEquals(lms[i].log2Estimate(cs,2,17),estimates[i],0.0);
+
+        try {
+            CompiledNGramProcessLM.log2Estimates(lms,cs,2,17,new double[1]);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testDenseChildren() throws ClassNotFoundException, IOException {
+        Random random = new Random(17);
+        NGramProcessLM lm = new NGramProcessLM(4,256);
+        lm.train("abracadabra");
+        for (int i = 0; i < 300; ++i)
+            lm.train(randomString(random,25));
+        CompiledNGramProcessLM clm
+            = (CompiledNGramProcessLM) AbstractExternalizable.compile(lm);
+        for (int fanout : new int[] { 0, 1, 2, 8, 1000 }) {
+            CompiledNGramProcessLM dlm = compileDense(lm,fanout);
+            assertArrayEquals(clm.observedCharacters(),dlm.observedCharacters());
+            assertEquals(clm.numNodes(),dlm.numNodes());
+            for (int i = 0; i < 200; ++i) {
+                String s = randomString(random,30);
+                assertEquals(clm.log2Estimate(s),dlm.log2Estimate(s),0.0);
+                if (s.length() > 0)
+                    assertEquals(clm.log2ConditionalEstimate(s),
+                                 dlm.log2ConditionalEstimate(s),0.0);
+                assertEquals(clm.longestContextIndex(s),
+                             dlm.longestContextIndex(s));
+                int ctx = 0;
+                for (int k = 0; k < s.length(); ++k) {
+                    assertEquals(clm.log2Estimate(ctx,s.charAt(k)),
+                                 dlm.log2Estimate(ctx,s.charAt(k)),0.0);
+                    ctx = clm.nextContext(ctx,s.charAt(k));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testCursor() throws ClassNotFoundException, IOException {
+        Random random = new Random(23);
+        for (int n = 1; n <= 5; ++n) {
+            NGramProcessLM lm = new NGramProcessLM(n,32);
+            for (int i = 0; i < 100; ++i)
+                lm.train(randomCursorString(random,30));
+            CompiledNGramProcessLM clm
+                = (CompiledNGramProcessLM) AbstractExternalizable.compile(lm);
+            char[] cs = randomCursorString(random,300).toCharArray();
+            ProcessLMCursor cursor = clm.cursor();
+            int context = CompiledNGramProcessLM.ROOT_NODE_INDEX;
+            for (int i = 0; i < cs.length; ++i) {
+                double estimate = clm.log2Estimate(context,cs[i]);
+                assertEquals(estimate,cursor.log2ConditionalEstimate(cs[i]),0.0);
+                assertEquals(estimate,cursor.next(cs[i]),0.0);
+                assertEquals(clm.log2ConditionalEstimate(cs,0,i+1),estimate,0.0001);
+                context = clm.nextContext(context,cs[i]);
+            }
+            assertEquals(clm.log2Estimate(cs,0,cs.length),
+                         cursor.log2Estimate(),0.0001);
+            assertEquals(lm.log2Estimate(cs,0,cs.length),
+                         cursor.log2Estimate(),0.01);
+            cursor.reset();
+            assertEquals(clm.log2Estimate(cs,0,5),cursor.next(cs,0,5),0.0001);
+            assertEquals(5L,cursor.numChars());
+        }
+    }
+
+    static String randomCursorString(Random random, int maxLength) {
+        int length = random.nextInt(maxLength);
+        char[] cs = new char[length];
+        for (int i = 0; i < length; ++i)
+            cs[i] = (char) ('a' + random.nextInt(6));
+        return new String(cs);
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testDenseChildrenExc() throws IOException {
+        NGramProcessLM lm = new NGramProcessLM(3);
+        lm.compileTo(new ObjectOutputStream(new ByteArrayOutputStream()),-1);
+    }
+
+    static CompiledNGramProcessLM compileDense(NGramProcessLM lm, int fanout)
+        throws ClassNotFoundException, IOException {
+
+        ByteArrayOutputStream bytesOut = new ByteArrayOutputStream();
+        ObjectOutputStream objOut = new ObjectOutputStream(bytesOut);
+        lm.compileTo(objOut,fanout);
+        objOut.close();
+        ObjectInputStream objIn
+            = new ObjectInputStream(new ByteArrayInputStream(bytesOut.toByteArray()));
+        return (CompiledNGramProcessLM) objIn.readObject();
+    }
+
+    static String randomString(Random random, int maxLength) {
+        int length = random.nextInt(maxLength);
+        char[] cs = new char[length];
+        for (int i = 0; i < length; ++i)
+            cs[i] = random.nextInt(10) == 0
+                ? (char) ('A' + random.nextInt(60))
+                : (char) ('a' + random.nextInt(12));
+        return new String(cs);
+    }
+
+    @Test
+    public void testQuantized() throws ClassNotFoundException, IOException {
+        Random random = new Random(19);
+        for (int n = 1; n <= 6; ++n) {
+            NGramProcessLM lm = new NGramProcessLM(n,128);
+            for (int i = 0; i < 200; ++i)
+                lm.train(randomString(random,40));
+            CompiledNGramProcessLM clm
+                = (CompiledNGramProcessLM) AbstractExternalizable.compile(lm);
+            int plainSize = compiledBytes(lm,0).length;
+            for (int numBits = 4; numBits <= 16; numBits += 4) {
+                byte[] bytes = compiledBytes(lm,numBits);
+                if (n > 2)
+                    assertTrue(bytes.length < plainSize);
+                CompiledNGramProcessLM qlm = readCompiled(bytes);
+                assertEquals(clm.numNodes(),qlm.numNodes());
+                assertArrayEquals(clm.observedCharacters(),qlm.observedCharacters());
+                double tolerance = numBits >= 12 ? 0.01 : 0.5;
+                for (int k = 0; k < 20; ++k) {
+                    char[] cs = randomString(random,50).toCharArray();
+                    assertEquals(clm.log2Estimate(cs,0,cs.length),
+                                 qlm.log2Estimate(cs,0,cs.length),
+                                 tolerance * (1 + cs.length));
+                    int context = CompiledNGramProcessLM.ROOT_NODE_INDEX;
+                    for (int i = 0; i < cs.length; ++i) {
+                        assertEquals(clm.nextContext(context,cs[i]),
+                                     qlm.nextContext(context,cs[i]));
+                        context = clm.nextContext(context,cs[i]);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testQuantizedExact() throws ClassNotFoundException, IOException {
+        // few distinct values, so codebooks are exact
+        NGramProcessLM lm = new NGramProcessLM(3,128);
+        lm.train("abracadabra");
+        CompiledNGramProcessLM clm
+            = (CompiledNGramProcessLM) AbstractExternalizable.compile(lm);
+        CompiledNGramProcessLM qlm = readCompiled(compiledBytes(lm,8));
+        assertEquals(clm.toString(),qlm.toString());
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testQuantizedBitsExc() throws IOException {
+        NGramProcessLM lm = new NGramProcessLM(3);
+        lm.compileQuantizedTo(new ObjectOutputStream(new ByteArrayOutputStream()),0,17);
+    }
+
+    // numBits=0 for unquantized
+    static byte[] compiledBytes(NGramProcessLM lm, int numBits) throws IOException {
+        ByteArrayOutputStream bytesOut = new ByteArrayOutputStream();
+        ObjectOutputStream objOut = new ObjectOutputStream(bytesOut);
+        if (numBits == 0)
+            lm.compileTo(objOut,8);
+        else
+            lm.compileQuantizedTo(objOut,8,numBits);
+        objOut.close();
+        return bytesOut.toByteArray();
+    }
+
+    static CompiledNGramProcessLM readCompiled(byte[] bytes)
+        throws ClassNotFoundException, IOException {
+
+        ObjectInputStream objIn
+            = new ObjectInputStream(new ByteArrayInputStream(bytes));
+        return (CompiledNGramProcessLM) objIn.readObject();
+    }
+
 }
@@ -0,0 +1,126 @@
+package com.aliasi.test.unit.lm;
+
+import org.junit.Test;
+
+import static junit.framework.Assert.assertEquals;
+import static org.junit.Assert.assertArrayEquals;
+
+import com.aliasi.lm.ConcurrentTrieCharSeqCounter;
+import com.aliasi.lm.NGramProcessLM;
+import com.aliasi.lm.TrieCharSeqCounter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import java.util.Random;
+
+public class ConcurrentTrieCharSeqCounterTest  {
+
+    @Test
+    public void testSequential() throws IOException {
+        for (int maxLength = 0; maxLength <= 5; ++maxLength) {
+            for (int numStripes : new int[] { 1, 3, 64 }) {
+                TrieCharSeqCounter counter = new TrieCharSeqCounter(maxLength);
+                ConcurrentTrieCharSeqCounter concCounter
+                    = new ConcurrentTrieCharSeqCounter(maxLength,numStripes);
+                Random random = new Random(maxLength);
+                for (int i = 0; i < 100; ++i) {
+                    String s = randomString(random,20);
+                    counter.incrementSubstrings(s);
+                    concCounter.incrementSubstrings(s);
+                }
+                assertCountersEqual(counter,concCounter.toTrieCharSeqCounter());
+            }
+        }
+    }
+
+    @Test
+    public void testEmpty() {
+        TrieCharSeqCounter counter
+            = new ConcurrentTrieCharSeqCounter(3).toTrieCharSeqCounter();
+        assertEquals(1L,counter.uniqueSequenceCount());
+        assertEquals(0L,counter.extensionCount(""));
+    }
+
+    @Test
+    public void testReset() throws IOException {
+        ConcurrentTrieCharSeqCounter concCounter
+            = new ConcurrentTrieCharSeqCounter(3);
+        concCounter.incrementSubstrings("abc");
+        concCounter.toTrieCharSeqCounter();
+        concCounter.incrementSubstrings("xyz",2);
+        TrieCharSeqCounter counter = new TrieCharSeqCounter(3);
+        counter.incrementSubstrings("xyz",2);
+        assertCountersEqual(counter,concCounter.toTrieCharSeqCounter());
+    }
+
+    @Test
+    public void testThreads() throws InterruptedException, IOException {
+        final String[] texts = new String[2000];
+        Random random = new Random(42);
+        for (int i = 0; i < texts.length; ++i)
+            texts[i] = randomString(random,40);
+        NGramProcessLM lm = new NGramProcessLM(5,128);
+        for (String text : texts)
+            lm.train(text);
+
+        final ConcurrentTrieCharSeqCounter concCounter
+            = new ConcurrentTrieCharSeqCounter(5,8);
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; ++t) {
+            final int offset = t;
+            threads[t] = new Thread(new Runnable() {
+                    public void run() {
+                        for (int i = offset; i < texts.length; i += 4)
+                            concCounter.handle(texts[i]);
+                    }
+                });
+            threads[t].start();
+        }
+        for (Thread thread : threads)
+            thread.join();
+        NGramProcessLM concLm
+            = new NGramProcessLM(128,lm.getLambdaFactor(),
+                                 concCounter.toTrieCharSeqCounter());
+        assertCountersEqual(lm.substringCounter(),concLm.substringCounter());
+        for (int i = 0; i < 100; ++i) {
+            String s = randomString(random,20);
+            assertEquals(lm.log2Estimate(s),concLm.log2Estimate(s),0.0);
+        }
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testExc1() {
+        new ConcurrentTrieCharSeqCounter(-1);
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testExc2() {
+        new ConcurrentTrieCharSeqCounter(3,0);
+    }
+
+    static void assertCountersEqual(TrieCharSeqCounter expected,
+                                    TrieCharSeqCounter found)
+        throws IOException {
+
+        assertEquals(expected.uniqueSequenceCount(),found.uniqueSequenceCount());
+        assertEquals(expected.totalSequenceCount(),found.totalSequenceCount());
+        assertEquals(expected.extensionCount(""),found.extensionCount(""));
+        assertArrayEquals(bytes(expected),bytes(found));
+    }
+
+    static byte[] bytes(TrieCharSeqCounter counter) throws IOException {
+        ByteArrayOutputStream bytesOut = new ByteArrayOutputStream();
+        counter.writeTo(bytesOut);
+        return bytesOut.toByteArray();
+    }
+
+    static String randomString(Random random, int maxLength) {
+        int length = random.nextInt(maxLength);
+        char[] cs = new char[length];
+        for (int i = 0; i < length; ++i)
+            cs[i] = (char) ('a' + random.nextInt(6));
+        return new String(cs);
+    }
+
+}
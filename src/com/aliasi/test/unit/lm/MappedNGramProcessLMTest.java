@@ -0,0 +1,146 @@
+package com.aliasi.test.unit.lm;
+
+import org.junit.Test;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.fail;
+import static org.junit.Assert.assertArrayEquals;
+
+import com.aliasi.lm.CompiledNGramProcessLM;
+import com.aliasi.lm.MappedNGramProcessLM;
+import com.aliasi.lm.NGramProcessLM;
+import com.aliasi.lm.ProcessLMCursor;
+
+import com.aliasi.util.AbstractExternalizable;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import java.nio.ByteBuffer;
+
+import java.util.Random;
+
+public class MappedNGramProcessLMTest  {
+
+    static final String[] TRAIN = new String[] {
+        "abracadabra",
+        "John ran home.",
+        "Mary ran to the store and then home.",
+        "abc"
+    };
+
+    static final String[] TEST = new String[] {
+        "",
+        "a",
+        "abracadabra",
+        "xyz",
+        "John ran to the store.",
+        "ab c",
+        "cabracabc"
+    };
+
+    @Test
+    public void testEstimates() throws ClassNotFoundException, IOException {
+        for (int n = 1; n <= 5; ++n) {
+            CompiledNGramProcessLM clm = compile(n);
+            MappedNGramProcessLM mlm = map(clm);
+            assertLmEquals(clm,mlm);
+        }
+    }
+
+    @Test
+    public void testRandom() throws ClassNotFoundException, IOException {
+        Random random = new Random(42);
+        NGramProcessLM lm = new NGramProcessLM(4,16);
+        for (int i = 0; i < 200; ++i)
+            lm.train(randomString(random,20));
+        CompiledNGramProcessLM clm
+            = (CompiledNGramProcessLM) AbstractExternalizable.compile(lm);
+        MappedNGramProcessLM mlm = map(clm);
+        for (int i = 0; i < 100; ++i) {
+            String s = randomString(random,30);
+            assertEquals(clm.log2Estimate(s),mlm.log2Estimate(s),0.0);
+        }
+    }
+
+    @Test
+    public void testFile() throws ClassNotFoundException, IOException {
+        CompiledNGramProcessLM clm = compile(3);
+        File file = File.createTempFile("mappedLm",".bin");
+        try {
+            FileOutputStream out = new FileOutputStream(file);
+            MappedNGramProcessLM.writeTo(clm,out);
+            out.close();
+            MappedNGramProcessLM mlm = MappedNGramProcessLM.open(file);
+            assertLmEquals(clm,mlm);
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testBadBuffer() {
+        try {
+            new MappedNGramProcessLM(ByteBuffer.allocate(64));
+            fail();
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    static void assertLmEquals(CompiledNGramProcessLM clm,
+                               MappedNGramProcessLM mlm) {
+        assertEquals(clm.maxNGram(),mlm.maxNGram());
+        assertEquals(clm.numNodes(),mlm.numNodes());
+        assertArrayEquals(clm.observedCharacters(),mlm.observedCharacters());
+        ProcessLMCursor clmCursor = clm.cursor();
+        ProcessLMCursor mlmCursor = mlm.cursor();
+        for (String s : TEST) {
+            assertEquals(clm.log2Estimate(s),mlm.log2Estimate(s),0.0);
+            for (int i = 0; i < s.length(); ++i)
+                assertEquals(clmCursor.next(s.charAt(i)),
+                             mlmCursor.next(s.charAt(i)),0.0);
+            if (s.length() > 0)
+                assertEquals(clm.log2ConditionalEstimate(s),
+                             mlm.log2ConditionalEstimate(s),0.0);
+            int clmContext = 0;
+            int mlmContext = 0;
+            for (int i = 0; i < s.length(); ++i) {
+                char c = s.charAt(i);
+                assertEquals(clm.log2Estimate(clmContext,c),
+                             mlm.log2Estimate(mlmContext,c),0.0);
+                clmContext = clm.nextContext(clmContext,c);
+                mlmContext = mlm.nextContext(mlmContext,c);
+                assertEquals(clmContext,mlmContext);
+            }
+        }
+    }
+
+    static CompiledNGramProcessLM compile(int nGram)
+        throws ClassNotFoundException, IOException {
+
+        NGramProcessLM lm = new NGramProcessLM(nGram,128);
+        for (String s : TRAIN)
+            lm.train(s);
+        return (CompiledNGramProcessLM) AbstractExternalizable.compile(lm);
+    }
+
+    static MappedNGramProcessLM map(CompiledNGramProcessLM clm)
+        throws IOException {
+
+        ByteArrayOutputStream bytesOut = new ByteArrayOutputStream();
+        MappedNGramProcessLM.writeTo(clm,bytesOut);
+        return new MappedNGramProcessLM(ByteBuffer.wrap(bytesOut.toByteArray()));
+    }
+
+    static String randomString(Random random, int maxLength) {
+        int length = random.nextInt(maxLength);
+        char[] cs = new char[length];
+        for (int i = 0; i < length; ++i)
+            cs[i] = (char) ('a' + random.nextInt(8));
+        return new String(cs);
+    }
+
+}
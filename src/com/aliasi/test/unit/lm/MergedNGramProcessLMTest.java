@@ -0,0 +1,107 @@
+package com.aliasi.test.unit.lm;
+
+import org.junit.Test;
+
+import static junit.framework.Assert.assertEquals;
+
+
+import com.aliasi.lm.CompiledNGramProcessLM;
+import com.aliasi.lm.MergedNGramProcessLM;
+import com.aliasi.lm.NGramProcessLM;
+
+import com.aliasi.util.AbstractExternalizable;
+
+import java.io.IOException;
+
+import java.util.Random;
+
+public class MergedNGramProcessLMTest  {
+
+    @Test
+    public void testAbracadabra() throws ClassNotFoundException, IOException {
+        NGramProcessLM lm1 = new NGramProcessLM(3,128);
+        lm1.train("abracadabra");
+        NGramProcessLM lm2 = new NGramProcessLM(3,128);
+        lm2.train("cadabra barbaric");
+        CompiledNGramProcessLM[] clms = new CompiledNGramProcessLM[] {
+            (CompiledNGramProcessLM) AbstractExternalizable.compile(lm1),
+            (CompiledNGramProcessLM) AbstractExternalizable.compile(lm2)
+        };
+        MergedNGramProcessLM merged = new MergedNGramProcessLM(clms);
+        assertEquals(2,merged.numModels());
+        assertEquals(3,merged.maxNGram());
+        assertMerged(clms,merged,"");
+        assertMerged(clms,merged,"a");
+        assertMerged(clms,merged,"abracadabra");
+        assertMerged(clms,merged,"barbaric abracadabra");
+        assertMerged(clms,merged,"xyz barbarica xbrac");
+    }
+
+    @Test
+    public void testRandom() throws ClassNotFoundException, IOException {
+        Random random = new Random(11);
+        for (int numModels = 1; numModels <= 6; ++numModels) {
+            CompiledNGramProcessLM[] clms = new CompiledNGramProcessLM[numModels];
+            for (int m = 0; m < numModels; ++m) {
+                // mixes orders and alphabets across models
+                NGramProcessLM lm = new NGramProcessLM(1 + random.nextInt(6),32);
+                for (int i = 0; i < 50; ++i)
+                    lm.train(randomString(random,40,6 + m));
+                clms[m] = (CompiledNGramProcessLM) AbstractExternalizable.compile(lm);
+            }
+            MergedNGramProcessLM merged = new MergedNGramProcessLM(clms);
+            for (int k = 0; k < 20; ++k)
+                assertMerged(clms,merged,randomString(random,200,12));
+        }
+    }
+
+    @Test
+    public void testSlice() throws ClassNotFoundException, IOException {
+        NGramProcessLM lm = new NGramProcessLM(4,128);
+        lm.train("the quick brown fox jumped over the lazy dog");
+        CompiledNGramProcessLM clm
+            = (CompiledNGramProcessLM) AbstractExternalizable.compile(lm);
+        MergedNGramProcessLM merged
+            = new MergedNGramProcessLM(new CompiledNGramProcessLM[] { clm });
+        char[] cs = "xxthe lazy foxyy".toCharArray();
+        double[] estimates = new double[3];
+        merged.log2Estimates(cs,2,14,estimates);
+        assertEquals(clm.log2Estimate(cs,2,14),estimates[0],0.0001);
+        assertEquals(0.0,estimates[1],0.0);
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testEstimatesLengthExc() throws ClassNotFoundException, IOException {
+        NGramProcessLM lm = new NGramProcessLM(2,128);
+        lm.train("abc");
+        CompiledNGramProcessLM clm
+            = (CompiledNGramProcessLM) AbstractExternalizable.compile(lm);
+        MergedNGramProcessLM merged
+            = new MergedNGramProcessLM(new CompiledNGramProcessLM[] { clm, clm });
+        merged.log2Estimates(new char[] { 'a' },0,1,new double[1]);
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testNoModelsExc() {
+        new MergedNGramProcessLM(new CompiledNGramProcessLM[0]);
+    }
+
+    static void assertMerged(CompiledNGramProcessLM[] clms,
+                             MergedNGramProcessLM merged,
+                             String s) {
+        double[] estimates = merged.log2Estimates(s);
+        assertEquals(clms.length,estimates.length);
+        for (int m = 0; m < clms.length; ++m)
+            assertEquals(clms[m].log2Estimate(s),estimates[m],
+                         0.0001 * (1 + s.length()));
+    }
+
+    static String randomString(Random random, int maxLength, int alphabetSize) {
+        int length = random.nextInt(maxLength);
+        char[] cs = new char[length];
+        for (int i = 0; i < length; ++i)
+            cs[i] = (char) ('a' + random.nextInt(alphabetSize));
+        return new String(cs);
+    }
+
+}
@@ -9,6 +9,7 @@ import static junit.framework.Assert.fail;
 
 import com.aliasi.lm.LanguageModel;
 import com.aliasi.lm.NGramProcessLM;
+import com.aliasi.lm.ProcessLMCursor;
 
 import com.aliasi.util.AbstractExternalizable;
 
@@ -16,6 +17,8 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 
+import java.util.Random;
+
 public class NGramProcessLMTest  {
 
     @Test
@@ -229,4 +232,47 @@ public class NGramProcessLMTest  {
     }
 
 
+    @Test
+    public void testCursor() {
+        Random random = new Random(17);
+        for (int n = 1; n <= 6; ++n) {
+            NGramProcessLM lm = new NGramProcessLM(n,32);
+            for (int i = 0; i < 200; ++i)
+                lm.train(randomString(random,30));
+            char[] cs = randomString(random,500).toCharArray();
+            ProcessLMCursor cursor = lm.cursor();
+            for (int i = 0; i < cs.length; ++i) {
+                double estimate = lm.log2ConditionalEstimate(cs,0,i+1);
+                assertEquals(estimate,cursor.log2ConditionalEstimate(cs[i]),0.0);
+                assertEquals(estimate,cursor.next(cs[i]),0.0);
+            }
+            assertEquals(cs.length,cursor.numChars());
+            assertEquals(lm.log2Estimate(cs,0,cs.length),cursor.log2Estimate(),0.0);
+
+            cursor.reset();
+            assertEquals(0L,cursor.numChars());
+            assertEquals(0.0,cursor.log2Estimate(),0.0);
+            assertEquals(lm.log2Estimate(cs,0,10),cursor.next(cs,0,10),0.0);
+        }
+    }
+
+    @Test
+    public void testCursorTraining() {
+        NGramProcessLM lm = new NGramProcessLM(3,32);
+        lm.train("abcabc");
+        ProcessLMCursor cursor = lm.cursor();
+        cursor.next("ab".toCharArray(),0,2);
+        lm.train("abd");
+        assertEquals(lm.log2ConditionalEstimate("abd"),
+                     cursor.log2ConditionalEstimate('d'),0.0);
+    }
+
+    static String randomString(Random random, int maxLength) {
+        int length = random.nextInt(maxLength);
+        char[] cs = new char[length];
+        for (int i = 0; i < length; ++i)
+            cs[i] = (char) ('a' + random.nextInt(6));
+        return new String(cs);
+    }
+
 }
@@ -0,0 +1,195 @@
+package com.aliasi.test.unit.lm;
+
+import org.junit.Test;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+import static org.junit.Assert.assertArrayEquals;
+
+import com.aliasi.lm.NGramProcessLM;
+import com.aliasi.lm.ShardedTrieCharSeqCounter;
+import com.aliasi.lm.TrieCharSeqCounter;
+
+import com.aliasi.util.Files;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+
+import java.util.Random;
+
+public class ShardedTrieCharSeqCounterTest  {
+
+    @Test
+    public void testThreads() throws InterruptedException, IOException {
+        final String[] texts = new String[1000];
+        Random random = new Random(7);
+        for (int i = 0; i < texts.length; ++i)
+            texts[i] = randomString(random,40);
+        TrieCharSeqCounter counter = new TrieCharSeqCounter(4);
+        for (String text : texts)
+            counter.incrementSubstrings(text);
+
+        File dir = createTempDir();
+        try {
+            final ShardedTrieCharSeqCounter shardedCounter
+                = new ShardedTrieCharSeqCounter(4,dir,2000L);
+            Thread[] threads = new Thread[3];
+            for (int t = 0; t < threads.length; ++t) {
+                final int offset = t;
+                threads[t] = new Thread(new Runnable() {
+                        public void run() {
+                            for (int i = offset; i < texts.length; i += 3)
+                                shardedCounter.handle(texts[i]);
+                        }
+                    });
+                threads[t].start();
+            }
+            for (Thread thread : threads)
+                thread.join();
+            assertTrue(shardedCounter.numSpilledShards() > 3);
+            TrieCharSeqCounter merged = shardedCounter.merge(1L);
+            assertArrayEquals(bytes(counter),bytes(merged));
+            assertEquals(0,dir.listFiles().length);
+            assertEquals(0,shardedCounter.numSpilledShards());
+
+            NGramProcessLM lm = new NGramProcessLM(128,4.0,counter);
+            NGramProcessLM mergedLm = new NGramProcessLM(128,4.0,merged);
+            for (int i = 0; i < 50; ++i) {
+                String s = randomString(random,20);
+                assertEquals(lm.log2Estimate(s),mergedLm.log2Estimate(s),0.0);
+            }
+        } finally {
+            Files.removeRecursive(dir);
+        }
+    }
+
+    @Test
+    public void testPrune() throws IOException {
+        Random random = new Random(11);
+        TrieCharSeqCounter counter = new TrieCharSeqCounter(3);
+        File dir = createTempDir();
+        try {
+            ShardedTrieCharSeqCounter shardedCounter
+                = new ShardedTrieCharSeqCounter(3,dir,100L);
+            for (int i = 0; i < 200; ++i) {
+                String text = randomString(random,20);
+                counter.incrementSubstrings(text);
+                shardedCounter.incrementSubstrings(text);
+            }
+            counter.prune(3);
+            assertArrayEquals(bytes(counter),bytes(shardedCounter.merge(3L)));
+        } finally {
+            Files.removeRecursive(dir);
+        }
+    }
+
+    @Test
+    public void testMergeCompact() throws IOException {
+        Random random = new Random(13);
+        TrieCharSeqCounter counter = new TrieCharSeqCounter(4);
+        File dir = createTempDir();
+        try {
+            ShardedTrieCharSeqCounter shardedCounter
+                = new ShardedTrieCharSeqCounter(4,dir,100L);
+            for (int i = 0; i < 200; ++i) {
+                String text = randomString(random,20);
+                counter.incrementSubstrings(text);
+                shardedCounter.incrementSubstrings(text);
+            }
+            counter.prune(2);
+            TrieCharSeqCounter merged = shardedCounter.mergeCompact(2L);
+            assertArrayEquals(bytes(counter),bytes(merged));
+            assertEquals(counter.uniqueSequenceCount(),merged.uniqueSequenceCount());
+            assertEquals(0,dir.listFiles().length);
+            assertEquals(1L,shardedCounter.mergeCompact(1L).uniqueSequenceCount());
+        } finally {
+            Files.removeRecursive(dir);
+        }
+    }
+
+    @Test
+    public void testEmpty() throws IOException {
+        File dir = createTempDir();
+        try {
+            ShardedTrieCharSeqCounter shardedCounter
+                = new ShardedTrieCharSeqCounter(3,dir,100L);
+            assertEquals(1L,shardedCounter.merge(1L).uniqueSequenceCount());
+        } finally {
+            Files.removeRecursive(dir);
+        }
+    }
+
+    @Test
+    public void testFailedMergeKeepsCounts() throws IOException {
+        Random random = new Random(17);
+        TrieCharSeqCounter counter = new TrieCharSeqCounter(3);
+        File dir = createTempDir();
+        try {
+            ShardedTrieCharSeqCounter shardedCounter
+                = new ShardedTrieCharSeqCounter(3,dir,100L);
+            for (int i = 0; i < 50; ++i) {
+                String text = randomString(random,20);
+                counter.incrementSubstrings(text);
+                shardedCounter.incrementSubstrings(text);
+            }
+            int numSpilled = shardedCounter.numSpilledShards();
+            assertTrue(numSpilled > 0);
+            try {
+                shardedCounter.merge(-1L);
+                fail();
+            } catch (IllegalArgumentException e) {
+                /* expected */
+            }
+            assertEquals(numSpilled,shardedCounter.numSpilledShards());
+
+            // make a spilled file unreadable
+            File[] files = dir.listFiles();
+            File corrupt = files[0];
+            byte[] original = Files.readBytesFromFile(corrupt);
+            Files.writeBytesToFile(new byte[0],corrupt);
+            try {
+                shardedCounter.merge(1L);
+                fail();
+            } catch (Exception e) {
+                /* expected */
+            }
+            assertTrue(corrupt.exists());
+            assertEquals(dir.listFiles().length,shardedCounter.numSpilledShards());
+
+            Files.writeBytesToFile(original,corrupt);
+            assertArrayEquals(bytes(counter),bytes(shardedCounter.merge(1L)));
+            assertEquals(0,dir.listFiles().length);
+        } finally {
+            Files.removeRecursive(dir);
+        }
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testExc() {
+        new ShardedTrieCharSeqCounter(3,new File("/no/such/dir/xyz"),100L);
+    }
+
+    static File createTempDir() throws IOException {
+        File dir = File.createTempFile("shards","");
+        dir.delete();
+        dir.mkdir();
+        return dir;
+    }
+
+    static byte[] bytes(TrieCharSeqCounter counter) throws IOException {
+        ByteArrayOutputStream bytesOut = new ByteArrayOutputStream();
+        counter.writeTo(bytesOut);
+        return bytesOut.toByteArray();
+    }
+
+    static String randomString(Random random, int maxLength) {
+        int length = random.nextInt(maxLength);
+        char[] cs = new char[length];
+        for (int i = 0; i < length; ++i)
+            cs[i] = (char) ('a' + random.nextInt(5));
+        return new String(cs);
+    }
+
+}
@@ -13,12 +13,15 @@ import com.aliasi.io.BitOutput;
 
 import com.aliasi.lm.BitTrieReader;
 import com.aliasi.lm.BitTrieWriter;
+import com.aliasi.lm.NGramProcessLM;
 import com.aliasi.lm.TrieCharSeqCounter;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 
+import java.util.Random;
+
 
 public class TrieCharSeqCounterTest  {
 
@@ -644,6 +647,118 @@ public class TrieCharSeqCounterTest  {
     assertEqualsBytes(bytes,bytes2);
     }
 
+    @Test
+    public void testCompact() throws IOException {
+        for (int maxLength = 0; maxLength <= 6; ++maxLength) {
+            Random random = new Random(maxLength);
+            TrieCharSeqCounter counter = new TrieCharSeqCounter(maxLength);
+            for (int i = 0; i < 200; ++i)
+                counter.incrementSubstrings(randomString(random,30));
+            counter.incrementSubstrings("aaaaaaaaaa",300); // overflow counts
+            TrieCharSeqCounter compactCounter = readCounter(writeCounter(counter));
+            compactCounter.compact();
+            assertCompactEquals(counter,compactCounter,maxLength,random);
+
+            // train after compaction
+            for (int i = 0; i < 50; ++i) {
+                String s = randomString(random,30);
+                counter.incrementSubstrings(s);
+                compactCounter.incrementSubstrings(s);
+            }
+            if (maxLength >= 3) {
+                counter.decrementSubstrings("aaa".toCharArray(),0,3);
+                compactCounter.decrementSubstrings("aaa".toCharArray(),0,3);
+            }
+            assertCompactEquals(counter,compactCounter,maxLength,random);
+
+            counter.prune(3);
+            compactCounter.prune(3);
+            assertCompactEquals(counter,compactCounter,maxLength,random);
+        }
+    }
+
+    @Test
+    public void testReadCompact() throws IOException {
+        TrieCharSeqCounter[] counters = new TrieCharSeqCounter[6];
+        for (int n = 0; n < counters.length; ++n)
+            counters[n] = new TrieCharSeqCounter(n);
+        Random random = new Random(42);
+        for (int i = 0; i < 200; ++i) {
+            String s = randomString(random,30);
+            for (TrieCharSeqCounter counter : counters)
+                counter.incrementSubstrings(s,i+1);
+        }
+        byte[] bytes = writeCounter(counters[counters.length-1]);
+        for (int n = 1; n < counters.length; ++n) {
+            BitInput bitIn = new BitInput(new ByteArrayInputStream(bytes));
+            bitIn.readDelta(); // max n-gram plus one
+            TrieCharSeqCounter compactCounter
+                = TrieCharSeqCounter.readCompactCounter(new BitTrieReader(bitIn),n);
+            assertCompactEquals(counters[n],compactCounter,n,random);
+        }
+    }
+
+    @Test
+    public void testCompactLM() {
+        Random random = new Random(7);
+        NGramProcessLM lm = new NGramProcessLM(5,128);
+        NGramProcessLM compactLm = new NGramProcessLM(5,128);
+        for (int i = 0; i < 500; ++i) {
+            String s = randomString(random,40);
+            lm.train(s);
+            compactLm.train(s);
+        }
+        compactLm.substringCounter().compact();
+        for (int i = 0; i < 100; ++i) {
+            String s = randomString(random,40);
+            assertEquals(lm.log2Estimate(s),compactLm.log2Estimate(s),0.0);
+        }
+    }
+
+    static void assertCompactEquals(TrieCharSeqCounter expected,
+                                    TrieCharSeqCounter found,
+                                    int maxLength, Random random)
+        throws IOException {
+
+        assertArrayEquals(writeCounter(expected),writeCounter(found));
+        assertEquals(expected.uniqueSequenceCount(),found.uniqueSequenceCount());
+        assertEquals(expected.totalSequenceCount(),found.totalSequenceCount());
+        assertArrayEquals(expected.observedCharacters(),found.observedCharacters());
+        for (int n = 0; n <= 4; ++n)
+            assertEquals(expected.uniqueSequenceCount(n),found.uniqueSequenceCount(n));
+        for (int n = 1; n <= Math.min(4,maxLength); ++n)
+            assertArrayEquals(expected.nGramFrequencies(n),found.nGramFrequencies(n));
+        for (int i = 0; i < 100; ++i) {
+            char[] cs = randomString(random,6).toCharArray();
+            assertEquals(expected.count(cs,0,cs.length),
+                         found.count(cs,0,cs.length));
+            assertEquals(expected.extensionCount(cs,0,cs.length),
+                         found.extensionCount(cs,0,cs.length));
+            assertEquals(expected.numCharactersFollowing(cs,0,cs.length),
+                         found.numCharactersFollowing(cs,0,cs.length));
+            assertArrayEquals(expected.charactersFollowing(cs,0,cs.length),
+                              found.charactersFollowing(cs,0,cs.length));
+        }
+    }
+
+    static byte[] writeCounter(TrieCharSeqCounter counter) throws IOException {
+        ByteArrayOutputStream bytesOut = new ByteArrayOutputStream();
+        counter.writeTo(bytesOut);
+        return bytesOut.toByteArray();
+    }
+
+    static TrieCharSeqCounter readCounter(byte[] bytes) throws IOException {
+        return TrieCharSeqCounter.readFrom(new ByteArrayInputStream(bytes));
+    }
+
+    static String randomString(Random random, int maxLength) {
+        int length = random.nextInt(maxLength);
+        char[] cs = new char[length];
+        for (int i = 0; i < length; ++i)
+            cs[i] = (char) ('a' + random.nextInt(5));
+        return new String(cs);
+    }
+
     void assertEqualsBytes(byte[] bytes, byte[] bytes2) {
     assertEquals("length",bytes.length,bytes2.length);
     for (int i = 0; i < bytes2.length; ++i)
@@ -23,6 +23,9 @@ import com.aliasi.util.AbstractExternalizable;
 
 import java.io.IOException;
 
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
 public class LogisticRegressionTest  {
 
     // WALLET example from:
@@ -567,4 +570,92 @@ public class LogisticRegressionTest  {
 
 
     }
+
+    @Test
+    public void testParallelEstimation() {
+        Vector[] data_matrix = sparseCopy(walletMatrix());
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            LogisticRegression regression
+                = estimateParallel(data_matrix,executor,4);
+            Vector[] vs = regression.weightVectors();
+            for (int i = 0; i < vs.length; ++i)
+                for (int j = 0; j < vs[i].numDimensions(); ++j)
+                    assertEquals(WALLET_EXPECTED_FEATURES[i][j],vs[i].value(j),0.1);
+
+            // single worker matches sequential estimator exactly
+            LogisticRegression sequential
+                = LogisticRegression.estimate(data_matrix,
+                                              WALLET_OUTCOME_VECTOR,
+                                              RegressionPrior.gaussian(5.0,true),
+                                              3,null,
+                                              AnnealingSchedule.inverse(0.05,100),
+                                              Double.NaN,5,1,20,null,null);
+            LogisticRegression singleWorker
+                = LogisticRegression.estimate(data_matrix,
+                                              WALLET_OUTCOME_VECTOR,
+                                              RegressionPrior.gaussian(5.0,true),
+                                              3,null,
+                                              AnnealingSchedule.inverse(0.05,100),
+                                              Double.NaN,5,1,20,null,
+                                              executor,1,null);
+            assertSameWeights(sequential,singleWorker);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testPartitionsWithoutExecutor() {
+        Vector[] data_matrix = walletMatrix();
+        // without an executor, partitions run in turn, so are deterministic
+        LogisticRegression regression1 = estimateParallel(data_matrix,null,3);
+        LogisticRegression regression2 = estimateParallel(data_matrix,null,3);
+        assertSameWeights(regression1,regression2);
+        Vector[] vs = regression1.weightVectors();
+        for (int i = 0; i < vs.length; ++i)
+            for (int j = 0; j < vs[i].numDimensions(); ++j)
+                assertEquals(WALLET_EXPECTED_FEATURES[i][j],vs[i].value(j),0.1);
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testNumWorkersExc() {
+        estimateParallel(walletMatrix(),null,0);
+    }
+
+    static Vector[] walletMatrix() {
+        Vector[] data_matrix = new Vector[WALLET_DATA_MATRIX.length];
+        for (int i = 0; i < data_matrix.length; ++i)
+            data_matrix[i] = new DenseVector(WALLET_DATA_MATRIX[i]);
+        return data_matrix;
+    }
+
+    static LogisticRegression estimateParallel(Vector[] data_matrix,
+                                               ExecutorService executor,
+                                               int numWorkers) {
+        return LogisticRegression.estimate(data_matrix,
+                                           WALLET_OUTCOME_VECTOR,
+                                           RegressionPrior.noninformative(),
+                                           3, // block size
+                                           null, // hot start
+                                           AnnealingSchedule.inverse(0.05,100),
+                                           0.00001, // min improve
+                                           5, // rolling avg size
+                                           10, // min epochs
+                                           500000, // max epochs
+                                           null, // handler
+                                           executor,
+                                           numWorkers,
+                                           null); // reporter
+    }
+
+    static void assertSameWeights(LogisticRegression expected,
+                                  LogisticRegression found) {
+        Vector[] vs1 = expected.weightVectors();
+        Vector[] vs2 = found.weightVectors();
+        assertEquals(vs1.length,vs2.length);
+        for (int i = 0; i < vs1.length; ++i)
+            for (int j = 0; j < vs1[i].numDimensions(); ++j)
+                assertEquals(vs1[i].value(j),vs2[i].value(j),0.0);
+    }
 }
@@ -0,0 +1,111 @@
+package com.aliasi.test.unit.symbol;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.aliasi.features.Features;
+import com.aliasi.matrix.Vector;
+import com.aliasi.symbol.HashSymbolTable;
+import com.aliasi.util.AbstractExternalizable;
+
+public class HashSymbolTableTest  {
+
+    @Test
+    public void testIds() {
+        HashSymbolTable table = new HashSymbolTable(4,false);
+        assertEquals(4,table.numBits());
+        assertEquals(17,table.numSymbols());
+        for (int i = 0; i < 1000; ++i) {
+            String symbol = "sym" + i;
+            int id = table.symbolToID(symbol);
+            assertTrue(id >= 1);
+            assertTrue(id < table.numSymbols());
+            assertEquals(id,table.symbolToID(symbol));
+            assertEquals(id,table.getOrAddSymbol(symbol));
+            assertEquals(id,table.signedSymbolToID(symbol));
+        }
+        assertEquals("#3",table.idToSymbol(3));
+    }
+
+    @Test
+    public void testSigned() {
+        HashSymbolTable unsigned = new HashSymbolTable(10,false);
+        HashSymbolTable signed = new HashSymbolTable(10,true);
+        int numNegative = 0;
+        for (int i = 0; i < 1000; ++i) {
+            String symbol = "sym" + i;
+            int id = signed.signedSymbolToID(symbol);
+            assertEquals(unsigned.symbolToID(symbol),Math.abs(id));
+            assertEquals(signed.symbolToID(symbol),Math.abs(id));
+            if (id < 0) ++numNegative;
+        }
+        assertTrue(numNegative > 400);
+        assertTrue(numNegative < 600);
+    }
+
+    @Test
+    public void testToVector() {
+        HashSymbolTable table = new HashSymbolTable(2,true);
+        Map<String,Double> features = new HashMap<String,Double>();
+        double[] expected = new double[table.numSymbols()];
+        for (int i = 0; i < 20; ++i) {
+            String symbol = "f" + i;
+            features.put(symbol,(double) i);
+            int id = table.signedSymbolToID(symbol);
+            expected[Math.abs(id)] += id < 0 ? -i : i;
+        }
+        Vector v = Features.toVector(features,table,table.numSymbols(),false);
+        for (int d = 0; d < expected.length; ++d)
+            assertEquals(expected[d],v.value(d),0.0001);
+
+        expected[0] = 1.0;
+        v = Features.toVector(features,table,table.numSymbols(),true);
+        for (int d = 0; d < expected.length; ++d)
+            assertEquals(expected[d],v.value(d),0.0001);
+    }
+
+    @Test
+    public void testSerialize() throws IOException, ClassNotFoundException {
+        HashSymbolTable table = new HashSymbolTable(12,true);
+        HashSymbolTable table2
+            = (HashSymbolTable) AbstractExternalizable.serializeDeserialize(table);
+        assertEquals(12,table2.numBits());
+        assertTrue(table2.signed());
+        for (int i = 0; i < 100; ++i)
+            assertEquals(table.signedSymbolToID("sym" + i),
+                         table2.signedSymbolToID("sym" + i));
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testBitsLowExc() {
+        new HashSymbolTable(0,false);
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testBitsHighExc() {
+        new HashSymbolTable(HashSymbolTable.MAX_NUM_BITS + 1,false);
+    }
+
+    @Test(expected=IndexOutOfBoundsException.class)
+    public void testIdExc() {
+        HashSymbolTable table = new HashSymbolTable(3,false);
+        table.idToSymbol(table.numSymbols());
+    }
+
+    @Test(expected=UnsupportedOperationException.class)
+    public void testRemoveExc() {
+        new HashSymbolTable(3,false).removeSymbol("foo");
+    }
+
+    @Test(expected=UnsupportedOperationException.class)
+    public void testClearExc() {
+        new HashSymbolTable(3,false).clear();
+    }
+
+}
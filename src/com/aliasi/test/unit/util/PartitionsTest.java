@@ -0,0 +1,83 @@
+package com.aliasi.test.unit.util;
+
+import org.junit.Test;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertSame;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+
+import com.aliasi.util.Partitions;
+
+import java.util.Arrays;
+import java.util.List;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+public class PartitionsTest  {
+
+    @Test
+    public void testSequential() {
+        assertPartitions(null);
+    }
+
+    @Test
+    public void testParallel() {
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            assertPartitions(executor);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    void assertPartitions(ExecutorService executor) {
+        List<String> ranges
+            = Partitions.forEachPartition(10,3,executor,"test",RANGE_TASK);
+        assertEquals(Arrays.asList("0:0-3","1:3-6","2:6-10"),ranges);
+
+        // more partitions than items
+        ranges = Partitions.forEachPartition(2,5,executor,"test",RANGE_TASK);
+        assertEquals(Arrays.asList("0:0-1","1:1-2"),ranges);
+
+        ranges = Partitions.forEachPartition(0,5,executor,"test",RANGE_TASK);
+        assertTrue(ranges.isEmpty());
+    }
+
+    @Test
+    public void testRethrow() {
+        final IllegalArgumentException thrown = new IllegalArgumentException();
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Partitions.forEachPartition(4,2,executor,"test",
+                                        new Partitions.Task<Void>() {
+                    public Void run(int partition, int start, int end) {
+                        if (partition == 1)
+                            throw thrown;
+                        return null;
+                    }
+                });
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertSame(thrown,e);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testStart() {
+        assertEquals(0,Partitions.start(0,7,2));
+        assertEquals(3,Partitions.start(1,7,2));
+        assertEquals(7,Partitions.start(2,7,2));
+    }
+
+    static final Partitions.Task<String> RANGE_TASK
+        = new Partitions.Task<String>() {
+            public String run(int partition, int start, int end) {
+                return partition + ":" + start + "-" + end;
+            }
+        };
+
+}
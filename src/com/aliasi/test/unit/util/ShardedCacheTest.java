@@ -0,0 +1,144 @@
+package com.aliasi.test.unit.util;
+
+import org.junit.Test;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+
+import com.aliasi.util.ShardedCache;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class ShardedCacheTest  {
+
+    @Test
+    public void testBasics() {
+        ShardedCache<String,Integer> cache = new ShardedCache<String,Integer>(100,4);
+        assertEquals(100,cache.maxEntries());
+        assertEquals(4,cache.numShards());
+        assertEquals(0,cache.size());
+        assertNull(cache.put("a",1));
+        assertNull(cache.put("b",2));
+        assertEquals(Integer.valueOf(1),cache.put("a",3));
+        assertEquals(2,cache.size());
+        assertEquals(Integer.valueOf(3),cache.get("a"));
+        assertNull(cache.get("c"));
+        assertTrue(cache.containsKey("b"));
+        assertFalse(cache.containsKey("c"));
+        assertEquals(1L,cache.numHits());
+        assertEquals(1L,cache.numMisses());
+        assertEquals(2,cache.entrySet().size());
+        assertEquals(Integer.valueOf(2),cache.remove("b"));
+        assertEquals(1,cache.size());
+        cache.resetCounts();
+        assertEquals(0L,cache.numHits());
+        assertEquals(0L,cache.numMisses());
+        cache.clear();
+        assertEquals(0,cache.size());
+    }
+
+    @Test
+    public void testShardRounding() {
+        assertEquals(8,new ShardedCache<String,String>(100,5).numShards());
+        assertEquals(1,new ShardedCache<String,String>(1).numShards());
+        assertEquals(4,new ShardedCache<String,String>(6).numShards());
+        assertEquals(ShardedCache.DEFAULT_NUM_SHARDS,
+                     new ShardedCache<String,String>(1000).numShards());
+    }
+
+    @Test
+    public void testLru() {
+        ShardedCache<Integer,Integer> cache = new ShardedCache<Integer,Integer>(3,1);
+        cache.put(1,1);
+        cache.put(2,2);
+        cache.put(3,3);
+        cache.get(1);  // 2 is now least recent
+        cache.put(4,4);
+        assertEquals(3,cache.size());
+        assertTrue(cache.containsKey(1));
+        assertFalse(cache.containsKey(2));
+        assertTrue(cache.containsKey(3));
+        assertTrue(cache.containsKey(4));
+    }
+
+    @Test
+    public void testBounded() {
+        Random random = new Random(42);
+        ShardedCache<Integer,Integer> cache = new ShardedCache<Integer,Integer>(50,8);
+        for (int i = 0; i < 10000; ++i) {
+            cache.put(random.nextInt(1000),i);
+            assertTrue(cache.size() <= 50);
+        }
+    }
+
+    @Test
+    public void testConcurrent() throws Exception {
+        final ShardedCache<Integer,Integer> cache
+            = new ShardedCache<Integer,Integer>(200,8);
+        int numThreads = 4;
+        final int numOps = 20000;
+        ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+        try {
+            List<Callable<Integer>> tasks = new ArrayList<Callable<Integer>>();
+            for (int t = 0; t < numThreads; ++t) {
+                final int seed = t;
+                tasks.add(new Callable<Integer>() {
+                        public Integer call() {
+                            Random random = new Random(seed);
+                            int errors = 0;
+                            for (int i = 0; i < numOps; ++i) {
+                                Integer key = random.nextInt(500);
+                                Integer value = cache.get(key);
+                                if (value == null)
+                                    cache.put(key,-key);
+                                else if (value.intValue() != -key)
+                                    ++errors;
+                            }
+                            return errors;
+                        }
+                    });
+            }
+            for (Future<Integer> future : executor.invokeAll(tasks))
+                assertEquals(Integer.valueOf(0),future.get());
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(4L * numOps,cache.numHits() + cache.numMisses());
+        assertTrue(cache.size() <= 200);
+        for (Map.Entry<Integer,Integer> entry : cache.entrySet())
+            assertEquals(-entry.getKey(),entry.getValue().intValue());
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testMaxEntriesExc() {
+        new ShardedCache<String,String>(0);
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testShardsExc() {
+        new ShardedCache<String,String>(10,0);
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testTooManyShardsExc() {
+        new ShardedCache<String,String>(10,16);
+    }
+
+    @Test(expected=UnsupportedOperationException.class)
+    public void testEntrySetUnmodifiable() {
+        ShardedCache<String,String> cache = new ShardedCache<String,String>(10);
+        cache.put("a","b");
+        cache.entrySet().clear();
+    }
+
+}
@@ -16,10 +16,12 @@
 
 package com.aliasi.tokenizer;
 
+import com.aliasi.features.FeatureSink;
+import com.aliasi.features.PrimitiveFeatureExtractor;
+
 import com.aliasi.util.AbstractExternalizable;
 import com.aliasi.util.Compilable;
 import com.aliasi.util.Counter;
-import com.aliasi.util.FeatureExtractor;
 import com.aliasi.util.ObjectToCounterMap;
 import com.aliasi.util.Strings;
 
@@ -34,6 +36,11 @@ import java.io.Serializable;
  * A <code>TokenFeatureExtractor</code> produces feature vectors from
  * character sequences representing token counts.
  *
+ * <p>Token feature extractors implement {@link
+ * PrimitiveFeatureExtractor}, sending each token to a feature sink
+ * with value 1.0 as it is found, which avoids building the map of
+ * counts.
+ *
  * <h3>Serialization</h3>
  *
  * <p>The token feature extractors implement the {@link Serializable}
@@ -44,11 +51,11 @@ import java.io.Serializable;
  * feature extractor will throw an exception.
  *
  * @author  Bob Carpenter
- * @version 3.8
+ * @version 4.1.0
  * @since   LingPipe3.1
  */
 public class TokenFeatureExtractor
-    implements FeatureExtractor<CharSequence>,
+    implements PrimitiveFeatureExtractor<CharSequence>,
                Serializable {
 
 
@@ -84,6 +91,21 @@ public class TokenFeatureExtractor
         return map;
     }
 
+    /**
+     * Send each token in the specified character sequence to the
+     * specified sink with value 1.0.
+     *
+     * @param in Character sequence from which to extract features.
+     * @param sink Sink to which tokens are sent.
+     */
+    public void features(CharSequence in, FeatureSink sink) {
+        char[] cs = Strings.toCharArray(in);
+        Tokenizer tokenizer = mTokenizerFactory.tokenizer(cs,0,cs.length);
+        String token;
+        while ((token = tokenizer.nextToken()) != null)
+            sink.add(token,1.0);
+    }
+
     /**
      * Returns a description of this token feature extractor including
      * its contained tokenizer factory.  This method calls the {@code
@@ -0,0 +1,155 @@
+/*
+ * LingPipe v. 4.1.0
+ * Copyright (C) 2003-2011 Alias-i
+ *
+ * This program is licensed under the Alias-i Royalty Free License
+ * Version 1 WITHOUT ANY WARRANTY, without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the Alias-i
+ * Royalty Free License Version 1 for more details.
+ *
+ * You should have received a copy of the Alias-i Royalty Free License
+ * Version 1 along with this program; if not, visit
+ * http://alias-i.com/lingpipe/licenses/lingpipe-license-1.txt or contact
+ * Alias-i, Inc. at 181 North 11th Street, Suite 401, Brooklyn, NY 11211,
+ * +1 (718) 290-9170.
+ */
+
+package com.aliasi.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Static utility methods for running a task over contiguous
+ * partitions of a range of items, optionally in parallel.  These
+ * support the multi-threaded estimators and scorers, which all split
+ * their work the same way and report worker failures the same way.
+ *
+ * <p>The range <code>[0,numItems)</code> is divided into contiguous
+ * partitions whose sizes differ by at most one, with partition
+ * <code>p</code> of <code>n</code> running from {@link
+ * #start(int,int,int) start(p,numItems,n)} to
+ * <code>start(p+1,numItems,n)</code>.
+ *
+ * @author  Bob Carpenter
+ * @version 4.1.0
+ * @since   LingPipe4.1.0
+ */
+public class Partitions {
+
+    // disallow instances
+    private Partitions() {
+        /* no instances */
+    }
+
+    /**
+     * Run the specified task on each partition of the items and
+     * return the results in partition order.  The number of
+     * partitions is reduced to the number of items if it is larger.
+     * If the executor is <code>null</code> or there are fewer than
+     * two partitions, the partitions are run in order in the calling
+     * thread; otherwise, each partition is submitted to the executor
+     * and this method blocks until all of them have completed.
+     *
+     * <p>A runtime exception or error thrown by the task is rethrown
+     * as is.  If the calling thread is interrupted while waiting, its
+     * interrupt status is restored and an illegal state exception is
+     * thrown.  The activity is used in the messages of exceptions
+     * thrown by this method.
+     *
+     * @param numItems Number of items to partition.
+     * @param numPartitions Maximum number of partitions.
+     * @param executor Executor with which to run partitions, or
+     * <code>null</code> to run them in the calling thread.
+     * @param activity Description of the work for error messages.
+     * @param task Task to run on each partition.
+     * @param <R> Type of result returned by the task.
+     * @return List of the results of the task on each partition.
+     * @throws IllegalStateException If the calling thread is
+     * interrupted or the task throws a checked exception.
+     */
+    public static <R> List<R> forEachPartition(int numItems,
+                                               int numPartitions,
+                                               ExecutorService executor,
+                                               String activity,
+                                               final Task<R> task) {
+        final int n = java.lang.Math.max(0,java.lang.Math.min(numPartitions,numItems));
+        List<R> results = new ArrayList<R>(n);
+        if (executor == null || n < 2) {
+            for (int p = 0; p < n; ++p)
+                results.add(task.run(p,
+                                     start(p,numItems,n),
+                                     start(p+1,numItems,n)));
+            return results;
+        }
+        List<Callable<R>> callables = new ArrayList<Callable<R>>(n);
+        for (int p = 0; p < n; ++p) {
+            final int partition = p;
+            final int start = start(p,numItems,n);
+            final int end = start(p+1,numItems,n);
+            callables.add(new Callable<R>() {
+                    public R call() {
+                        return task.run(partition,start,end);
+                    }
+                });
+        }
+        try {
+            for (Future<R> future : executor.invokeAll(callables))
+                results.add(future.get());
+            return results;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            String msg = "Interrupted during " + activity + ".";
+            throw new IllegalStateException(msg,e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            if (cause instanceof Error)
+                throw (Error) cause;
+            String msg = "Exception during " + activity + "=" + cause;
+            throw new IllegalStateException(msg,cause);
+        }
+    }
+
+    /**
+     * Returns the first item in the specified partition of the
+     * items.  The last item of the partition is one less than the
+     * start of the next partition.
+     *
+     * @param partition Index of partition.
+     * @param numItems Number of items partitioned.
+     * @param numPartitions Number of partitions.
+     * @return Index of the first item in the partition.
+     */
+    public static int start(int partition, int numItems, int numPartitions) {
+        return (int) ((long) partition * numItems / numPartitions);
+    }
+
+    /**
+     * A <code>Partitions.Task</code> computes a result for a
+     * contiguous range of items.
+     *
+     * @param <R> Type of result.
+     */
+    public interface Task<R> {
+
+        /**
+         * Return the result of running this task on the items from
+         * the start (inclusive) to the end (exclusive).
+         *
+         * @param partition Index of the partition.
+         * @param start First item in the partition.
+         * @param end One past the last item in the partition.
+         * @return Result for the partition.
+         */
+        R run(int partition, int start, int end);
+
+    }
+
+}
@@ -0,0 +1,348 @@
+/*
+ * LingPipe v. 4.1.0
+ * Copyright (C) 2003-2011 Alias-i
+ *
+ * This program is licensed under the Alias-i Royalty Free License
+ * Version 1 WITHOUT ANY WARRANTY, without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the Alias-i
+ * Royalty Free License Version 1 for more details.
+ *
+ * You should have received a copy of the Alias-i Royalty Free License
+ * Version 1 along with this program; if not, visit
+ * http://alias-i.com/lingpipe/licenses/lingpipe-license-1.txt or contact
+ * Alias-i, Inc. at 181 North 11th Street, Suite 401, Brooklyn, NY 11211,
+ * +1 (718) 290-9170.
+ */
+
+
+package com.aliasi.util;
+
+import java.util.AbstractMap;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A <code>ShardedCache</code> is a bounded map divided into
+ * independently locked shards, each of which evicts its least
+ * recently used entry when full.  It is intended as a cache shared
+ * by many threads, such as the emission cache of an {@link
+ * com.aliasi.hmm.HmmDecoder}.
+ *
+ * <p>Keys are assigned to shards by a mixing function applied to
+ * their hash codes.  Each shard is an access-ordered linked hash map
+ * guarded by its own lock, so threads only contend when they look up
+ * keys in the same shard.  The maximum number of entries is divided
+ * as evenly as possible among the shards, and a shard that exceeds
+ * its share removes its least recently accessed entry.  Thus the
+ * cache never holds more than the maximum number of entries
+ * specified at construction, though it may evict an entry before the
+ * cache as a whole is full if the keys are unevenly spread over the
+ * shards.
+ *
+ * <p>Unlike {@link FastCache}, mappings are not held through soft
+ * references and are never dropped other than by eviction, and a put
+ * always replaces an existing value.
+ *
+ * <h3>Hit and Miss Counts</h3>
+ *
+ * Every call to {@link #get(Object)} is counted as a hit if it
+ * returns a non-<code>null</code> value and as a miss otherwise.  The
+ * counts are kept per shard under the shard's lock and summed by
+ * {@link #numHits()} and {@link #numMisses()}; they may be reset with
+ * {@link #resetCounts()}.  Other methods, such as {@link
+ * #containsKey(Object)}, are not counted and do not affect the
+ * recency of entries.
+ *
+ * <h3>Iteration</h3>
+ *
+ * The entry set is a snapshot of the mappings taken shard by shard
+ * when {@link #entrySet()} is called.  It does not reflect later
+ * changes to the cache, and it may not be used to modify the cache.
+ *
+ * <h3>Thread Safety</h3>
+ *
+ * A sharded cache is thread safe.  Operations on a single key are
+ * atomic, whereas operations on the cache as a whole, such as {@link
+ * #size()} and {@link #clear()}, visit the shards one at a time.
+ *
+ * @author  Bob Carpenter
+ * @version 4.1.0
+ * @since   LingPipe4.1.0
+ * @param <K> the type of keys in the map
+ * @param <V> the type of values in the map
+ */
+public class ShardedCache<K,V> extends AbstractMap<K,V> {
+
+    private final Shard<K,V>[] mShards;
+    private final int mShardMask;
+    private final int mMaxEntries;
+
+    /**
+     * Construct a sharded cache with the specified maximum number of
+     * entries and the default number of shards, {@value
+     * #DEFAULT_NUM_SHARDS}, or fewer if there are fewer entries.
+     *
+     * @param maxEntries Maximum number of entries in the cache.
+     * @throws IllegalArgumentException If the maximum number of
+     * entries is less than one.
+     */
+    public ShardedCache(int maxEntries) {
+        this(maxEntries,
+             java.lang.Math.max(1,java.lang.Math.min(DEFAULT_NUM_SHARDS,
+                                 Integer.highestOneBit(java.lang.Math.max(1,maxEntries)))));
+    }
+
+    /**
+     * Construct a sharded cache with the specified maximum number of
+     * entries and number of shards.  The number of shards is rounded
+     * up to the nearest power of two, which must not exceed the
+     * maximum number of entries.
+     *
+     * @param maxEntries Maximum number of entries in the cache.
+     * @param numShards Number of independently locked shards.
+     * @throws IllegalArgumentException If the number of shards is
+     * less than one or greater than <code>2<sup>30</sup></code>, or
+     * if the maximum number of entries is less than the number of
+     * shards after rounding.
+     */
+    public ShardedCache(int maxEntries, int numShards) {
+        if (numShards < 1 || numShards > (1 << 30)) {
+            String msg = "Number of shards must be between 1 and 2**30."
+                + " Found numShards=" + numShards;
+            throw new IllegalArgumentException(msg);
+        }
+        int roundedShards = Integer.highestOneBit(numShards);
+        if (roundedShards < numShards)
+            roundedShards <<= 1;
+        if (maxEntries < roundedShards) {
+            String msg = "Require at least one entry per shard."
+                + " Found maxEntries=" + maxEntries
+                + " numShards (rounded up to power of 2)=" + roundedShards;
+            throw new IllegalArgumentException(msg);
+        }
+        mMaxEntries = maxEntries;
+        mShardMask = roundedShards - 1;
+        @SuppressWarnings({"unchecked","rawtypes"})
+        Shard<K,V>[] shards = (Shard<K,V>[]) new Shard[roundedShards];
+        int baseCapacity = maxEntries / roundedShards;
+        int remainder = maxEntries % roundedShards;
+        for (int i = 0; i < roundedShards; ++i)
+            shards[i] = new Shard<K,V>(baseCapacity + (i < remainder ? 1 : 0));
+        mShards = shards;
+    }
+
+    /**
+     * Returns the maximum number of entries this cache will hold.
+     *
+     * @return The maximum number of entries.
+     */
+    public int maxEntries() {
+        return mMaxEntries;
+    }
+
+    /**
+     * Returns the number of shards in this cache.
+     *
+     * @return The number of shards.
+     */
+    public int numShards() {
+        return mShards.length;
+    }
+
+    /**
+     * Returns the number of calls to {@link #get(Object)} that found
+     * a value since construction or the last call to {@link
+     * #resetCounts()}.
+     *
+     * @return The number of cache hits.
+     */
+    public long numHits() {
+        long hits = 0L;
+        for (Shard<K,V> shard : mShards) {
+            synchronized (shard) {
+                hits += shard.mHits;
+            }
+        }
+        return hits;
+    }
+
+    /**
+     * Returns the number of calls to {@link #get(Object)} that did
+     * not find a value since construction or the last call to {@link
+     * #resetCounts()}.
+     *
+     * @return The number of cache misses.
+     */
+    public long numMisses() {
+        long misses = 0L;
+        for (Shard<K,V> shard : mShards) {
+            synchronized (shard) {
+                misses += shard.mMisses;
+            }
+        }
+        return misses;
+    }
+
+    /**
+     * Resets the hit and miss counts to zero without changing the
+     * mappings.
+     */
+    public void resetCounts() {
+        for (Shard<K,V> shard : mShards) {
+            synchronized (shard) {
+                shard.mHits = 0L;
+                shard.mMisses = 0L;
+            }
+        }
+    }
+
+    /**
+     * Returns the value of the specified key, or <code>null</code> if
+     * it is not in the cache, counting the call as a hit or miss.  A
+     * key that is found becomes the most recently used in its shard.
+     *
+     * @param key Mapping key.
+     * @return The value for the specified key.
+     */
+    @Override
+    public V get(Object key) {
+        Shard<K,V> shard = shard(key);
+        synchronized (shard) {
+            V value = shard.get(key);
+            if (value == null)
+                ++shard.mMisses;
+            else
+                ++shard.mHits;
+            return value;
+        }
+    }
+
+    /**
+     * Sets the value of the specified key, evicting the least
+     * recently used entry of the key's shard if the shard is full.
+     *
+     * @param key Mapping key.
+     * @param value New value for the key.
+     * @return The previous value for the key, or <code>null</code> if
+     * there was none.
+     */
+    @Override
+    public V put(K key, V value) {
+        Shard<K,V> shard = shard(key);
+        synchronized (shard) {
+            return shard.put(key,value);
+        }
+    }
+
+    /**
+     * Removes the mapping for the specified key.
+     *
+     * @param key Mapping key.
+     * @return The previous value for the key, or <code>null</code> if
+     * there was none.
+     */
+    @Override
+    public V remove(Object key) {
+        Shard<K,V> shard = shard(key);
+        synchronized (shard) {
+            return shard.remove(key);
+        }
+    }
+
+    /**
+     * Returns <code>true</code> if the specified key is in the cache.
+     * This method is not counted as a hit or miss and does not change
+     * the recency of the key.
+     *
+     * @param key Mapping key.
+     * @return <code>true</code> if the key has a value in the cache.
+     */
+    @Override
+    public boolean containsKey(Object key) {
+        Shard<K,V> shard = shard(key);
+        synchronized (shard) {
+            return shard.containsKey(key);
+        }
+    }
+
+    /**
+     * Returns the number of entries in the cache.
+     *
+     * @return The number of entries.
+     */
+    @Override
+    public int size() {
+        int size = 0;
+        for (Shard<K,V> shard : mShards) {
+            synchronized (shard) {
+                size += shard.size();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Removes all entries from the cache.  The hit and miss counts
+     * are not reset.
+     */
+    @Override
+    public void clear() {
+        for (Shard<K,V> shard : mShards) {
+            synchronized (shard) {
+                shard.clear();
+            }
+        }
+    }
+
+    /**
+     * Returns an unmodifiable snapshot of the entries in this cache.
+     * See the class documentation for details.
+     *
+     * @return A snapshot of the entries in the cache.
+     */
+    @Override
+    public Set<Map.Entry<K,V>> entrySet() {
+        Map<K,V> snapshot = new HashMap<K,V>();
+        for (Shard<K,V> shard : mShards) {
+            synchronized (shard) {
+                snapshot.putAll(shard);
+            }
+        }
+        return Collections.unmodifiableMap(snapshot).entrySet();
+    }
+
+    Shard<K,V> shard(Object key) {
+        if (key == null)
+            return mShards[0];
+        // spread high bits down so shards don't mirror the shard maps' buckets
+        int h = key.hashCode();
+        h ^= (h >>> 16);
+        h *= 0x85EBCA6B;
+        h ^= (h >>> 13);
+        return mShards[h & mShardMask];
+    }
+
+    static class Shard<K,V> extends LinkedHashMap<K,V> {
+        static final long serialVersionUID = -2412389211957612648L;
+        final int mCapacity;
+        long mHits = 0L;
+        long mMisses = 0L;
+        Shard(int capacity) {
+            super(16,0.75f,true);
+            mCapacity = capacity;
+        }
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<K,V> eldest) {
+            return size() > mCapacity;
+        }
+    }
+
+    /**
+     * The default number of shards, {@value}.
+     */
+    public static final int DEFAULT_NUM_SHARDS = 16;
+
+}